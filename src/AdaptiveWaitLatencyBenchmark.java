@@ -0,0 +1,123 @@
+import com.whl.thread.blockingQueue.MyArrayBlockingQueue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: MyArrayBlockingQueue自适应等待的交接延迟对比
+ * @Description:
+ *
+ * 一个生产者按照固定的到达率put消息, 一个消费者take, 每条消息的延迟为 消费者取到它的时间 - 它计划发送的时间
+ * 使用计划发送时间而不是实际put的时间: 生产者被拖慢时, 后面的消息也会记入这段等待, 避免 "协调遗漏" 让结果显得过于乐观
+ *
+ * 对每个到达率分别运行两种队列, 输出p50、p99、p999延迟以及消费者线程占用的CPU比例:
+ *     await:    new MyArrayBlockingQueue<>(capacity), 队列为空时消费者直接await
+ *     adaptive: MyArrayBlockingQueue.withAdaptiveWait(capacity), await之前先按照ADAPTIVE策略空转
+ * 自适应等待的收益只可能出现在低到中等负载、并且生产者与消费者各自拥有一个核心的情况下;
+ * 只有一个核心时, 消费者空转会抢走生产者的时间片, 延迟反而更高
+ *
+ * 运行:
+ *     java -cp out AdaptiveWaitLatencyBenchmark [seconds] [rate1,rate2,...]
+ * 默认每个到达率运行2秒, 到达率为 1000,10000,100000 条/秒
+ */
+public class AdaptiveWaitLatencyBenchmark {
+    private static final int CAPACITY = 1024;//队列容量
+
+    private static final long PARK_THRESHOLD_NANOS = 100_000L;//距离下一次发送超过这个时间时生产者park, 否则忙等
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        long[] rates = args.length > 1 ? Arrays.stream(args[1].split(",")).mapToLong(Long::parseLong).toArray()
+                : new long[]{1_000, 10_000, 100_000};
+        System.out.println("java " + System.getProperty("java.version") + ", cpus " + Runtime.getRuntime().availableProcessors()
+                + ", capacity " + CAPACITY + ", " + seconds + "s per run");
+
+        Supplier<MyArrayBlockingQueue<Long>> await = () -> new MyArrayBlockingQueue<>(CAPACITY);
+        Supplier<MyArrayBlockingQueue<Long>> adaptive = () -> MyArrayBlockingQueue.withAdaptiveWait(CAPACITY);
+        run(await, 10_000, 0.5);
+        run(adaptive, 10_000, 0.5);
+
+        System.out.printf("%10s  %-9s %10s %10s %10s %10s%n", "rate/s", "queue", "p50(us)", "p99(us)", "p999(us)", "consumerCPU");
+        for (long rate : rates) {
+            print(rate, "await", run(await, rate, seconds));
+            print(rate, "adaptive", run(adaptive, rate, seconds));
+        }
+    }
+
+    private static void print(long rate, String name, Result r) {
+        System.out.printf("%,10d  %-9s %10.1f %10.1f %10.1f %10.1f%%%n", rate, name,
+                r.percentile(0.50) / 1e3, r.percentile(0.99) / 1e3, r.percentile(0.999) / 1e3, r.consumerCpu * 100);
+    }
+
+    /**
+     * 一次运行的结果
+     */
+    static final class Result {
+        final long[] latencies;//每条消息的延迟, 单位纳秒, 已排序
+
+        final double consumerCpu;//消费者线程的CPU时间 / 运行时间
+
+        Result(long[] latencies, double consumerCpu) {
+            this.latencies = latencies;
+            this.consumerCpu = consumerCpu;
+        }
+
+        long percentile(double p) {
+            return latencies[Math.min(latencies.length - 1, (int) (latencies.length * p))];
+        }
+    }
+
+    /**
+     * 按照到达率rate运行seconds秒
+     * @param factory
+     * @param rate 每秒发送的消息数
+     * @param seconds
+     * @return
+     * @throws InterruptedException
+     */
+    private static Result run(Supplier<MyArrayBlockingQueue<Long>> factory, long rate, double seconds)
+            throws InterruptedException {
+        MyArrayBlockingQueue<Long> queue = factory.get();
+        int messages = (int) Math.max(1000, rate * seconds);
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long[] latencies = new long[messages];
+        long[] consumerCpuNanos = new long[1];
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = mx.isCurrentThreadCpuTimeSupported();
+
+        Thread consumer = new Thread(() -> {
+            long cpuStart = cpuTime ? mx.getCurrentThreadCpuTime() : 0;
+            try {
+                for (int i = 0; i < messages; i++) {
+                    long scheduled = queue.take();
+                    latencies[i] = System.nanoTime() - scheduled;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumerCpuNanos[0] = cpuTime ? mx.getCurrentThreadCpuTime() - cpuStart : 0;
+        });
+        consumer.start();
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        for (int i = 0; i < messages; i++) {
+            long scheduled = start + i * interval;
+            long now;
+            while ((now = System.nanoTime()) < scheduled) {
+                if (scheduled - now > PARK_THRESHOLD_NANOS)
+                    LockSupport.parkNanos(scheduled - now - PARK_THRESHOLD_NANOS);
+            }
+            queue.put(scheduled);
+        }
+        consumer.join();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new Result(latencies, consumerCpuNanos[0] / (double) elapsed);
+    }
+}
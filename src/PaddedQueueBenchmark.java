@@ -0,0 +1,142 @@
+import com.whl.thread.blockingQueue.MyArrayBlockingQueue;
+import com.whl.thread.blockingQueue.MyBlokingQueue;
+import com.whl.thread.blockingQueue.MyPaddedArrayBlockingQueue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: MyPaddedArrayBlockingQueue与MyArrayBlockingQueue的吞吐量对比
+ * @Description:
+ *
+ * 首先输出两个队列中putIndex、takeIndex、count等字段的偏移量 (通过Unsafe.objectFieldOffset读取), 以及 偏移量 / 64
+ * 对象的起始地址不一定与缓存行对齐, 因此真正需要检查的是两个频繁写入的字段之间至少相隔64字节 (填充的目标是128字节)
+ * 填充是否生效只取决于实际的字段布局, 不同JDK版本、是否开启压缩指针都会影响布局, 因此在哪台机器上测就在哪台机器上看偏移量
+ *
+ * 然后分别在 1个生产者/1个消费者、4个生产者/4个消费者 两种配置下, 通过put、take传递消息, 输出每秒传递的消息数
+ * 每种配置先预热一轮, 两种队列交替运行, 避免其中一种总是在JIT编译完成之前运行; 每一轮都会校验出队元素的总和
+ *
+ * 伪共享只有在生产者、消费者运行在不同的核心上时才会出现, 单核机器上两种队列的差别没有意义, 至少需要 生产者数 + 消费者数 个核心
+ *
+ * 运行:
+ *     java -cp out PaddedQueueBenchmark [messages] [capacity] [rounds]
+ * 默认为 每轮10000000条消息, 队列容量1024, 每种配置测量5轮
+ */
+public class PaddedQueueBenchmark {
+    private static final int[] THREADS = {1, 4};//生产者、消费者的数量
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        System.out.println("java " + System.getProperty("java.version") + ", cpus " + Runtime.getRuntime().availableProcessors()
+                + ", messages " + messages + ", capacity " + capacity);
+
+        printLayout(MyArrayBlockingQueue.class);
+        printLayout(MyPaddedArrayBlockingQueue.class);
+
+        for (int threads : THREADS) {
+            Supplier<MyBlokingQueue<Integer>> plain = () -> new MyArrayBlockingQueue<>(capacity);
+            Supplier<MyBlokingQueue<Integer>> padded = () -> new MyPaddedArrayBlockingQueue<>(capacity);
+            run(plain, threads, messages);
+            run(padded, threads, messages);
+            long plainBest = 0, paddedBest = 0;
+            for (int r = 0; r < rounds; r++) {
+                plainBest = Math.max(plainBest, run(plain, threads, messages));
+                paddedBest = Math.max(paddedBest, run(padded, threads, messages));
+            }
+            System.out.printf("%dP/%dC  MyArrayBlockingQueue %,12d ops/s  MyPaddedArrayBlockingQueue %,12d ops/s  padded/plain %.2f%n",
+                    threads, threads, plainBest, paddedBest, paddedBest / (double) plainBest);
+        }
+    }
+
+    /**
+     * 输出类中所有非静态、非填充字段的偏移量以及所在的缓存行
+     *
+     * 通过反射调用sun.misc.Unsafe, 这样在没有这个类的JDK上也能编译、运行, 只是不输出布局
+     * @param type
+     */
+    private static void printLayout(Class<?> type) {
+        Object unsafe;
+        Method objectFieldOffset;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            objectFieldOffset = unsafeClass.getMethod("objectFieldOffset", Field.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println(type.getSimpleName() + ": field offsets unavailable (" + e + ")");
+            return;
+        }
+        StringBuilder sb = new StringBuilder(type.getSimpleName()).append(':');
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) || f.getName().matches("p[0-9a-f]+"))
+                    continue;
+                try {
+                    long offset = (Long) objectFieldOffset.invoke(unsafe, f);
+                    sb.append(' ').append(f.getName()).append('=').append(offset).append("(line ").append(offset / 64).append(')');
+                } catch (ReflectiveOperationException e) {
+                    sb.append(' ').append(f.getName()).append("=?");
+                }
+            }
+        }
+        System.out.println(sb);
+    }
+
+    /**
+     * 运行一轮, threads个生产者各发送messages / threads条消息, threads个消费者平分接收
+     * @param factory
+     * @param threads
+     * @param messages
+     * @return 每秒传递的消息数
+     * @throws InterruptedException
+     */
+    private static long run(Supplier<MyBlokingQueue<Integer>> factory, int threads, int messages) throws InterruptedException {
+        MyBlokingQueue<Integer> queue = factory.get();
+        int perThread = messages / threads;
+        long total = (long) perThread * threads;
+        AtomicLong sum = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads * 2];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++)
+                        queue.put(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers[threads + t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long s = 0;
+                    for (int i = 0; i < perThread; i++)
+                        s += queue.take();
+                    sum.addAndGet(s);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (Thread w : workers)
+            w.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        long elapsed = System.nanoTime() - begin;
+        if (sum.get() != total)
+            throw new IllegalStateException("Lost messages: expected " + total + " but received " + sum.get());
+        return (long) (total * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,142 @@
+import com.whl.thread.blockingQueue.MyArrayBlockingQueue;
+import com.whl.thread.threadPool.MyThreadPerTaskExecutor;
+import com.whl.thread.threadPool.MyVirtualThreads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 平台线程与虚拟线程通过MyArrayBlockingQueue传递数据的吞吐量对比
+ * @Description:
+ *
+ * 每一轮启动producers个生产者和同样数量的消费者, 所有线程共用一个容量为capacity的MyArrayBlockingQueue:
+ *     生产者交替使用put和offer(timeout)入队, 消费者使用poll(timeout)出队, 最后校验出队元素的总和
+ * 平台线程使用MyThreadPerTaskExecutor + 默认线程工厂, 虚拟线程使用MyThreadPerTaskExecutor.newVirtualThreadPerTaskExecutor
+ * 二者都是每个任务一个新线程, 区别只在于线程的类型
+ *
+ * 最后一轮只在虚拟线程上运行: 生产者、消费者各virtualThreads个, 平台线程在这个数量下创建成本和内存占用都难以接受
+ * 队列使用ReentrantLock + Condition, 阻塞时虚拟线程会从载体线程上卸载, 不会发生pin
+ *
+ * 运行 (虚拟线程需要JDK21):
+ *     java -cp out VirtualThreadQueueBenchmark [threads] [messages] [capacity] [virtualThreads]
+ * 默认为 8个生产者/消费者, 每轮2000000条消息, 队列容量64, 虚拟线程轮次10000个生产者/消费者
+ */
+public class VirtualThreadQueueBenchmark {
+    private static final int ROUNDS = 3;//每种线程测量的轮数, 第一轮作为预热不计入结果
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int virtualThreads = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+        System.out.println("java " + System.getProperty("java.version") + ", cpus " + Runtime.getRuntime().availableProcessors()
+                + ", threads " + threads + ", messages " + messages + ", capacity " + capacity);
+
+        MyThreadPerTaskExecutor platform = new MyThreadPerTaskExecutor(Executors.defaultThreadFactory());
+        try {
+            report("platform", platform, threads, messages, capacity);
+        } finally {
+            platform.shutdown();
+            platform.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        if (!MyVirtualThreads.isSupported()) {
+            System.out.println("virtual threads are not supported by this JDK, run with JDK 21+");
+            return;
+        }
+        MyThreadPerTaskExecutor virtual = MyThreadPerTaskExecutor.newVirtualThreadPerTaskExecutor();
+        try {
+            report("virtual", virtual, threads, messages, capacity);
+            report("virtual", virtual, virtualThreads, messages, capacity);
+        } finally {
+            virtual.shutdown();
+            virtual.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 预热一轮, 然后测量ROUNDS - 1轮, 输出每轮以及最好的吞吐量
+     * @param name
+     * @param executor
+     * @param threads
+     * @param messages
+     * @param capacity
+     * @throws InterruptedException
+     */
+    private static void report(String name, MyThreadPerTaskExecutor executor, int threads, int messages, int capacity)
+            throws InterruptedException {
+        long best = 0;
+        StringBuilder rounds = new StringBuilder();
+        for (int r = 0; r < ROUNDS; r++) {
+            long opsPerSecond = run(executor, threads, messages, capacity);
+            if (r == 0)
+                continue;
+            best = Math.max(best, opsPerSecond);
+            rounds.append(rounds.length() == 0 ? "" : ", ").append(opsPerSecond);
+        }
+        System.out.printf("%-8s %6d x %-6d best %,12d ops/s  [%s]%n", name, threads, threads, best, rounds);
+    }
+
+    /**
+     * 运行一轮, threads个生产者各发送messages / threads条消息, threads个消费者平分接收
+     * @param executor
+     * @param threads
+     * @param messages
+     * @param capacity
+     * @return 每秒传递的消息数
+     * @throws InterruptedException
+     */
+    private static long run(MyThreadPerTaskExecutor executor, int threads, int messages, int capacity)
+            throws InterruptedException {
+        MyArrayBlockingQueue<Integer> queue = new MyArrayBlockingQueue<>(capacity);
+        int perThread = Math.max(1, messages / threads);
+        long total = (long) perThread * threads;
+        AtomicLong sum = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads * 2);
+        long start = System.nanoTime();
+        for (int c = 0; c < threads; c++) {
+            executor.execute(() -> {
+                try {
+                    long s = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        Integer v = queue.poll(10, TimeUnit.SECONDS);
+                        if (v == null)
+                            throw new IllegalStateException("Consumer timed out");
+                        s += v;
+                    }
+                    sum.addAndGet(s);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        for (int p = 0; p < threads; p++) {
+            executor.execute(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        if ((i & 1) == 0)
+                            queue.put(1);
+                        else if (!queue.offer(1, 10, TimeUnit.SECONDS))
+                            throw new IllegalStateException("Producer timed out");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        if (!done.await(5, TimeUnit.MINUTES))
+            throw new IllegalStateException("Benchmark did not finish in 5 minutes");
+        long elapsed = System.nanoTime() - start;
+        if (sum.get() != total)
+            throw new IllegalStateException("Lost messages: expected " + total + " but received " + sum.get());
+        return (long) (total * 1e9 / elapsed);
+    }
+}
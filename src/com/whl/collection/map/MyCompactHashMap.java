@@ -0,0 +1,631 @@
+package com.whl.collection.map;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 紧凑布局的HashMap (并行数组 + 下标链表)
+ * @Description:
+ *
+ * HashMap中每个键值对都需要一个MyNode对象: 对象头12字节 + hash 4字节 + key、value、next三个引用各4字节 = 28字节, 对齐之后是32字节
+ * 再加上table数组中的引用, 平均每个键值对要额外占用37字节左右 (不包括key、value对象本身)
+ *
+ * 这个Map不再为每个键值对创建对象, 而是将hash、key、value、next分别保存在四个并行数组中, 同一个下标就代表同一个键值对:
+ *     hashes[i]、keys[i]、values[i] 保存键值对本身, next[i] 保存同一个桶中下一个键值对的下标 (-1表示链表结束)
+ *     buckets[j] 保存第j个桶中第一个键值对的下标 + 1 (0表示空桶, 这样新建的数组不需要额外初始化)
+ * 每个键值对在四个数组中只占用 4 + 4 + 4 + 4 = 16字节
+ *
+ * 键值对数组与桶数组分别扩容, 这样两者的空闲空间不会叠加:
+ *     键值对数组满了之后只增加1/8 (较小时翻倍), 只复制数组, 不需要重新散列, 空闲的下标最多占12.5%
+ *     桶数组的长度由元素数量决定 (元素数量超过 桶数量 * loadFactor 时翻倍并重新散列), 默认负载因子1.5, 平均每个键值对2.7 ~ 5.3字节
+ * 如果两组数组一起翻倍, 那么元素数量刚刚超过2的n次方时会有接近一倍的空闲空间, 此时占用的内存几乎与HashMap相同
+ * 按照footprint与hashMapFootprint估算, 元素数量在一万到一千万之间时, 占用的内存是HashMap的50% ~ 55% (一千万个元素时约为51%)
+ * 代价是键值对数组扩容更频繁, 平均每个元素会被复制8次左右, 预先知道元素数量时应当通过构造方法指定
+ *
+ * 与原生.NET中Dictionary的实现类似, 被删除的下标会通过next数组串成一个空闲链表, 之后插入时优先复用
+ * 空闲下标的next值编码为 -3 - 下一个空闲下标 (一定 <= -2), 这样就可以通过 next[i] >= -1 来判断下标i上是否是一个有效的键值对
+ *
+ * 由于键值对保存在连续的数组中, 遍历时只需要顺序扫描数组, 对CPU缓存也更加友好
+ * 代价是: 迭代返回的Entry需要临时创建; 不支持树化, 冲突严重时只能依靠扩容
+ */
+public class MyCompactHashMap<K,V> implements MyMap<K,V> {
+    //默认容量, 必须为2的n次方
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    //最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * 默认负载因子, 即元素数量与桶数组长度之比的上限
+     *
+     * 与HashMap不同, 这里默认为1.5: 比较key之前会先比较hashes数组中的hash值, 平均链长在1.5以内时查询依然很快, 而桶数组越小越能节省内存
+     */
+    static final float DEFAULT_LOAD_FACTOR = 1.5f;
+
+    //键值对数组长度小于这个值时扩容为两倍, 之后每次只增加1/8
+    static final int DOUBLING_THRESHOLD = 64;
+
+    private int[] buckets;//桶数组, 保存桶中第一个键值对的下标 + 1, 长度为2的n次方
+
+    private int[] hashes;//每个键值对的hash值
+
+    private Object[] keys;//每个键值对的key
+
+    private Object[] values;//每个键值对的value
+
+    private int[] next;//同一个桶中下一个键值对的下标, -1表示链表结束; <= -2表示这个下标是空闲的
+
+    private int count;//已经使用过的下标数量(包括被删除的), 下标 [count, keys.length) 从未被使用过
+
+    private int freeList = -1;//空闲链表的头结点下标, -1表示没有空闲下标
+
+    private int freeCount;//空闲链表的长度
+
+    private int threshold;//元素数量达到这个值之后, 再插入新的键值对之前桶数组扩容为两倍
+
+    private final float loadFactor;//负载因子, 决定了键值对数组与桶数组的长度之比
+
+    transient int modCount;//结构性修改的次数, 用于fail-fast
+
+    transient Set<K> keySetView;//keySet视图
+
+    transient Collection<V> valuesView;//values视图
+
+    transient Set<Entry<K,V>> entrySetView;//entrySet视图
+
+    public MyCompactHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public MyCompactHashMap(int expectedSize) {
+        this(expectedSize, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 指定预期的元素数量以及负载因子创建Map
+     *
+     * 键值对数组的长度恰好为expectedSize, 桶数组的长度为 expectedSize / loadFactor 向上取2的n次方
+     * @param expectedSize
+     * @param loadFactor
+     */
+    public MyCompactHashMap(int expectedSize, float loadFactor) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + expectedSize);
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        this.loadFactor = loadFactor;
+        int capacity = Math.max(Math.min(expectedSize, MAXIMUM_CAPACITY), 2);
+        this.hashes = new int[capacity];
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+        this.next = new int[capacity];
+        rehash(bucketsFor(capacity));
+    }
+
+    // 与HashMap的hash算法相同
+    static final int hash(Object key) {
+        return MyHashMap.hash(key);
+    }
+
+    /**
+     * 容纳size个元素需要的桶数组长度: size / loadFactor 向上取2的n次方
+     * @param size
+     * @return
+     */
+    private int bucketsFor(int size) {
+        long nb = (long) Math.ceil(size / (double) loadFactor);
+        return Math.max(MyHashMap.tableSizeFor((int) Math.min(nb, MAXIMUM_CAPACITY)), 2);
+    }
+
+    /**
+     * 将键值对数组的长度调整为capacity, 原有的键值对按照下标顺序复制过去
+     *
+     * 下标 [0, count) 与原来一一对应, 桶链表以及空闲链表都依然有效, 因此不需要重新散列; 调用方需要保证 capacity >= count
+     * @param capacity
+     */
+    private void resizeEntries(int capacity) {
+        hashes = Arrays.copyOf(hashes, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+
+    /**
+     * 键值对数组满了之后的新长度: 较小时翻倍, 之后每次增加1/8
+     * @param capacity
+     * @return
+     */
+    private static int nextCapacity(int capacity) {
+        if (capacity >= MAXIMUM_CAPACITY)
+            throw new IllegalStateException("Map too large");
+        int newCapacity = capacity < DOUBLING_THRESHOLD ? capacity << 1 : capacity + (capacity >>> 3);
+        return Math.min(newCapacity, MAXIMUM_CAPACITY);
+    }
+
+    /**
+     * 分配长度为bucketCount的桶数组, 然后按照下标顺序重新建立桶链表
+     * @param bucketCount 2的n次方
+     */
+    private void rehash(int bucketCount) {
+        int[] b = buckets = new int[bucketCount];
+        threshold = bucketCount >= MAXIMUM_CAPACITY ? Integer.MAX_VALUE
+                : (int) Math.min(bucketCount * (double) loadFactor, Integer.MAX_VALUE);
+        int mask = b.length - 1;
+        final int[] hashes = this.hashes, next = this.next;
+        for (int i = 0; i < count; ++i) {
+            if (next[i] >= -1) {
+                int j = hashes[i] & mask;
+                next[i] = b[j] - 1;
+                b[j] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * 查找key对应的下标, 不存在时返回-1
+     * @param hash
+     * @param key
+     * @return
+     */
+    final int findIndex(int hash, Object key) {
+        int[] b = buckets;
+        final int[] hashes = this.hashes, next = this.next;
+        final Object[] keys = this.keys;
+        Object k;
+        for (int i = b[hash & (b.length - 1)] - 1; i >= 0; i = next[i]) {
+            if (hashes[i] == hash && ((k = keys[i]) == key || (key != null && key.equals(k))))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return count - freeCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findIndex(hash(key), key) >= 0;
+    }
+
+    /**
+     * 顺序扫描values数组, 跳过空闲下标
+     * @param value
+     * @return
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        final int[] next = this.next;
+        final Object[] values = this.values;
+        Object v;
+        for (int i = 0; i < count; ++i) {
+            if (next[i] >= -1 && ((v = values[i]) == value || (value != null && value.equals(v))))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = findIndex(hash(key), key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int i = findIndex(hash(key), key);
+        return i < 0 ? defaultValue : (V) values[i];
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hash(key), key, value, true);
+    }
+
+    /**
+     * 放置键值对的核心逻辑
+     *
+     * 1. 在key对应的桶中查找, 找到了就覆盖value
+     * 2. 元素数量达到阈值时, 桶数组扩容为两倍并重新散列
+     * 3. 分配一个下标: 优先从空闲链表中取, 没有空闲下标时使用count, 键值对数组满了则先扩容 (参见nextCapacity)
+     * 4. 将新的下标作为桶链表的头结点
+     * @param hash
+     * @param key
+     * @param value
+     * @param onlyIfAbsent
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
+        int i = findIndex(hash, key);
+        if (i >= 0) {
+            V oldValue = (V) values[i];
+            if (!onlyIfAbsent || oldValue == null)
+                values[i] = value;
+            return oldValue;
+        }
+        while (size() >= threshold) // 负载因子很小时, 一次翻倍可能还不够
+            rehash(buckets.length << 1);
+        if (freeCount > 0) {
+            i = freeList;
+            freeList = -3 - next[i];
+            --freeCount;
+        } else {
+            if (count == keys.length)
+                resizeEntries(nextCapacity(keys.length));
+            i = count++;
+        }
+        int[] b = buckets;
+        int j = hash & (b.length - 1);
+        hashes[i] = hash;
+        keys[i] = key;
+        values[i] = value;
+        next[i] = b[j] - 1;
+        b[j] = i + 1;
+        ++modCount;
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public void putAll(MyMap<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = removeIndex(hash(key), key, null, false);
+        if (i < 0)
+            return null;
+        V oldValue = (V) values[i];
+        values[i] = null;
+        return oldValue;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int i = removeIndex(hash(key), key, value, true);
+        if (i < 0)
+            return false;
+        values[i] = null;
+        return true;
+    }
+
+    /**
+     * 将key对应的下标从桶链表中摘除, 并放入空闲链表, 返回这个下标(value还没有被清除, 由调用方读取之后清除), 不存在时返回-1
+     * @param hash
+     * @param key
+     * @param value
+     * @param matchValue 为true时仅在value也相等时删除
+     * @return
+     */
+    final int removeIndex(int hash, Object key, Object value, boolean matchValue) {
+        int[] b = buckets;
+        final int[] hashes = this.hashes, next = this.next;
+        final Object[] keys = this.keys;
+        int j = hash & (b.length - 1);
+        Object k, v;
+        for (int i = b[j] - 1, prev = -1; i >= 0; prev = i, i = next[i]) {
+            if (hashes[i] == hash && ((k = keys[i]) == key || (key != null && key.equals(k)))) {
+                if (matchValue && !((v = values[i]) == value || (value != null && value.equals(v))))
+                    return -1;
+                if (prev < 0)
+                    b[j] = next[i] + 1;
+                else
+                    next[prev] = next[i];
+                keys[i] = null;
+                next[i] = -3 - freeList;
+                freeList = i;
+                ++freeCount;
+                ++modCount;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 清空Map, 保留已经分配的数组
+     */
+    @Override
+    public void clear() {
+        if (count > 0) {
+            Arrays.fill(buckets, 0);
+            Arrays.fill(keys, 0, count, null);
+            Arrays.fill(values, 0, count, null);
+            count = 0;
+            freeList = -1;
+            freeCount = 0;
+        }
+        ++modCount;
+    }
+
+    /**
+     * 顺序扫描并行数组, 不会创建任何对象
+     * @param action
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        final int[] next = this.next;
+        final Object[] keys = this.keys, values = this.values;
+        for (int i = 0; i < count && modCount == mc; ++i) {
+            if (next[i] >= -1)
+                action.accept((K) keys[i], (V) values[i]);
+        }
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * 将有效的键值对向前压缩, 并将键值对数组缩小到恰好能容纳当前元素的大小, 桶数组缩小到当前元素数量需要的长度
+     *
+     * 压缩会改变键值对的下标, 因此需要重新建立桶链表
+     */
+    public void trimToSize() {
+        int n = size();
+        int cap = Math.max(n, 2);
+        int nb = bucketsFor(n);
+        if (freeCount == 0 && cap == keys.length && nb == buckets.length)
+            return;
+        final int[] hashes = this.hashes, next = this.next;
+        final Object[] keys = this.keys, values = this.values;
+        int w = 0;
+        for (int i = 0; i < count; ++i) {
+            if (next[i] >= -1) {
+                if (w != i) {
+                    hashes[w] = hashes[i];
+                    keys[w] = keys[i];
+                    values[w] = values[i];
+                }
+                next[w++] = -1;
+            }
+        }
+        Arrays.fill(keys, w, count, null);
+        Arrays.fill(values, w, count, null);
+        count = w;
+        freeList = -1;
+        freeCount = 0;
+        ++modCount;
+        resizeEntries(cap);
+        rehash(nb);
+    }
+
+    /**
+     * 估算这个Map自身占用的堆内存(字节), 不包括key、value对象本身
+     *
+     * 按照64位JVM开启压缩指针计算: 对象头12字节、数组头16字节、引用4字节、按8字节对齐
+     * 同样规格下MyHashMap每个键值对需要一个32字节的MyNode, 再加上table中的引用, 可以用下面的方法对比
+     * @return
+     */
+    public long footprint() {
+        return align(12L + 8 * 4 + 6 * 4) // Map对象本身: 对象头 + 8个引用字段 + 6个int/float字段
+                + arrayBytes(buckets.length, 4)
+                + arrayBytes(hashes.length, 4)
+                + arrayBytes(keys.length, 4)
+                + arrayBytes(values.length, 4)
+                + arrayBytes(next.length, 4);
+    }
+
+    /**
+     * 估算容量与当前Map相同、元素数量相同的MyHashMap占用的堆内存(字节), 同样不包括key、value对象本身
+     * @return
+     */
+    public long hashMapFootprint() {
+        long n = size();
+        int tableLength = n == 0 ? 0 : MyHashMap.tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, (long) Math.ceil(n / 0.75)));
+        return align(12L + 6 * 4 + 5 * 4 + 1) // Map对象本身: 对象头 + 6个引用字段 + 5个int/float字段 + 1个boolean字段
+                + arrayBytes(tableLength, 4)
+                + n * align(12L + 4 + 3 * 4); // MyNode: 对象头 + hash + key、value、next三个引用
+    }
+
+    private static long arrayBytes(int length, int elementSize) {
+        return align(16L + (long) length * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /* ------------------------------------------------------------ */
+    // 视图以及迭代器
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks;
+        return (ks = keySetView) != null ? ks : (keySetView = new KeySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs;
+        return (vs = valuesView) != null ? vs : (valuesView = new Values());
+    }
+
+    @Override
+    public Set<Entry<K,V>> entrySet() {
+        Set<Entry<K,V>> es;
+        return (es = entrySetView) != null ? es : (entrySetView = new EntrySet());
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size()                 { return MyCompactHashMap.this.size(); }
+        public final void clear()               { MyCompactHashMap.this.clear(); }
+        public final Iterator<K> iterator()     { return new KeyIterator(); }
+        public final boolean contains(Object o) { return containsKey(o); }
+        public final boolean remove(Object key) {
+            return removeIndex(hash(key), key, null, false) >= 0;
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size()                 { return MyCompactHashMap.this.size(); }
+        public final void clear()               { MyCompactHashMap.this.clear(); }
+        public final Iterator<V> iterator()     { return new ValueIterator(); }
+        public final boolean contains(Object o) { return containsValue(o); }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K,V>> {
+        public final int size()                 { return MyCompactHashMap.this.size(); }
+        public final void clear()               { MyCompactHashMap.this.clear(); }
+        public final Iterator<Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public final boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?,?> e = (Entry<?,?>) o;
+            Object key = e.getKey();
+            int i = findIndex(hash(key), key);
+            return i >= 0 && Objects.equals(values[i], e.getValue());
+        }
+        public final boolean remove(Object o) {
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                Object key = e.getKey();
+                int i = removeIndex(hash(key), key, e.getValue(), true);
+                if (i >= 0) {
+                    values[i] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 顺序扫描下标 [0, count), 跳过空闲下标, fail-fast的逻辑与HashMap的HashIterator相同
+     */
+    abstract class IndexIterator {
+        int nextIndex;           // 下一个要返回的下标, -1表示没有更多元素
+        int current = -1;        // 上一次返回的下标, 用于remove
+        int expectedModCount;    // 用于fail-fast
+
+        IndexIterator() {
+            expectedModCount = modCount;
+            nextIndex = advance(0);
+        }
+
+        private int advance(int i) {
+            final int[] next = MyCompactHashMap.this.next;
+            while (i < count && next[i] < -1)
+                ++i;
+            return i < count ? i : -1;
+        }
+
+        public final boolean hasNext() {
+            return nextIndex >= 0;
+        }
+
+        final int nextIdx() {
+            int i = nextIndex;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (i < 0)
+                throw new NoSuchElementException();
+            current = i;
+            nextIndex = advance(i + 1);
+            return i;
+        }
+
+        public final void remove() {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeIndex(hashes[i], keys[i], null, false);
+            values[i] = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    final class KeyIterator extends IndexIterator implements Iterator<K> {
+        @SuppressWarnings("unchecked")
+        public final K next() { return (K) keys[nextIdx()]; }
+    }
+
+    final class ValueIterator extends IndexIterator implements Iterator<V> {
+        @SuppressWarnings("unchecked")
+        public final V next() { return (V) values[nextIdx()]; }
+    }
+
+    final class EntryIterator extends IndexIterator implements Iterator<Entry<K,V>> {
+        public final Entry<K,V> next() { return new IndexEntry(nextIdx()); }
+    }
+
+    /**
+     * 迭代时临时创建的Entry, 只保存下标, getValue、setValue直接读写values数组
+     */
+    final class IndexEntry implements Entry<K,V> {
+        final int index;
+
+        IndexEntry(int index) {
+            this.index = index;
+        }
+
+        @SuppressWarnings("unchecked")
+        public K getKey() { return (K) keys[index]; }
+
+        @SuppressWarnings("unchecked")
+        public V getValue() { return (V) values[index]; }
+
+        public V setValue(V value) {
+            V oldValue = getValue();
+            values[index] = value;
+            return oldValue;
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                return Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+            }
+            return false;
+        }
+
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
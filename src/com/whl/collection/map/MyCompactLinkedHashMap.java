@@ -0,0 +1,599 @@
+package com.whl.collection.map;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 按插入顺序遍历的紧凑Map (稠密数组 + 下标哈希表)
+ * @Description:
+ *
+ * LinkedHashMap为了维护插入顺序, 在每个MyNode的基础上又增加了before、after两个引用, 每个键值对对应一个40字节的MyEntry
+ * 遍历时还需要沿着after指针在堆上跳跃, 对CPU缓存并不友好
+ *
+ * 这个Map借鉴了CPython 3.6之后dict的实现, 将存储拆分为两部分:
+ *     1. 稠密的键值对数组: hashes、keys、values三个并行数组, 新的键值对总是追加到末尾, 因此数组下标的顺序就是插入顺序
+ *     2. 稀疏的下标表indices: 一个开放寻址的int数组, 保存键值对在稠密数组中的下标 + 1 (0表示空槽, -1表示被删除的槽)
+ * 查找时根据hash在indices中探测, 探测序列与CPython相同: i = 5 * i + 1 + perturb, 每次探测之后perturb右移5位, 这样hash的高位也会参与探测
+ *
+ * 删除键值对时不会移动数组, 而是将它在keys中标记为TOMBSTONE, 在indices中标记为-1, 其余键值对的下标以及顺序都不受影响
+ * 稠密数组写满时, 先丢弃所有被删除的键值对, 再按需扩容, 然后重建indices
+ * indices的长度至少是稠密数组长度的1.5倍, 而稠密数组的每个下标最多只会在indices中占用一个槽 (包括被删除的槽), 因此indices的负载永远不超过2/3, 无需单独统计被删除的槽
+ *
+ * 与MyLinkedHashMap(插入顺序)相比:
+ *     1. 不需要为键值对创建任何对象, 平均每个键值对大约占用 4 + 4 + 4 + 6 = 18字节
+ *     2. 遍历只需要顺序扫描数组
+ * 代价是: 不支持按访问顺序排序; 频繁删除时需要定期压缩; 迭代返回的Entry需要临时创建
+ */
+public class MyCompactLinkedHashMap<K,V> implements MyMap<K,V> {
+    //默认容量, 必须为2的n次方
+    static final int DEFAULT_INITIAL_CAPACITY = 8;
+
+    //最大容量, indices的长度是它的两倍
+    static final int MAXIMUM_CAPACITY = 1 << 29;
+
+    //探测时perturb每次右移的位数, 与CPython相同
+    static final int PERTURB_SHIFT = 5;
+
+    //indices中表示被删除的槽
+    static final int DUMMY = -1;
+
+    //keys中表示被删除的键值对, 因为key允许为null, 所以不能用null表示
+    static final Object TOMBSTONE = new Object();
+
+    private int[] indices;//下标表, 保存键值对下标 + 1, 0表示空槽, DUMMY表示被删除的槽, 长度为2的n次方
+
+    private int[] hashes;//每个键值对的hash值
+
+    private Object[] keys;//每个键值对的key, TOMBSTONE表示已经被删除
+
+    private Object[] values;//每个键值对的value
+
+    private int count;//已经使用过的下标数量(包括被删除的), 新的键值对总是放在下标count处
+
+    private int size;//有效键值对的数量
+
+    transient int modCount;//结构性修改的次数, 用于fail-fast
+
+    transient Set<K> keySetView;//keySet视图
+
+    transient Collection<V> valuesView;//values视图
+
+    transient Set<Entry<K,V>> entrySetView;//entrySet视图
+
+    public MyCompactLinkedHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * 指定预期的元素数量创建Map, 在插入expectedSize个元素之前不会扩容
+     * @param expectedSize
+     */
+    public MyCompactLinkedHashMap(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + expectedSize);
+        this.hashes = new int[0];
+        this.keys = new Object[0];
+        this.values = new Object[0];
+        resize(Math.max(MyHashMap.tableSizeFor(expectedSize), 2));
+    }
+
+    public MyCompactLinkedHashMap(MyMap<? extends K, ? extends V> m) {
+        this(m.size());
+        putAll(m);
+    }
+
+    // 与HashMap的hash算法相同
+    static final int hash(Object key) {
+        return MyHashMap.hash(key);
+    }
+
+    /**
+     * indices的长度: 不小于capacity * 1.5的最小的2的n次方
+     * @param capacity
+     * @return
+     */
+    static int indicesSizeFor(int capacity) {
+        return MyHashMap.tableSizeFor(capacity + (capacity >>> 1));
+    }
+
+    /**
+     * 丢弃被删除的键值对, 将有效的键值对按原顺序压缩到数组前部, 然后将数组调整为能够容纳capacity个键值对, 最后重建indices
+     *
+     * 调用方需要保证 capacity >= size
+     * @param capacity
+     */
+    private void resize(int capacity) {
+        final int[] hashes = this.hashes;
+        final Object[] keys = this.keys, values = this.values;
+        int w = 0;
+        if (size != count) {
+            for (int i = 0; i < count; ++i) {
+                if (keys[i] != TOMBSTONE) {
+                    if (w != i) {
+                        hashes[w] = hashes[i];
+                        keys[w] = keys[i];
+                        values[w] = values[i];
+                    }
+                    ++w;
+                }
+            }
+            Arrays.fill(keys, w, count, null);
+            Arrays.fill(values, w, count, null);
+            count = w;
+        }
+        if (capacity != keys.length) {
+            this.hashes = Arrays.copyOf(hashes, capacity);
+            this.keys = Arrays.copyOf(keys, capacity);
+            this.values = Arrays.copyOf(values, capacity);
+        }
+        buildIndices(indicesSizeFor(capacity));
+    }
+
+    /**
+     * 重新建立下标表, 此时稠密数组中没有被删除的键值对, 因此只需要依次为每个下标找到一个空槽
+     * @param n
+     */
+    private void buildIndices(int n) {
+        int[] tab = indices = new int[n];
+        final int[] hashes = this.hashes;
+        int mask = n - 1;
+        for (int i = 0; i < count; ++i) {
+            int h = hashes[i], j = h & mask;
+            for (int perturb = h; tab[j] != 0; ) {
+                perturb >>>= PERTURB_SHIFT;
+                j = (5 * j + 1 + perturb) & mask;
+            }
+            tab[j] = i + 1;
+        }
+    }
+
+    /**
+     * 查找key在indices中的槽位, 不存在时返回 -1 - 应该插入的槽位 (探测路径上第一个被删除的槽, 或者最终遇到的空槽)
+     * @param hash
+     * @param key
+     * @return
+     */
+    final int findSlot(int hash, Object key) {
+        final int[] tab = indices, hashes = this.hashes;
+        final Object[] keys = this.keys;
+        int mask = tab.length - 1, j = hash & mask, freeSlot = -1, ix;
+        Object k;
+        for (int perturb = hash; (ix = tab[j]) != 0; ) {
+            if (ix == DUMMY) {
+                if (freeSlot < 0)
+                    freeSlot = j;
+            } else if (hashes[--ix] == hash && ((k = keys[ix]) == key || (key != null && key.equals(k))))
+                return j;
+            perturb >>>= PERTURB_SHIFT;
+            j = (5 * j + 1 + perturb) & mask;
+        }
+        return -1 - (freeSlot >= 0 ? freeSlot : j);
+    }
+
+    /**
+     * 查找key对应的键值对下标, 不存在时返回-1
+     * @param key
+     * @return
+     */
+    final int findIndex(Object key) {
+        int j = findSlot(hash(key), key);
+        return j < 0 ? -1 : indices[j] - 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findIndex(key) >= 0;
+    }
+
+    /**
+     * 顺序扫描values数组, 跳过被删除的键值对
+     * @param value
+     * @return
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        final Object[] keys = this.keys, values = this.values;
+        Object v;
+        for (int i = 0; i < count; ++i) {
+            if (keys[i] != TOMBSTONE && ((v = values[i]) == value || (value != null && value.equals(v))))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = findIndex(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int i = findIndex(key);
+        return i < 0 ? defaultValue : (V) values[i];
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hash(key), key, value, true);
+    }
+
+    /**
+     * 放置键值对的核心逻辑
+     *
+     * 1. 在indices中探测, 找到了就覆盖value, 键值对的位置(插入顺序)保持不变
+     * 2. 否则如果稠密数组已满, 先压缩/扩容并重建indices, 然后重新探测空槽
+     * 3. 将键值对追加到稠密数组末尾, 并把下标写入探测到的槽
+     * @param hash
+     * @param key
+     * @param value
+     * @param onlyIfAbsent
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
+        int j = findSlot(hash, key);
+        if (j >= 0) {
+            int i = indices[j] - 1;
+            V oldValue = (V) values[i];
+            if (!onlyIfAbsent || oldValue == null)
+                values[i] = value;
+            return oldValue;
+        }
+        if (count == keys.length) {
+            int cap = keys.length;
+            // 被删除的键值对超过一半时, 压缩就足以腾出空间, 否则扩容为两倍
+            if (size >= cap >>> 1) {
+                if (cap >= MAXIMUM_CAPACITY)
+                    throw new IllegalStateException("Map too large");
+                cap <<= 1;
+            }
+            resize(cap);
+            j = findSlot(hash, key);
+        }
+        int i = count++;
+        hashes[i] = hash;
+        keys[i] = key;
+        values[i] = value;
+        indices[-1 - j] = i + 1;
+        ++size;
+        ++modCount;
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public void putAll(MyMap<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = removeIndex(hash(key), key, null, false);
+        if (i < 0)
+            return null;
+        V oldValue = (V) values[i];
+        values[i] = null;
+        return oldValue;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int i = removeIndex(hash(key), key, value, true);
+        if (i < 0)
+            return false;
+        values[i] = null;
+        return true;
+    }
+
+    /**
+     * 将key对应的槽标记为DUMMY, 键值对标记为TOMBSTONE, 返回键值对的下标(value还没有被清除, 由调用方读取之后清除), 不存在时返回-1
+     * @param hash
+     * @param key
+     * @param value
+     * @param matchValue 为true时仅在value也相等时删除
+     * @return
+     */
+    final int removeIndex(int hash, Object key, Object value, boolean matchValue) {
+        int j = findSlot(hash, key);
+        if (j < 0)
+            return -1;
+        int i = indices[j] - 1;
+        Object v;
+        if (matchValue && !((v = values[i]) == value || (value != null && value.equals(v))))
+            return -1;
+        indices[j] = DUMMY;
+        keys[i] = TOMBSTONE;
+        --size;
+        ++modCount;
+        return i;
+    }
+
+    /**
+     * 清空Map, 保留已经分配的数组
+     */
+    @Override
+    public void clear() {
+        if (count > 0) {
+            Arrays.fill(indices, 0);
+            Arrays.fill(keys, 0, count, null);
+            Arrays.fill(values, 0, count, null);
+            count = 0;
+            size = 0;
+        }
+        ++modCount;
+    }
+
+    /**
+     * 按插入顺序遍历, 只需要顺序扫描稠密数组, 不会创建任何对象
+     * @param action
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        final Object[] keys = this.keys, values = this.values;
+        Object k;
+        for (int i = 0; i < count && modCount == mc; ++i) {
+            if ((k = keys[i]) != TOMBSTONE)
+                action.accept((K) k, (V) values[i]);
+        }
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * 丢弃所有被删除的键值对, 并将数组缩小到恰好能容纳当前元素的大小
+     */
+    public void trimToSize() {
+        int cap = Math.max(MyHashMap.tableSizeFor(Math.max(size, 2)), 2);
+        if (size == count && cap >= keys.length)
+            return;
+        ++modCount;
+        resize(cap);
+    }
+
+    /**
+     * 估算这个Map自身占用的堆内存(字节), 不包括key、value对象本身
+     *
+     * 按照64位JVM开启压缩指针计算: 对象头12字节、数组头16字节、引用4字节、按8字节对齐
+     * @return
+     */
+    public long footprint() {
+        return align(12L + 7 * 4 + 3 * 4) // Map对象本身: 对象头 + 7个引用字段 + 3个int字段
+                + arrayBytes(indices.length, 4)
+                + arrayBytes(hashes.length, 4)
+                + arrayBytes(keys.length, 4)
+                + arrayBytes(values.length, 4);
+    }
+
+    /**
+     * 估算元素数量相同的MyLinkedHashMap占用的堆内存(字节), 同样不包括key、value对象本身
+     * @return
+     */
+    public long linkedHashMapFootprint() {
+        long n = size;
+        int tableLength = n == 0 ? 0 : MyHashMap.tableSizeFor((int) Math.min(1 << 30, (long) Math.ceil(n / 0.75)));
+        return align(12L + 8 * 4 + 5 * 4 + 2) // Map对象本身: 对象头 + 8个引用字段 + 5个int/float字段 + 2个boolean字段
+                + arrayBytes(tableLength, 4)
+                + n * align(12L + 4 + 5 * 4); // MyEntry: 对象头 + hash + key、value、next、before、after五个引用
+    }
+
+    private static long arrayBytes(int length, int elementSize) {
+        return align(16L + (long) length * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /* ------------------------------------------------------------ */
+    // 视图以及迭代器, 均按插入顺序遍历
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks;
+        return (ks = keySetView) != null ? ks : (keySetView = new KeySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs;
+        return (vs = valuesView) != null ? vs : (valuesView = new Values());
+    }
+
+    @Override
+    public Set<Entry<K,V>> entrySet() {
+        Set<Entry<K,V>> es;
+        return (es = entrySetView) != null ? es : (entrySetView = new EntrySet());
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size()                 { return size; }
+        public final void clear()               { MyCompactLinkedHashMap.this.clear(); }
+        public final Iterator<K> iterator()     { return new KeyIterator(); }
+        public final boolean contains(Object o) { return containsKey(o); }
+        public final boolean remove(Object key) {
+            int i = removeIndex(hash(key), key, null, false);
+            if (i < 0)
+                return false;
+            values[i] = null;
+            return true;
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size()                 { return size; }
+        public final void clear()               { MyCompactLinkedHashMap.this.clear(); }
+        public final Iterator<V> iterator()     { return new ValueIterator(); }
+        public final boolean contains(Object o) { return containsValue(o); }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K,V>> {
+        public final int size()                 { return size; }
+        public final void clear()               { MyCompactLinkedHashMap.this.clear(); }
+        public final Iterator<Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public final boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?,?> e = (Entry<?,?>) o;
+            int i = findIndex(e.getKey());
+            return i >= 0 && Objects.equals(values[i], e.getValue());
+        }
+        public final boolean remove(Object o) {
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                Object key = e.getKey();
+                int i = removeIndex(hash(key), key, e.getValue(), true);
+                if (i >= 0) {
+                    values[i] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 顺序扫描下标 [0, count), 跳过被删除的键值对
+     *
+     * 删除不会移动其他键值对, 因此通过迭代器删除之后可以继续从原来的下标向后扫描
+     */
+    abstract class IndexIterator {
+        int nextIndex;           // 下一个要返回的下标, -1表示没有更多元素
+        int current = -1;        // 上一次返回的下标, 用于remove
+        int expectedModCount;    // 用于fail-fast
+
+        IndexIterator() {
+            expectedModCount = modCount;
+            nextIndex = advance(0);
+        }
+
+        private int advance(int i) {
+            final Object[] keys = MyCompactLinkedHashMap.this.keys;
+            while (i < count && keys[i] == TOMBSTONE)
+                ++i;
+            return i < count ? i : -1;
+        }
+
+        public final boolean hasNext() {
+            return nextIndex >= 0;
+        }
+
+        final int nextIdx() {
+            int i = nextIndex;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (i < 0)
+                throw new NoSuchElementException();
+            current = i;
+            nextIndex = advance(i + 1);
+            return i;
+        }
+
+        public final void remove() {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeIndex(hashes[i], keys[i], null, false);
+            values[i] = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    final class KeyIterator extends IndexIterator implements Iterator<K> {
+        @SuppressWarnings("unchecked")
+        public final K next() { return (K) keys[nextIdx()]; }
+    }
+
+    final class ValueIterator extends IndexIterator implements Iterator<V> {
+        @SuppressWarnings("unchecked")
+        public final V next() { return (V) values[nextIdx()]; }
+    }
+
+    final class EntryIterator extends IndexIterator implements Iterator<Entry<K,V>> {
+        public final Entry<K,V> next() { return new IndexEntry(nextIdx()); }
+    }
+
+    /**
+     * 迭代时临时创建的Entry, 只保存下标, getValue、setValue直接读写values数组
+     */
+    final class IndexEntry implements Entry<K,V> {
+        final int index;
+
+        IndexEntry(int index) {
+            this.index = index;
+        }
+
+        @SuppressWarnings("unchecked")
+        public K getKey() { return (K) keys[index]; }
+
+        @SuppressWarnings("unchecked")
+        public V getValue() { return (V) values[index]; }
+
+        public V setValue(V value) {
+            V oldValue = getValue();
+            values[index] = value;
+            return oldValue;
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                return Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+            }
+            return false;
+        }
+
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
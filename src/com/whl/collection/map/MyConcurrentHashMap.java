@@ -0,0 +1,1414 @@
+package com.whl.collection.map;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: JDK1.8 - ConcurrentHashMap再实现
+ * @Description:
+ *
+ * JDK1.8的ConcurrentHashMap放弃了1.7中的Segment分段锁, 而是采用了 CAS + synchronized 的方式保证并发安全, 锁的粒度细化到了每一个桶
+ *     1. 当桶为空时, 直接通过CAS将新结点放到桶上, 不需要加锁
+ *     2. 当桶不为空时, 通过synchronized锁住桶上的头结点, 然后执行与HashMap相同的链表操作
+ *     3. 读操作完全不加锁, 依赖于table数组元素的volatile读 (tabAt) 以及Node中value、next的volatile修饰
+ *
+ * 扩容也不再是由某一个线程独自完成, 而是多线程协作完成的:
+ *     扩容线程会通过CAS从transferIndex上领取一段桶区间(stride), 迁移完一个桶后就在旧table中放一个ForwardingNode
+ *     其他线程在put/remove时如果发现桶上是ForwardingNode, 就会调用helpTransfer加入到扩容中; 而get遇到ForwardingNode则会转到nextTable中查找
+ *
+ * size的统计则借鉴了LongAdder的思想: 优先CAS修改baseCount, 失败了就说明存在竞争, 那么将计数分散到CounterCell数组中, 统计时再求和
+ *
+ * 需要注意的是, ConcurrentHashMap不允许key和value为null, 因为在并发场景下无法区分 "key不存在" 与 "value为null" 这两种情况
+ * 除此以外, 原生JDK中链表过长时会转换为TreeBin(红黑树), 这里为了关注并发的核心逻辑, 省略了TreeBin的实现, 过长的链表只能依靠扩容打散
+ */
+public class MyConcurrentHashMap<K,V> implements MyMap<K,V> {
+    //table的最大容量
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    //table的默认容量, 必须为2的n次方
+    private static final int DEFAULT_CAPACITY = 16;
+
+    //负载因子, 实际上ConcurrentHashMap中并不会用到构造时传入的loadFactor, 扩容阈值固定为 n - (n >>> 2), 也就是0.75n
+    private static final float LOAD_FACTOR = 0.75f;
+
+    //扩容时每个线程一次领取的最少桶数量, 避免多个线程之间过于频繁地竞争transferIndex
+    private static final int MIN_TRANSFER_STRIDE = 16;
+
+    //sizeCtl中用于生成扩容戳(resizeStamp)的位数
+    private static final int RESIZE_STAMP_BITS = 16;
+
+    //参与扩容的最大线程数
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+
+    //扩容戳在sizeCtl中的偏移量
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    //ForwardingNode的hash值, 表示这个桶已经迁移到了nextTable中
+    static final int MOVED = -1;
+
+    //普通结点hash值的可用位, 保证普通结点的hash值一定 >= 0, 从而与特殊结点(hash < 0)区分开
+    static final int HASH_BITS = 0x7fffffff;
+
+    //CPU核数, 用于计算扩容步长以及限制CounterCell数组的大小
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 桶数组, 第一次插入时才会初始化, 长度为2的n次方
+     *
+     * 注意这里是volatile修饰的, 但volatile只能保证数组引用的可见性, 数组元素的可见性需要通过AtomicReferenceArray的get/compareAndSet/set来保证
+     */
+    transient volatile AtomicReferenceArray<MyNode<K,V>> table;
+
+    //扩容时使用的新table, 只有在扩容期间不为空
+    private transient volatile AtomicReferenceArray<MyNode<K,V>> nextTable;
+
+    //没有竞争时的计数, 通过CAS更新
+    private transient volatile long baseCount;
+
+    /**
+     * table初始化以及扩容的控制变量
+     *     -1 : 表示table正在初始化
+     *     < -1 : 表示table正在扩容, 高16位是扩容戳, 低16位是 (参与扩容的线程数 + 1)
+     *     0 : 表示table还没有初始化, 使用默认容量
+     *     > 0 : table没有初始化时表示初始容量, 初始化之后表示下一次扩容的阈值
+     */
+    private transient volatile int sizeCtl;
+
+    //扩容时下一个待领取的桶区间的上界(不包含), 线程从高位向低位领取
+    private transient volatile int transferIndex;
+
+    //CounterCell数组扩容或初始化时使用的自旋锁, 0表示未加锁, 1表示加锁
+    private transient volatile int cellsBusy;
+
+    //存在竞争时分散计数的CounterCell数组, 长度为2的n次方
+    private transient volatile CounterCell[] counterCells;
+
+    private transient Set<K> keySet;//keySet视图
+
+    private transient Collection<V> values;//values视图
+
+    private transient Set<Entry<K,V>> entrySet;//entrySet视图
+
+    /**
+     * Map中的键值对结点
+     *
+     * 与HashMap不同的是, val和next都是volatile修饰的, 这样读操作在不加锁的情况下也能看到最新的值
+     * 并且setValue直接抛出异常, 修改value必须通过Map的put方法完成
+     */
+    static class MyNode<K,V> implements Entry<K,V> {
+        final int hash;
+        final K key;
+        volatile V val;
+        volatile MyNode<K,V> next;
+
+        MyNode(int hash, K key, V val, MyNode<K,V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.val = val;
+            this.next = next;
+        }
+
+        public final K getKey()        { return key; }
+        public final V getValue()      { return val; }
+        public final String toString() { return key + "=" + val; }
+
+        public final V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public final int hashCode()    { return key.hashCode() ^ val.hashCode(); }
+
+        public final boolean equals(Object o) {
+            Object k, v, u;
+            Entry<?,?> e;
+            return ((o instanceof Entry) &&
+                    (k = (e = (Entry<?,?>) o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    (k == key || k.equals(key)) &&
+                    (v == (u = val) || v.equals(u)));
+        }
+
+        /**
+         * 从当前结点开始, 沿着next指针检索key对应的结点, 特殊结点(例如ForwardingNode)会重写这个方法
+         * @param h
+         * @param k
+         * @return
+         */
+        MyNode<K,V> find(int h, Object k) {
+            MyNode<K,V> e = this;
+            if (k != null) {
+                do {
+                    K ek;
+                    if (e.hash == h && ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e;
+                } while ((e = e.next) != null);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 扩容时放在旧table中已迁移完成的桶上的结点, hash值为MOVED
+     *
+     * 它持有nextTable的引用, 这样读线程遇到它时可以直接转到nextTable中检索, 而写线程遇到它时则会协助扩容
+     */
+    static final class ForwardingNode<K,V> extends MyNode<K,V> {
+        final AtomicReferenceArray<MyNode<K,V>> nextTable;
+
+        ForwardingNode(AtomicReferenceArray<MyNode<K,V>> tab) {
+            super(MOVED, null, null, null);
+            this.nextTable = tab;
+        }
+
+        /**
+         * 在nextTable中检索, 如果nextTable也在扩容 (又遇到了ForwardingNode), 那么继续转到更新的table中检索
+         * @param h
+         * @param k
+         * @return
+         */
+        MyNode<K,V> find(int h, Object k) {
+            outer: for (AtomicReferenceArray<MyNode<K,V>> tab = nextTable;;) {
+                MyNode<K,V> e;
+                int n;
+                if (k == null || tab == null || (n = tab.length()) == 0 || (e = tabAt(tab, (n - 1) & h)) == null)
+                    return null;
+                for (;;) {
+                    int eh;
+                    K ek;
+                    if ((eh = e.hash) == h && ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e;
+                    if (eh < 0) {
+                        if (e instanceof ForwardingNode) {
+                            tab = ((ForwardingNode<K,V>) e).nextTable;
+                            continue outer;
+                        } else
+                            return e.find(h, k);
+                    }
+                    if ((e = e.next) == null)
+                        return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 分散计数的单元格, 与LongAdder中的Cell相同
+     *
+     * 原生JDK中通过@sun.misc.Contended注解避免伪共享, 这里通过前后填充long字段的方式让value独占一个缓存行
+     */
+    static final class CounterCell {
+        volatile long p0, p1, p2, p3, p4, p5, p6;
+        volatile long value;
+        volatile long q0, q1, q2, q3, q4, q5, q6;
+
+        CounterCell(long x) {
+            value = x;
+        }
+    }
+
+    /**
+     * 与HashMap的hash方法相同, 让高16位参与运算, 区别在于最后会与HASH_BITS进行与运算, 保证普通结点的hash值一定为正数
+     * @param h
+     * @return
+     */
+    static final int spread(int h) {
+        return (h ^ (h >>> 16)) & HASH_BITS;
+    }
+
+    /**
+     * 获取到cap值向上取最近的2进制位, 与HashMap的tableSizeFor相同
+     * @param c
+     * @return
+     */
+    private static final int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /*
+     * 下面三个方法用于对table数组元素进行volatile读、CAS以及volatile写
+     *
+     * 因为Java中数组元素是没有办法用volatile修饰的, 所以table使用AtomicReferenceArray, 逐个元素提供volatile语义
+     */
+
+    static final <K,V> MyNode<K,V> tabAt(AtomicReferenceArray<MyNode<K,V>> tab, int i) {
+        return tab.get(i);
+    }
+
+    static final <K,V> boolean casTabAt(AtomicReferenceArray<MyNode<K,V>> tab, int i, MyNode<K,V> c, MyNode<K,V> v) {
+        return tab.compareAndSet(i, c, v);
+    }
+
+    static final <K,V> void setTabAt(AtomicReferenceArray<MyNode<K,V>> tab, int i, MyNode<K,V> v) {
+        tab.set(i, v);
+    }
+
+    /**
+     * 创建一个空的ConcurrentHashMap, 采用默认初始化容量16
+     */
+    public MyConcurrentHashMap() {
+    }
+
+    /**
+     * 指定初始容量构建ConcurrentHashMap
+     *
+     * 需要注意的是, 这里的table容量并不是tableSizeFor(initialCapacity), 而是 tableSizeFor(1.5 * initialCapacity + 1)
+     * 目的是保证放入initialCapacity个元素之后也不会触发扩容
+     * @param initialCapacity
+     */
+    public MyConcurrentHashMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException();
+        this.sizeCtl = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ? MAXIMUM_CAPACITY :
+                tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+    }
+
+    public MyConcurrentHashMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, 1);
+    }
+
+    /**
+     * 指定初始容量、负载因子以及并发度构建ConcurrentHashMap
+     *
+     * 这里的loadFactor、concurrencyLevel只用于计算初始容量, 是为了兼容JDK1.7的构造方法
+     * @param initialCapacity
+     * @param loadFactor
+     * @param concurrencyLevel 预计并发更新的线程数
+     */
+    public MyConcurrentHashMap(int initialCapacity, float loadFactor, int concurrencyLevel) {
+        if (!(loadFactor > 0.0f) || initialCapacity < 0 || concurrencyLevel <= 0)
+            throw new IllegalArgumentException();
+        if (initialCapacity < concurrencyLevel)
+            initialCapacity = concurrencyLevel;
+        long size = (long) (1.0 + (long) initialCapacity / loadFactor);
+        int cap = (size >= (long) MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : tableSizeFor((int) size);
+        this.sizeCtl = cap;
+    }
+
+    /**
+     * 获取到元素个数, 这里的结果只是一个估计值, 因为统计期间其他线程可能仍在修改
+     * @return
+     */
+    @Override
+    public int size() {
+        long n = sumCount();
+        return ((n < 0L) ? 0 : (n > (long) Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return sumCount() <= 0L;
+    }
+
+    /**
+     * 获取key对应的value, 整个过程不加锁
+     *
+     * 1. 如果头结点就是目标结点, 直接返回
+     * 2. 如果头结点的hash值 < 0, 说明是特殊结点(ForwardingNode), 调用它的find方法到nextTable中检索
+     * 3. 否则遍历链表检索
+     * @param key
+     * @return
+     */
+    @Override
+    public V get(Object key) {
+        AtomicReferenceArray<MyNode<K,V>> tab;
+        MyNode<K,V> e, p;
+        int n, eh;
+        K ek;
+        int h = spread(key.hashCode());
+        if ((tab = table) != null && (n = tab.length()) > 0 && (e = tabAt(tab, (n - 1) & h)) != null) {
+            if ((eh = e.hash) == h) {
+                if ((ek = e.key) == key || (ek != null && key.equals(ek)))
+                    return e.val;
+            } else if (eh < 0)
+                return (p = e.find(h, key)) != null ? p.val : null;
+            while ((e = e.next) != null) {
+                if (e.hash == h && ((ek = e.key) == key || (ek != null && key.equals(ek))))
+                    return e.val;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 是否存在包含传入value的键值对, 需要遍历整个table, 遍历过程中遇到ForwardingNode会转到nextTable中
+     * @param value
+     * @return
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        AtomicReferenceArray<MyNode<K,V>> t;
+        if ((t = table) != null) {
+            Traverser<K,V> it = new Traverser<>(t, t.length(), 0, t.length());
+            for (MyNode<K,V> p; (p = it.advance()) != null; ) {
+                V v;
+                if ((v = p.val) == value || (v != null && value.equals(v)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * put的核心逻辑
+     *
+     * 这里是一个自旋的过程:
+     *     1. 如果table没有初始化, 那么先初始化table
+     *     2. 如果桶为空, 那么通过CAS放入新结点, CAS失败说明有其他线程抢先放入了, 那么重新自旋
+     *     3. 如果桶上是ForwardingNode, 说明正在扩容, 那么先协助扩容, 然后在新table上重试
+     *     4. 否则锁住桶上的头结点, 执行链表的插入或覆盖逻辑
+     * 最后调用addCount对元素个数+1, 并判断是否需要扩容
+     * @param key
+     * @param value
+     * @param onlyIfAbsent 如果为true, 那么就不修改已经存在的value值
+     * @return
+     */
+    final V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        int binCount = 0; // 桶上链表的长度
+        for (AtomicReferenceArray<MyNode<K,V>> tab = table;;) {
+            MyNode<K,V> f;
+            int n, i, fh;
+            if (tab == null || (n = tab.length()) == 0)
+                tab = initTable();
+            else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                if (casTabAt(tab, i, null, new MyNode<>(hash, key, value, null)))
+                    break; // 空桶上的CAS插入是不需要加锁的
+            } else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                synchronized (f) {
+                    // 加锁之后需要再次检查头结点是否发生了变化, 因为加锁前其他线程可能已经删除了这个结点, 或者将这个桶迁移到了新table中
+                    if (tabAt(tab, i) == f) {
+                        if (fh >= 0) {
+                            binCount = 1;
+                            for (MyNode<K,V> e = f;; ++binCount) {
+                                K ek;
+                                if (e.hash == hash && ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                    oldVal = e.val;
+                                    if (!onlyIfAbsent)
+                                        e.val = value;
+                                    break;
+                                }
+                                MyNode<K,V> pred = e;
+                                if ((e = e.next) == null) {
+                                    pred.next = new MyNode<>(hash, key, value, null);
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+                if (binCount != 0) { // binCount为0说明头结点发生了变化, 需要重新自旋
+                    if (oldVal != null)
+                        return oldVal;
+                    break;
+                }
+            }
+        }
+        addCount(1L, binCount);
+        return null;
+    }
+
+    /**
+     * 将java.util.Map中的所有键值对放入当前Map, 放入之前会先通过tryPresize一次性扩容到足够的容量
+     * @param m
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        tryPresize(m.size());
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            putVal(e.getKey(), e.getValue(), false);
+    }
+
+    @Override
+    public void putAll(MyMap<? extends K, ? extends V> m) {
+        tryPresize(m.size());
+        m.forEach((key, value) -> putVal(key, value, false));
+    }
+
+    /**
+     * 遍历所有键值对, 遍历期间其他线程的修改不一定可见, 但不会抛出异常, 每个键值对最多访问一次
+     * @param action
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        AtomicReferenceArray<MyNode<K,V>> t;
+        if ((t = table) != null) {
+            Traverser<K,V> it = new Traverser<>(t, t.length(), 0, t.length());
+            for (MyNode<K,V> p; (p = it.advance()) != null; )
+                action.accept(p.key, p.val);
+        }
+    }
+
+    /**
+     * 尝试将table扩容到能够容纳size个元素的大小
+     *
+     * 1. 如果table还没有初始化, 那么直接按照目标容量初始化
+     * 2. 如果当前容量已经足够, 或者已经达到最大容量, 那么直接返回
+     * 3. 否则发起一次扩容, 由于每次扩容只能扩大两倍, 这里会循环直到容量足够 (如果有其他线程正在扩容, sizeCtl < 0, 那么直接退出)
+     * @param size
+     */
+    private final void tryPresize(int size) {
+        int c = (size >= (MAXIMUM_CAPACITY >>> 1)) ? MAXIMUM_CAPACITY : tableSizeFor(size + (size >>> 1) + 1);
+        int sc;
+        while ((sc = sizeCtl) >= 0) {
+            AtomicReferenceArray<MyNode<K,V>> tab = table;
+            int n;
+            if (tab == null || (n = tab.length()) == 0) {
+                n = (sc > c) ? sc : c;
+                if (SIZECTL.compareAndSet(this, sc, -1)) {
+                    try {
+                        if (table == tab) {
+                            table = new AtomicReferenceArray<>(n);
+                            sc = n - (n >>> 2);
+                        }
+                    } finally {
+                        sizeCtl = sc;
+                    }
+                }
+            } else if (c <= sc || n >= MAXIMUM_CAPACITY)
+                break;
+            else if (tab == table) {
+                int rs = resizeStamp(n);
+                if (SIZECTL.compareAndSet(this, sc, (rs << RESIZE_STAMP_SHIFT) + 2))
+                    transfer(tab, null);
+            }
+        }
+    }
+
+    /**
+     * 初始化table
+     *
+     * 通过CAS将sizeCtl修改为-1来竞争初始化的权利, 没有竞争到的线程会让出CPU, 等待初始化完成
+     * 初始化完成后sizeCtl = 0.75n, 作为下一次扩容的阈值
+     * @return
+     */
+    private final AtomicReferenceArray<MyNode<K,V>> initTable() {
+        AtomicReferenceArray<MyNode<K,V>> tab;
+        int sc;
+        while ((tab = table) == null || tab.length() == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // 其他线程正在初始化
+            else if (SIZECTL.compareAndSet(this, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length() == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_CAPACITY;
+                        AtomicReferenceArray<MyNode<K,V>> nt = new AtomicReferenceArray<>(n);
+                        table = tab = nt;
+                        sc = n - (n >>> 2);
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * 计算扩容戳, 不同容量的table扩容戳不同, 这样就能区分出sizeCtl记录的是哪一次扩容
+     *
+     * 扩容戳的第16位一定为1, 左移RESIZE_STAMP_SHIFT位之后sizeCtl一定为负数
+     * @param n
+     * @return
+     */
+    static final int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    /**
+     * 对元素个数加上x, 并且在check >= 0时检查是否需要扩容
+     *
+     * 计数部分与LongAdder的add方法相同:
+     *     先尝试CAS修改baseCount, 失败了就找到当前线程对应的CounterCell进行CAS, 再失败就进入fullAddCount
+     * 扩容部分:
+     *     如果元素个数超过了sizeCtl, 那么第一个线程将sizeCtl设置为 (扩容戳 << 16) + 2 并开始扩容
+     *     后续的线程如果发现正在扩容, 那么将sizeCtl + 1, 加入到扩容中
+     * @param x
+     * @param check 如果 < 0, 不检查扩容; 如果 <= 1, 只在没有竞争时检查扩容
+     */
+    private final void addCount(long x, int check) {
+        CounterCell[] as;
+        long b, s;
+        if ((as = counterCells) != null || !BASECOUNT.compareAndSet(this, b = baseCount, s = b + x)) {
+            CounterCell a;
+            long v;
+            int m;
+            boolean uncontended = true;
+            if (as == null || (m = as.length - 1) < 0 || (a = as[getProbe() & m]) == null ||
+                    !(uncontended = CELLVALUE.compareAndSet(a, v = a.value, v + x))) {
+                fullAddCount(x, uncontended);
+                return;
+            }
+            if (check <= 1)
+                return;
+            s = sumCount();
+        }
+        if (check >= 0) {
+            AtomicReferenceArray<MyNode<K,V>> tab, nt;
+            int n, sc;
+            while (s >= (long) (sc = sizeCtl) && (tab = table) != null && (n = tab.length()) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT;
+                if (sc < 0) { // 正在扩容
+                    // 扩容已经结束、参与线程已满、或者已经没有可领取的桶区间, 那么不再参与
+                    if (sc == rs + MAX_RESIZERS || sc == rs + 1 || (nt = nextTable) == null || transferIndex <= 0)
+                        break;
+                    if (SIZECTL.compareAndSet(this, sc, sc + 1))
+                        transfer(tab, nt);
+                } else if (SIZECTL.compareAndSet(this, sc, rs + 2))
+                    transfer(tab, null); // 第一个发起扩容的线程
+                s = sumCount();
+            }
+        }
+    }
+
+    /**
+     * 如果正在扩容, 那么协助扩容, 并返回新的table
+     * @param tab
+     * @param f
+     * @return
+     */
+    final AtomicReferenceArray<MyNode<K,V>> helpTransfer(AtomicReferenceArray<MyNode<K,V>> tab, MyNode<K,V> f) {
+        AtomicReferenceArray<MyNode<K,V>> nextTab;
+        int sc;
+        if (tab != null && (f instanceof ForwardingNode) && (nextTab = ((ForwardingNode<K,V>) f).nextTable) != null) {
+            int rs = resizeStamp(tab.length()) << RESIZE_STAMP_SHIFT;
+            while (nextTab == nextTable && table == tab && (sc = sizeCtl) < 0) {
+                if (sc == rs + MAX_RESIZERS || sc == rs + 1 || transferIndex <= 0)
+                    break;
+                if (SIZECTL.compareAndSet(this, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * 扩容迁移的核心逻辑, 将tab中的结点迁移到nextTab中
+     *
+     * 1. 根据CPU核数计算每个线程一次领取的桶数量stride, 最少为MIN_TRANSFER_STRIDE
+     * 2. 如果nextTab为空, 说明是第一个扩容线程, 创建两倍容量的nextTab, 并将transferIndex设置为n
+     * 3. 每个线程通过CAS将transferIndex减去stride, 领取到 [transferIndex - stride, transferIndex) 这段桶区间, 从高位向低位迁移
+     *      空桶: 直接CAS放入ForwardingNode
+     *      ForwardingNode: 说明已经迁移过了, 跳过
+     *      普通桶: 锁住头结点, 与HashMap相同, 按照 hash & n 拆分为高低位两个链表, 分别放到nextTab的i、i + n位置上, 然后在旧桶上放入ForwardingNode
+     * 4. 线程完成迁移后将sizeCtl - 1, 最后一个完成的线程会再检查一遍整个table, 然后将nextTab设置为table
+     *
+     * 与HashMap不同的是, 这里拆分链表时会复制结点, 而不是修改原结点的next指针, 这样正在旧table上遍历的读线程就不会受到影响
+     * 不过这里会先找到链表末尾一段高低位相同的结点(lastRun), 这一段可以直接复用, 只需要复制前面的结点
+     * @param tab
+     * @param nextTab
+     */
+    private final void transfer(AtomicReferenceArray<MyNode<K,V>> tab, AtomicReferenceArray<MyNode<K,V>> nextTab) {
+        int n = tab.length(), stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE;
+        if (nextTab == null) { // 初始化nextTab
+            try {
+                nextTab = new AtomicReferenceArray<>(n << 1);
+            } catch (Throwable ex) { // 内存不足
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length();
+        ForwardingNode<K,V> fwd = new ForwardingNode<>(nextTab);
+        boolean advance = true; // 为true时表示当前桶已经处理完, 需要前进到下一个桶
+        boolean finishing = false; // 为true时表示整个迁移已经完成, 在提交nextTab之前会再扫描一遍
+        for (int i = 0, bound = 0;;) {
+            MyNode<K,V> f;
+            int fh;
+            while (advance) { // 计算下一个要处理的桶下标i, 当前区间处理完时领取新的区间
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                } else if (TRANSFERINDEX.compareAndSet(this, nextIndex,
+                        nextBound = (nextIndex > stride ? nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) { // 已经没有可以领取的区间了
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = (n << 1) - (n >>> 1); // 新的阈值 = 2n * 0.75
+                    return;
+                }
+                if (SIZECTL.compareAndSet(this, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT) // 不是最后一个扩容线程, 直接退出
+                        return;
+                    finishing = advance = true;
+                    i = n; // 最后一个线程在提交之前重新检查一遍整个table
+                }
+            } else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if ((fh = f.hash) == MOVED)
+                advance = true; // 已经处理过了
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        MyNode<K,V> ln, hn;
+                        if (fh >= 0) {
+                            int runBit = fh & n;
+                            MyNode<K,V> lastRun = f;
+                            for (MyNode<K,V> p = f.next; p != null; p = p.next) {
+                                int b = p.hash & n;
+                                if (b != runBit) {
+                                    runBit = b;
+                                    lastRun = p;
+                                }
+                            }
+                            if (runBit == 0) {
+                                ln = lastRun;
+                                hn = null;
+                            } else {
+                                hn = lastRun;
+                                ln = null;
+                            }
+                            for (MyNode<K,V> p = f; p != lastRun; p = p.next) {
+                                int ph = p.hash;
+                                K pk = p.key;
+                                V pv = p.val;
+                                if ((ph & n) == 0)
+                                    ln = new MyNode<>(ph, pk, pv, ln);
+                                else
+                                    hn = new MyNode<>(ph, pk, pv, hn);
+                            }
+                            setTabAt(nextTab, i, ln);
+                            setTabAt(nextTab, i + n, hn);
+                            setTabAt(tab, i, fwd);
+                            advance = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 统计元素个数: baseCount + 所有CounterCell的value
+     * @return
+     */
+    final long sumCount() {
+        CounterCell[] as = counterCells;
+        CounterCell a;
+        long sum = baseCount;
+        if (as != null) {
+            for (int i = 0; i < as.length; ++i) {
+                if ((a = as[i]) != null)
+                    sum += a.value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 与LongAdder的longAccumulate相同, 在存在竞争时完成计数
+     *
+     * 1. 如果CounterCell数组已经初始化:
+     *      当前线程对应的Cell为空, 那么加锁创建一个Cell
+     *      否则CAS修改Cell的value, 失败了说明这个Cell上也存在竞争, 那么扩容CounterCell数组(最大不超过CPU核数), 或者更换当前线程的probe重试
+     * 2. 如果CounterCell数组没有初始化, 那么加锁初始化一个长度为2的数组
+     * 3. 如果加锁失败, 那么再尝试CAS修改baseCount
+     * @param x
+     * @param wasUncontended 调用前的CAS是否失败
+     */
+    private final void fullAddCount(long x, boolean wasUncontended) {
+        int h = getProbe();
+        boolean collide = false; // 为true时表示上一次定位到的Cell不为空, 且存在竞争
+        for (;;) {
+            CounterCell[] as;
+            CounterCell a;
+            int n;
+            long v;
+            if ((as = counterCells) != null && (n = as.length) > 0) {
+                if ((a = as[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) { // 尝试创建一个新的Cell
+                        CounterCell r = new CounterCell(x);
+                        if (cellsBusy == 0 && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                            boolean created = false;
+                            try {
+                                CounterCell[] rs;
+                                int m, j;
+                                if ((rs = counterCells) != null && (m = rs.length) > 0 && rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue;
+                        }
+                    }
+                    collide = false;
+                } else if (!wasUncontended) // 已知CAS失败, 先更换probe再重试
+                    wasUncontended = true;
+                else if (CELLVALUE.compareAndSet(a, v = a.value, v + x))
+                    break;
+                else if (counterCells != as || n >= NCPU)
+                    collide = false; // 数组已经扩容过了, 或者已经达到了最大长度
+                else if (!collide)
+                    collide = true;
+                else if (cellsBusy == 0 && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                    try {
+                        if (counterCells == as) { // 扩容CounterCell数组
+                            CounterCell[] rs = new CounterCell[n << 1];
+                            for (int i = 0; i < n; ++i)
+                                rs[i] = as[i];
+                            counterCells = rs;
+                        }
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;
+                }
+                h = advanceProbe(h);
+            } else if (cellsBusy == 0 && counterCells == as && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                boolean init = false;
+                try {
+                    if (counterCells == as) {
+                        CounterCell[] rs = new CounterCell[2];
+                        rs[h & 1] = new CounterCell(x);
+                        counterCells = rs;
+                        init = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (init)
+                    break;
+            } else if (BASECOUNT.compareAndSet(this, v = baseCount, v + x))
+                break;
+        }
+    }
+
+    /**
+     * 删除key对应的结点
+     * @param key
+     * @return
+     */
+    @Override
+    public V remove(Object key) {
+        return replaceNode(key, null, null);
+    }
+
+    /**
+     * remove与replace的核心逻辑
+     *
+     * 与putVal相同, 遇到ForwardingNode就协助扩容, 否则锁住头结点进行操作
+     * 如果cv不为空, 那么只有当前value与cv相等时才会执行替换或删除
+     * @param key
+     * @param value 替换的新value, 为null时表示删除
+     * @param cv 期望的旧value, 为null时表示不校验
+     * @return 旧value, 没有执行替换或删除时返回null
+     */
+    final V replaceNode(Object key, V value, Object cv) {
+        int hash = spread(key.hashCode());
+        for (AtomicReferenceArray<MyNode<K,V>> tab = table;;) {
+            MyNode<K,V> f;
+            int n, i, fh;
+            if (tab == null || (n = tab.length()) == 0 || (f = tabAt(tab, i = (n - 1) & hash)) == null)
+                break;
+            else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                boolean validated = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        if (fh >= 0) {
+                            validated = true;
+                            for (MyNode<K,V> e = f, pred = null;;) {
+                                K ek;
+                                if (e.hash == hash && ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                    V ev = e.val;
+                                    if (cv == null || cv == ev || (ev != null && cv.equals(ev))) {
+                                        oldVal = ev;
+                                        if (value != null)
+                                            e.val = value;
+                                        else if (pred != null)
+                                            pred.next = e.next;
+                                        else
+                                            setTabAt(tab, i, e.next);
+                                    }
+                                    break;
+                                }
+                                pred = e;
+                                if ((e = e.next) == null)
+                                    break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (oldVal != null) {
+                        if (value == null)
+                            addCount(-1L, -1);
+                        return oldVal;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 清空整个table
+     *
+     * 逐个锁住桶上的头结点并置为null, 遇到ForwardingNode时先协助扩容, 然后从新table的头部重新开始
+     */
+    @Override
+    public void clear() {
+        long delta = 0L;
+        int i = 0;
+        AtomicReferenceArray<MyNode<K,V>> tab = table;
+        while (tab != null && i < tab.length()) {
+            int fh;
+            MyNode<K,V> f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if ((fh = f.hash) == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0;
+            } else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        MyNode<K,V> p = (fh >= 0 ? f : null);
+                        while (p != null) {
+                            --delta;
+                            p = p.next;
+                        }
+                        setTabAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0L)
+            addCount(delta, -1);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V v;
+        return (v = get(key)) == null ? defaultValue : v;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && replaceNode(key, null, value) != null;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        return replaceNode(key, newValue, oldValue) != null;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        return replaceNode(key, value, null);
+    }
+
+    /**
+     * 原生JDK中computeIfAbsent会在桶上放置一个ReservationNode占位, 然后在锁住桶的情况下执行mappingFunction, 保证函数只执行一次
+     * 这里为了简化, 采用的是与原生ConcurrentMap接口默认方法相同的乐观重试策略:
+     *     先get, 不存在时执行mappingFunction, 然后通过putIfAbsent放入, 如果其他线程抢先放入了, 那么返回其他线程放入的value
+     * 因此在竞争的情况下, mappingFunction可能会被多个线程执行, 但最终只有一个结果会被放入Map
+     * @param key
+     * @param mappingFunction
+     * @return
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (key == null || mappingFunction == null)
+            throw new NullPointerException();
+        V oldValue, newValue;
+        return ((oldValue = get(key)) == null
+                && (newValue = mappingFunction.apply(key)) != null
+                && (oldValue = putIfAbsent(key, newValue)) == null)
+                ? newValue
+                : oldValue;
+    }
+
+    /**
+     * 乐观重试: 计算出新的value之后, 通过replace(key, oldValue, newValue)或者remove(key, oldValue)进行CAS式的更新
+     * 如果期间value被其他线程修改了, 那么重新读取value并重新计算
+     * @param key
+     * @param remappingFunction
+     * @return
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        for (V oldValue; (oldValue = get(key)) != null; ) {
+            V newValue = remappingFunction.apply(key, oldValue);
+            if ((newValue == null) ? remove(key, oldValue) : replace(key, oldValue, newValue))
+                return newValue;
+        }
+        return null;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        retry: for (;;) {
+            V oldValue = get(key);
+            haveOldValue: for (;;) {
+                V newValue = remappingFunction.apply(key, oldValue);
+                if (newValue != null) {
+                    if (oldValue != null) {
+                        if (replace(key, oldValue, newValue))
+                            return newValue;
+                    }
+                    else if ((oldValue = putIfAbsent(key, newValue)) == null)
+                        return newValue;
+                    else continue haveOldValue; // 其他线程抢先放入了, 使用它放入的value重新计算
+                } else if (oldValue == null || remove(key, oldValue)) {
+                    return null;
+                }
+                continue retry;
+            }
+        }
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (key == null || value == null || remappingFunction == null)
+            throw new NullPointerException();
+        retry: for (;;) {
+            V oldValue = get(key);
+            haveOldValue: for (;;) {
+                if (oldValue != null) {
+                    V newValue = remappingFunction.apply(oldValue, value);
+                    if (newValue != null) {
+                        if (replace(key, oldValue, newValue))
+                            return newValue;
+                    } else if (remove(key, oldValue)) {
+                        return null;
+                    }
+                    continue retry;
+                } else {
+                    if ((oldValue = putIfAbsent(key, value)) == null)
+                        return value;
+                    continue haveOldValue;
+                }
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // 视图以及迭代器
+
+    /**
+     * 返回key的Set视图
+     *
+     * 与HashMap不同, ConcurrentHashMap的迭代器是弱一致性(weakly consistent)的, 而不是fail-fast的:
+     *     迭代器基于Traverser遍历, 不会抛出ConcurrentModificationException, 能够反映创建之后的部分修改, 但不保证反映全部修改
+     * @return
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks;
+        return (ks = keySet) != null ? ks : (keySet = new KeySetView());
+    }
+
+    /**
+     * 返回value的Collection视图, 弱一致性
+     * @return
+     */
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs;
+        return (vs = values) != null ? vs : (values = new ValuesView());
+    }
+
+    /**
+     * 返回键值对的Set视图, 弱一致性
+     *
+     * 迭代返回的Entry是一个快照(MapEntry), 调用setValue时会通过put写回Map
+     * @return
+     */
+    @Override
+    public Set<Entry<K,V>> entrySet() {
+        Set<Entry<K,V>> es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySetView());
+    }
+
+    final class KeySetView extends AbstractSet<K> {
+        public int size()                 { return MyConcurrentHashMap.this.size(); }
+        public boolean isEmpty()          { return MyConcurrentHashMap.this.isEmpty(); }
+        public void clear()               { MyConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) { return containsKey(o); }
+        public boolean remove(Object o)   { return MyConcurrentHashMap.this.remove(o) != null; }
+        public Iterator<K> iterator() {
+            AtomicReferenceArray<MyNode<K,V>> t;
+            int f = (t = table) == null ? 0 : t.length();
+            return new KeyIterator<>(t, f, 0, f, MyConcurrentHashMap.this);
+        }
+    }
+
+    final class ValuesView extends AbstractCollection<V> {
+        public int size()                 { return MyConcurrentHashMap.this.size(); }
+        public boolean isEmpty()          { return MyConcurrentHashMap.this.isEmpty(); }
+        public void clear()               { MyConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) { return containsValue(o); }
+        public Iterator<V> iterator() {
+            AtomicReferenceArray<MyNode<K,V>> t;
+            int f = (t = table) == null ? 0 : t.length();
+            return new ValueIterator<>(t, f, 0, f, MyConcurrentHashMap.this);
+        }
+    }
+
+    final class EntrySetView extends AbstractSet<Entry<K,V>> {
+        public int size()        { return MyConcurrentHashMap.this.size(); }
+        public boolean isEmpty() { return MyConcurrentHashMap.this.isEmpty(); }
+        public void clear()      { MyConcurrentHashMap.this.clear(); }
+        public boolean contains(Object o) {
+            Object k, v, r;
+            Entry<?,?> e;
+            return ((o instanceof Entry) &&
+                    (k = (e = (Entry<?,?>) o).getKey()) != null &&
+                    (r = get(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+        public boolean remove(Object o) {
+            Object k, v;
+            Entry<?,?> e;
+            return ((o instanceof Entry) &&
+                    (k = (e = (Entry<?,?>) o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    MyConcurrentHashMap.this.remove(k, v));
+        }
+        public Iterator<Entry<K,V>> iterator() {
+            AtomicReferenceArray<MyNode<K,V>> t;
+            int f = (t = table) == null ? 0 : t.length();
+            return new EntryIterator<>(t, f, 0, f, MyConcurrentHashMap.this);
+        }
+    }
+
+    /**
+     * 迭代器的公共父类, 在Traverser的基础上记录上一次返回的结点, 用于支持remove
+     */
+    static class BaseIterator<K,V> extends Traverser<K,V> {
+        final MyConcurrentHashMap<K,V> map;
+        MyNode<K,V> lastReturned;
+
+        BaseIterator(AtomicReferenceArray<MyNode<K,V>> tab, int size, int index, int limit, MyConcurrentHashMap<K,V> map) {
+            super(tab, size, index, limit);
+            this.map = map;
+            advance();
+        }
+
+        public final boolean hasNext() { return next != null; }
+
+        public final void remove() {
+            MyNode<K,V> p;
+            if ((p = lastReturned) == null)
+                throw new IllegalStateException();
+            lastReturned = null;
+            map.replaceNode(p.key, null, null);
+        }
+    }
+
+    static final class KeyIterator<K,V> extends BaseIterator<K,V> implements Iterator<K> {
+        KeyIterator(AtomicReferenceArray<MyNode<K,V>> tab, int size, int index, int limit, MyConcurrentHashMap<K,V> map) {
+            super(tab, size, index, limit, map);
+        }
+
+        public final K next() {
+            MyNode<K,V> p;
+            if ((p = next) == null)
+                throw new NoSuchElementException();
+            K k = p.key;
+            lastReturned = p;
+            advance();
+            return k;
+        }
+    }
+
+    static final class ValueIterator<K,V> extends BaseIterator<K,V> implements Iterator<V> {
+        ValueIterator(AtomicReferenceArray<MyNode<K,V>> tab, int size, int index, int limit, MyConcurrentHashMap<K,V> map) {
+            super(tab, size, index, limit, map);
+        }
+
+        public final V next() {
+            MyNode<K,V> p;
+            if ((p = next) == null)
+                throw new NoSuchElementException();
+            V v = p.val;
+            lastReturned = p;
+            advance();
+            return v;
+        }
+    }
+
+    static final class EntryIterator<K,V> extends BaseIterator<K,V> implements Iterator<Entry<K,V>> {
+        EntryIterator(AtomicReferenceArray<MyNode<K,V>> tab, int size, int index, int limit, MyConcurrentHashMap<K,V> map) {
+            super(tab, size, index, limit, map);
+        }
+
+        public final Entry<K,V> next() {
+            MyNode<K,V> p;
+            if ((p = next) == null)
+                throw new NoSuchElementException();
+            K k = p.key;
+            V v = p.val;
+            lastReturned = p;
+            advance();
+            return new MapEntry<>(k, v, map);
+        }
+    }
+
+    /**
+     * EntryIterator返回的键值对, 保存的是迭代时key、value的快照
+     *
+     * setValue会更新快照中的value, 并通过put写回Map (写回之后Map中的值可能又被其他线程修改了, 因此返回值只代表快照中的旧值)
+     */
+    static final class MapEntry<K,V> implements Entry<K,V> {
+        final K key;
+        V val;
+        final MyConcurrentHashMap<K,V> map;
+
+        MapEntry(K key, V val, MyConcurrentHashMap<K,V> map) {
+            this.key = key;
+            this.val = val;
+            this.map = map;
+        }
+
+        public K getKey()        { return key; }
+        public V getValue()      { return val; }
+        public int hashCode()    { return key.hashCode() ^ val.hashCode(); }
+        public String toString() { return key + "=" + val; }
+
+        public boolean equals(Object o) {
+            Object k, v;
+            Entry<?,?> e;
+            return ((o instanceof Entry) &&
+                    (k = (e = (Entry<?,?>) o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    (k == key || k.equals(key)) &&
+                    (v == val || v.equals(val)));
+        }
+
+        public V setValue(V value) {
+            if (value == null)
+                throw new NullPointerException();
+            V v = val;
+            val = value;
+            map.put(key, value);
+            return v;
+        }
+    }
+
+    /**
+     * 遍历table的迭代器, 能够正确处理扩容过程中的ForwardingNode
+     *
+     * 遇到ForwardingNode时, 会将当前table的状态压栈, 转到nextTable中遍历 i 和 i + n 两个桶, 遍历完之后再出栈回到旧table
+     * 这样即便遍历期间发生了扩容, 每个结点也只会被访问一次
+     */
+    static class Traverser<K,V> {
+        AtomicReferenceArray<MyNode<K,V>> tab; // 当前遍历的table
+        MyNode<K,V> next; // 下一个返回的结点
+        TableStack<K,V> stack, spare; // 遇到ForwardingNode时保存的状态, spare用于复用栈结点
+        int index; // 下一个要遍历的桶下标
+        int baseIndex; // 初始table中的当前下标
+        int baseLimit; // 初始table中的下标上界
+        final int baseSize; // 初始table的长度
+
+        Traverser(AtomicReferenceArray<MyNode<K,V>> tab, int size, int index, int limit) {
+            this.tab = tab;
+            this.baseSize = size;
+            this.baseIndex = this.index = index;
+            this.baseLimit = limit;
+            this.next = null;
+        }
+
+        /**
+         * 前进到下一个结点, 没有更多结点时返回null
+         * @return
+         */
+        final MyNode<K,V> advance() {
+            MyNode<K,V> e;
+            if ((e = next) != null)
+                e = e.next;
+            for (;;) {
+                AtomicReferenceArray<MyNode<K,V>> t;
+                int i, n;
+                if (e != null)
+                    return next = e;
+                if (baseIndex >= baseLimit || (t = tab) == null || (n = t.length()) <= (i = index) || i < 0)
+                    return next = null;
+                if ((e = tabAt(t, i)) != null && e.hash < 0) {
+                    if (e instanceof ForwardingNode) {
+                        tab = ((ForwardingNode<K,V>) e).nextTable;
+                        e = null;
+                        pushState(t, i, n);
+                        continue;
+                    } else
+                        e = null;
+                }
+                if (stack != null)
+                    recoverState(n);
+                else if ((index = i + baseSize) >= n)
+                    index = ++baseIndex;
+            }
+        }
+
+        private void pushState(AtomicReferenceArray<MyNode<K,V>> t, int i, int n) {
+            TableStack<K,V> s = spare;
+            if (s != null)
+                spare = s.next;
+            else
+                s = new TableStack<>();
+            s.tab = t;
+            s.length = n;
+            s.index = i;
+            s.next = stack;
+            stack = s;
+        }
+
+        private void recoverState(int n) {
+            TableStack<K,V> s;
+            int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                tab = s.tab;
+                s.tab = null;
+                TableStack<K,V> next = s.next;
+                s.next = spare;
+                stack = next;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n)
+                index = ++baseIndex;
+        }
+    }
+
+    /**
+     * Traverser遇到ForwardingNode时保存的状态
+     */
+    static final class TableStack<K,V> {
+        int length;
+        int index;
+        AtomicReferenceArray<MyNode<K,V>> tab;
+        TableStack<K,V> next;
+    }
+
+    /*
+     * 下面是probe以及字段更新器相关的操作
+     *
+     * 原生JDK中ThreadLocalRandom.getProbe()是包访问权限的, 读写的是Thread中的threadLocalRandomProbe字段, 外部无法访问
+     * 这里改为每个线程在ThreadLocal中保存自己的probe, 初始值取一个非0的随机数; 只有baseCount上出现竞争之后才会用到, 多一次ThreadLocal查找的代价可以接受
+     */
+
+    //每个线程的probe, 用于定位CounterCell, 保证不为0
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(
+            () -> new int[] { ThreadLocalRandom.current().nextInt() | 1 });
+
+    static final int getProbe() {
+        return PROBE.get()[0];
+    }
+
+    /**
+     * 通过xorshift算法生成一个新的probe, 并保存到当前线程中
+     * @param probe
+     * @return
+     */
+    static final int advanceProbe(int probe) {
+        probe ^= probe << 13;
+        probe ^= probe >>> 17;
+        probe ^= probe << 5;
+        PROBE.get()[0] = probe;
+        return probe;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicIntegerFieldUpdater<MyConcurrentHashMap<?,?>> SIZECTL =
+            (AtomicIntegerFieldUpdater<MyConcurrentHashMap<?,?>>) (AtomicIntegerFieldUpdater<?>)
+                    AtomicIntegerFieldUpdater.newUpdater(MyConcurrentHashMap.class, "sizeCtl");
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicIntegerFieldUpdater<MyConcurrentHashMap<?,?>> TRANSFERINDEX =
+            (AtomicIntegerFieldUpdater<MyConcurrentHashMap<?,?>>) (AtomicIntegerFieldUpdater<?>)
+                    AtomicIntegerFieldUpdater.newUpdater(MyConcurrentHashMap.class, "transferIndex");
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicIntegerFieldUpdater<MyConcurrentHashMap<?,?>> CELLSBUSY =
+            (AtomicIntegerFieldUpdater<MyConcurrentHashMap<?,?>>) (AtomicIntegerFieldUpdater<?>)
+                    AtomicIntegerFieldUpdater.newUpdater(MyConcurrentHashMap.class, "cellsBusy");
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicLongFieldUpdater<MyConcurrentHashMap<?,?>> BASECOUNT =
+            (AtomicLongFieldUpdater<MyConcurrentHashMap<?,?>>) (AtomicLongFieldUpdater<?>)
+                    AtomicLongFieldUpdater.newUpdater(MyConcurrentHashMap.class, "baseCount");
+
+    private static final AtomicLongFieldUpdater<CounterCell> CELLVALUE =
+            AtomicLongFieldUpdater.newUpdater(CounterCell.class, "value");
+}
@@ -0,0 +1,526 @@
+package com.whl.collection.map;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 支持过期时间的Map (分层时间轮)
+ * @Description:
+ *
+ * 基于LinkedHashMap实现, 每个键值对都记录了自己的过期时间(deadline), 支持两种过期策略:
+ *     AFTER_WRITE: 写入之后经过duration过期
+ *     AFTER_ACCESS: 最后一次读写之后经过duration过期, 每次访问都会延长过期时间
+ *
+ * 如果每次都扫描整个Map寻找过期的键值对, 那么在上百万个会话的场景下代价太高; 按过期时间排序(优先队列)则每次调度、取消都需要O(logn)
+ * 这里采用的是分层时间轮(hierarchical timing wheel), 调度、取消都是O(1)的:
+ *     时间轮有多层, 每一层是一个环形的桶数组, 每个桶是一个双向链表 (带哨兵结点)
+ *     第0层每个桶代表约1秒 (2^30纳秒), 第1层每个桶约1分钟, 第2层约1小时, 第3层约1.6天, 第4层只有1个桶, 保存更久之后才过期的键值对
+ *     键值对根据 "距离过期还有多久" 放入对应层级中, 与过期时间对应的那个桶里
+ *     时间推进时, 只需要处理从上一次推进到现在经过的那些桶: 桶中已经过期的键值对被删除, 还没有过期的(来自更高层的粗粒度桶)则重新放入更低的层级
+ * 这与Kafka、Netty以及Caffeine中的时间轮思路相同
+ *
+ * 过期的处理是惰性 + 批量的:
+ *     1. 读操作发现键值对已经过期时, 直接删除并当作不存在, 读操作本身不会推进时间轮
+ *     2. 写操作(put/remove)会先推进时间轮, 批量删除所有已经到期的键值对
+ *     3. 也可以调用cleanUp主动推进
+ * 因此size()中可能包含已经过期但还没有被清理的键值对, 视图的迭代器则会跳过它们
+ *
+ * 与LinkedHashMap相同, 这个类不是线程安全的
+ */
+public class MyExpiringMap<K,V> implements MyMap<K,V> {
+    /**
+     * 过期策略
+     */
+    public enum ExpirationPolicy {
+        AFTER_WRITE, // 写入之后经过duration过期
+        AFTER_ACCESS // 最后一次读写之后经过duration过期
+    }
+
+    //每一层时间轮的桶数量, 必须为2的n次方
+    static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+    //每一层时间轮中一个桶代表的时间跨度(纳秒), 都是2的n次方, 这样计算桶下标时只需要移位
+    static final long[] SPANS = {
+            Long.highestOneBit(TimeUnit.SECONDS.toNanos(1)) << 1,   // 1.07s
+            Long.highestOneBit(TimeUnit.MINUTES.toNanos(1)) << 1,   // 1.14m
+            Long.highestOneBit(TimeUnit.HOURS.toNanos(1)) << 1,     // 1.22h
+            Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1,      // 1.63d
+            BUCKETS[3] * (Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1), // 6.5d
+            BUCKETS[3] * (Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1), // 6.5d
+    };
+
+    //SPANS对应的位移量
+    static final long[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    /**
+     * 键值对结点, 同时也是时间轮桶链表中的结点
+     */
+    static class TimerNode<K,V> implements Entry<K,V> {
+        final K key;
+        V value;
+        long deadline; // 过期时间, 与ticker的时间基准相同
+        TimerNode<K,V> prev, next; // 时间轮桶链表中的前序、后继结点, 不在时间轮中时为null
+
+        TimerNode(K key, V value, long deadline) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public final K getKey()   { return key; }
+        public final V getValue() { return value; }
+
+        public final V setValue(V newValue) {
+            V oldValue = value;
+            value = newValue;
+            return oldValue;
+        }
+
+        public final int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public final boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+
+        public final String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * 桶链表的哨兵结点, 空桶中prev、next都指向自己
+     */
+    static final class Sentinel<K,V> extends TimerNode<K,V> {
+        Sentinel() {
+            super(null, null, 0L);
+            prev = next = this;
+        }
+    }
+
+    final MyLinkedHashMap<K, TimerNode<K,V>> map; // 保存数据, 按插入顺序排序
+
+    final TimerNode<K,V>[][] wheel; // 分层时间轮
+
+    final long durationNanos; // 过期时长
+
+    final ExpirationPolicy policy; // 过期策略
+
+    final LongSupplier ticker; // 时间来源, 默认为System.nanoTime
+
+    long nanos; // 时间轮上一次推进到的时间
+
+    transient Set<K> keySet;//keySet视图
+
+    transient Collection<V> values;//values视图
+
+    transient Set<Entry<K,V>> entrySet;//entrySet视图
+
+    /**
+     * 创建一个写入之后经过duration过期的Map
+     * @param duration
+     * @param unit
+     */
+    public MyExpiringMap(long duration, TimeUnit unit) {
+        this(duration, unit, ExpirationPolicy.AFTER_WRITE);
+    }
+
+    public MyExpiringMap(long duration, TimeUnit unit, ExpirationPolicy policy) {
+        this(duration, unit, policy, System::nanoTime);
+    }
+
+    /**
+     * 指定时间来源创建Map, 主要用于测试
+     * @param duration
+     * @param unit
+     * @param policy
+     * @param ticker 返回当前时间(纳秒), 只用于计算时间差
+     */
+    @SuppressWarnings("unchecked")
+    MyExpiringMap(long duration, TimeUnit unit, ExpirationPolicy policy, LongSupplier ticker) {
+        if (duration <= 0)
+            throw new IllegalArgumentException("Illegal duration: " + duration);
+        if (policy == null || ticker == null)
+            throw new NullPointerException();
+        this.durationNanos = unit.toNanos(duration);
+        this.policy = policy;
+        this.ticker = ticker;
+        this.nanos = ticker.getAsLong();
+        this.map = new MyLinkedHashMap<>();
+        this.wheel = (TimerNode<K,V>[][]) new TimerNode<?,?>[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = (TimerNode<K,V>[]) new TimerNode<?,?>[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++)
+                wheel[i][j] = new Sentinel<>();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // 时间轮
+
+    /**
+     * 根据过期时间找到结点应该放入的桶
+     *
+     * 距离过期的时间小于第i+1层的一个桶跨度时, 放入第i层, 桶下标为 deadline >>> SHIFT[i] 对桶数量取模
+     * @param deadline
+     * @return
+     */
+    TimerNode<K,V> findBucket(long deadline) {
+        long duration = deadline - nanos;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = (deadline >>> SHIFT[i]);
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    /**
+     * 将结点放入时间轮, O(1)
+     * @param node
+     */
+    void schedule(TimerNode<K,V> node) {
+        TimerNode<K,V> sentinel = findBucket(node.deadline);
+        TimerNode<K,V> last = sentinel.prev;
+        node.prev = last;
+        node.next = sentinel;
+        last.next = node;
+        sentinel.prev = node;
+    }
+
+    /**
+     * 将结点从时间轮中移除, O(1)
+     * @param node
+     */
+    void unschedule(TimerNode<K,V> node) {
+        if (node.next != null) {
+            TimerNode<K,V> p = node.prev, n = node.next;
+            p.next = n;
+            n.prev = p;
+            node.prev = node.next = null;
+        }
+    }
+
+    /**
+     * 将时间轮推进到currentTimeNanos, 删除所有已经过期的结点
+     *
+     * 从第0层开始逐层处理: 如果这一层的tick (时间 >>> SHIFT) 没有变化, 那么更高的层也不会变化, 直接结束
+     * @param currentTimeNanos
+     */
+    void advance(long currentTimeNanos) {
+        long previousTimeNanos = nanos;
+        nanos = currentTimeNanos;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = (previousTimeNanos >>> SHIFT[i]);
+            long currentTicks = (currentTimeNanos >>> SHIFT[i]);
+            if ((currentTicks - previousTicks) <= 0L)
+                break;
+            expire(i, previousTicks, currentTicks);
+        }
+    }
+
+    /**
+     * 处理第index层中, 从previousTicks到currentTicks经过的所有桶 (最多一整圈)
+     *
+     * 桶中已经过期的结点直接删除, 还没有过期的结点重新调度, 由于距离过期的时间变短了, 它们会被放入更低的层级
+     * @param index
+     * @param previousTicks
+     * @param currentTicks
+     */
+    void expire(int index, long previousTicks, long currentTicks) {
+        TimerNode<K,V>[] timerWheel = wheel[index];
+        int mask = timerWheel.length - 1;
+        int steps = (int) Math.min(1 + Math.abs(currentTicks - previousTicks), timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            TimerNode<K,V> sentinel = timerWheel[i & mask];
+            TimerNode<K,V> node = sentinel.next;
+            sentinel.prev = sentinel.next = sentinel; // 先将整个桶摘下来, 再逐个处理
+            while (node != sentinel) {
+                TimerNode<K,V> next = node.next;
+                node.prev = node.next = null;
+                if (node.deadline - nanos > 0)
+                    schedule(node);
+                else
+                    map.remove(node.key);
+                node = next;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Map操作
+
+    private boolean isExpired(TimerNode<K,V> node, long now) {
+        return now - node.deadline >= 0;
+    }
+
+    /**
+     * 获取key对应的结点, 已经过期时删除并返回null; AFTER_ACCESS策略下还会延长过期时间并重新调度
+     * @param key
+     * @return
+     */
+    private TimerNode<K,V> getLiveNode(Object key) {
+        TimerNode<K,V> node = map.get(key);
+        if (node == null)
+            return null;
+        long now = ticker.getAsLong();
+        if (isExpired(node, now)) {
+            removeNode(key);
+            return null;
+        }
+        if (policy == ExpirationPolicy.AFTER_ACCESS) {
+            node.deadline = now + durationNanos;
+            unschedule(node);
+            schedule(node);
+        }
+        return node;
+    }
+
+    private TimerNode<K,V> removeNode(Object key) {
+        TimerNode<K,V> node = map.remove(key);
+        if (node != null)
+            unschedule(node);
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getLiveNode(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        long now = ticker.getAsLong();
+        for (TimerNode<K,V> node : map.values()) {
+            if (!isExpired(node, now) && Objects.equals(node.value, value))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        TimerNode<K,V> node = getLiveNode(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * 放入键值对, 并重新计算过期时间
+     *
+     * 写操作之前会先推进时间轮, 批量清理已经过期的键值对
+     * @param key
+     * @param value
+     * @return 旧value, 不存在或者已经过期时返回null
+     */
+    @Override
+    public V put(K key, V value) {
+        long now = ticker.getAsLong();
+        advance(now);
+        TimerNode<K,V> node = map.get(key);
+        if (node == null) {
+            node = new TimerNode<>(key, value, now + durationNanos);
+            map.put(key, node);
+            schedule(node);
+            return null;
+        }
+        V oldValue = isExpired(node, now) ? null : node.value;
+        node.value = value;
+        node.deadline = now + durationNanos;
+        unschedule(node);
+        schedule(node);
+        return oldValue;
+    }
+
+    @Override
+    public V remove(Object key) {
+        long now = ticker.getAsLong();
+        advance(now);
+        TimerNode<K,V> node = removeNode(key);
+        return node == null || isExpired(node, now) ? null : node.value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public void putAll(MyMap<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        for (TimerNode<K,V>[] timerWheel : wheel) {
+            for (TimerNode<K,V> sentinel : timerWheel)
+                sentinel.prev = sentinel.next = sentinel;
+        }
+    }
+
+    /**
+     * 推进时间轮到当前时间, 删除所有已经到期的键值对
+     */
+    public void cleanUp() {
+        advance(ticker.getAsLong());
+    }
+
+    /**
+     * 按插入顺序遍历所有没有过期的键值对, 遍历不会延长AFTER_ACCESS策略下的过期时间
+     * @param action
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        long now = ticker.getAsLong();
+        map.forEach((k, node) -> {
+            if (!isExpired(node, now))
+                action.accept(k, node.value);
+        });
+    }
+
+    /* ------------------------------------------------------------ */
+    // 视图以及迭代器, 迭代时跳过已经过期的键值对
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks;
+        return (ks = keySet) != null ? ks : (keySet = new KeySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs;
+        return (vs = values) != null ? vs : (values = new Values());
+    }
+
+    @Override
+    public Set<Entry<K,V>> entrySet() {
+        Set<Entry<K,V>> es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySet());
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public int size()                 { return MyExpiringMap.this.size(); }
+        public void clear()               { MyExpiringMap.this.clear(); }
+        public boolean contains(Object o) { return containsKey(o); }
+        public Iterator<K> iterator() {
+            return new ExpiringIterator<K>() {
+                K map(TimerNode<K,V> node) { return node.key; }
+            };
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public int size()                 { return MyExpiringMap.this.size(); }
+        public void clear()               { MyExpiringMap.this.clear(); }
+        public boolean contains(Object o) { return containsValue(o); }
+        public Iterator<V> iterator() {
+            return new ExpiringIterator<V>() {
+                V map(TimerNode<K,V> node) { return node.value; }
+            };
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K,V>> {
+        public int size()   { return MyExpiringMap.this.size(); }
+        public void clear() { MyExpiringMap.this.clear(); }
+        public Iterator<Entry<K,V>> iterator() {
+            return new ExpiringIterator<Entry<K,V>>() {
+                Entry<K,V> map(TimerNode<K,V> node) { return node; }
+            };
+        }
+    }
+
+    /**
+     * 直接沿着LinkedHashMap的双端链表遍历, 预先找到下一个没有过期的结点
+     *
+     * fail-fast的逻辑与LinkedHashMap的迭代器相同, 通过迭代器删除结点后会同步expectedModCount
+     */
+    abstract class ExpiringIterator<T> implements Iterator<T> {
+        final long now = ticker.getAsLong();
+        MyLinkedHashMap.MyEntry<K, TimerNode<K,V>> next; // 下一个没有过期的结点
+        TimerNode<K,V> current; // 上一次返回的结点, 用于remove
+        int expectedModCount = map.modCount;
+
+        ExpiringIterator() {
+            next = skipExpired(map.head);
+        }
+
+        private MyLinkedHashMap.MyEntry<K, TimerNode<K,V>> skipExpired(MyLinkedHashMap.MyEntry<K, TimerNode<K,V>> e) {
+            while (e != null && isExpired(e.value, now))
+                e = e.after;
+            return e;
+        }
+
+        abstract T map(TimerNode<K,V> node);
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        public final T next() {
+            MyLinkedHashMap.MyEntry<K, TimerNode<K,V>> e = next;
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (e == null)
+                throw new NoSuchElementException();
+            current = e.value;
+            next = skipExpired(e.after);
+            return map(current);
+        }
+
+        public final void remove() {
+            TimerNode<K,V> node = current;
+            if (node == null)
+                throw new IllegalStateException();
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = null;
+            removeNode(node.key);
+            expectedModCount = map.modCount;
+        }
+    }
+}
@@ -1,13 +1,38 @@
 package com.whl.collection.map;
 
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 /**
  * @author whl
  * @version V1.0
  * @Title: JDK1.8 - HashMap再实现
  * @Description:
  *
- * 在这个HashMap中, 我们仅仅实现了基本的功能, 不包含树化的相关操作, 因为个人对于红黑树的理解有限
- * 并且涉及到迭代器相关的操作, 例如keySet、valueSet等, 都没有进行相应的实现
+ * 在这个HashMap中, 我们实现了基本的功能以及树化的相关操作: 当一个桶上的链表长度达到TREEIFY_THRESHOLD时, 会将链表转换为红黑树 (TreeNode),
+ * 这样即便出现大量hash碰撞的key, get/put的时间复杂度也能维持在O(logn), 而不是退化为O(n)
+ * 迭代相关的操作通过keySet、values、entrySet三个视图实现, 它们并不会复制数据, 而是由HashIterator直接遍历桶数组
+ * 迭代器是fail-fast的: 迭代期间如果Map发生了结构性修改 (modCount发生变化), 那么会抛出ConcurrentModificationException
+ * 构造时可以传入MyHashStrategy替换key的hashCode、equals方法, diagnostics方法则可以统计桶的冲突情况, 便于调优
+ * 视图的Spliterator按照桶的下标区间拆分, 因此可以直接用于并行流; 除此以外还提供了基于ForkJoinPool的并行forEach、reduce、search批量操作
  *
  * 除此以外, 对一些后置处理操作, 例如 afterNodeAccess(e)、afterNodeInsertion(e)... 这类方法, 实际上HashMap对这些操作都是通过空方法实现的, 目的是为了方便子类LinkedHashMap继承
  *
@@ -28,10 +53,10 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
     static final float DEFAULT_LOAD_FACTOR = 0.75f;
 
     //链表长度到达8时, 进行树化操作
-//    static final int TREEIFY_THRESHOLD = 8;
+    static final int TREEIFY_THRESHOLD = 8;
 
     //链表长度退化到6时, 触发由树转换为链表的操作
-//    static final int UNTREEIFY_THRESHOLD = 6;
+    static final int UNTREEIFY_THRESHOLD = 6;
 
     /**
      * 可以触发树化的最小容量
@@ -40,20 +65,57 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      *
      * 那么为了避免进行扩容、树形化选择的冲突, 这个值不能小于 4 * TREEIFY_THRESHOLD
      */
-//    static final int MIN_TREEIFY_CAPACITY = 64;
+    static final int MIN_TREEIFY_CAPACITY = 64;
 
     MyNode<K,V>[] table;
 
     private int size;//map中的元素数量
 
+    /**
+     * Map发生结构性修改的次数 (新增、删除结点, 以及重新hash), 覆盖已存在key的value并不算结构性修改
+     *
+     * 迭代器在创建时会记录下这个值, 每次迭代时进行比较, 以此实现fail-fast
+     */
+    transient int modCount;
+
+    transient Set<K> keySet;//keySet视图, 第一次调用keySet()时创建
+
+    transient Collection<V> values;//values视图, 第一次调用values()时创建
+
+    transient Set<Entry<K,V>> entrySet;//entrySet视图, 第一次调用entrySet()时创建
+
     int threshold;//阈值, HashMap中能容纳的最大键值对数量, 当超过threshold时会触发扩容, threshold = (capacity * load factor).
 
     final float loadFactor;// 扩容因子
 
+    /**
+     * 是否开启渐进式扩容
+     *
+     * 开启之后, 扩容时只会申请新的table, 并不会一次性搬迁所有结点, 而是在之后的每次put/get/remove操作中搬迁TRANSFER_STEP个桶
+     * 这样就把一次扩容的耗时均摊到了后续的操作中, 避免Map中结点很多时出现单次扩容耗时过长的问题
+     */
+    final boolean incrementalResize;
+
+    /**
+     * 自定义的hash策略, 为null时使用key自身的hashCode、equals方法
+     *
+     * 指定了策略之后不会再将链表树化, 详见MyHashStrategy
+     */
+    final MyHashStrategy<Object> strategy;
+
+    //渐进式扩容时, 还没有搬迁完成的旧table, 为null时说明当前没有正在进行的扩容
+    MyNode<K,V>[] oldTable;
+
+    //渐进式扩容时, 旧table中下一个待搬迁的桶下标, 下标小于transferIndex的桶都已经搬迁完成
+    int transferIndex;
+
+    //渐进式扩容时, 每次操作最多搬迁的桶数量
+    static final int TRANSFER_STEP = 4;
+
     /**
      * Map中的键值对结点
      *
-     * 原生JDK还实现了equals、重写HashCode方法操作, 这里为了关注核心逻辑, 我省略了这两个方法
+     * 与原生JDK相同, 重写了equals、hashCode方法, 这样entrySet才能满足Set的语义
      */
     static class MyNode<K,V> implements Entry<K,V> {
         final int hash;
@@ -77,6 +139,20 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
             value = newValue;
             return oldValue;
         }
+
+        public final int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public final boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
     }
 
     /**
@@ -101,6 +177,74 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
         return key == null ? 0 : (h = key.hashCode()) ^ (h >>> 16);
     }
 
+    /**
+     * 计算key在当前Map中的hash值, Map内部的所有操作都通过这个方法计算hash值
+     *
+     * 没有指定HashStrategy时与hash(key)相同, 否则使用strategy.hashCode(key)代替key.hashCode()
+     * @param key
+     * @return
+     */
+    final int hashOf(Object key) {
+        int h;
+        MyHashStrategy<Object> s;
+        if (key == null)
+            return 0;
+        h = (s = strategy) == null ? key.hashCode() : s.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 判断传入的key与结点上的key是否相同, 调用之前已经判断过 key != null 以及 key != k
+     * @param key 传入的key
+     * @param k 结点上的key, 可能为null
+     * @return
+     */
+    final boolean keyEquals(Object key, Object k) {
+        MyHashStrategy<Object> s;
+        return (s = strategy) == null ? key.equals(k) : (k != null && s.equals(key, k));
+    }
+
+    /**
+     * 如果对象x的类型C实现了 Comparable<C> 接口, 那么返回C; 否则返回null
+     *
+     * 红黑树中的结点首先是按照hash值排序的, 当两个结点hash值相同时, 如果key是可比较的, 那么就用compareTo来决定结点的左右顺序
+     * 这里要求x实现的必须恰好是 Comparable<x的类型>, 否则两个不同类型的key调用compareTo时有可能会抛出ClassCastException
+     * @param x
+     * @return
+     */
+    static Class<?> comparableClassFor(Object x) {
+        if (x instanceof Comparable) {
+            Class<?> c;
+            Type[] ts, as;
+            Type t;
+            ParameterizedType p;
+            if ((c = x.getClass()) == String.class) // String是最常见的key, 直接跳过下面的反射检查
+                return c;
+            if ((ts = c.getGenericInterfaces()) != null) {
+                for (int i = 0; i < ts.length; ++i) {
+                    if (((t = ts[i]) instanceof ParameterizedType) &&
+                            ((p = (ParameterizedType) t).getRawType() == Comparable.class) &&
+                            (as = p.getActualTypeArguments()) != null &&
+                            as.length == 1 && as[0] == c) // 泛型参数就是c本身
+                        return c;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 如果x的类型是kc, 那么返回k.compareTo(x)的结果, 否则返回0 (表示无法比较)
+     * @param kc
+     * @param k
+     * @param x
+     * @return
+     */
+    @SuppressWarnings({"rawtypes","unchecked"})
+    static int compareComparables(Class<?> kc, Object k, Object x) {
+        return (x == null || x.getClass() != kc ? 0 : ((Comparable) k).compareTo(x));
+    }
+
     /**
      * 指定初始容量以及扩容因子创建HashMap
      *
@@ -115,6 +259,36 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      * @param loadFactor
      */
     public MyHashMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, false);
+    }
+
+    /**
+     * 指定初始容量、扩容因子以及是否开启渐进式扩容创建HashMap
+     * @param initialCapacity
+     * @param loadFactor
+     * @param incrementalResize 为true时开启渐进式扩容
+     */
+    public MyHashMap(int initialCapacity, float loadFactor, boolean incrementalResize) {
+        this(initialCapacity, loadFactor, incrementalResize, null);
+    }
+
+    /**
+     * 指定hash策略创建HashMap, 其余参数使用默认值
+     * @param strategy
+     */
+    public MyHashMap(MyHashStrategy<? super K> strategy) {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, false, strategy);
+    }
+
+    /**
+     * 指定初始容量、扩容因子、是否开启渐进式扩容以及hash策略创建HashMap
+     * @param initialCapacity
+     * @param loadFactor
+     * @param incrementalResize 为true时开启渐进式扩容
+     * @param strategy 为null时使用key自身的hashCode、equals方法
+     */
+    @SuppressWarnings("unchecked")
+    public MyHashMap(int initialCapacity, float loadFactor, boolean incrementalResize, MyHashStrategy<? super K> strategy) {
         if (initialCapacity < 0)
             throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
         if (initialCapacity > MAXIMUM_CAPACITY)
@@ -122,6 +296,8 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
         if (loadFactor <= 0 || Float.isNaN(loadFactor))
             throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
         this.loadFactor = loadFactor;
+        this.incrementalResize = incrementalResize;
+        this.strategy = (MyHashStrategy<Object>) strategy;
         this.threshold = tableSizeFor(initialCapacity);
     }
 
@@ -155,6 +331,8 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     public MyHashMap() {
         this.loadFactor = DEFAULT_LOAD_FACTOR; // all other fields defaulted
+        this.incrementalResize = false;
+        this.strategy = null;
     }
 
     public int size() {
@@ -174,7 +352,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public boolean containsKey(Object key) {
-        return getNode(hash(key), key) != null;
+        return getNode(hashOf(key), key) != null;
     }
 
     /**
@@ -197,17 +375,64 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
                         return true;
                 }
             }
+            //渐进式扩容期间, 还没有搬迁的结点仍然在旧table中
+            if ((tab = oldTable) != null) {
+                for (int i = transferIndex; i < tab.length; ++i) {
+                    for (MyNode<K,V> e = tab[i]; e != null; e = e.next) {
+                        if ((v = e.value) == value || (value != null && value.equals(v)))
+                            return true;
+                    }
+                }
+            }
         }
         return false;
     }
 
     /**
-     * huo
+     * 遍历所有键值对
+     *
+     * 直接遍历桶数组以及桶上的链表 (树化的桶也维护了next指针, 可以当作链表遍历), 不会创建迭代器以及Entry对象
+     * 与迭代器相同, 遍历结束后如果发现modCount发生了变化, 那么抛出ConcurrentModificationException
+     * @param action
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        MyNode<K,V>[] tab;
+        if (size > 0 && (tab = beginTraversal()) != null) {
+            int mc = modCount;
+            for (int i = 0; i < tab.length; ++i) {
+                for (MyNode<K,V> e = tab[i]; e != null; e = e.next)
+                    action.accept(e.key, e.value);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 遍历之前调用, 返回需要遍历的table
+     *
+     * 如果正在进行渐进式扩容, 那么先将扩容完成, 这样遍历时只需要关注一个table
+     * 遍历期间的get、覆盖value等操作也就不会再搬迁桶 (只有新增结点才会开始新的扩容, 而这会被modCount检测到)
+     * @return
+     */
+    final MyNode<K,V>[] beginTraversal() {
+        if (oldTable != null)
+            finishTransfer();
+        return table;
+    }
+
+    /**
+     * 获取key对应的value, key不存在时返回null
+     *
+     * 注意返回null并不一定说明key不存在, 也可能是key对应的value本身就是null, 需要区分时应当使用containsKey
      * @param key
      * @return
      */
     public V get(Object key) {
-        MyHashMap.MyNode<K,V> e = getNode(hash(key), key);
+        MyHashMap.MyNode<K,V> e = getNode(hashOf(key), key);
         return e == null ? null : e.value;
     }
 
@@ -225,18 +450,22 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
         MyNode<K,V> first;//桶上的头结点
         K k;//指向桶中链表Node的key的指针
 
+        if (oldTable != null) //渐进式扩容期间, 先确保hash对应的桶已经搬迁到了新table中
+            advanceTransfer(hash);
         //下面这个if语句块会先保证, 桶数组table我们能够成功获取到, 然后通过hash值计算得到的索引也能成功获取到, 然后才是检索逻辑
         if ((tab = table) != null && (n = table.length) > 0 && (first = tab[(n - 1) & hash]) != null) {
             //下面会先对头结点进行判断, 如果头结点就是我们寻找的值, 那么直接返回
             if (first.hash == hash && // 第一步就检查hash值是否相同, 不相同直接退出判断
-                    ((k = first.key) == key || (key != null && key.equals(k))))//如果头结点的key是传入key 或者 传入key与k指向结点的key相同, 那么就返回这个结点
+                    ((k = first.key) == key || (key != null && keyEquals(key, k))))//如果头结点的key是传入key 或者 传入key与k指向结点的key相同, 那么就返回这个结点
                 return first;
             //如果头结点没有找到, 那么我们就需要遍历整个链表来寻找
-            //原生JDK中, 这里会对红黑树的结点进行特殊的遍历操作, 以获取到target Node
+            //如果桶已经树化, 那么这里会按照红黑树的方式检索, 以获取到target Node
             //这也是为什么我们要将头结点与后续所有结点的判断分开来做, 目的是为了兼容链表与红黑树的遍历
             if ((e = first.next) != null) { // 如果头结点的next结点不为空, 那么将值赋给引用e
+                if (first instanceof TreeNode)
+                    return ((TreeNode<K,V>) first).getTreeNode(hash, key);
                 do { // 下面做的就是遍历链表, 寻找到Node.key = 传入key的结点, 直到遍历完整个链表
-                    if (e.hash == hash && ((k = e.key) == key || (key != null && key.equals(k)))) // 与之前相同的判断
+                    if (e.hash == hash && ((k = e.key) == key || (key != null && keyEquals(key, k)))) // 与之前相同的判断
                         return e;
                 } while ((e = e.next) != null);
             }
@@ -254,7 +483,41 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public V put(K key, V value) {
-        return putVal(hash(key), key, value, false, true);
+        return putVal(hashOf(key), key, value, false, true);
+    }
+
+    /**
+     * 将java.util.Map中的所有键值对放入当前Map
+     *
+     * 在放入之前会先调用ensureCapacity, 一次性将table扩容到能够容纳所有键值对的大小
+     * 这样就避免了批量放入时随着size增长而触发的多次resize (每次resize都需要搬迁所有结点)
+     * @param m
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s > 0) {
+            ensureCapacity(size + s);
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                putVal(hashOf(key), key, e.getValue(), false, true);
+            }
+        }
+    }
+
+    /**
+     * 将另一个MyMap中的所有键值对放入当前Map, 与putAll(Map)的逻辑相同
+     *
+     * 注意这里预留的容量是 size + m.size(), 当两个Map中存在相同的key时, 预留的容量会偏大, 可以在之后调用trimToSize回收
+     * @param m
+     */
+    @Override
+    public void putAll(MyMap<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s > 0) {
+            ensureCapacity(size + s);
+            m.forEach((key, value) -> putVal(hashOf(key), key, value, false, true));
+        }
     }
 
     /**
@@ -270,29 +533,31 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
         MyNode<K,V>[] tab;
         MyNode<K,V> p;
         int n, i;
+        if (oldTable != null) //渐进式扩容期间, 先确保hash对应的桶已经搬迁到了新table中
+            advanceTransfer(hash);
         //首先我们确保table能够成功获取到, 如果是第一次执行putVal, 那么会进行初始化table的工作
         if ((tab = table) == null || (n = tab.length) == 0)
             n = (tab = resize()).length;
         //根据hash值计算下标, 获取到对应的桶, 如果这个桶为空, 那么直接新建一个键值对放进去即可
         if ((p = tab[i = (n - 1) & hash]) == null)
-            tab[i] = new MyNode(hash, key, value, null);//原生JDK中将新建Node的操作封装到了一个方法中
+            tab[i] = newNode(hash, key, value, null);//新建Node的操作封装在newNode中, 以便LinkedHashMap重写
         else { // 如果这个桶不为空, 那么我们要遍历这个桶, 如果遍历途中有key相同的Node, 那么更新value; 否则在链表末尾追加新的Node
             MyNode<K,V> e;
             K k;
-            if (p.hash == hash && ((k = p.key) == key || (key != null && key.equals(k)))) { // 如果桶链表的头结点key值与传入的key值相同, 那么先将桶链表头结点的地址赋给指针 e, 会在后续进行value的更新动作
+            if (p.hash == hash && ((k = p.key) == key || (key != null && keyEquals(key, k)))) { // 如果桶链表的头结点key值与传入的key值相同, 那么先将桶链表头结点的地址赋给指针 e, 会在后续进行value的更新动作
                 e = p;
             }
-            //这里省略了桶上头结点是TreeNode的逻辑, 这里会按照TreeNode的方式put键值对
-//            else if (p instanceof TreeNode)
-//                e = ((TreeNode<K,V>)p).putTreeVal(this, tab, hash, key, value);
+            else if (p instanceof TreeNode) // 桶上头结点是TreeNode, 说明这个桶已经树化, 按照红黑树的方式put键值对
+                e = ((TreeNode<K,V>) p).putTreeVal(this, tab, hash, key, value);
             else {
-                //省略掉树化的相关逻辑, 具体请参照JDK1.8的putVal
-                for (;;) {
+                for (int binCount = 0; ; ++binCount) { // binCount记录遍历过的结点个数, 用于判断是否需要树化
                     if ((e = p.next) == null) { // 遍历到链表末尾时, 追加新的键值对Node
-                        p.next = new MyNode<>(hash, key, value, null); // 注意这里 e 是为null的, 我们是通过指针p.next追加新结点, 目的是为了后面的value覆盖逻辑能够成功执行
+                        p.next = newNode(hash, key, value, null); // 注意这里 e 是为null的, 我们是通过指针p.next追加新结点, 目的是为了后面的value覆盖逻辑能够成功执行
+                        if (binCount >= TREEIFY_THRESHOLD - 1) // 追加之后链表长度达到了树化阈值, 那么将这个桶树化
+                            treeifyBin(tab, hash);
                         break;
                     }
-                    if (e.hash == hash && ((k = e.key) == key || (key != null && key.equals(k)))) // 若遍历到一个key相同的Node, 那么直接break
+                    if (e.hash == hash && ((k = e.key) == key || (key != null && keyEquals(key, k)))) // 若遍历到一个key相同的Node, 那么直接break
                         break;// 此时 e 指向key相同的那个结点
                     p = e;
                 }
@@ -307,12 +572,24 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
             }
         }
         //如果是追加Node的操作, 那么我们还需要在追加成功后判断是否大于阈值, 如果超过了还需要执行扩容操作
-        if (++size > threshold)
-            resize();
+        incrementSize();
         afterNodeInsertion(evict);//成功插入之后, 需要执行什么后续操作
         return null;// 追加操作返回null
     }
 
+    /**
+     * 追加了一个新结点之后调用: 更新modCount以及size, 并判断是否需要扩容
+     */
+    final void incrementSize() {
+        ++modCount;
+        if (++size > threshold) {
+            if (incrementalResize) //渐进式扩容模式下只是开始扩容, 桶的搬迁分摊到之后的操作中
+                startTransfer();
+            else
+                resize();
+        }
+    }
+
     /**
      * 初始化桶数组, 或者扩容桶数组
      *
@@ -322,6 +599,8 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      * @return the table
      */
     final MyNode<K,V>[] resize() {
+        if (oldTable != null) //如果还有正在进行的渐进式扩容, 那么先将它完成
+            finishTransfer();
         MyNode<K,V>[] oldTab = table;
         int oldCap = (oldTab == null) ? 0 : oldTab.length; // 获取到旧的table容量
         int oldThr = threshold; // 获取到旧的阈值
@@ -347,7 +626,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
             newThr = (newCap < MAXIMUM_CAPACITY && ft < (float)MAXIMUM_CAPACITY ? (int)ft : Integer.MAX_VALUE);
         }
         threshold = newThr;//将新的阈值赋给全局变量threshold
-        MyNode<K,V>[] newTab = (MyNode<K,V>[]) new MyNode[newCap];//根据新的容量创建一个新的table数组
+        MyNode<K,V>[] newTab = (MyNode<K,V>[]) new MyNode<?,?>[newCap];//根据新的容量创建一个新的table数组
         table = newTab;//将新的table数组赋给全局变量table
         /**
          * 以上, 新的table数组创建以及新的阈值更新操作已经完成了, 这就意味着, 如果resize()是一个初始化table数组的操作, 到这里逻辑就执行结束了
@@ -359,78 +638,243 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
          * 总的来说, 就是每插入一个新Node, 就搬迁一个旧Node
          * 那么对于查询操作, 为了兼容新、旧table中的数据, 我们先从新table中检索(因为新的table容量较少, 检索会更快), 如果没有再去旧table中检索.
          * 通过这种均摊的方式, 就避免了一次性扩容耗时过多的问题
+         * (这个思路可以通过incrementalResize开启, 具体见startTransfer、advanceTransfer)
          *
-         * 下面就是JDK1.8的搬迁操作, 省略了红黑树的逻辑
+         * 下面就是JDK1.8的搬迁操作
          */
         if (oldTab != null) { //旧数组不为空, 那么一定是扩容操作
-            for (int j = 0; j < oldCap; ++j) { // 这里会遍历旧数组中的所有结点, 然后放入新数组中
-                MyNode<K,V> e;//指向桶链表中Node的指针
-                if ((e = oldTab[j]) != null) { // 从头结点开始, 观察头结点是否为空, 若为空就进行下一次遍历
-                    oldTab[j] = null; // 这边会将旧数组中的对应桶置为null, 以便于扩容后续的GC, 因为我们的指针 e 已经获取到了对应的通链表
+            for (int j = 0; j < oldCap; ++j) // 这里会遍历旧数组中的所有桶, 然后将桶上的结点搬迁到新数组中
+                transferBin(oldTab, newTab, j);
+        }
+        return newTab;
+    }
+
+    /**
+     * 将旧数组oldTab中下标为j的桶搬迁到新数组newTab中, 新数组的长度一定是旧数组的两倍
+     *
+     * 这个方法会被resize一次性地对所有桶调用, 也会在渐进式扩容时被advanceTransfer逐个调用
+     * @param oldTab
+     * @param newTab
+     * @param j
+     */
+    final void transferBin(MyNode<K,V>[] oldTab, MyNode<K,V>[] newTab, int j) {
+        int oldCap = oldTab.length;
+        MyNode<K,V> e;//指向桶链表中Node的指针
+        if ((e = oldTab[j]) != null) { // 从头结点开始, 观察头结点是否为空, 若为空则不需要搬迁
+            oldTab[j] = null; // 这边会将旧数组中的对应桶置为null, 以便于扩容后续的GC, 因为我们的指针 e 已经获取到了对应的通链表
+            /**
+             * 下面两个 if else 语句块的意思简单来说如下：
+             * 如果桶上只有一个结点, 那么我们只需要将头结点搬迁到新table即可
+             * 如果不止一个结点, 那么我们将这个链表分化为两个链表搬迁到新数组中
+             */
+            if (e.next == null) // 如果e.next为空, 那么说明这个桶只有一个结点, 我们计算它在新table中的index, 并放入newTable[index]位置即可
+                newTab[e.hash & (newTab.length - 1)] = e;
+            //头结点为树结点时, 那么把这棵树打散成高低位两个链表搬到新桶中, 链表过短时还会退化为普通链表
+            else if (e instanceof TreeNode)
+                ((TreeNode<K,V>) e).split(this, newTab, j, oldCap);
+            else {
+                MyNode<K,V> loHead = null, loTail = null; //低位链表头、尾结点
+                MyNode<K,V> hiHead = null, hiTail = null; //高位链表头、尾结点
+                MyNode<K,V> next;//next指针指向引用 e 的next结点
+                do { //遍历链表上的所有结点
+                    next = e.next;
                     /**
-                     * 下面两个 if else 语句块的意思简单来说如下：
-                     * 如果桶上只有一个结点, 那么我们只需要将头结点搬迁到新table即可
-                     * 如果不止一个结点, 那么我们将这个链表分化为两个链表搬迁到新数组中
+                     * 这里分化的逻辑是：
+                     * 如果当前结点的hash值 & 旧table的长度 == 0, 那么就将其追加在低位链表中
+                     * 如果当前结点的hash值 & 旧table的长度 != 0, 那么追加在高位链表中
                      */
-                    if (e.next == null) // 如果e.next为空, 那么说明这个桶只有一个结点, 我们计算它在新table中的index, 并放入newTable[index]位置即可
-                        newTab[e.hash & (newCap - 1)] = e;
-                    //下面省略了树的操作, 简单来说就是头结点为树结点时, 那么把这棵树打散成两棵树搬到新桶中
-//                    else if (e instanceof TreeNoe)
-//                        ((TreeNode<K,V>)e).split(this, newTab, j, oldCap);
-                    else {
-                        MyNode<K,V> loHead = null, loTail = null; //低位链表头、尾结点
-                        MyNode<K,V> hiHead = null, hiTail = null; //高位链表头、尾结点
-                        MyNode<K,V> next;//next指针指向引用 e 的next结点
-                        do { //遍历链表上的所有结点
-                            next = e.next;
-                            /**
-                             * 这里分化的逻辑是：
-                             * 如果当前结点的hash值 & 旧table的长度 == 0, 那么就将其追加在低位链表中
-                             * 如果当前结点的hash值 & 旧table的长度 != 0, 那么追加在高位链表中
-                             */
-                            if ((e.hash & oldCap) == 0) {
-                                if (loTail == null)  //如果低位链表尾结点为空, 说明这个表为空, 我们将e作为头结点即可
-                                    loHead = e;
-                                else
-                                    loTail.next = e; // 否则将 e 追加在尾结点之后
-                                loTail = e; // 将 e 作为新的尾结点
-                            } else { // 同样的操作也使用在高位链表中
-                                if (hiTail == null)
-                                    hiHead = e;
-                                else
-                                    hiTail.next = e;
-                                hiTail = e;
-                            }
-                        } while ((e = next) != null);
-                        /**
-                         * 判断高位、低位链表是否为空
-                         * 若不为空, 低位链表在新桶中的位置还是与旧桶一样; 高位链表在新桶中的位置刚好实在原位置之上加上旧容量
-                         *
-                         * 其实这里, 高低位链表在newTab中的下标位置是很有学问的
-                         * 我们在将链表划分为高低位时, 是根据 (e.hash & oldCap) 是否等于0 来划分的
-                         * 如果一个结点的hash值高位值都是0, 那么它在新数组中的位置和之前的位置是一样的, 这里的高位是从原长度二进制位=1的位置开始计算的, 例如16的二进制=10000, 那么高位就是从第5位开始计算。
-                         *
-                         * 就比如 e.hash=000011, 它的原table(假设长度为16)中的 index=000011&(16 - 1)=3
-                         * 在扩容之后, index=000011&(32-1)=3, 可以发现与原数组的下标值相同
-                         *
-                         * 而高位为1的, 比如e.hash=010101, 原table中的index=010101&(16-1)=5
-                         * 在扩容之后, index=010101&(32-1)=16+5=21， 也就是原数组长度+原下标
-                         *
-                         * 从这一点上看, 这也是为什么hashMap要求长度为2的幂次方
-                         */
-                        if (loTail != null) {
-                            loTail.next = null;
-                            newTab[j] = loHead;
-                        }
-                        if (hiTail != null) {
-                            hiTail.next = null;
-                            newTab[j + oldCap] = hiHead;
-                        }
+                    if ((e.hash & oldCap) == 0) {
+                        if (loTail == null)  //如果低位链表尾结点为空, 说明这个表为空, 我们将e作为头结点即可
+                            loHead = e;
+                        else
+                            loTail.next = e; // 否则将 e 追加在尾结点之后
+                        loTail = e; // 将 e 作为新的尾结点
+                    } else { // 同样的操作也使用在高位链表中
+                        if (hiTail == null)
+                            hiHead = e;
+                        else
+                            hiTail.next = e;
+                        hiTail = e;
                     }
+                } while ((e = next) != null);
+                /**
+                 * 判断高位、低位链表是否为空
+                 * 若不为空, 低位链表在新桶中的位置还是与旧桶一样; 高位链表在新桶中的位置刚好实在原位置之上加上旧容量
+                 *
+                 * 其实这里, 高低位链表在newTab中的下标位置是很有学问的
+                 * 我们在将链表划分为高低位时, 是根据 (e.hash & oldCap) 是否等于0 来划分的
+                 * 如果一个结点的hash值高位值都是0, 那么它在新数组中的位置和之前的位置是一样的, 这里的高位是从原长度二进制位=1的位置开始计算的, 例如16的二进制=10000, 那么高位就是从第5位开始计算。
+                 *
+                 * 就比如 e.hash=000011, 它的原table(假设长度为16)中的 index=000011&(16 - 1)=3
+                 * 在扩容之后, index=000011&(32-1)=3, 可以发现与原数组的下标值相同
+                 *
+                 * 而高位为1的, 比如e.hash=010101, 原table中的index=010101&(16-1)=5
+                 * 在扩容之后, index=010101&(32-1)=16+5=21， 也就是原数组长度+原下标
+                 *
+                 * 从这一点上看, 这也是为什么hashMap要求长度为2的幂次方
+                 */
+                if (loTail != null) {
+                    loTail.next = null;
+                    newTab[j] = loHead;
+                }
+                if (hiTail != null) {
+                    hiTail.next = null;
+                    newTab[j + oldCap] = hiHead;
                 }
             }
         }
-        return newTab;
+    }
+
+    /**
+     * 开始一次渐进式扩容
+     *
+     * 与resize不同, 这里只会申请一个两倍容量的新table, 并将旧table保存到oldTable中, 不会搬迁任何结点
+     * 之后的每次操作都会通过advanceTransfer搬迁一部分桶, 直到旧table中的桶全部搬迁完成
+     *
+     * 正常情况下, 从开始扩容到下一次达到扩容阈值之间的操作次数足以完成搬迁, 如果还没有完成, 那么先一次性完成上一次的扩容
+     */
+    @SuppressWarnings("unchecked")
+    final void startTransfer() {
+        if (oldTable != null)
+            finishTransfer();
+        MyNode<K,V>[] oldTab = table;
+        int oldCap = oldTab.length;
+        if (oldCap >= MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        int newCap = oldCap << 1;
+        float ft = (float)newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float)MAXIMUM_CAPACITY ? (int)ft : Integer.MAX_VALUE);
+        oldTable = oldTab;
+        transferIndex = 0;
+        table = (MyNode<K,V>[]) new MyNode<?,?>[newCap];
+    }
+
+    /**
+     * 渐进式扩容期间, 每次put/get/remove之前调用, 搬迁一部分旧table中的桶
+     *
+     * 1. 先搬迁hash在旧table中对应的桶, 这样之后的操作只需要在新table上进行, 不需要同时检索两个table
+     * 2. 再从transferIndex开始按顺序搬迁最多TRANSFER_STEP个桶
+     * 3. 当transferIndex到达旧table的末尾时, 扩容完成, 将oldTable置为null
+     * @param hash
+     */
+    final void advanceTransfer(int hash) {
+        MyNode<K,V>[] oldTab = oldTable, newTab = table;
+        int oldCap = oldTab.length;
+        int j = hash & (oldCap - 1);
+        if (oldTab[j] != null)
+            transferBin(oldTab, newTab, j);
+        int i = transferIndex;
+        for (int bound = Math.min(i + TRANSFER_STEP, oldCap); i < bound; ++i)
+            transferBin(oldTab, newTab, i);
+        if ((transferIndex = i) >= oldCap)
+            oldTable = null;
+    }
+
+    /**
+     * 确保table能够容纳numMappings个键值对而不触发扩容
+     *
+     * 如果table还没有初始化, 那么只需要调大threshold (此时threshold保存的是初始容量), 第一次put时会直接按照这个容量初始化table
+     * 否则如果需要的容量大于当前table的长度, 那么直接通过rehashTo一次性扩容到目标容量, 而不是像resize那样每次只扩容两倍
+     * @param numMappings
+     */
+    public void ensureCapacity(int numMappings) {
+        if (numMappings <= 0)
+            return;
+        int cap = capacityFor(numMappings);
+        MyNode<K,V>[] tab = table;
+        if (tab == null || tab.length == 0) {
+            if (cap > threshold)
+                threshold = cap;
+        } else if (cap > tab.length)
+            rehashTo(cap);
+    }
+
+    /**
+     * 将table的容量缩小到能够容纳当前size的最小容量
+     *
+     * 当Map中大量的键值对被删除之后, table并不会自动缩容, 可以调用这个方法回收多余的桶数组空间
+     * 如果Map为空, 那么直接释放table, 下一次put时会按照默认容量重新初始化
+     */
+    public void trimToSize() {
+        MyNode<K,V>[] tab = table;
+        if (tab == null)
+            return;
+        if (size == 0) {
+            table = null;
+            oldTable = null;
+            threshold = 0;
+            ++modCount;
+            return;
+        }
+        int cap = capacityFor(size);
+        if (cap < tab.length)
+            rehashTo(cap);
+    }
+
+    /**
+     * 计算能够容纳numMappings个键值对的table容量, 也就是 numMappings / loadFactor 向上取最近的2进制位
+     * @param numMappings
+     * @return
+     */
+    final int capacityFor(int numMappings) {
+        double c = Math.ceil(numMappings / (double) loadFactor);
+        return c >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : tableSizeFor(Math.max(1, (int) c));
+    }
+
+    /**
+     * 将table一次性重新hash到容量为newCap的新table中, newCap可以比当前容量大也可以比当前容量小
+     *
+     * 与resize不同的是, 容量的变化不一定是两倍, 因此不能使用高低位链表的拆分方式, 而是对每个结点重新计算下标, 然后插入到新桶的头部
+     * 树化的桶会先去树化为普通链表, 所有结点放入新table之后, 再对长度达到TREEIFY_THRESHOLD的桶重新树化
+     * @param newCap
+     */
+    @SuppressWarnings("unchecked")
+    final void rehashTo(int newCap) {
+        if (oldTable != null)
+            finishTransfer();
+        ++modCount;
+        MyNode<K,V>[] oldTab = table;
+        MyNode<K,V>[] newTab = (MyNode<K,V>[]) new MyNode<?,?>[newCap];
+        int mask = newCap - 1;
+        for (int j = 0; j < oldTab.length; ++j) {
+            MyNode<K,V> e = oldTab[j], next;
+            if (e == null)
+                continue;
+            oldTab[j] = null;
+            if (e instanceof TreeNode)
+                e = ((TreeNode<K,V>) e).untreeify(this);
+            for (; e != null; e = next) {
+                next = e.next;
+                int i = e.hash & mask;
+                e.next = newTab[i];
+                newTab[i] = e;
+            }
+        }
+        float ft = (float)newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float)MAXIMUM_CAPACITY ? (int)ft : Integer.MAX_VALUE);
+        table = newTab;
+        if (newCap >= MIN_TREEIFY_CAPACITY) { // 容量小于MIN_TREEIFY_CAPACITY时, treeifyBin会选择扩容, 这里就不处理了
+            for (int i = 0; i < newCap; ++i) {
+                int binCount = 0;
+                for (MyNode<K,V> e = newTab[i]; e != null && binCount < TREEIFY_THRESHOLD; e = e.next)
+                    ++binCount;
+                if (binCount >= TREEIFY_THRESHOLD)
+                    treeifyBin(newTab, newTab[i].hash);
+            }
+        }
+    }
+
+    /**
+     * 一次性搬迁旧table中剩余的所有桶
+     */
+    final void finishTransfer() {
+        MyNode<K,V>[] oldTab = oldTable, newTab = table;
+        for (int i = transferIndex; i < oldTab.length; ++i)
+            transferBin(oldTab, newTab, i);
+        transferIndex = oldTab.length;
+        oldTable = null;
     }
 
     /**
@@ -442,7 +886,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public V remove(Object key) {
-        MyNode<K,V> e = removeNode(hash(key), key, null, false, true);
+        MyNode<K,V> e = removeNode(hashOf(key), key, null, false, true);
         return e == null ? null : e.value;
     }
 
@@ -454,7 +898,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public boolean remove(Object key, Object value) {
-        return removeNode(hash(key), key, value, true, true) != null;
+        return removeNode(hashOf(key), key, value, true, true) != null;
     }
 
     /**
@@ -470,32 +914,40 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
         MyNode<K,V>[] tab;
         MyNode<K,V> p;
         int n, index;
+        if (oldTable != null) //渐进式扩容期间, 先确保hash对应的桶已经搬迁到了新table中
+            advanceTransfer(hash);
         //下面这个逻辑会保证成功获取到table数组, 并获取到hash对应的桶链表
         if ((tab = table) != null && (n = tab.length) > 0 && (p = tab[index = (n - 1) & hash]) != null) {
             MyNode<K,V> node = null, e;//node引用指向的是待删除结点、e 指向遍历链表时的当前结点
             K k;
             V v;
             //判断链表头结点的key与传入的key是否相同, 如果相同, 将引用p赋给待删除结点引用node
-            if (p.hash == hash && ((k = p.key) == key || (key != null && key.equals(k))))
+            if (p.hash == hash && ((k = p.key) == key || (key != null && keyEquals(key, k))))
                 node = p;
             else if ((e = p.next) != null) { //如果头结点不匹配, 那么从第二个结点开始遍历, 寻找待删除结点
-                //省略TreeNode逻辑
-                do {
-                    if (e.hash == hash && ((k = e.key) == key || (key != null && key.equals(k)))) { // 如果找到了就将当前链表地址引用赋给node, 并退出循环
-                        node = e;
-                        break;
-                    }
-                    p = e;
-                } while ((e = e.next) != null);
+                if (p instanceof TreeNode) // 树化的桶按照红黑树的方式检索
+                    node = ((TreeNode<K,V>) p).getTreeNode(hash, key);
+                else {
+                    do {
+                        if (e.hash == hash && ((k = e.key) == key || (key != null && keyEquals(key, k)))) { // 如果找到了就将当前链表地址引用赋给node, 并退出循环
+                            node = e;
+                            break;
+                        }
+                        p = e;
+                    } while ((e = e.next) != null);
+                }
             }
             //移除Node的操作, 这里会先判断是否找到待删除的结点, 然后依据matchValue的逻辑来判断是否删除这个node
             if (node != null && (!matchValue || (v = node.value) == value || (value != null && value.equals(v)))) {
-                if (node == p) //头结点的删除逻辑, 直接将桶置为null
+                if (node instanceof TreeNode) // 红黑树的删除逻辑, 删除后结点过少时还会退化为链表
+                    ((TreeNode<K,V>) node).removeTreeNode(this, tab, movable);
+                else if (node == p) //头结点的删除逻辑, 直接将桶置为null
                     tab[index] = node.next;
                 else //单链表的删除逻辑
                     p.next = node.next;
-                afterNodeRemoval(node);//成功删除之后的后续操作
+                ++modCount;
                 --size;
+                afterNodeRemoval(node);//成功删除之后的后续操作
                 return node;// 成功删除后返回删除结点
             }
         }
@@ -510,10 +962,12 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
     @Override
     public void clear() {
         MyNode<K,V>[] tab = table;
+        modCount++;
         if (tab != null && size > 0) {
             size = 0;
             for (int i = 0; i < tab.length; ++i)
                 tab[i] = null;
+            oldTable = null; //渐进式扩容期间的旧table也直接丢弃即可
         }
     }
 
@@ -525,7 +979,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public V getOrDefault(Object key, V defaultValue) {
-        MyNode<K,V> e = getNode(hash(key), key);
+        MyNode<K,V> e = getNode(hashOf(key), key);
         return e == null ? defaultValue : e.value;
     }
 
@@ -539,7 +993,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public V putIfAbsent(K key, V value) {
-        return putVal(hash(key), key, value, true, true);
+        return putVal(hashOf(key), key, value, true, true);
     }
 
 
@@ -554,7 +1008,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
-        MyNode<K,V> e = getNode(hash(key), key);
+        MyNode<K,V> e = getNode(hashOf(key), key);
         V v;
         if (e != null && ((v = e.value) == oldValue || (v != null && v.equals(oldValue)))) {
             e.value = newValue;
@@ -572,7 +1026,7 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
      */
     @Override
     public V replace(K key, V value) {
-        MyNode<K,V> e = getNode(hash(key), key);
+        MyNode<K,V> e = getNode(hashOf(key), key);
         if (e != null) {
             V oldValue = e.value;
             e.value = value;
@@ -582,8 +1036,1686 @@ public class MyHashMap<K,V> implements MyMap<K,V> {
         return null;
     }
 
-    // Callbacks to allow LinkedHashMap post-actions
-    void afterNodeAccess(MyNode<K,V> p) { }
-    void afterNodeInsertion(boolean evict) { }
-    void afterNodeRemoval(MyNode<K,V> p) { }
+    /**
+     * 单次检索实现的computeIfAbsent
+     *
+     * 1. 与putVal相同, 先定位到hash对应的桶, 在桶上(链表或红黑树)寻找key对应的结点, 同时记录下链表的长度binCount
+     * 2. 如果找到了结点且value不为null, 直接返回
+     * 3. 否则执行mappingFunction, 然后利用第1步中已经定位到的桶直接插入结点 (新结点作为链表的头结点), 不需要再检索一次
+     *
+     * 由于第3步会复用第1步中定位到的桶, 如果mappingFunction中修改了这个Map, 那么桶的状态可能已经失效, 因此这种情况会抛出ConcurrentModificationException
+     * @param key
+     * @param mappingFunction
+     * @return
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        int hash = hashOf(key);
+        MyNode<K,V>[] tab;
+        MyNode<K,V> first;
+        int n, i;
+        int binCount = 0;
+        TreeNode<K,V> t = null;
+        MyNode<K,V> old = null;
+        if (oldTable != null) //渐进式扩容期间, 先确保hash对应的桶已经搬迁到了新table中
+            advanceTransfer(hash);
+        if ((tab = table) == null || (n = tab.length) == 0)
+            n = (tab = resize()).length;
+        if ((first = tab[i = (n - 1) & hash]) != null) {
+            if (first instanceof TreeNode)
+                old = (t = (TreeNode<K,V>) first).getTreeNode(hash, key);
+            else {
+                MyNode<K,V> e = first;
+                K k;
+                do {
+                    if (e.hash == hash && ((k = e.key) == key || (key != null && keyEquals(key, k)))) {
+                        old = e;
+                        break;
+                    }
+                    ++binCount;
+                } while ((e = e.next) != null);
+            }
+            V oldValue;
+            if (old != null && (oldValue = old.value) != null) {
+                afterNodeAccess(old);
+                return oldValue;
+            }
+        }
+        int mc = modCount;
+        V v = mappingFunction.apply(key);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (v == null) {
+            return null;
+        } else if (old != null) { // key存在但value为null, 直接覆盖
+            old.value = v;
+            afterNodeAccess(old);
+            return v;
+        }
+        else if (t != null)
+            t.putTreeVal(this, tab, hash, key, v);
+        else {
+            tab[i] = newNode(hash, key, v, first);
+            if (binCount >= TREEIFY_THRESHOLD - 1)
+                treeifyBin(tab, hash);
+        }
+        incrementSize();
+        afterNodeInsertion(true);
+        return v;
+    }
+
+    /**
+     * 单次检索实现的computeIfPresent, remappingFunction返回null时删除这个结点
+     * @param key
+     * @param remappingFunction
+     * @return
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        MyNode<K,V> e;
+        V oldValue;
+        int hash = hashOf(key);
+        if ((e = getNode(hash, key)) != null && (oldValue = e.value) != null) {
+            int mc = modCount;
+            V v = remappingFunction.apply(key, oldValue);
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+            if (v != null) {
+                e.value = v;
+                afterNodeAccess(e);
+                return v;
+            }
+            else
+                removeNode(hash, key, null, false, true);
+        }
+        return null;
+    }
+
+    /**
+     * 单次检索实现的compute, 检索的过程与computeIfAbsent相同
+     *
+     * remappingFunction的结果为null时删除已经存在的结点, 否则覆盖value或者插入新的结点
+     * @param key
+     * @param remappingFunction
+     * @return
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        int hash = hashOf(key);
+        MyNode<K,V>[] tab;
+        MyNode<K,V> first;
+        int n, i;
+        int binCount = 0;
+        TreeNode<K,V> t = null;
+        MyNode<K,V> old = null;
+        if (oldTable != null)
+            advanceTransfer(hash);
+        if ((tab = table) == null || (n = tab.length) == 0)
+            n = (tab = resize()).length;
+        if ((first = tab[i = (n - 1) & hash]) != null) {
+            if (first instanceof TreeNode)
+                old = (t = (TreeNode<K,V>) first).getTreeNode(hash, key);
+            else {
+                MyNode<K,V> e = first;
+                K k;
+                do {
+                    if (e.hash == hash && ((k = e.key) == key || (key != null && keyEquals(key, k)))) {
+                        old = e;
+                        break;
+                    }
+                    ++binCount;
+                } while ((e = e.next) != null);
+            }
+        }
+        V oldValue = (old == null) ? null : old.value;
+        int mc = modCount;
+        V v = remappingFunction.apply(key, oldValue);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (old != null) {
+            if (v != null) {
+                old.value = v;
+                afterNodeAccess(old);
+            }
+            else
+                removeNode(hash, key, null, false, true);
+        }
+        else if (v != null) {
+            if (t != null)
+                t.putTreeVal(this, tab, hash, key, v);
+            else {
+                tab[i] = newNode(hash, key, v, first);
+                if (binCount >= TREEIFY_THRESHOLD - 1)
+                    treeifyBin(tab, hash);
+            }
+            incrementSize();
+            afterNodeInsertion(true);
+        }
+        return v;
+    }
+
+    /**
+     * 单次检索实现的merge, 检索的过程与computeIfAbsent相同
+     *
+     * key不存在(或者value为null)时直接使用传入的value, 否则通过remappingFunction合并; 合并结果为null时删除这个结点
+     * 例如计数: map.merge(word, 1, Integer::sum), 每次调用只需要检索一次桶
+     * @param key
+     * @param value
+     * @param remappingFunction
+     * @return
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null)
+            throw new NullPointerException();
+        int hash = hashOf(key);
+        MyNode<K,V>[] tab;
+        MyNode<K,V> first;
+        int n, i;
+        int binCount = 0;
+        TreeNode<K,V> t = null;
+        MyNode<K,V> old = null;
+        if (oldTable != null)
+            advanceTransfer(hash);
+        if ((tab = table) == null || (n = tab.length) == 0)
+            n = (tab = resize()).length;
+        if ((first = tab[i = (n - 1) & hash]) != null) {
+            if (first instanceof TreeNode)
+                old = (t = (TreeNode<K,V>) first).getTreeNode(hash, key);
+            else {
+                MyNode<K,V> e = first;
+                K k;
+                do {
+                    if (e.hash == hash && ((k = e.key) == key || (key != null && keyEquals(key, k)))) {
+                        old = e;
+                        break;
+                    }
+                    ++binCount;
+                } while ((e = e.next) != null);
+            }
+        }
+        if (old != null) {
+            V v;
+            if (old.value != null) {
+                int mc = modCount;
+                v = remappingFunction.apply(old.value, value);
+                if (mc != modCount)
+                    throw new ConcurrentModificationException();
+            } else {
+                v = value;
+            }
+            if (v != null) {
+                old.value = v;
+                afterNodeAccess(old);
+            }
+            else
+                removeNode(hash, key, null, false, true);
+            return v;
+        }
+        if (t != null)
+            t.putTreeVal(this, tab, hash, key, value);
+        else {
+            tab[i] = newNode(hash, key, value, first);
+            if (binCount >= TREEIFY_THRESHOLD - 1)
+                treeifyBin(tab, hash);
+        }
+        incrementSize();
+        afterNodeInsertion(true);
+        return value;
+    }
+
+    /* ------------------------------------------------------------ */
+    // 视图以及迭代器
+
+    /**
+     * 返回key的Set视图
+     *
+     * 视图只是对当前Map的一层包装, 第一次调用时创建, 之后复用同一个对象
+     * @return
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        if (ks == null) {
+            ks = new KeySet();
+            keySet = ks;
+        }
+        return ks;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size()                 { return size; }
+        public final void clear()               { MyHashMap.this.clear(); }
+        public final Iterator<K> iterator()     { return new KeyIterator(); }
+        public final Spliterator<K> spliterator() {
+            return new KeySpliterator<>(MyHashMap.this, 0, -1, 0, 0);
+        }
+        public final boolean contains(Object o) { return containsKey(o); }
+        public final boolean remove(Object key) {
+            return removeNode(hashOf(key), key, null, false, true) != null;
+        }
+        public final void forEach(Consumer<? super K> action) {
+            MyNode<K,V>[] tab;
+            if (action == null)
+                throw new NullPointerException();
+            if (size > 0 && (tab = beginTraversal()) != null) {
+                int mc = modCount;
+                for (int i = 0; i < tab.length; ++i) {
+                    for (MyNode<K,V> e = tab[i]; e != null; e = e.next)
+                        action.accept(e.key);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * 返回value的Collection视图
+     * @return
+     */
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size()                 { return size; }
+        public final void clear()               { MyHashMap.this.clear(); }
+        public final Iterator<V> iterator()     { return new ValueIterator(); }
+        public final Spliterator<V> spliterator() {
+            return new ValueSpliterator<>(MyHashMap.this, 0, -1, 0, 0);
+        }
+        public final boolean contains(Object o) { return containsValue(o); }
+        public final void forEach(Consumer<? super V> action) {
+            MyNode<K,V>[] tab;
+            if (action == null)
+                throw new NullPointerException();
+            if (size > 0 && (tab = beginTraversal()) != null) {
+                int mc = modCount;
+                for (int i = 0; i < tab.length; ++i) {
+                    for (MyNode<K,V> e = tab[i]; e != null; e = e.next)
+                        action.accept(e.value);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * 返回键值对的Set视图, 迭代时返回的就是table中的MyNode本身, 调用setValue会直接修改Map中的value
+     * @return
+     */
+    @Override
+    public Set<Entry<K,V>> entrySet() {
+        Set<Entry<K,V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K,V>> {
+        public final int size()                 { return size; }
+        public final void clear()               { MyHashMap.this.clear(); }
+        public final Iterator<Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public final Spliterator<Entry<K,V>> spliterator() {
+            return new EntrySpliterator<>(MyHashMap.this, 0, -1, 0, 0);
+        }
+        public final boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?,?> e = (Entry<?,?>) o;
+            Object key = e.getKey();
+            MyNode<K,V> candidate = getNode(hashOf(key), key);
+            return candidate != null && Objects.equals(candidate.value, e.getValue());
+        }
+        public final boolean remove(Object o) {
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                Object key = e.getKey();
+                Object value = e.getValue();
+                return removeNode(hashOf(key), key, value, true, true) != null;
+            }
+            return false;
+        }
+        public final void forEach(Consumer<? super Entry<K,V>> action) {
+            MyNode<K,V>[] tab;
+            if (action == null)
+                throw new NullPointerException();
+            if (size > 0 && (tab = beginTraversal()) != null) {
+                int mc = modCount;
+                for (int i = 0; i < tab.length; ++i) {
+                    for (MyNode<K,V> e = tab[i]; e != null; e = e.next)
+                        action.accept(e);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * 三种视图迭代器的公共父类, 直接遍历桶数组以及桶上的链表
+     *
+     * 1. 创建时记录下modCount, 并找到第一个非空的桶
+     * 2. nextNode返回当前结点, 然后沿着next指针前进, 链表走完了就继续寻找下一个非空的桶
+     * 3. 每次nextNode、remove时都会检查modCount, 如果不一致说明迭代期间Map被其他途径修改了, 抛出ConcurrentModificationException
+     * 4. 通过迭代器的remove删除结点后会同步更新expectedModCount, 因此不会触发fail-fast
+     *
+     * 由于TreeNode同样维护了next指针, 树化的桶也可以直接当作链表遍历
+     */
+    abstract class HashIterator {
+        MyNode<K,V> next;        // 下一个要返回的结点
+        MyNode<K,V> current;     // 当前结点, 用于remove
+        int expectedModCount;    // 用于fail-fast
+        int index;               // 当前遍历到的桶下标
+
+        HashIterator() {
+            MyNode<K,V>[] t = beginTraversal();
+            expectedModCount = modCount;
+            current = next = null;
+            index = 0;
+            if (t != null && size > 0) { // 找到第一个非空的桶
+                do {} while (index < t.length && (next = t[index++]) == null);
+            }
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final MyNode<K,V> nextNode() {
+            MyNode<K,V>[] t;
+            MyNode<K,V> e = next;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (e == null)
+                throw new NoSuchElementException();
+            if ((next = (current = e).next) == null && (t = table) != null) {
+                do {} while (index < t.length && (next = t[index++]) == null);
+            }
+            return e;
+        }
+
+        public final void remove() {
+            MyNode<K,V> p = current;
+            if (p == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = null;
+            // movable为false, 删除树结点时不移动其他结点, 保证迭代器的next指针依然有效
+            removeNode(p.hash, p.key, null, false, false);
+            expectedModCount = modCount;
+        }
+    }
+
+    final class KeyIterator extends HashIterator implements Iterator<K> {
+        public final K next() { return nextNode().key; }
+    }
+
+    final class ValueIterator extends HashIterator implements Iterator<V> {
+        public final V next() { return nextNode().value; }
+    }
+
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K,V>> {
+        public final Entry<K,V> next() { return nextNode(); }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Spliterator
+
+    /**
+     * 三种视图Spliterator的公共父类, 按照桶的下标区间 [index, fence) 进行遍历和拆分
+     *
+     * 1. fence在第一次使用时才初始化 (getFence), 此时记录下table、size以及modCount, 这样创建Spliterator之后、开始遍历之前对Map的修改也能被正确处理
+     * 2. trySplit将当前的桶区间对半拆分, 前一半交给新的Spliterator, 估算的元素数量est也减半
+     *    只有顶层(未拆分)的Spliterator才能准确知道元素数量, 因此只有它才会报告SIZED特性, 拆分之后的est只是一个估计值
+     * 3. 与迭代器相同, 遍历结束时如果发现modCount发生了变化, 那么抛出ConcurrentModificationException
+     *
+     * 并行流就是通过不断调用trySplit, 将桶数组切分成若干段, 然后交给ForkJoinPool中的多个线程分别遍历
+     */
+    static class HashMapSpliterator<K,V> {
+        final MyHashMap<K,V> map;
+        MyNode<K,V> current;     // 当前结点
+        int index;               // 当前桶下标, advance、split时会修改
+        int fence;               // 桶下标上界(不包含), -1表示还没有初始化
+        int est;                 // 估算的元素数量
+        int expectedModCount;    // 用于fail-fast
+
+        HashMapSpliterator(MyHashMap<K,V> m, int origin, int fence, int est, int expectedModCount) {
+            this.map = m;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        final int getFence() { // 第一次使用时初始化fence以及size
+            int hi;
+            if ((hi = fence) < 0) {
+                MyHashMap<K,V> m = map;
+                MyNode<K,V>[] tab = m.beginTraversal();
+                est = m.size;
+                expectedModCount = m.modCount;
+                hi = fence = (tab == null) ? 0 : tab.length;
+            }
+            return hi;
+        }
+
+        public final long estimateSize() {
+            getFence();
+            return (long) est;
+        }
+    }
+
+    static final class KeySpliterator<K,V> extends HashMapSpliterator<K,V> implements Spliterator<K> {
+        KeySpliterator(MyHashMap<K,V> m, int origin, int fence, int est, int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public KeySpliterator<K,V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid || current != null) ? null :
+                new KeySpliterator<>(map, lo, index = mid, est >>>= 1, expectedModCount);
+        }
+
+        public void forEachRemaining(Consumer<? super K> action) {
+            int i, hi, mc;
+            if (action == null)
+                throw new NullPointerException();
+            MyHashMap<K,V> m = map;
+            // 必须先调用getFence: 它会通过beginTraversal完成正在进行的渐进式扩容, 之后table中才包含全部结点
+            hi = getFence();
+            mc = expectedModCount;
+            MyNode<K,V>[] tab = m.table;
+            if (tab != null && tab.length >= hi && (i = index) >= 0 && (i < (index = hi) || current != null)) {
+                MyNode<K,V> p = current;
+                current = null;
+                do {
+                    if (p == null)
+                        p = tab[i++];
+                    else {
+                        action.accept(p.key);
+                        p = p.next;
+                    }
+                } while (p != null || i < hi);
+                if (m.modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+
+        public boolean tryAdvance(Consumer<? super K> action) {
+            int hi;
+            if (action == null)
+                throw new NullPointerException();
+            hi = getFence();
+            MyNode<K,V>[] tab = map.table;
+            if (tab != null && tab.length >= hi && index >= 0) {
+                while (current != null || index < hi) {
+                    if (current == null)
+                        current = tab[index++];
+                    else {
+                        K k = current.key;
+                        current = current.next;
+                        action.accept(k);
+                        if (map.modCount != expectedModCount)
+                            throw new ConcurrentModificationException();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) | Spliterator.DISTINCT;
+        }
+    }
+
+    static final class ValueSpliterator<K,V> extends HashMapSpliterator<K,V> implements Spliterator<V> {
+        ValueSpliterator(MyHashMap<K,V> m, int origin, int fence, int est, int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public ValueSpliterator<K,V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid || current != null) ? null :
+                new ValueSpliterator<>(map, lo, index = mid, est >>>= 1, expectedModCount);
+        }
+
+        public void forEachRemaining(Consumer<? super V> action) {
+            int i, hi, mc;
+            if (action == null)
+                throw new NullPointerException();
+            MyHashMap<K,V> m = map;
+            // 必须先调用getFence: 它会通过beginTraversal完成正在进行的渐进式扩容, 之后table中才包含全部结点
+            hi = getFence();
+            mc = expectedModCount;
+            MyNode<K,V>[] tab = m.table;
+            if (tab != null && tab.length >= hi && (i = index) >= 0 && (i < (index = hi) || current != null)) {
+                MyNode<K,V> p = current;
+                current = null;
+                do {
+                    if (p == null)
+                        p = tab[i++];
+                    else {
+                        action.accept(p.value);
+                        p = p.next;
+                    }
+                } while (p != null || i < hi);
+                if (m.modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+
+        public boolean tryAdvance(Consumer<? super V> action) {
+            int hi;
+            if (action == null)
+                throw new NullPointerException();
+            hi = getFence();
+            MyNode<K,V>[] tab = map.table;
+            if (tab != null && tab.length >= hi && index >= 0) {
+                while (current != null || index < hi) {
+                    if (current == null)
+                        current = tab[index++];
+                    else {
+                        V v = current.value;
+                        current = current.next;
+                        action.accept(v);
+                        if (map.modCount != expectedModCount)
+                            throw new ConcurrentModificationException();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0);
+        }
+    }
+
+    static final class EntrySpliterator<K,V> extends HashMapSpliterator<K,V> implements Spliterator<Entry<K,V>> {
+        EntrySpliterator(MyHashMap<K,V> m, int origin, int fence, int est, int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public EntrySpliterator<K,V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid || current != null) ? null :
+                new EntrySpliterator<>(map, lo, index = mid, est >>>= 1, expectedModCount);
+        }
+
+        public void forEachRemaining(Consumer<? super Entry<K,V>> action) {
+            int i, hi, mc;
+            if (action == null)
+                throw new NullPointerException();
+            MyHashMap<K,V> m = map;
+            // 必须先调用getFence: 它会通过beginTraversal完成正在进行的渐进式扩容, 之后table中才包含全部结点
+            hi = getFence();
+            mc = expectedModCount;
+            MyNode<K,V>[] tab = m.table;
+            if (tab != null && tab.length >= hi && (i = index) >= 0 && (i < (index = hi) || current != null)) {
+                MyNode<K,V> p = current;
+                current = null;
+                do {
+                    if (p == null)
+                        p = tab[i++];
+                    else {
+                        action.accept(p);
+                        p = p.next;
+                    }
+                } while (p != null || i < hi);
+                if (m.modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+
+        public boolean tryAdvance(Consumer<? super Entry<K,V>> action) {
+            int hi;
+            if (action == null)
+                throw new NullPointerException();
+            hi = getFence();
+            MyNode<K,V>[] tab = map.table;
+            if (tab != null && tab.length >= hi && index >= 0) {
+                while (current != null || index < hi) {
+                    if (current == null)
+                        current = tab[index++];
+                    else {
+                        MyNode<K,V> e = current;
+                        current = current.next;
+                        action.accept(e);
+                        if (map.modCount != expectedModCount)
+                            throw new ConcurrentModificationException();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) | Spliterator.DISTINCT;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // 并行批量操作
+
+    /**
+     * 计算批量操作的拆分次数, 与原生ConcurrentHashMap的batchFor相同
+     *
+     * 元素数量小于parallelismThreshold时返回0, 即在当前线程中顺序执行
+     * 否则返回 size / parallelismThreshold, 但最多不超过ForkJoinPool并行度的4倍, 每个子任务至少处理parallelismThreshold个元素
+     * @param parallelismThreshold
+     * @return
+     */
+    final int batchFor(long parallelismThreshold) {
+        long n;
+        if (parallelismThreshold == Long.MAX_VALUE || (n = size) <= 1L || n < parallelismThreshold)
+            return 0;
+        int sp = ForkJoinPool.getCommonPoolParallelism() << 2;
+        return (parallelismThreshold <= 0L || (n /= parallelismThreshold) >= sp) ? sp : (int) n;
+    }
+
+    /**
+     * 并行地对每个键值对执行action
+     *
+     * 将桶数组按下标区间不断对半拆分为子任务, 交给ForkJoinPool的公共线程池执行, action的执行顺序是不确定的
+     * 执行期间Map不能被修改 (包括action本身), 执行结束后如果发现modCount发生了变化, 那么抛出ConcurrentModificationException
+     * @param parallelismThreshold 元素数量达到这个值才会并行执行, 传入Long.MAX_VALUE表示总是顺序执行, 传入1表示尽可能地并行
+     * @param action
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        MyNode<K,V>[] tab = beginTraversal();
+        int mc = modCount;
+        if (tab != null && size > 0)
+            new ForEachTask<>(null, batchFor(parallelismThreshold), 0, tab.length, tab, action).invoke();
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * 并行地将每个键值对通过transformer转换, 然后通过reducer合并所有的结果
+     *
+     * transformer返回null的键值对会被忽略, 如果所有键值对都被忽略了(或者Map为空), 那么返回null
+     * reducer需要满足结合律, 因为合并的顺序是不确定的
+     * @param parallelismThreshold
+     * @param transformer
+     * @param reducer
+     * @param <U>
+     * @return
+     */
+    public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        MyNode<K,V>[] tab = beginTraversal();
+        int mc = modCount;
+        U r = null;
+        if (tab != null && size > 0)
+            r = new MapReduceTask<>(null, batchFor(parallelismThreshold), 0, tab.length, tab, null, transformer, reducer).invoke();
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+        return r;
+    }
+
+    /**
+     * 并行地对每个键值对执行searchFunction, 返回任意一个非null的结果, 都为null时返回null
+     *
+     * 一旦某个子任务找到了结果, 其他子任务会尽快停止遍历
+     * @param parallelismThreshold
+     * @param searchFunction
+     * @param <U>
+     * @return
+     */
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null)
+            throw new NullPointerException();
+        MyNode<K,V>[] tab = beginTraversal();
+        int mc = modCount;
+        U r = null;
+        if (tab != null && size > 0)
+            r = new SearchTask<>(null, batchFor(parallelismThreshold), 0, tab.length, tab, searchFunction, new AtomicReference<>()).invoke();
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+        return r;
+    }
+
+    /**
+     * 批量操作任务的公共父类, 负责桶区间 [baseIndex, baseLimit)
+     *
+     * 基于CountedCompleter实现: 任务在compute中不断将区间的后一半fork出去 (每fork一个子任务pendingCount加1),
+     * 然后遍历自己剩下的区间, 最后调用propagateCompletion; 所有子任务都完成之后, 父任务的onCompletion才会被调用
+     * 这样父任务不需要阻塞等待子任务(join), 工作线程也就不会被闲置
+     */
+    abstract static class BulkTask<K,V,R> extends CountedCompleter<R> {
+        private static final long serialVersionUID = 1L;
+
+        final MyNode<K,V>[] tab;
+        int batch;       // 还可以继续拆分的次数
+        int baseIndex;   // 当前任务负责的桶下标区间的起点
+        int baseLimit;   // 当前任务负责的桶下标区间的终点(不包含)
+
+        BulkTask(BulkTask<K,V,?> parent, int batch, int index, int limit, MyNode<K,V>[] tab) {
+            super(parent);
+            this.batch = batch;
+            this.baseIndex = index;
+            this.baseLimit = limit;
+            this.tab = tab;
+        }
+    }
+
+    static final class ForEachTask<K,V> extends BulkTask<K,V,Void> {
+        private static final long serialVersionUID = 1L;
+
+        final BiConsumer<? super K, ? super V> action;
+
+        ForEachTask(BulkTask<K,V,?> p, int b, int i, int f, MyNode<K,V>[] t, BiConsumer<? super K, ? super V> action) {
+            super(p, b, i, f, t);
+            this.action = action;
+        }
+
+        public final void compute() {
+            final BiConsumer<? super K, ? super V> action = this.action;
+            for (int i = baseIndex, f, h; batch > 0 && (h = ((f = baseLimit) + i) >>> 1) > i; ) {
+                addToPendingCount(1);
+                new ForEachTask<>(this, batch >>>= 1, baseLimit = h, f, tab, action).fork();
+            }
+            for (int i = baseIndex; i < baseLimit; ++i) {
+                for (MyNode<K,V> p = tab[i]; p != null; p = p.next)
+                    action.accept(p.key, p.value);
+            }
+            propagateCompletion();
+        }
+    }
+
+    /**
+     * 子任务之间通过rights链表串起来, 在onCompletion中沿着链表合并所有兄弟子任务的结果
+     */
+    static final class MapReduceTask<K,V,U> extends BulkTask<K,V,U> {
+        private static final long serialVersionUID = 1L;
+
+        final BiFunction<? super K, ? super V, ? extends U> transformer;
+        final BiFunction<? super U, ? super U, ? extends U> reducer;
+        U result;
+        MapReduceTask<K,V,U> rights, nextRight;
+
+        MapReduceTask(BulkTask<K,V,?> p, int b, int i, int f, MyNode<K,V>[] t, MapReduceTask<K,V,U> nextRight,
+                      BiFunction<? super K, ? super V, ? extends U> transformer,
+                      BiFunction<? super U, ? super U, ? extends U> reducer) {
+            super(p, b, i, f, t);
+            this.nextRight = nextRight;
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+
+        public final U getRawResult() {
+            return result;
+        }
+
+        public final void compute() {
+            final BiFunction<? super K, ? super V, ? extends U> transformer = this.transformer;
+            final BiFunction<? super U, ? super U, ? extends U> reducer = this.reducer;
+            for (int i = baseIndex, f, h; batch > 0 && (h = ((f = baseLimit) + i) >>> 1) > i; ) {
+                addToPendingCount(1);
+                (rights = new MapReduceTask<>(this, batch >>>= 1, baseLimit = h, f, tab, rights, transformer, reducer)).fork();
+            }
+            U r = null, u;
+            for (int i = baseIndex; i < baseLimit; ++i) {
+                for (MyNode<K,V> p = tab[i]; p != null; p = p.next) {
+                    if ((u = transformer.apply(p.key, p.value)) != null)
+                        r = (r == null) ? u : reducer.apply(r, u);
+                }
+            }
+            result = r;
+            CountedCompleter<?> c;
+            for (c = firstComplete(); c != null; c = c.nextComplete()) {
+                @SuppressWarnings("unchecked")
+                MapReduceTask<K,V,U> t = (MapReduceTask<K,V,U>) c, s = t.rights;
+                while (s != null) {
+                    U tr, sr;
+                    if ((sr = s.result) != null)
+                        t.result = ((tr = t.result) == null) ? sr : reducer.apply(tr, sr);
+                    s = t.rights = s.nextRight;
+                }
+            }
+        }
+    }
+
+    /**
+     * 所有子任务共享同一个AtomicReference保存结果, 任意一个子任务找到结果之后, 其他子任务在遍历每个桶之前都会检查并提前退出
+     */
+    static final class SearchTask<K,V,U> extends BulkTask<K,V,U> {
+        private static final long serialVersionUID = 1L;
+
+        final BiFunction<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+
+        SearchTask(BulkTask<K,V,?> p, int b, int i, int f, MyNode<K,V>[] t,
+                   BiFunction<? super K, ? super V, ? extends U> searchFunction, AtomicReference<U> result) {
+            super(p, b, i, f, t);
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+
+        public final U getRawResult() {
+            return result.get();
+        }
+
+        public final void compute() {
+            final BiFunction<? super K, ? super V, ? extends U> searchFunction = this.searchFunction;
+            final AtomicReference<U> result = this.result;
+            for (int i = baseIndex, f, h; batch > 0 && (h = ((f = baseLimit) + i) >>> 1) > i; ) {
+                if (result.get() != null)
+                    return;
+                addToPendingCount(1);
+                new SearchTask<>(this, batch >>>= 1, baseLimit = h, f, tab, searchFunction, result).fork();
+            }
+            for (int i = baseIndex; i < baseLimit && result.get() == null; ++i) {
+                for (MyNode<K,V> p = tab[i]; p != null; p = p.next) {
+                    U u;
+                    if ((u = searchFunction.apply(p.key, p.value)) != null) {
+                        if (result.compareAndSet(null, u))
+                            quietlyCompleteRoot();
+                        return;
+                    }
+                }
+            }
+            propagateCompletion();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // 诊断信息
+
+    /**
+     * 统计当前table中桶的冲突情况, 用于判断hash值是否足够散列、容量以及负载因子是否合适
+     *
+     * 遍历所有的桶, 统计每个桶上的结点数量(链长), 树化的桶同样沿着next指针计数
+     * 如果正在进行渐进式扩容, 那么会先将扩容完成
+     * @return
+     */
+    public Diagnostics diagnostics() {
+        MyNode<K,V>[] tab = beginTraversal();
+        int capacity = (tab == null) ? 0 : tab.length;
+        int[] counts = new int[TREEIFY_THRESHOLD + 1];
+        int maxChain = 0, treeBins = 0;
+        for (int i = 0; i < capacity; ++i) {
+            MyNode<K,V> e = tab[i];
+            int len = 0;
+            if (e instanceof TreeNode)
+                ++treeBins;
+            for (; e != null; e = e.next)
+                ++len;
+            if (len >= counts.length)
+                counts = Arrays.copyOf(counts, Math.max(len + 1, counts.length << 1));
+            ++counts[len];
+            if (len > maxChain)
+                maxChain = len;
+        }
+        return new Diagnostics(capacity, size, loadFactor, treeBins, Arrays.copyOf(counts, maxChain + 1));
+    }
+
+    /**
+     * 桶的冲突情况统计结果
+     *
+     * histogram[i]表示链长为i的桶的数量, 其中histogram[0]就是空桶的数量
+     * 对于一个分布均匀的hash, 链长应该近似服从均值为load的泊松分布, 如果maxChainLength明显偏大, 说明hash值分布不均匀
+     */
+    public static final class Diagnostics {
+        public final int capacity;         // table容量
+        public final int size;             // 键值对数量
+        public final float loadFactor;     // 负载因子
+        public final int treeBins;         // 树化的桶的数量
+        public final int maxChainLength;   // 最长的链长
+        private final int[] histogram;     // 链长的直方图
+
+        Diagnostics(int capacity, int size, float loadFactor, int treeBins, int[] histogram) {
+            this.capacity = capacity;
+            this.size = size;
+            this.loadFactor = loadFactor;
+            this.treeBins = treeBins;
+            this.histogram = histogram;
+            this.maxChainLength = histogram.length - 1;
+        }
+
+        /**
+         * 返回链长直方图的拷贝
+         * @return
+         */
+        public int[] histogram() {
+            return histogram.clone();
+        }
+
+        // 实际的负载, 即 size / capacity
+        public double load() {
+            return capacity == 0 ? 0.0 : (double) size / capacity;
+        }
+
+        // 空桶的数量
+        public int emptyBuckets() {
+            return histogram[0];
+        }
+
+        /**
+         * 查找一个存在的key平均需要比较的结点数量: 链长为i的桶中, 所有结点的比较次数之和为 i * (i + 1) / 2
+         * @return
+         */
+        public double averageProbeLength() {
+            if (size == 0)
+                return 0.0;
+            long probes = 0;
+            for (int i = 1; i < histogram.length; ++i)
+                probes += (long) histogram[i] * i * (i + 1) / 2;
+            return (double) probes / size;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("capacity=").append(capacity)
+              .append(", size=").append(size)
+              .append(", load=").append(String.format("%.3f", load()))
+              .append("/").append(loadFactor)
+              .append(", maxChain=").append(maxChainLength)
+              .append(", treeBins=").append(treeBins)
+              .append(", avgProbe=").append(String.format("%.3f", averageProbeLength()))
+              .append(", histogram={");
+            for (int i = 0; i < histogram.length; ++i) {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(i).append('=').append(histogram[i]);
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    /**
+     * 将桶上的链表转换为红黑树
+     *
+     * 需要注意的是, 如果table的容量小于MIN_TREEIFY_CAPACITY, 那么并不会树化, 而是执行扩容操作
+     * 因为table较小时, 链表过长多半是因为容量不足导致的, 扩容之后链表会被打散到高低位两个桶中, 这比树化的代价更小
+     *
+     * 1. 遍历桶上的链表, 将每个MyNode替换为TreeNode, 并通过prev、next指针维护一个双向链表 (保持原有顺序)
+     * 2. 调用头结点的treeify方法, 将这个双向链表构建为一棵红黑树
+     * @param tab
+     * @param hash
+     */
+    final void treeifyBin(MyNode<K,V>[] tab, int hash) {
+        int n, index;
+        MyNode<K,V> e;
+        if (tab == null || (n = tab.length) < MIN_TREEIFY_CAPACITY)
+            resize();
+        else if (strategy != null) // 自定义策略下红黑树的排序可能与strategy.equals不一致, 因此保持链表
+            return;
+        else if ((e = tab[index = (n - 1) & hash]) != null) {
+            TreeNode<K,V> hd = null, tl = null; // 双向链表的头、尾结点
+            do {
+                TreeNode<K,V> p = replacementTreeNode(e, null);
+                if (tl == null)
+                    hd = p;
+                else {
+                    p.prev = tl;
+                    tl.next = p;
+                }
+                tl = p;
+            } while ((e = e.next) != null);
+            if ((tab[index] = hd) != null)
+                hd.treeify(tab);
+        }
+    }
+
+    /*
+     * 下面这几个方法用于创建结点, 将它们单独封装出来是为了方便LinkedHashMap重写, 使得新建的结点能够追加到双端链表中
+     */
+
+    // 创建一个普通的链表结点
+    MyNode<K,V> newNode(int hash, K key, V value, MyNode<K,V> next) {
+        return new MyNode<>(hash, key, value, next);
+    }
+
+    // 去树化时, 用于将TreeNode替换为普通的链表结点
+    MyNode<K,V> replacementNode(MyNode<K,V> p, MyNode<K,V> next) {
+        return new MyNode<>(p.hash, p.key, p.value, next);
+    }
+
+    // 创建一个红黑树结点
+    TreeNode<K,V> newTreeNode(int hash, K key, V value, MyNode<K,V> next) {
+        return new TreeNode<>(hash, key, value, next);
+    }
+
+    // 树化时, 用于将普通的链表结点替换为TreeNode
+    TreeNode<K,V> replacementTreeNode(MyNode<K,V> p, MyNode<K,V> next) {
+        return new TreeNode<>(p.hash, p.key, p.value, next);
+    }
+
+    // Callbacks to allow LinkedHashMap post-actions
+    void afterNodeAccess(MyNode<K,V> p) { }
+    void afterNodeInsertion(boolean evict) { }
+    void afterNodeRemoval(MyNode<K,V> p) { }
+
+    /**
+     * 红黑树结点
+     *
+     * 这里继承了LinkedHashMap的MyEntry (与原生JDK相同), 这样LinkedHashMap中树化的桶也能维护before、after指针
+     *
+     * 需要注意的是, 一个树化的桶其实同时维护着两个结构：
+     *      1. 一棵按照 hash值 -> compareTo -> tieBreakOrder 排序的红黑树 (parent、left、right), 用于O(logn)的检索
+     *      2. 一个双向链表 (prev、next), 它保证了桶上的头结点永远是红黑树的root, 也使得遍历、扩容时能够像普通链表一样处理
+     */
+    static final class TreeNode<K,V> extends MyLinkedHashMap.MyEntry<K,V> {
+        TreeNode<K,V> parent;
+        TreeNode<K,V> left;
+        TreeNode<K,V> right;
+        TreeNode<K,V> prev; // 删除结点时需要通过prev指针来维护next链
+        boolean red;
+
+        TreeNode(int hash, K key, V val, MyNode<K,V> next) {
+            super(hash, key, val, next);
+        }
+
+        /**
+         * 获取当前结点所在红黑树的根结点
+         * @return
+         */
+        final TreeNode<K,V> root() {
+            for (TreeNode<K,V> r = this, p;;) {
+                if ((p = r.parent) == null)
+                    return r;
+                r = p;
+            }
+        }
+
+        /**
+         * 确保红黑树的根结点就是桶上的头结点
+         *
+         * 红黑树在插入、删除之后会进行旋转, root有可能发生变化, 这时需要将新的root从双向链表中摘出来, 放到链表头部
+         * @param tab
+         * @param root
+         */
+        static <K,V> void moveRootToFront(MyNode<K,V>[] tab, TreeNode<K,V> root) {
+            int n;
+            if (root != null && tab != null && (n = tab.length) > 0) {
+                int index = (n - 1) & root.hash;
+                TreeNode<K,V> first = (TreeNode<K,V>) tab[index];
+                if (root != first) {
+                    MyNode<K,V> rn;
+                    tab[index] = root;
+                    TreeNode<K,V> rp = root.prev;
+                    if ((rn = root.next) != null) // 将root从双向链表中原来的位置摘除
+                        ((TreeNode<K,V>) rn).prev = rp;
+                    if (rp != null)
+                        rp.next = rn;
+                    if (first != null) // 再将root放到双向链表的头部
+                        first.prev = root;
+                    root.next = first;
+                    root.prev = null;
+                }
+                assert checkInvariants(root);
+            }
+        }
+
+        /**
+         * 从当前结点开始, 检索hash值为h, key为k的结点
+         *
+         * 先比较hash值, hash值相同时如果key是可比较的, 那么按照compareTo的结果选择左右子树
+         * 如果无法比较 (比如key没有实现Comparable, 或者compareTo返回0), 那么只能左右子树都检索一遍
+         * @param h
+         * @param k
+         * @param kc key的Comparable类型, 第一次使用时才会计算
+         * @return
+         */
+        final TreeNode<K,V> find(int h, Object k, Class<?> kc) {
+            TreeNode<K,V> p = this;
+            do {
+                int ph, dir;
+                K pk;
+                TreeNode<K,V> pl = p.left, pr = p.right, q;
+                if ((ph = p.hash) > h)
+                    p = pl;
+                else if (ph < h)
+                    p = pr;
+                else if ((pk = p.key) == k || (k != null && k.equals(pk)))
+                    return p;
+                else if (pl == null)
+                    p = pr;
+                else if (pr == null)
+                    p = pl;
+                else if ((kc != null || (kc = comparableClassFor(k)) != null) && (dir = compareComparables(kc, k, pk)) != 0)
+                    p = (dir < 0) ? pl : pr;
+                else if ((q = pr.find(h, k, kc)) != null) // 无法比较时, 先递归检索右子树
+                    return q;
+                else // 右子树中没有找到, 那么继续检索左子树
+                    p = pl;
+            } while (p != null);
+            return null;
+        }
+
+        /**
+         * 从红黑树的根结点开始检索
+         * @param h
+         * @param k
+         * @return
+         */
+        final TreeNode<K,V> getTreeNode(int h, Object k) {
+            return ((parent != null) ? root() : this).find(h, k, null);
+        }
+
+        /**
+         * 当两个key的hash值相同, 且无法通过compareTo比较时, 用于决定插入顺序的方法
+         *
+         * 先比较类名, 类名相同时再比较identityHashCode. 这里并不要求结果具有一致性, 只是为了让插入时能够选择一个方向
+         * 因此检索时并不能依赖这个顺序, 这也是为什么find方法在无法比较时需要左右子树都检索
+         * @param a
+         * @param b
+         * @return
+         */
+        static int tieBreakOrder(Object a, Object b) {
+            int d;
+            if (a == null || b == null || (d = a.getClass().getName().compareTo(b.getClass().getName())) == 0)
+                d = (System.identityHashCode(a) <= System.identityHashCode(b) ? -1 : 1);
+            return d;
+        }
+
+        /**
+         * 将以当前结点为头结点的双向链表构建为一棵红黑树
+         *
+         * 遍历链表, 将每个结点按照 hash值 -> compareTo -> tieBreakOrder 的顺序插入到红黑树中, 每插入一个结点就进行一次平衡
+         * 最后将root移动到桶的头部
+         * @param tab
+         */
+        final void treeify(MyNode<K,V>[] tab) {
+            TreeNode<K,V> root = null;
+            for (TreeNode<K,V> x = this, next; x != null; x = next) {
+                next = (TreeNode<K,V>) x.next;
+                x.left = x.right = null;
+                if (root == null) { // 第一个结点作为根结点, 根结点为黑色
+                    x.parent = null;
+                    x.red = false;
+                    root = x;
+                } else {
+                    K k = x.key;
+                    int h = x.hash;
+                    Class<?> kc = null;
+                    for (TreeNode<K,V> p = root;;) { // 从根结点开始寻找插入位置
+                        int dir, ph;
+                        K pk = p.key;
+                        if ((ph = p.hash) > h)
+                            dir = -1;
+                        else if (ph < h)
+                            dir = 1;
+                        else if ((kc == null && (kc = comparableClassFor(k)) == null) || (dir = compareComparables(kc, k, pk)) == 0)
+                            dir = tieBreakOrder(k, pk);
+
+                        TreeNode<K,V> xp = p;
+                        if ((p = (dir <= 0) ? p.left : p.right) == null) { // 找到了空位置, 插入并进行平衡
+                            x.parent = xp;
+                            if (dir <= 0)
+                                xp.left = x;
+                            else
+                                xp.right = x;
+                            root = balanceInsertion(root, x);
+                            break;
+                        }
+                    }
+                }
+            }
+            moveRootToFront(tab, root);
+        }
+
+        /**
+         * 去树化, 将以当前结点为头结点的双向链表转换为普通的单向链表, 并返回新的头结点
+         * @param map
+         * @return
+         */
+        final MyNode<K,V> untreeify(MyHashMap<K,V> map) {
+            MyNode<K,V> hd = null, tl = null;
+            for (MyNode<K,V> q = this; q != null; q = q.next) {
+                MyNode<K,V> p = map.replacementNode(q, null);
+                if (tl == null)
+                    hd = p;
+                else
+                    tl.next = p;
+                tl = p;
+            }
+            return hd;
+        }
+
+        /**
+         * 红黑树版本的putVal
+         *
+         * 如果找到了key相同的结点, 那么返回这个结点, 由putVal负责覆盖value
+         * 否则新建一个TreeNode插入到红黑树中 (同时插入到双向链表中父结点的后面), 并返回null
+         * @param map
+         * @param tab
+         * @param h
+         * @param k
+         * @param v
+         * @return
+         */
+        final TreeNode<K,V> putTreeVal(MyHashMap<K,V> map, MyNode<K,V>[] tab, int h, K k, V v) {
+            Class<?> kc = null;
+            boolean searched = false; // 标识是否已经完整检索过子树
+            TreeNode<K,V> root = (parent != null) ? root() : this;
+            for (TreeNode<K,V> p = root;;) {
+                int dir, ph;
+                K pk;
+                if ((ph = p.hash) > h)
+                    dir = -1;
+                else if (ph < h)
+                    dir = 1;
+                else if ((pk = p.key) == k || (k != null && k.equals(pk)))
+                    return p;
+                else if ((kc == null && (kc = comparableClassFor(k)) == null) || (dir = compareComparables(kc, k, pk)) == 0) {
+                    // 无法比较时, 先在左右子树中检索一次是否已经存在这个key, 不存在再通过tieBreakOrder决定插入方向
+                    if (!searched) {
+                        TreeNode<K,V> q, ch;
+                        searched = true;
+                        if (((ch = p.left) != null && (q = ch.find(h, k, kc)) != null) ||
+                                ((ch = p.right) != null && (q = ch.find(h, k, kc)) != null))
+                            return q;
+                    }
+                    dir = tieBreakOrder(k, pk);
+                }
+
+                TreeNode<K,V> xp = p;
+                if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                    MyNode<K,V> xpn = xp.next;
+                    TreeNode<K,V> x = map.newTreeNode(h, k, v, xpn);
+                    if (dir <= 0)
+                        xp.left = x;
+                    else
+                        xp.right = x;
+                    xp.next = x;
+                    x.parent = x.prev = xp;
+                    if (xpn != null)
+                        ((TreeNode<K,V>) xpn).prev = x;
+                    moveRootToFront(tab, balanceInsertion(root, x));
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * 删除当前结点
+         *
+         * 1. 先从双向链表中摘除当前结点
+         * 2. 如果树中结点过少 (根结点的左右子树, 或者左子树的左子树为空), 那么直接去树化, 不需要再维护红黑树
+         * 3. 否则按照红黑树的删除逻辑删除结点: 如果有两个子结点, 先与后继结点交换位置, 然后用子结点替换当前结点, 最后进行平衡
+         * @param map
+         * @param tab
+         * @param movable 如果为false, 那么删除之后不移动root
+         */
+        final void removeTreeNode(MyHashMap<K,V> map, MyNode<K,V>[] tab, boolean movable) {
+            int n;
+            if (tab == null || (n = tab.length) == 0)
+                return;
+            int index = (n - 1) & hash;
+            TreeNode<K,V> first = (TreeNode<K,V>) tab[index], root = first, rl;
+            TreeNode<K,V> succ = (TreeNode<K,V>) next, pred = prev;
+            if (pred == null)
+                tab[index] = first = succ;
+            else
+                pred.next = succ;
+            if (succ != null)
+                succ.prev = pred;
+            if (first == null)
+                return;
+            if (root.parent != null)
+                root = root.root();
+            if (root == null || (movable && (root.right == null || (rl = root.left) == null || rl.left == null))) {
+                tab[index] = first.untreeify(map); // 结点过少, 去树化
+                return;
+            }
+            TreeNode<K,V> p = this, pl = left, pr = right, replacement;
+            if (pl != null && pr != null) { // 有两个子结点, 找到后继结点s, 交换p与s在树中的位置
+                TreeNode<K,V> s = pr, sl;
+                while ((sl = s.left) != null)
+                    s = sl;
+                boolean c = s.red; // 交换颜色
+                s.red = p.red;
+                p.red = c;
+                TreeNode<K,V> sr = s.right;
+                TreeNode<K,V> pp = p.parent;
+                if (s == pr) { // p是s的直接父结点
+                    p.parent = s;
+                    s.right = p;
+                } else {
+                    TreeNode<K,V> sp = s.parent;
+                    if ((p.parent = sp) != null) {
+                        if (s == sp.left)
+                            sp.left = p;
+                        else
+                            sp.right = p;
+                    }
+                    if ((s.right = pr) != null)
+                        pr.parent = s;
+                }
+                p.left = null;
+                if ((p.right = sr) != null)
+                    sr.parent = p;
+                if ((s.left = pl) != null)
+                    pl.parent = s;
+                if ((s.parent = pp) == null)
+                    root = s;
+                else if (p == pp.left)
+                    pp.left = s;
+                else
+                    pp.right = s;
+                if (sr != null)
+                    replacement = sr;
+                else
+                    replacement = p;
+            } else if (pl != null)
+                replacement = pl;
+            else if (pr != null)
+                replacement = pr;
+            else
+                replacement = p;
+            if (replacement != p) { // 用replacement替换p
+                TreeNode<K,V> pp = replacement.parent = p.parent;
+                if (pp == null)
+                    root = replacement;
+                else if (p == pp.left)
+                    pp.left = replacement;
+                else
+                    pp.right = replacement;
+                p.left = p.right = p.parent = null;
+            }
+
+            // 删除的是红色结点时不会破坏红黑树的性质, 否则需要平衡
+            TreeNode<K,V> r = p.red ? root : balanceDeletion(root, replacement);
+
+            if (replacement == p) { // p没有子结点, 直接将p与父结点断开
+                TreeNode<K,V> pp = p.parent;
+                p.parent = null;
+                if (pp != null) {
+                    if (p == pp.left)
+                        pp.left = null;
+                    else if (p == pp.right)
+                        pp.right = null;
+                }
+            }
+            if (movable)
+                moveRootToFront(tab, r);
+        }
+
+        /**
+         * 扩容时, 将树化的桶拆分为高低位两个链表, 与普通链表的拆分逻辑相同 (根据 e.hash & bit 是否为0 来划分)
+         *
+         * 拆分之后, 如果链表长度小于等于UNTREEIFY_THRESHOLD, 那么去树化; 否则重新树化
+         * @param map
+         * @param tab 新的table
+         * @param index 当前桶在旧table中的下标
+         * @param bit 旧table的容量
+         */
+        final void split(MyHashMap<K,V> map, MyNode<K,V>[] tab, int index, int bit) {
+            TreeNode<K,V> b = this;
+            TreeNode<K,V> loHead = null, loTail = null;
+            TreeNode<K,V> hiHead = null, hiTail = null;
+            int lc = 0, hc = 0; // 高低位链表的长度
+            for (TreeNode<K,V> e = b, next; e != null; e = next) {
+                next = (TreeNode<K,V>) e.next;
+                e.next = null;
+                if ((e.hash & bit) == 0) {
+                    if ((e.prev = loTail) == null)
+                        loHead = e;
+                    else
+                        loTail.next = e;
+                    loTail = e;
+                    ++lc;
+                } else {
+                    if ((e.prev = hiTail) == null)
+                        hiHead = e;
+                    else
+                        hiTail.next = e;
+                    hiTail = e;
+                    ++hc;
+                }
+            }
+
+            if (loHead != null) {
+                if (lc <= UNTREEIFY_THRESHOLD)
+                    tab[index] = loHead.untreeify(map);
+                else {
+                    tab[index] = loHead;
+                    if (hiHead != null) // 如果高位链表为空, 说明所有结点都在低位链表中, 原来的树结构仍然有效, 不需要重新树化
+                        loHead.treeify(tab);
+                }
+            }
+            if (hiHead != null) {
+                if (hc <= UNTREEIFY_THRESHOLD)
+                    tab[index + bit] = hiHead.untreeify(map);
+                else {
+                    tab[index + bit] = hiHead;
+                    if (loHead != null)
+                        hiHead.treeify(tab);
+                }
+            }
+        }
+
+        /*
+         * 下面是红黑树的旋转与平衡操作, 与算法导论中的实现相同
+         */
+
+        /**
+         * 左旋: 将p的右子结点r提升为p的父结点, r的左子树变为p的右子树
+         */
+        static <K,V> TreeNode<K,V> rotateLeft(TreeNode<K,V> root, TreeNode<K,V> p) {
+            TreeNode<K,V> r, pp, rl;
+            if (p != null && (r = p.right) != null) {
+                if ((rl = p.right = r.left) != null)
+                    rl.parent = p;
+                if ((pp = r.parent = p.parent) == null)
+                    (root = r).red = false;
+                else if (pp.left == p)
+                    pp.left = r;
+                else
+                    pp.right = r;
+                r.left = p;
+                p.parent = r;
+            }
+            return root;
+        }
+
+        /**
+         * 右旋: 将p的左子结点l提升为p的父结点, l的右子树变为p的左子树
+         */
+        static <K,V> TreeNode<K,V> rotateRight(TreeNode<K,V> root, TreeNode<K,V> p) {
+            TreeNode<K,V> l, pp, lr;
+            if (p != null && (l = p.left) != null) {
+                if ((lr = p.left = l.right) != null)
+                    lr.parent = p;
+                if ((pp = l.parent = p.parent) == null)
+                    (root = l).red = false;
+                else if (pp.right == p)
+                    pp.right = l;
+                else
+                    pp.left = l;
+                l.right = p;
+                p.parent = l;
+            }
+            return root;
+        }
+
+        /**
+         * 插入结点x之后的平衡操作, 返回新的根结点
+         *
+         * 新插入的结点为红色, 如果父结点也是红色, 那么需要根据叔叔结点的颜色进行变色或旋转
+         */
+        static <K,V> TreeNode<K,V> balanceInsertion(TreeNode<K,V> root, TreeNode<K,V> x) {
+            x.red = true;
+            for (TreeNode<K,V> xp, xpp, xppl, xppr;;) {
+                if ((xp = x.parent) == null) { // x就是根结点
+                    x.red = false;
+                    return x;
+                } else if (!xp.red || (xpp = xp.parent) == null) // 父结点是黑色, 或者父结点就是根结点, 不需要平衡
+                    return root;
+                if (xp == (xppl = xpp.left)) { // 父结点是祖父结点的左子结点
+                    if ((xppr = xpp.right) != null && xppr.red) { // 叔叔结点是红色, 变色之后继续向上平衡
+                        xppr.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else { // 叔叔结点是黑色, 需要旋转
+                        if (x == xp.right) {
+                            root = rotateLeft(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateRight(root, xpp);
+                            }
+                        }
+                    }
+                } else { // 对称的情况
+                    if (xppl != null && xppl.red) {
+                        xppl.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.left) {
+                            root = rotateRight(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateLeft(root, xpp);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 删除结点之后的平衡操作, x为替换被删除结点的结点, 返回新的根结点
+         */
+        static <K,V> TreeNode<K,V> balanceDeletion(TreeNode<K,V> root, TreeNode<K,V> x) {
+            for (TreeNode<K,V> xp, xpl, xpr;;) {
+                if (x == null || x == root)
+                    return root;
+                else if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (x.red) {
+                    x.red = false;
+                    return root;
+                } else if ((xpl = xp.left) == x) { // x是左子结点
+                    if ((xpr = xp.right) != null && xpr.red) { // 兄弟结点是红色
+                        xpr.red = false;
+                        xp.red = true;
+                        root = rotateLeft(root, xp);
+                        xpr = (xp = x.parent) == null ? null : xp.right;
+                    }
+                    if (xpr == null)
+                        x = xp;
+                    else {
+                        TreeNode<K,V> sl = xpr.left, sr = xpr.right;
+                        if ((sr == null || !sr.red) && (sl == null || !sl.red)) { // 兄弟结点的子结点都是黑色
+                            xpr.red = true;
+                            x = xp;
+                        } else {
+                            if (sr == null || !sr.red) {
+                                if (sl != null)
+                                    sl.red = false;
+                                xpr.red = true;
+                                root = rotateRight(root, xpr);
+                                xpr = (xp = x.parent) == null ? null : xp.right;
+                            }
+                            if (xpr != null) {
+                                xpr.red = (xp == null) ? false : xp.red;
+                                if ((sr = xpr.right) != null)
+                                    sr.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateLeft(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                } else { // 对称的情况
+                    if (xpl != null && xpl.red) {
+                        xpl.red = false;
+                        xp.red = true;
+                        root = rotateRight(root, xp);
+                        xpl = (xp = x.parent) == null ? null : xp.left;
+                    }
+                    if (xpl == null)
+                        x = xp;
+                    else {
+                        TreeNode<K,V> sl = xpl.left, sr = xpl.right;
+                        if ((sl == null || !sl.red) && (sr == null || !sr.red)) {
+                            xpl.red = true;
+                            x = xp;
+                        } else {
+                            if (sl == null || !sl.red) {
+                                if (sr != null)
+                                    sr.red = false;
+                                xpl.red = true;
+                                root = rotateLeft(root, xpl);
+                                xpl = (xp = x.parent) == null ? null : xp.left;
+                            }
+                            if (xpl != null) {
+                                xpl.red = (xp == null) ? false : xp.red;
+                                if ((sl = xpl.left) != null)
+                                    sl.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateRight(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 递归检查红黑树以及双向链表的结构是否正确, 仅用于assert
+         */
+        static <K,V> boolean checkInvariants(TreeNode<K,V> t) {
+            TreeNode<K,V> tp = t.parent, tl = t.left, tr = t.right, tb = t.prev, tn = (TreeNode<K,V>) t.next;
+            if (tb != null && tb.next != t)
+                return false;
+            if (tn != null && tn.prev != t)
+                return false;
+            if (tp != null && t != tp.left && t != tp.right)
+                return false;
+            if (tl != null && (tl.parent != t || tl.hash > t.hash))
+                return false;
+            if (tr != null && (tr.parent != t || tr.hash < t.hash))
+                return false;
+            if (t.red && tl != null && tl.red && tr != null && tr.red)
+                return false;
+            if (tl != null && !checkInvariants(tl))
+                return false;
+            if (tr != null && !checkInvariants(tr))
+                return false;
+            return true;
+        }
+    }
 }
\ No newline at end of file
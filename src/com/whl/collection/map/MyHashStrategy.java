@@ -0,0 +1,144 @@
+package com.whl.collection.map;
+
+import java.util.Arrays;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: HashMap的hash策略
+ * @Description:
+ *
+ * HashMap默认使用key自身的hashCode、equals方法来计算hash值以及判断key是否相同, 但这并不总是我们想要的:
+ *     1. 数组作为key时, hashCode、equals比较的是引用, 而我们往往希望比较数组的内容
+ *     2. 有时需要按照引用判断key是否相同 (类似IdentityHashMap), 而不关心key重写的equals
+ *     3. 有些key的hashCode分布很差 (例如只有高位不同、或者连续的数值), 仅靠 h ^ (h >>> 16) 无法充分打散
+ *
+ * 通过构造方法传入HashStrategy, 就可以替换HashMap计算hash值以及比较key的方式
+ * 需要注意的是: key为null的情况由HashMap自己处理, 因此这里的两个方法都不会接收到null
+ *
+ * 自定义策略下, key的compareTo与策略的equals不一定一致, 因此HashMap不会将链表转换为红黑树, 这就要求hashCode方法本身要足够散列
+ */
+public interface MyHashStrategy<K> {
+    /**
+     * 计算key的hash值, 返回值还会经过HashMap的 h ^ (h >>> 16) 处理
+     * @param key 不为null
+     * @return
+     */
+    int hashCode(K key);
+
+    /**
+     * 判断两个key是否相同, 必须与hashCode保持一致: equals返回true的两个key, hashCode也必须相同
+     * @param a 不为null
+     * @param b 不为null
+     * @return
+     */
+    boolean equals(K a, K b);
+
+    /**
+     * 按照引用比较key, hash值使用System.identityHashCode
+     * @param <K>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <K> MyHashStrategy<K> identity() {
+        return (MyHashStrategy<K>) IDENTITY;
+    }
+
+    /**
+     * 按照数组的内容比较key, 支持Object[] (递归比较元素) 以及所有基本类型的数组, 不是数组的key则使用它自身的hashCode、equals
+     * @param <K>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <K> MyHashStrategy<K> arrayContent() {
+        return (MyHashStrategy<K>) ARRAY_CONTENT;
+    }
+
+    /**
+     * 依然使用key自身的equals, 但会对key的hashCode做一次完整的混淆 (MurmurHash3的fmix32)
+     *
+     * fmix32会让hashCode的每一位都影响结果的每一位, 适用于hashCode只有高位不同、或者是连续数值的key
+     * @param <K>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <K> MyHashStrategy<K> mixed() {
+        return (MyHashStrategy<K>) MIXED;
+    }
+
+    MyHashStrategy<Object> IDENTITY = new MyHashStrategy<Object>() {
+        public int hashCode(Object key) {
+            return System.identityHashCode(key);
+        }
+
+        public boolean equals(Object a, Object b) {
+            return a == b;
+        }
+    };
+
+    MyHashStrategy<Object> ARRAY_CONTENT = new MyHashStrategy<Object>() {
+        public int hashCode(Object key) {
+            if (key instanceof Object[])
+                return Arrays.deepHashCode((Object[]) key);
+            if (key instanceof int[])
+                return Arrays.hashCode((int[]) key);
+            if (key instanceof long[])
+                return Arrays.hashCode((long[]) key);
+            if (key instanceof byte[])
+                return Arrays.hashCode((byte[]) key);
+            if (key instanceof char[])
+                return Arrays.hashCode((char[]) key);
+            if (key instanceof short[])
+                return Arrays.hashCode((short[]) key);
+            if (key instanceof double[])
+                return Arrays.hashCode((double[]) key);
+            if (key instanceof float[])
+                return Arrays.hashCode((float[]) key);
+            if (key instanceof boolean[])
+                return Arrays.hashCode((boolean[]) key);
+            return key.hashCode();
+        }
+
+        public boolean equals(Object a, Object b) {
+            if (a == b)
+                return true;
+            if (a.getClass() != b.getClass())
+                return false;
+            if (a instanceof Object[])
+                return Arrays.deepEquals((Object[]) a, (Object[]) b);
+            if (a instanceof int[])
+                return Arrays.equals((int[]) a, (int[]) b);
+            if (a instanceof long[])
+                return Arrays.equals((long[]) a, (long[]) b);
+            if (a instanceof byte[])
+                return Arrays.equals((byte[]) a, (byte[]) b);
+            if (a instanceof char[])
+                return Arrays.equals((char[]) a, (char[]) b);
+            if (a instanceof short[])
+                return Arrays.equals((short[]) a, (short[]) b);
+            if (a instanceof double[])
+                return Arrays.equals((double[]) a, (double[]) b);
+            if (a instanceof float[])
+                return Arrays.equals((float[]) a, (float[]) b);
+            if (a instanceof boolean[])
+                return Arrays.equals((boolean[]) a, (boolean[]) b);
+            return a.equals(b);
+        }
+    };
+
+    MyHashStrategy<Object> MIXED = new MyHashStrategy<Object>() {
+        public int hashCode(Object key) {
+            int h = key.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+
+        public boolean equals(Object a, Object b) {
+            return a.equals(b);
+        }
+    };
+}
@@ -0,0 +1,311 @@
+package com.whl.collection.map;
+
+import java.util.Arrays;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: key、value都为int的HashMap (开放寻址法)
+ * @Description:
+ *
+ * HashMap的key只能是对象, 当我们以int作为key、value时, 每次put/get都需要将int装箱为Integer, 并且每个键值对还需要额外创建一个MyNode对象
+ * 这个Map直接将key保存在int[]数组中, value保存在与之下标对应的int[]数组中, 不需要装箱, 也没有任何per-entry的对象分配
+ *
+ * 由于value是基本类型, 没有办法用null表示 "不存在", 因此get、put、remove在key不存在时返回0, 需要区分时请使用containsKey或getOrDefault
+ *
+ * 与HashMap的拉链法不同, 这里采用的是开放寻址法中的线性探测 (linear probing) 来解决hash冲突:
+ *     如果计算得到的下标上已经有其他key了, 那么就依次检查下一个位置, 直到找到这个key或者遇到一个空位置
+ *     由于探测是在连续的数组上进行的, 对CPU缓存非常友好
+ *
+ * 需要注意的几点:
+ *     1. 我们用key == 0来表示一个空位置, 因此key为0的键值对需要单独保存在zeroValue中
+ *     2. 删除时不使用墓碑标记, 而是将后续探测链上的元素往前挪 (backward shift), 这样删除之后查询的探测长度不会变长
+ *     3. 线性探测对hash值的分布很敏感, 连续的int key直接取模会堆积在一起, 因此计算下标之前会先进行一次乘法散列
+ */
+public class MyIntIntHashMap {
+    //默认容量, 必须为2的n次方
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    //最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    //默认负载因子, 开放寻址法的负载因子不宜过大, 否则探测长度会急剧增加
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private int[] keys;//保存key的数组, 0表示空位置
+
+    private int[] values;//保存value的数组, 与keys的下标一一对应
+
+    private boolean containsZeroKey;//是否存在key为0的键值对
+
+    private int zeroValue;//key为0的键值对的value
+
+    private int size;//map中的元素数量, 包含key为0的键值对
+
+    private int mask;//keys.length - 1, 用于计算下标
+
+    private int threshold;//扩容阈值, 当数组中的元素数量超过threshold时扩容
+
+    private final float loadFactor;//负载因子
+
+    public MyIntIntHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public MyIntIntHashMap(int expectedSize) {
+        this(expectedSize, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 指定预期的元素数量以及负载因子创建Map
+     *
+     * 与HashMap不同的是, 这里会直接根据 expectedSize / loadFactor 计算出数组长度, 保证放入expectedSize个元素之前不会扩容
+     * @param expectedSize
+     * @param loadFactor 必须在(0, 1)之间, 开放寻址法的数组是不能被填满的
+     */
+    public MyIntIntHashMap(int expectedSize, float loadFactor) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + expectedSize);
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        this.loadFactor = loadFactor;
+        allocate(arraySize(expectedSize, loadFactor));
+    }
+
+    /**
+     * 计算能够容纳expected个元素的数组长度
+     * @param expected
+     * @param f
+     * @return
+     */
+    static int arraySize(int expected, float f) {
+        long s = Math.max(2, (long) Math.ceil(expected / f));
+        if (s > MAXIMUM_CAPACITY)
+            return MAXIMUM_CAPACITY;
+        return MyHashMap.tableSizeFor((int) s);
+    }
+
+    /**
+     * 对key进行乘法散列 (乘以黄金分割数), 然后让高16位参与运算, 与HashMap的hash方法思路相同
+     * @param key
+     * @return
+     */
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 获取key在数组中的下标, 不存在时返回-1
+     *
+     * 从mix(key)计算出的位置开始线性探测, 遇到key相同的位置返回下标, 遇到空位置说明key不存在
+     * @param key 不能为0
+     * @return
+     */
+    private int indexOf(int key) {
+        final int[] keys = this.keys;
+        final int mask = this.mask;
+        int k;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if ((k = keys[i]) == 0)
+                return -1;
+            if (k == key)
+                return i;
+        }
+    }
+
+    public boolean containsKey(int key) {
+        if (key == 0)
+            return containsZeroKey;
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * 是否存在value, 需要遍历整个values数组
+     * @param value
+     * @return
+     */
+    public boolean containsValue(int value) {
+        if (containsZeroKey && zeroValue == value)
+            return true;
+        final int[] keys = this.keys;
+        final int[] values = this.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && values[i] == value)
+                return true;
+        }
+        return false;
+    }
+
+    public int get(int key) {
+        if (key == 0)
+            return zeroValue;
+        int i = indexOf(key);
+        return i < 0 ? 0 : values[i];
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        if (key == 0)
+            return containsZeroKey ? zeroValue : defaultValue;
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public int put(int key, int value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * 仅当key不存在时放入键值对, 注意这里与Object版本不同, value为0并不代表不存在
+     * @param key
+     * @param value
+     * @return
+     */
+    public int putIfAbsent(int key, int value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * 放置键值对的核心逻辑
+     *
+     * 线性探测到key相同的位置时覆盖value, 探测到空位置时放入新的键值对, 然后判断是否需要扩容
+     * @param key
+     * @param value
+     * @param onlyIfAbsent 如果为true, 那么就不修改已经存在的value值
+     * @return 旧value, 不存在时返回0
+     */
+    private int putVal(int key, int value, boolean onlyIfAbsent) {
+        if (key == 0) {
+            int oldValue = zeroValue;
+            if (!containsZeroKey) {
+                containsZeroKey = true;
+                size++;
+                zeroValue = value;
+            } else if (!onlyIfAbsent)
+                zeroValue = value;
+            return oldValue;
+        }
+        final int[] keys = this.keys;
+        final int mask = this.mask;
+        int k, i;
+        for (i = mix(key) & mask; (k = keys[i]) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                int oldValue = values[i];
+                if (!onlyIfAbsent)
+                    values[i] = value;
+                return oldValue;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        // key为0的键值对不占用数组, 因此这里需要减去
+        if (size++ - (containsZeroKey ? 1 : 0) >= threshold)
+            rehash(keys.length << 1);
+        return 0;
+    }
+
+    /**
+     * 删除key对应的键值对, 并返回value, 不存在时返回0
+     * @param key
+     * @return
+     */
+    public int remove(int key) {
+        if (key == 0) {
+            if (!containsZeroKey)
+                return 0;
+            int oldValue = zeroValue;
+            containsZeroKey = false;
+            zeroValue = 0;
+            size--;
+            return oldValue;
+        }
+        int i = indexOf(key);
+        if (i < 0)
+            return 0;
+        int oldValue = values[i];
+        shiftKeys(i);
+        size--;
+        return oldValue;
+    }
+
+    /**
+     * 删除pos位置上的键值对, 并将后续探测链上的元素往前挪
+     *
+     * 从pos的下一个位置开始遍历, 直到遇到空位置:
+     *     如果某个元素的理想位置(mix(k) & mask)不在 (pos, i] 这个环形区间内, 说明它探测时经过了pos, 那么将它挪到pos上, 然后继续处理它空出来的位置
+     *     否则说明它探测时不会经过pos, 不需要挪动
+     * @param pos
+     */
+    private void shiftKeys(int pos) {
+        final int[] keys = this.keys;
+        final int[] values = this.values;
+        final int mask = this.mask;
+        int last, slot, k;
+        for (;;) {
+            pos = ((last = pos) + 1) & mask;
+            for (;;) {
+                if ((k = keys[pos]) == 0) {
+                    keys[last] = 0;
+                    values[last] = 0;
+                    return;
+                }
+                slot = mix(k) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos)
+                    break;
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = k;
+            values[last] = values[pos];
+        }
+    }
+
+    /**
+     * 扩容, 将旧数组中的所有键值对重新探测放入新数组
+     * @param newCapacity
+     */
+    private void rehash(int newCapacity) {
+        if (keys.length >= MAXIMUM_CAPACITY)
+            throw new IllegalStateException("Map too large");
+        final int[] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        allocate(newCapacity);
+        final int[] keys = this.keys;
+        final int[] values = this.values;
+        final int mask = this.mask;
+        int k;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if ((k = oldKeys[j]) != 0) {
+                int i = mix(k) & mask;
+                while (keys[i] != 0)
+                    i = (i + 1) & mask;
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public void clear() {
+        if (size == 0)
+            return;
+        size = 0;
+        containsZeroKey = false;
+        zeroValue = 0;
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+    }
+}
@@ -1,5 +1,19 @@
 package com.whl.collection.map;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 
 /**
@@ -13,6 +27,11 @@ package com.whl.collection.map;
  *     afterNodeAccess、afterNodeInsertion、afterNodeRemoval 这几个方法实现的
  *
  * 相比起HashMap, 优点就是支持有序, 缺点就是占内存要更大, 且每次对结点操作之后都要进行维护, 相对耗时
+ *
+ * keySet、values、entrySet这几个视图的迭代器沿着双端链表遍历, 因此迭代顺序就是插入(或访问)顺序, 迭代的代价也只与元素数量有关, 而与table容量无关
+ * 视图的Spliterator同样基于链表迭代器实现, 并报告ORDERED特性; 而继承自HashMap的并行批量操作依然按照桶数组拆分, 不保证顺序
+ *
+ * 由于双端链表的头尾结点是现成的, 还可以直接访问最早(eldest)、最晚(youngest)的结点, 从尾部逆序遍历, 或者从头部批量取出最早的n个结点
  */
 public class MyLinkedHashMap<K,V> extends MyHashMap<K,V> implements MyMap<K,V> {
     /**
@@ -98,7 +117,7 @@ public class MyLinkedHashMap<K,V> extends MyHashMap<K,V> implements MyMap<K,V> {
     }
 
     /**
-     * 这个方法其实是HashMap中用于去树化的方法, 当时我省略掉了这个方法
+     * 这个方法其实是HashMap中用于去树化的方法
      *
      * 重写之后的逻辑就是：将结点p转换为Entry, 然后替换它在链表中的位置
      * @param p
@@ -112,6 +131,33 @@ public class MyLinkedHashMap<K,V> extends MyHashMap<K,V> implements MyMap<K,V> {
         return t;
     }
 
+    /**
+     * 新建一个红黑树结点p, 同样需要追加到双端链表末尾
+     * @param hash
+     * @param key
+     * @param value
+     * @param next
+     * @return
+     */
+    TreeNode<K,V> newTreeNode(int hash, K key, V value, MyNode<K,V> next) {
+        TreeNode<K,V> p = new TreeNode<>(hash, key, value, next);
+        linkNodeLast(p);
+        return p;
+    }
+
+    /**
+     * 树化时将结点p转换为TreeNode, 然后替换它在双端链表中的位置, 以保证树化之后顺序不变
+     * @param p
+     * @param next
+     * @return
+     */
+    TreeNode<K,V> replacementTreeNode(MyNode<K,V> p, MyNode<K,V> next) {
+        MyEntry<K,V> q = (MyEntry<K,V>)p;
+        TreeNode<K,V> t = new TreeNode<>(q.hash, q.key, q.value, next);
+        transferLinks(q, t);
+        return t;
+    }
+
     /**
      * 用结点dst替换结点src在链表中的位置
      * @param src
@@ -157,7 +203,7 @@ public class MyLinkedHashMap<K,V> extends MyHashMap<K,V> implements MyMap<K,V> {
         MyEntry<K,V> first;
         if (evict && (first = head) != null && removeEldestEntry(first)) {
             K key = first.key;
-            removeNode(hash(key), key, null, false, true);
+            removeNode(hashOf(key), key, null, false, true);
         }
     }
 
@@ -165,8 +211,304 @@ public class MyLinkedHashMap<K,V> extends MyHashMap<K,V> implements MyMap<K,V> {
         return false;
     }
 
+    /**
+     * 获取key对应的value
+     *
+     * 与HashMap的区别在于: 如果是按访问顺序排序的, 那么还需要调用afterNodeAccess将这个结点移动到链表末尾
+     * 否则get不会改变结点的顺序, 访问顺序也就无从谈起了
+     * @param key
+     * @return
+     */
+    @Override
+    public V get(Object key) {
+        MyNode<K,V> e;
+        if ((e = getNode(hashOf(key), key)) == null)
+            return null;
+        if (accessOrder)
+            afterNodeAccess(e);
+        return e.value;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        MyNode<K,V> e;
+        if ((e = getNode(hashOf(key), key)) == null)
+            return defaultValue;
+        if (accessOrder)
+            afterNodeAccess(e);
+        return e.value;
+    }
+
+    /**
+     * 与HashMap不同, 这里沿着双端链表从头结点开始遍历, 保证遍历的顺序与插入(或访问)顺序一致
+     * @param action
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        for (MyEntry<K,V> e = head; e != null; e = e.after)
+            action.accept(e.key, e.value);
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * 返回链表头部的结点, 也就是最早插入(或最久没有被访问)的键值对, Map为空时返回null
+     *
+     * 这个方法不会改变访问顺序, 返回的是Map中的结点本身, 因此setValue会直接修改Map
+     * @return
+     */
+    public Entry<K,V> eldest() {
+        return head;
+    }
+
+    /**
+     * 返回链表尾部的结点, 也就是最晚插入(或最近被访问)的键值对, Map为空时返回null
+     *
+     * 与eldest相同, 不会改变访问顺序
+     * @return
+     */
+    public Entry<K,V> youngest() {
+        return tail;
+    }
+
+    /**
+     * 删除并返回链表头部的结点, Map为空时返回null
+     * @return
+     */
+    public Entry<K,V> pollEldest() {
+        MyEntry<K,V> e;
+        if ((e = head) == null)
+            return null;
+        removeNode(e.hash, e.key, null, false, true);
+        return e;
+    }
+
+    /**
+     * 从链表头部开始, 删除最早的n个结点, 并按照原来的顺序返回 (元素不足n个时全部删除)
+     *
+     * 每次删除都只是从头结点开始, 不需要遍历或者重建Map, 适合将最早的一批数据刷到外部存储之后再从Map中移除
+     * 返回的结点已经从Map中摘除, 对它们调用setValue不会再影响Map
+     * @param n
+     * @return
+     */
+    public List<Entry<K,V>> pollEldest(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("Illegal count: " + n);
+        List<Entry<K,V>> polled = new ArrayList<>(Math.min(n, size()));
+        MyEntry<K,V> e;
+        while (n-- > 0 && (e = head) != null) {
+            removeNode(e.hash, e.key, null, false, true);
+            polled.add(e);
+        }
+        return polled;
+    }
+
+    /**
+     * 从链表尾部开始逆序遍历的迭代器, 即从最晚插入(或最近被访问)的结点遍历到最早的结点
+     *
+     * 与视图的迭代器相同, 是fail-fast的, 并且支持remove
+     * @return
+     */
+    public Iterator<Entry<K,V>> descendingIterator() {
+        return new LinkedEntryIterator(true);
+    }
+
+    /**
+     * 逆序遍历key, 参见descendingIterator
+     * @return
+     */
+    public Iterator<K> descendingKeyIterator() {
+        return new LinkedKeyIterator(true);
+    }
+
+    /**
+     * 清空Map, 除了清空table之外, 还需要将双端链表的头尾结点置为null
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        head = tail = null;
+    }
+
+    /* ------------------------------------------------------------ */
+    // 视图以及迭代器, 与HashMap的区别在于都是沿着双端链表遍历的
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        if (ks == null) {
+            ks = new LinkedKeySet();
+            keySet = ks;
+        }
+        return ks;
+    }
+
+    final class LinkedKeySet extends AbstractSet<K> {
+        public final int size()                 { return MyLinkedHashMap.this.size(); }
+        public final void clear()               { MyLinkedHashMap.this.clear(); }
+        public final Iterator<K> iterator()     { return new LinkedKeyIterator(); }
+        public final Spliterator<K> spliterator() {
+            return Spliterators.spliterator(this, Spliterator.SIZED | Spliterator.ORDERED | Spliterator.DISTINCT);
+        }
+        public final boolean contains(Object o) { return containsKey(o); }
+        public final boolean remove(Object key) {
+            return removeNode(hashOf(key), key, null, false, true) != null;
+        }
+        public final void forEach(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int mc = modCount;
+            for (MyEntry<K,V> e = head; e != null; e = e.after)
+                action.accept(e.key);
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new LinkedValues();
+            values = vs;
+        }
+        return vs;
+    }
+
+    final class LinkedValues extends AbstractCollection<V> {
+        public final int size()                 { return MyLinkedHashMap.this.size(); }
+        public final void clear()               { MyLinkedHashMap.this.clear(); }
+        public final Iterator<V> iterator()     { return new LinkedValueIterator(); }
+        public final Spliterator<V> spliterator() {
+            return Spliterators.spliterator(this, Spliterator.SIZED | Spliterator.ORDERED);
+        }
+        public final boolean contains(Object o) { return containsValue(o); }
+        public final void forEach(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int mc = modCount;
+            for (MyEntry<K,V> e = head; e != null; e = e.after)
+                action.accept(e.value);
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Set<Entry<K,V>> entrySet() {
+        Set<Entry<K,V>> es;
+        return (es = entrySet) == null ? (entrySet = new LinkedEntrySet()) : es;
+    }
+
+    final class LinkedEntrySet extends AbstractSet<Entry<K,V>> {
+        public final int size()                 { return MyLinkedHashMap.this.size(); }
+        public final void clear()               { MyLinkedHashMap.this.clear(); }
+        public final Iterator<Entry<K,V>> iterator() {
+            return new LinkedEntryIterator();
+        }
+        public final Spliterator<Entry<K,V>> spliterator() {
+            return Spliterators.spliterator(this, Spliterator.SIZED | Spliterator.ORDERED | Spliterator.DISTINCT);
+        }
+        public final boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?,?> e = (Entry<?,?>) o;
+            Object key = e.getKey();
+            MyNode<K,V> candidate = getNode(hashOf(key), key);
+            return candidate != null && Objects.equals(candidate.value, e.getValue());
+        }
+        public final boolean remove(Object o) {
+            if (o instanceof Entry) {
+                Entry<?,?> e = (Entry<?,?>) o;
+                Object key = e.getKey();
+                Object value = e.getValue();
+                return removeNode(hashOf(key), key, value, true, true) != null;
+            }
+            return false;
+        }
+        public final void forEach(Consumer<? super Entry<K,V>> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int mc = modCount;
+            for (MyEntry<K,V> e = head; e != null; e = e.after)
+                action.accept(e);
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 沿着双端链表遍历的迭代器, fail-fast的逻辑与HashMap的HashIterator相同
+     *
+     * descending为true时从尾结点开始沿着before指针逆序遍历
+     */
+    abstract class LinkedHashIterator {
+        MyEntry<K,V> next;       // 下一个要返回的结点
+        MyEntry<K,V> current;    // 当前结点, 用于remove
+        int expectedModCount;    // 用于fail-fast
+        final boolean descending;// 是否逆序遍历
+
+        LinkedHashIterator() {
+            this(false);
+        }
+
+        LinkedHashIterator(boolean descending) {
+            this.descending = descending;
+            next = descending ? tail : head;
+            expectedModCount = modCount;
+            current = null;
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final MyEntry<K,V> nextNode() {
+            MyEntry<K,V> e = next;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (e == null)
+                throw new NoSuchElementException();
+            current = e;
+            next = descending ? e.before : e.after;
+            return e;
+        }
+
+        public final void remove() {
+            MyNode<K,V> p = current;
+            if (p == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = null;
+            removeNode(p.hash, p.key, null, false, false);
+            expectedModCount = modCount;
+        }
+    }
+
+    final class LinkedKeyIterator extends LinkedHashIterator implements Iterator<K> {
+        LinkedKeyIterator() { super(); }
+        LinkedKeyIterator(boolean descending) { super(descending); }
+        public final K next() { return nextNode().getKey(); }
+    }
+
+    final class LinkedValueIterator extends LinkedHashIterator implements Iterator<V> {
+        public final V next() { return nextNode().value; }
+    }
+
+    final class LinkedEntryIterator extends LinkedHashIterator implements Iterator<Entry<K,V>> {
+        LinkedEntryIterator() { super(); }
+        LinkedEntryIterator(boolean descending) { super(descending); }
+        public final Entry<K,V> next() { return nextNode(); }
+    }
+
     /**
      * accessOrder为true时，且访问节点不等于尾节点时，该方法才有意义。通过before、after重定向，将新访问节点链接为链表尾节点。
+     *
+     * 调整链表的顺序同样算作结构性修改 (会改变迭代顺序), 因此需要modCount++, 与原生JDK相同
      * @param e
      */
     void afterNodeAccess(MyNode<K,V> e) { // move node to last
@@ -189,6 +531,7 @@ public class MyLinkedHashMap<K,V> extends MyHashMap<K,V> implements MyMap<K,V> {
                 last.after = p;
             }
             tail = p;
+            ++modCount;
         }
     }
 }
@@ -0,0 +1,289 @@
+package com.whl.collection.map;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 基于LinkedHashMap实现的LRU缓存
+ * @Description:
+ *
+ * 按访问顺序排序的LinkedHashMap天然就是一个LRU链表: 每次get/put都会把结点移动到链表末尾, 链表头部就是最久没有被访问的结点
+ * 但直接使用LinkedHashMap实现缓存需要自己继承并重写removeEldestEntry, 而且只能按照元素数量淘汰, 每次插入也最多只能淘汰一个元素
+ *
+ * 这个类在LinkedHashMap的基础上提供了一个开箱即用的缓存:
+ *     1. 容量限制: 每个元素都有一个权重, 所有元素的权重之和 (weightedSize) 超过maxWeight时, 从链表头部开始淘汰, 直到不再超出
+ *        LRU缓存中每个元素的权重都是1, 也就是按元素数量淘汰; MyWeightedCache则通过Weigher计算权重, 例如按照字节数淘汰
+ *     2. 过期时间(可选): 元素写入超过ttl之后就会过期, get时发现过期会直接删除并当作未命中
+ *        由于链表是按访问顺序而不是写入顺序排列的, 过期元素不会被主动清理, 可以通过cleanUp方法扫描清理
+ *     3. 统计: 命中、未命中、淘汰、过期的次数
+ *
+ * 每个value会被包装为一个Item, 用于保存权重以及写入时间, 这样就不需要改动LinkedHashMap的结点结构 (树化之后的TreeNode也无需特殊处理)
+ *
+ * 与LinkedHashMap相同, 这个类不是线程安全的, 多线程访问需要在外部加锁
+ */
+public class MyLruCache<K,V> {
+    /**
+     * 缓存中实际保存的value, 附带了权重以及写入时间
+     */
+    static final class Item<V> {
+        final V value;
+        final int weight;
+        final long writeTime; // 写入时的System.nanoTime()
+
+        Item(V value, int weight, long writeTime) {
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * 计算元素权重的接口
+     */
+    @FunctionalInterface
+    public interface Weigher<K,V> {
+        /**
+         * 返回元素的权重, 不能为负数
+         * @param key
+         * @param value
+         * @return
+         */
+        int weigh(K key, V value);
+    }
+
+    final MyLinkedHashMap<K, Item<V>> map; // 按访问顺序排序的LinkedHashMap
+
+    final long maxWeight; // 权重上限
+
+    final Weigher<? super K, ? super V> weigher; // 为null时每个元素的权重都是1
+
+    final long expireAfterWriteNanos; // 写入之后的过期时间, <= 0表示永不过期
+
+    long weightedSize; // 当前所有元素的权重之和
+
+    long hitCount; // 命中次数
+
+    long missCount; // 未命中次数 (包括因为过期而未命中)
+
+    long evictionCount; // 因为超出容量而被淘汰的元素数量
+
+    long expirationCount; // 因为过期而被删除的元素数量
+
+    /**
+     * 创建一个最多保存maxEntries个元素的LRU缓存, 元素永不过期
+     * @param maxEntries
+     */
+    public MyLruCache(int maxEntries) {
+        this(maxEntries, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 创建一个最多保存maxEntries个元素的LRU缓存, 元素写入ttl时间之后过期
+     * @param maxEntries
+     * @param ttl <= 0表示永不过期
+     * @param unit
+     */
+    public MyLruCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, null, ttl, unit);
+    }
+
+    MyLruCache(long maxWeight, Weigher<? super K, ? super V> weigher, long ttl, TimeUnit unit) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("Illegal max weight: " + maxWeight);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.expireAfterWriteNanos = ttl <= 0 ? 0 : unit.toNanos(ttl);
+        this.map = new MyLinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 获取key对应的value, 命中时会将元素移动到LRU链表末尾
+     *
+     * 如果元素已经过期, 那么删除它并返回null
+     * @param key
+     * @return
+     */
+    public V get(Object key) {
+        Item<V> item = map.get(key);
+        if (item == null) {
+            ++missCount;
+            return null;
+        }
+        if (isExpired(item, System.nanoTime())) {
+            removeItem(key);
+            ++expirationCount;
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return item.value;
+    }
+
+    /**
+     * 获取key对应的value, 但不改变LRU顺序, 也不计入统计
+     * @param key
+     * @return
+     */
+    public V peek(Object key) {
+        MyHashMap.MyNode<K, Item<V>> e = map.getNode(map.hashOf(key), key);
+        Item<V> item;
+        if (e == null || (item = e.value) == null || isExpired(item, System.nanoTime()))
+            return null;
+        return item.value;
+    }
+
+    /**
+     * 放入键值对, 然后淘汰链表头部的元素, 直到权重之和不超过maxWeight
+     *
+     * 如果单个元素的权重就超过了maxWeight, 那么它不会被放入 (计为一次淘汰), key原来对应的元素也会被删除, 其他元素不受影响
+     * 不能先放入再淘汰: 新元素位于链表末尾, 从头部开始淘汰会先把其他所有元素都清空, 最后才轮到它
+     * @param key
+     * @param value 不能为null, 缓存中null表示不存在
+     * @return 旧value, 不存在或者已经过期时返回null
+     */
+    public V put(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        long now = System.nanoTime();
+        int weight = weigh(key, value);
+        if (weight > maxWeight) {
+            Item<V> old = removeItem(key);
+            ++evictionCount;
+            return old == null || isExpired(old, now) ? null : old.value;
+        }
+        Item<V> old = map.put(key, new Item<>(value, weight, now));
+        V oldValue = null;
+        if (old != null) {
+            weightedSize -= old.weight;
+            if (!isExpired(old, now))
+                oldValue = old.value;
+        }
+        weightedSize += weight;
+        evict();
+        return oldValue;
+    }
+
+    /**
+     * 删除key对应的元素
+     * @param key
+     * @return 被删除的value, 不存在或者已经过期时返回null
+     */
+    public V remove(Object key) {
+        Item<V> item = removeItem(key);
+        return item == null || isExpired(item, System.nanoTime()) ? null : item.value;
+    }
+
+    private Item<V> removeItem(Object key) {
+        Item<V> item = map.remove(key);
+        if (item != null)
+            weightedSize -= item.weight;
+        return item;
+    }
+
+    /**
+     * 从LRU链表的头部开始淘汰, 直到权重之和不超过maxWeight
+     */
+    void evict() {
+        MyLinkedHashMap.MyEntry<K, Item<V>> eldest;
+        while (weightedSize > maxWeight && (eldest = map.head) != null) {
+            removeItem(eldest.key);
+            ++evictionCount;
+        }
+    }
+
+    private int weigh(K key, V value) {
+        if (weigher == null)
+            return 1;
+        int w = weigher.weigh(key, value);
+        if (w < 0)
+            throw new IllegalArgumentException("Negative weight: " + w);
+        return w;
+    }
+
+    private boolean isExpired(Item<V> item, long now) {
+        return expireAfterWriteNanos > 0 && now - item.writeTime >= expireAfterWriteNanos;
+    }
+
+    /**
+     * 扫描整个缓存, 删除所有已经过期的元素
+     *
+     * 这是一个O(n)的操作, 适合在后台定期调用
+     * @return 删除的元素数量
+     */
+    public int cleanUp() {
+        if (expireAfterWriteNanos <= 0)
+            return 0;
+        long now = System.nanoTime();
+        int removed = 0;
+        MyLinkedHashMap.MyEntry<K, Item<V>> e = map.head, next;
+        for (; e != null; e = next) {
+            next = e.after; // 删除之后e.after会被置为null, 因此需要提前保存
+            if (isExpired(e.value, now)) {
+                removeItem(e.key);
+                ++removed;
+            }
+        }
+        expirationCount += removed;
+        return removed;
+    }
+
+    public void clear() {
+        map.clear();
+        weightedSize = 0;
+    }
+
+    /**
+     * 缓存中的元素数量, 可能包含还没有被清理的过期元素
+     * @return
+     */
+    public int size() {
+        return map.size();
+    }
+
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    public long expirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * 命中率, 没有任何请求时返回1.0
+     * @return
+     */
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * 重置所有的统计计数
+     */
+    public void resetStats() {
+        hitCount = missCount = evictionCount = expirationCount = 0;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "{size=" + size() + ", weightedSize=" + weightedSize
+                + "/" + maxWeight + ", hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount + ", expirations=" + expirationCount + "}";
+    }
+}
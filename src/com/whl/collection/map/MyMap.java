@@ -4,6 +4,9 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public interface MyMap<K,V> {
     int size();
@@ -20,15 +23,34 @@ public interface MyMap<K,V> {
 
     V remove(Object key);
 
-//    void putAll(Map<? extends K, ? extends V> m);
+    void putAll(Map<? extends K, ? extends V> m);
+
+    void putAll(MyMap<? extends K, ? extends V> m);
 
     void clear();
 
-//    Set<K> keySet();
+    /**
+     * 返回Map中所有key组成的Set视图
+     *
+     * 视图不会复制数据, 对Map的修改会反映到视图中; 通过视图或者视图的迭代器删除元素, 也会删除Map中对应的键值对
+     * 视图不支持add操作
+     * @return
+     */
+    Set<K> keySet();
 
-//    Collection<V> values();
+    /**
+     * 返回Map中所有value组成的Collection视图, 语义与keySet相同
+     * @return
+     */
+    Collection<V> values();
 
-//    Set<Map.Entry<K, V>> entrySet();
+    /**
+     * 返回Map中所有键值对组成的Set视图, 语义与keySet相同
+     *
+     * 通过Entry.setValue可以直接修改Map中对应的value
+     * @return
+     */
+    Set<Entry<K, V>> entrySet();
 
     interface Entry<K,V> {
         K getKey();
@@ -46,6 +68,14 @@ public interface MyMap<K,V> {
 
     int hashCode();
 
+    /**
+     * 遍历Map中的所有键值对, 对每个键值对执行action
+     *
+     * 原生JDK中这个方法是通过entrySet实现的default方法, 这里要求实现类直接遍历内部的存储结构, 这样就不需要创建迭代器以及Entry对象
+     * @param action
+     */
+    void forEach(BiConsumer<? super K, ? super V> action);
+
     /**
      * Map中如果存在这个key, 那么就返回这个key, 否则返回默认值defaultValue
      * @param key
@@ -125,4 +155,96 @@ public interface MyMap<K,V> {
         }
         return curValue;
     }
+
+    /**
+     * 如果key不存在(或者value为null), 那么通过mappingFunction计算出value并放入Map, 返回当前(或计算出的)value
+     *
+     * mappingFunction返回null时不放入任何键值对, 直接返回null
+     * 这个默认实现会先get再put, 需要检索两次, 实现类应该重写为一次检索
+     * @param key
+     * @param mappingFunction
+     * @return
+     */
+    default V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        V v;
+        if ((v = get(key)) == null) {
+            V newValue;
+            if ((newValue = mappingFunction.apply(key)) != null) {
+                put(key, newValue);
+                return newValue;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * 如果key存在且value不为null, 那么通过remappingFunction计算出新的value并替换, 返回新的value
+     *
+     * remappingFunction返回null时删除这个键值对
+     * @param key
+     * @param remappingFunction
+     * @return
+     */
+    default V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        V oldValue;
+        if ((oldValue = get(key)) != null) {
+            V newValue = remappingFunction.apply(key, oldValue);
+            if (newValue != null) {
+                put(key, newValue);
+                return newValue;
+            } else {
+                remove(key);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据key以及当前的value(不存在时为null)计算出新的value, 返回新的value
+     *
+     * 新的value为null时删除这个键值对(如果存在的话), 否则放入Map
+     * @param key
+     * @param remappingFunction
+     * @return
+     */
+    default V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        V oldValue = get(key);
+        V newValue = remappingFunction.apply(key, oldValue);
+        if (newValue == null) {
+            if (oldValue != null || containsKey(key)) {
+                remove(key);
+            }
+            return null;
+        } else {
+            put(key, newValue);
+            return newValue;
+        }
+    }
+
+    /**
+     * 合并value, 常用于计数之类的场景, 例如 map.merge(word, 1, Integer::sum)
+     *
+     * 如果key不存在(或者value为null), 那么直接放入value; 否则通过remappingFunction合并旧value与传入的value
+     * 合并的结果为null时删除这个键值对
+     * @param key
+     * @param value 不能为null
+     * @param remappingFunction
+     * @return 合并之后的value
+     */
+    default V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Objects.requireNonNull(value);
+        V oldValue = get(key);
+        V newValue = (oldValue == null) ? value : remappingFunction.apply(oldValue, value);
+        if (newValue == null) {
+            remove(key);
+        } else {
+            put(key, newValue);
+        }
+        return newValue;
+    }
 }
@@ -0,0 +1,662 @@
+package com.whl.collection.map;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 并发的W-TinyLFU缓存
+ * @Description:
+ *
+ * 按访问顺序排序的LinkedHashMap在每次get时都会修改双端链表 (afterNodeAccess), 因此多线程共享时读操作也必须加全局锁, 无法随核数扩展
+ * 这个缓存参考了Caffeine的设计, 将 "数据的读写" 与 "淘汰策略的维护" 分离开:
+ *
+ * 1. 数据保存在MyConcurrentHashMap中, get/put只需要操作这个Map, 不需要加锁
+ * 2. 读操作产生的访问记录放入分段(striped)的无锁环形缓冲区ReadBuffer中, 每个线程按照线程id选择一个缓冲区, 减少CAS竞争
+ *    缓冲区满了或者CAS失败时直接丢弃这条访问记录: 淘汰策略只需要近似的访问顺序, 丢失少量记录并不影响命中率
+ * 3. 写操作产生的事件(新增、删除)不能丢失, 放入无界的写缓冲区writeBuffer中
+ * 4. 缓冲区中的事件由拿到evictionLock的线程批量回放(maintenance), 获取锁使用的是tryLock, 拿不到锁的线程不会阻塞, 而是交给持有锁的线程处理
+ *
+ * 淘汰策略是W-TinyLFU:
+ *     新元素先进入一个很小的LRU窗口(window, 容量的1%), 窗口溢出的元素作为候选者(candidate)进入主区域
+ *     主区域是一个分段LRU(SLRU): 试用区(probation)以及保护区(protected, 主区域的80%), 试用区中的元素再次被访问后晋升到保护区
+ *     主区域满了之后, 候选者需要与试用区头部的元素(victim)比较访问频率, 频率更高的留下, 这就是TinyLFU的准入过滤
+ * 访问频率由Count-Min Sketch估算 (FrequencySketch), 每个元素只占用4位计数器, 并且会周期性地减半以适应访问模式的变化
+ *
+ * 与纯LRU相比, TinyLFU能够避免一次性的大量扫描把热点数据挤出缓存, 命中率更高
+ */
+public class MyTinyLfuCache<K,V> {
+    //队列类型
+    static final int NONE = 0, WINDOW = 1, PROBATION = 2, PROTECTED = 3;
+
+    //写缓冲区的状态, 用于保证写事件一定会被某个线程处理
+    static final int IDLE = 0, REQUIRED = 1, PROCESSING = 2;
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 缓存结点
+     *
+     * key、value由Map读写, 不需要加锁; prev、next、queueType只会在持有evictionLock时访问
+     */
+    static final class Node<K,V> {
+        final K key;
+        volatile V value;
+        volatile boolean alive = true; // 从Map中删除之后置为false
+        int queueType = NONE; // 当前所在的队列
+        Node<K,V> prev, next; // 队列中的前序、后继结点
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 侵入式的双端队列, 直接使用结点中的prev、next指针, 不需要额外分配对象
+     */
+    static final class AccessDeque<K,V> {
+        Node<K,V> first, last;
+
+        void addLast(Node<K,V> e) {
+            Node<K,V> l = last;
+            e.prev = l;
+            e.next = null;
+            last = e;
+            if (l == null)
+                first = e;
+            else
+                l.next = e;
+        }
+
+        void unlink(Node<K,V> e) {
+            Node<K,V> p = e.prev, n = e.next;
+            if (p == null)
+                first = n;
+            else
+                p.next = n;
+            if (n == null)
+                last = p;
+            else
+                n.prev = p;
+            e.prev = e.next = null;
+        }
+
+        void moveToLast(Node<K,V> e) {
+            if (e != last) {
+                unlink(e);
+                addLast(e);
+            }
+        }
+
+        Node<K,V> pollFirst() {
+            Node<K,V> f = first;
+            if (f != null)
+                unlink(f);
+            return f;
+        }
+
+        void clear() {
+            first = last = null;
+        }
+    }
+
+    /**
+     * 读缓冲区: 多生产者、单消费者的有界环形数组
+     *
+     * 生产者(读线程)通过CAS推进writeCounter抢占一个槽位, 然后写入结点; 消费者(持有evictionLock的线程)从readCounter开始读取
+     * 缓冲区满了、或者CAS失败 (说明有其他线程在竞争同一个缓冲区) 时直接放弃, 不会重试或者阻塞
+     */
+    static final class ReadBuffer<K,V> {
+        static final int SIZE = 16; // 缓冲区大小, 必须为2的n次方
+        static final int MASK = SIZE - 1;
+        static final int SUCCESS = 0, FULL = 1, FAILED = 2;
+
+        final AtomicLong writeCounter = new AtomicLong(); // 下一个写入的位置
+        volatile long readCounter; // 下一个读取的位置, 只有消费者会修改
+        final AtomicReferenceArray<Node<K,V>> buffer = new AtomicReferenceArray<>(SIZE);
+
+        int offer(Node<K,V> e) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= SIZE)
+                return FULL;
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) tail & MASK, e);
+                return SUCCESS;
+            }
+            return FAILED;
+        }
+
+        /**
+         * 将缓冲区中的结点逐个交给cache回放, 遇到还没有写入完成的槽位时停止, 剩下的留到下一次
+         * @param cache
+         */
+        void drainTo(MyTinyLfuCache<K,V> cache) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; ++head) {
+                int i = (int) head & MASK;
+                Node<K,V> e = buffer.get(i);
+                if (e == null)
+                    break;
+                buffer.lazySet(i, null);
+                cache.onAccess(e);
+            }
+            readCounter = head;
+        }
+    }
+
+    /**
+     * Count-Min Sketch, 用于估算key的访问频率
+     *
+     * table中每个long被划分为16个4位的计数器, 每个key通过4个不同的hash函数映射到4个计数器, 估算频率时取这4个计数器的最小值
+     * 计数器最大为15, 对于判断 "哪个元素更热" 已经足够
+     * 当增加次数达到sampleSize (容量的10倍) 时, 所有计数器减半, 这样旧的访问记录会逐渐失效
+     *
+     * 只会在持有evictionLock时访问, 因此不需要同步
+     */
+    static final class FrequencySketch {
+        static final long[] SEED = { // 4个hash函数使用的种子
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        static final long RESET_MASK = 0x7777777777777777L; // 每个计数器右移一位之后, 清除从相邻计数器移入的最高位
+        static final long ONE_MASK = 0x1111111111111111L; // 每个计数器的最低位
+
+        final long[] table;
+        final int tableMask;
+        final int sampleSize;
+        int size; // 自上一次减半以来的增加次数
+
+        FrequencySketch(long maximumSize) {
+            int maximum = (int) Math.min(maximumSize, 1 << 30);
+            table = new long[MyHashMap.tableSizeFor(Math.max(maximum, 8))];
+            tableMask = table.length - 1;
+            sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+        }
+
+        /**
+         * 估算e的访问频率
+         * @param e
+         * @return 0 ~ 15
+         */
+        int frequency(Object e) {
+            int hash = spread(e.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        /**
+         * 增加e的访问频率, 4个计数器中只要有一个增加成功(没有达到15), 就算作一次增加
+         * @param e
+         */
+        void increment(Object e) {
+            int hash = spread(e.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                added |= incrementAt(index, start + i);
+            }
+            if (added && (++size == sampleSize))
+                reset();
+        }
+
+        boolean incrementAt(int i, int j) {
+            int offset = j << 2;
+            long mask = (0xfL << offset);
+            if ((table[i] & mask) != mask) {
+                table[i] += (1L << offset);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 所有计数器减半, 减半时奇数计数器丢失的0.5需要从size中扣除
+         */
+        void reset() {
+            int count = 0;
+            for (int i = 0; i < table.length; i++) {
+                count += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (count >>> 2);
+        }
+
+        int indexOf(int item, int i) {
+            long hash = (item + SEED[i]) * SEED[i];
+            hash += (hash >>> 32);
+            return ((int) hash) & tableMask;
+        }
+
+        static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+    final MyConcurrentHashMap<K, Node<K,V>> data; // 数据
+
+    final long maximum; // 最大元素数量
+
+    final ReadBuffer<K,V>[] readBuffers; // 分段的读缓冲区
+
+    final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>(); // 写缓冲区
+
+    final AtomicInteger drainStatus = new AtomicInteger(IDLE); // 写缓冲区的状态
+
+    final ReentrantLock evictionLock = new ReentrantLock(); // 维护淘汰策略时持有的锁
+
+    /*
+     * 下面的字段只会在持有evictionLock时访问
+     */
+    final FrequencySketch sketch;
+    final AccessDeque<K,V> window = new AccessDeque<>();
+    final AccessDeque<K,V> probation = new AccessDeque<>();
+    final AccessDeque<K,V> protectedDeque = new AccessDeque<>();
+    final long windowMaximum; // 窗口的容量
+    final long mainProtectedMaximum; // 保护区的容量
+    long windowSize; // 窗口中的元素数量
+    long mainProtectedSize; // 保护区中的元素数量
+    long policySize; // 所有队列中的元素数量
+
+    final LongAdder hitCount = new LongAdder();
+    final LongAdder missCount = new LongAdder();
+    final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * 创建一个最多保存maximumSize个元素的缓存
+     * @param maximumSize
+     */
+    @SuppressWarnings("unchecked")
+    public MyTinyLfuCache(long maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Illegal maximum size: " + maximumSize);
+        this.maximum = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.mainProtectedMaximum = (long) ((maximumSize - windowMaximum) * 0.8);
+        this.data = new MyConcurrentHashMap<>((int) Math.min(maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(maximumSize);
+        int stripes = MyHashMap.tableSizeFor(NCPU * 4);
+        this.readBuffers = (ReadBuffer<K,V>[]) new ReadBuffer<?,?>[stripes];
+        for (int i = 0; i < stripes; i++)
+            readBuffers[i] = new ReadBuffer<>();
+    }
+
+    /**
+     * 获取key对应的value, 命中时将访问记录放入读缓冲区
+     * @param key
+     * @return
+     */
+    public V get(Object key) {
+        Node<K,V> node = data.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        V value = node.value;
+        hitCount.increment();
+        afterRead(node);
+        return value;
+    }
+
+    /**
+     * 获取key对应的value, 但不记录访问, 也不计入统计
+     * @param key
+     * @return
+     */
+    public V peek(Object key) {
+        Node<K,V> node = data.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * 放入键值对
+     *
+     * key不存在时, 新建结点放入Map, 然后向写缓冲区提交一个AddTask; key已经存在时直接替换value, 并当作一次访问处理
+     * 替换value时需要在结点的锁中确认结点还存活: 如果它刚好被删除或淘汰, 写入的value会随着结点一起丢失, 此时重新插入
+     * @param key
+     * @param value
+     * @return 旧value
+     */
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        Node<K,V> node = new Node<>(key, value);
+        for (;;) {
+            Node<K,V> prior = data.putIfAbsent(key, node);
+            if (prior == null) {
+                afterWrite(new AddTask(node));
+                return null;
+            }
+            V oldValue = null;
+            boolean replaced = false;
+            synchronized (prior) {
+                if (prior.alive) { // 删除和淘汰都在结点的锁中将alive置为false, 因此这里看到存活就一定还在Map中
+                    oldValue = prior.value;
+                    prior.value = value;
+                    replaced = true;
+                }
+            }
+            if (replaced) {
+                afterRead(prior);
+                return oldValue;
+            }
+            // 结点已经被删除, 并且在置为false之前就已经从Map中移除了, 重试时putIfAbsent会插入新结点
+        }
+    }
+
+    /**
+     * 删除key对应的元素, 然后向写缓冲区提交一个RemoveTask, 将结点从淘汰策略的队列中移除
+     * @param key
+     * @return
+     */
+    public V remove(Object key) {
+        Node<K,V> node;
+        while ((node = data.get(key)) != null) {
+            V oldValue = null;
+            boolean removed;
+            synchronized (node) { // 与put替换value互斥, 保证不会写入一个已经删除的结点
+                if (removed = data.remove(key, node)) { // 结点没有重写equals, 因此这里比较的是引用
+                    node.alive = false;
+                    oldValue = node.value;
+                }
+            }
+            if (removed) {
+                afterWrite(new RemoveTask(node));
+                return oldValue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读操作之后调用: 将结点放入当前线程对应的读缓冲区, 缓冲区满了则尝试回放
+     * @param node
+     */
+    void afterRead(Node<K,V> node) {
+        ReadBuffer<K,V>[] buffers = readBuffers;
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        ReadBuffer<K,V> buffer = buffers[(h ^ (h >>> 16)) & (buffers.length - 1)];
+        if (buffer.offer(node) == ReadBuffer.FULL || drainStatus.get() == REQUIRED)
+            tryToDrain();
+    }
+
+    /**
+     * 写操作之后调用: 将事件放入写缓冲区, 并标记需要回放
+     * @param task
+     */
+    void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        drainStatus.set(REQUIRED);
+        tryToDrain();
+    }
+
+    /**
+     * 尝试获取evictionLock并回放缓冲区, 拿不到锁时直接返回
+     *
+     * 持有锁的线程在释放锁之后会再检查一次drainStatus: 如果在它回放期间又有新的写事件 (状态被置为REQUIRED), 那么再回放一次
+     * 这样即便写线程因为tryLock失败而直接返回, 它提交的事件也一定会被处理
+     */
+    void tryToDrain() {
+        for (;;) {
+            if (!evictionLock.tryLock())
+                return;
+            try {
+                drainStatus.set(PROCESSING);
+                maintenance();
+            } finally {
+                drainStatus.compareAndSet(PROCESSING, IDLE);
+                evictionLock.unlock();
+            }
+            if (drainStatus.get() != REQUIRED)
+                return;
+        }
+    }
+
+    /**
+     * 回放读缓冲区以及写缓冲区中的所有事件, 然后执行淘汰, 调用时必须持有evictionLock
+     */
+    void maintenance() {
+        for (ReadBuffer<K,V> buffer : readBuffers)
+            buffer.drainTo(this);
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null)
+            task.run();
+        evict();
+    }
+
+    /**
+     * 回放一次访问记录
+     *
+     * 窗口以及保护区中的结点移动到队列末尾; 试用区中的结点晋升到保护区, 保护区溢出时将其头部的结点降级回试用区
+     * @param node
+     */
+    void onAccess(Node<K,V> node) {
+        if (!node.alive)
+            return;
+        sketch.increment(node.key);
+        switch (node.queueType) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                protectedDeque.addLast(node);
+                node.queueType = PROTECTED;
+                if (++mainProtectedSize > mainProtectedMaximum) {
+                    Node<K,V> demoted = protectedDeque.pollFirst();
+                    if (demoted != null) {
+                        --mainProtectedSize;
+                        probation.addLast(demoted);
+                        demoted.queueType = PROBATION;
+                    }
+                }
+                break;
+            case PROTECTED:
+                protectedDeque.moveToLast(node);
+                break;
+            default: // AddTask还没有被回放
+                break;
+        }
+    }
+
+    /**
+     * 新增结点的事件: 结点进入窗口末尾
+     */
+    final class AddTask implements Runnable {
+        final Node<K,V> node;
+
+        AddTask(Node<K,V> node) {
+            this.node = node;
+        }
+
+        public void run() {
+            if (!node.alive) // 在回放之前就已经被删除了
+                return;
+            sketch.increment(node.key);
+            window.addLast(node);
+            node.queueType = WINDOW;
+            ++windowSize;
+            ++policySize;
+        }
+    }
+
+    /**
+     * 删除结点的事件: 将结点从所在的队列中移除
+     */
+    final class RemoveTask implements Runnable {
+        final Node<K,V> node;
+
+        RemoveTask(Node<K,V> node) {
+            this.node = node;
+        }
+
+        public void run() {
+            unlinkFromPolicy(node);
+        }
+    }
+
+    private void unlinkFromPolicy(Node<K,V> node) {
+        switch (node.queueType) {
+            case WINDOW:
+                window.unlink(node);
+                --windowSize;
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                break;
+            case PROTECTED:
+                protectedDeque.unlink(node);
+                --mainProtectedSize;
+                break;
+            default:
+                return;
+        }
+        node.queueType = NONE;
+        --policySize;
+    }
+
+    /**
+     * 淘汰
+     *
+     * 窗口溢出时, 窗口头部的结点成为候选者:
+     *     1. 如果主区域还有空间, 那么直接进入试用区
+     *     2. 否则与试用区头部(试用区为空时取保护区头部)的结点比较访问频率, 淘汰频率较低的一方
+     */
+    void evict() {
+        long mainMaximum = maximum - windowMaximum;
+        while (windowSize > windowMaximum) {
+            Node<K,V> candidate = window.pollFirst();
+            --windowSize;
+            candidate.queueType = NONE;
+            --policySize;
+            if (policySize - windowSize < mainMaximum) {
+                probation.addLast(candidate);
+                candidate.queueType = PROBATION;
+                ++policySize;
+                continue;
+            }
+            Node<K,V> victim = probation.first != null ? probation.first : protectedDeque.first;
+            if (victim != null && admit(candidate.key, victim.key)) {
+                evictEntry(victim);
+                probation.addLast(candidate);
+                candidate.queueType = PROBATION;
+                ++policySize;
+            } else {
+                evictEntry(candidate);
+            }
+        }
+    }
+
+    /**
+     * TinyLFU的准入判断: 候选者的频率高于受害者时准入
+     *
+     * 频率相同时拒绝; 为了防止攻击者通过制造hash冲突人为抬高受害者的频率, 候选者频率较高(> 5)时还会以1/128的概率随机准入
+     * @param candidateKey
+     * @param victimKey
+     * @return
+     */
+    boolean admit(K candidateKey, K victimKey) {
+        int victimFreq = sketch.frequency(victimKey);
+        int candidateFreq = sketch.frequency(candidateKey);
+        if (candidateFreq > victimFreq)
+            return true;
+        else if (candidateFreq <= 5)
+            return false;
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    /**
+     * 淘汰一个结点: 从队列以及Map中删除
+     *
+     * 如果Map中的结点已经被用户删除了(RemoveTask还在写缓冲区中), 那么只需要从队列中移除
+     * @param node
+     */
+    private void evictEntry(Node<K,V> node) {
+        unlinkFromPolicy(node);
+        boolean removed;
+        synchronized (node) { // 与put替换value互斥
+            if (removed = data.remove(node.key, node))
+                node.alive = false;
+        }
+        if (removed)
+            evictionCount.increment();
+    }
+
+    /**
+     * 立即回放所有缓冲区中的事件并执行淘汰, 这个方法会阻塞等待evictionLock
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            drainStatus.set(PROCESSING);
+            maintenance();
+        } finally {
+            drainStatus.compareAndSet(PROCESSING, IDLE);
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            maintenance();
+            for (K key : data.keySet())
+                remove(key);
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 元素数量的估计值: 写缓冲区中还没有回放的新增结点也已经在Map中了, 因此可能会暂时超过maximumSize
+     * @return
+     */
+    public long estimatedSize() {
+        return data.size();
+    }
+
+    public long maximumSize() {
+        return maximum;
+    }
+
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    public double hitRate() {
+        long hits = hitCount.sum(), requests = hits + missCount.sum();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    public String toString() {
+        return "MyTinyLfuCache{size=" + estimatedSize() + "/" + maximum + ", hits=" + hitCount()
+                + ", misses=" + missCount() + ", evictions=" + evictionCount() + "}";
+    }
+}
@@ -0,0 +1,42 @@
+package com.whl.collection.map;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 按权重淘汰的LRU缓存
+ * @Description:
+ *
+ * 与MyLruCache的逻辑完全相同, 区别只在于元素的权重由Weigher计算, 而不是固定为1
+ * 例如Weigher返回value序列化之后的字节数, 那么maxWeight就是缓存的内存预算, 这比限制元素数量更能准确地控制内存占用
+ *
+ * 元素的权重在放入时计算一次, 之后不会再更新, 因此value不应该在放入缓存之后被修改
+ */
+public class MyWeightedCache<K,V> extends MyLruCache<K,V> {
+    /**
+     * 创建一个权重之和不超过maxWeight的缓存, 元素永不过期
+     * @param maxWeight
+     * @param weigher
+     */
+    public MyWeightedCache(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        this(maxWeight, weigher, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 创建一个权重之和不超过maxWeight的缓存, 元素写入ttl时间之后过期
+     * @param maxWeight
+     * @param weigher
+     * @param ttl <= 0表示永不过期
+     * @param unit
+     */
+    public MyWeightedCache(long maxWeight, Weigher<? super K, ? super V> weigher, long ttl, TimeUnit unit) {
+        super(maxWeight, requireWeigher(weigher), ttl, unit);
+    }
+
+    private static <K,V> Weigher<K,V> requireWeigher(Weigher<K,V> weigher) {
+        if (weigher == null)
+            throw new NullPointerException();
+        return weigher;
+    }
+}
@@ -1,5 +1,6 @@
 package com.whl.thread.blockingQueue;
 
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 public interface MyBlokingQueue<E> {
@@ -17,8 +18,54 @@ public interface MyBlokingQueue<E> {
 
     int remainingCapacity();
 
+    /**
+     * 当前队列中的元素数量, 在并发修改时只是一个估计值
+     * @return
+     */
+    int size();
+
+    /**
+     * 队列是否为空, 与size相同, 在并发修改时只是一个估计值
+     * @return
+     */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
     boolean remove(Object o);
 
     public boolean contains(Object o);
 
+    /**
+     * 将队列中所有可用的元素移动到集合c中, 返回移动的元素数量
+     * @param c
+     * @return
+     */
+    int drainTo(Collection<? super E> c);
+
+    /**
+     * 最多将maxElements个元素移动到集合c中, 返回移动的元素数量
+     *
+     * 所有元素都在一次加锁期间取出, 取出之后只唤醒一次等待入队的线程, 适合批量消费的场景
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    int drainTo(Collection<? super E> c, int maxElements);
+
+    /**
+     * 非阻塞的批量入队, 尽可能多地放入c中的元素, 队列满时停止, 返回实际入队的元素数量
+     * @param c
+     * @return
+     */
+    int offerAll(Collection<? extends E> c);
+
+    /**
+     * 阻塞的批量入队, 队列满时等待, 直到c中的元素全部入队
+     *
+     * 如果等待期间被中断, 那么已经入队的元素会保留在队列中
+     * @param c
+     * @throws InterruptedException
+     */
+    void putAll(Collection<? extends E> c) throws InterruptedException;
 }
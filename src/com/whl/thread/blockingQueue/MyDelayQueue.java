@@ -0,0 +1,401 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: JDK1.8 延迟队列
+ * @Description:
+ *
+ * 队列中的元素实现了Delayed接口, 只有当元素的getDelay <= 0 (也就是到期) 时才能出队
+ * 内部使用与MyPriorityBlockingQueue相同的四叉堆, 按照到期时间排序, 堆顶就是最早到期的元素
+ *
+ * 出队等待采用了 "领导者-跟随者" (Leader-Follower) 模式:
+ *     如果堆顶元素还没有到期, 那么只需要一个线程 (leader) 等待到它的到期时间, 其余线程 (follower) 无限期等待即可
+ *     否则所有线程都会定时醒来检查同一个元素, 造成不必要的唤醒与锁竞争
+ *     leader拿到元素出队之后, 如果队列中还有元素, 会唤醒一个follower成为新的leader
+ *     如果有更早到期的元素入队成为了新的堆顶, 原来的leader等待的时间就不对了, 因此需要将leader置为null并唤醒一个线程重新竞争
+ *
+ * 队列是无界的, 入队永远不会阻塞
+ */
+public class MyDelayQueue<E extends Delayed> implements MyBlokingQueue<E> {
+    private final transient ReentrantLock lock = new ReentrantLock();//所有操作共用的锁
+
+    private Object[] queue = new Object[16];//按照到期时间排序的四叉堆
+
+    private int size;//元素数量
+
+    private Thread leader;//正在定时等待堆顶元素到期的线程
+
+    private final Condition available = lock.newCondition();//堆顶元素可能可以出队, 或者需要新的leader时signal
+
+    public MyDelayQueue() {
+    }
+
+    public MyDelayQueue(Collection<? extends E> c) {
+        offerAll(c);
+    }
+
+    /**
+     * 插入元素, 调用时必须持有锁
+     *
+     * 如果新元素成为了堆顶, 那么它比leader正在等待的元素更早到期, 需要让leader失效并唤醒一个线程
+     * @param e
+     * @return 新元素是否成为了堆顶
+     */
+    private boolean enqueue(E e) {
+        int n = size;
+        if (n >= queue.length)
+            queue = Arrays.copyOf(queue, n + (n >> 1) + 1);
+        MyPriorityBlockingQueue.siftUp(n, e, queue, null);
+        size = n + 1;
+        return queue[0] == e;
+    }
+
+    /**
+     * 取出堆顶元素, 调用时必须持有锁, 并且size > 0
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        final Object[] es = queue;
+        E result = (E) es[0];
+        int n = --size;
+        E x = (E) es[n];
+        es[n] = null;
+        if (n > 0)
+            MyPriorityBlockingQueue.siftDown(0, x, es, n, null);
+        return result;
+    }
+
+    /**
+     * 已经到期的堆顶元素, 没有时返回null
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private E peekExpired() {
+        E first = (E) queue[0];
+        return (first == null || first.getDelay(NANOSECONDS) > 0) ? null : first;
+    }
+
+    @Override
+    public boolean add(E e) {
+        return offer(e);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (enqueue(e)) {
+                leader = null;
+                available.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列无界, 不会阻塞
+     * @param e
+     */
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    /**
+     * 非阻塞出队, 只有堆顶元素已经到期时才会返回它, 否则返回null
+     * @return
+     */
+    public E poll() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return peekExpired() == null ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞出队, 等待直到堆顶元素到期
+     *
+     * 1. 队列为空: 无限期等待
+     * 2. 堆顶已经到期: 出队
+     * 3. 堆顶没有到期, 并且已经有leader: 自己是follower, 无限期等待, 直到leader出队之后唤醒自己
+     * 4. 堆顶没有到期, 并且没有leader: 自己成为leader, 等待到堆顶元素的到期时间
+     * 最后在finally中, 如果没有leader并且队列中还有元素, 唤醒一个follower
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            for (;;) {
+                @SuppressWarnings("unchecked")
+                E first = (E) queue[0];
+                if (first == null)
+                    available.await();
+                else {
+                    long delay = first.getDelay(NANOSECONDS);
+                    if (delay <= 0)
+                        return dequeue();
+                    first = null; // 等待期间不要持有元素的引用, 它可能被其他线程出队
+                    if (leader != null)
+                        available.await();
+                    else {
+                        Thread thisThread = Thread.currentThread();
+                        leader = thisThread;
+                        try {
+                            available.awaitNanos(delay);
+                        } finally {
+                            if (leader == thisThread)
+                                leader = null;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (leader == null && queue[0] != null)
+                available.signal();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞出队, 最多等待指定时间, 超时返回null
+     *
+     * 与take相同, 只是等待的时间不会超过剩余的超时时间; follower等待时也需要定时醒来检查是否超时
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            for (;;) {
+                @SuppressWarnings("unchecked")
+                E first = (E) queue[0];
+                if (first == null) {
+                    if (nanos <= 0)
+                        return null;
+                    else
+                        nanos = available.awaitNanos(nanos);
+                } else {
+                    long delay = first.getDelay(NANOSECONDS);
+                    if (delay <= 0)
+                        return dequeue();
+                    if (nanos <= 0)
+                        return null;
+                    first = null;
+                    if (nanos < delay || leader != null)
+                        nanos = available.awaitNanos(nanos);
+                    else {
+                        Thread thisThread = Thread.currentThread();
+                        leader = thisThread;
+                        try {
+                            long timeLeft = available.awaitNanos(delay);
+                            nanos -= delay - timeLeft;
+                        } finally {
+                            if (leader == thisThread)
+                                leader = null;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (leader == null && queue[0] != null)
+                available.signal();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回堆顶元素(无论是否到期)但不出队
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (E) queue[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列无界, 总是返回Integer.MAX_VALUE
+     * @return
+     */
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    private int indexOf(Object o) {
+        if (o != null) {
+            final Object[] es = queue;
+            for (int i = 0, n = size; i < n; i++)
+                if (o.equals(es[i]))
+                    return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 删除指定元素, 无论是否到期
+     *
+     * 如果删除的是堆顶, 那么leader等待的元素已经不存在了, 需要唤醒线程重新检查
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean remove(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int i = indexOf(o);
+            if (i == -1)
+                return false;
+            MyPriorityBlockingQueue.removeAt(i, queue, size, null);
+            size--;
+            if (i == 0) {
+                leader = null;
+                available.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return indexOf(o) != -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Arrays.fill(queue, 0, size, null);
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 批量出队, 只会取出已经到期的元素, 遇到第一个没有到期的元素就停止
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = 0;
+            for (E first; n < maxElements && (first = peekExpired()) != null; ) {
+                c.add(first);
+                dequeue();
+                ++n;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量入队, 只获取一次锁; 如果堆顶发生了变化, 最后只唤醒一次
+     * @param c
+     * @return
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        boolean headChanged = false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (E e : c) {
+                if (e == null)
+                    throw new NullPointerException();
+                headChanged |= enqueue(e);
+                n++;
+            }
+            return n;
+        } finally {
+            if (headChanged) {
+                leader = null;
+                available.signal();
+            }
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Collection<? extends E> c) {
+        offerAll(c);
+    }
+}
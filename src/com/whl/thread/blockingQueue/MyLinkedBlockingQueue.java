@@ -1,56 +1,632 @@
 package com.whl.thread.blockingQueue;
 
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author whl
  * @version V1.0
- * @Title:
+ * @Title: JDK1.8 阻塞队列 (内部基于单向链表)
  * @Description:
+ *
+ * 与ArrayBlockingQueue最大的区别在于锁的设计: ArrayBlockingQueue的入队、出队共用同一把锁, 生产者与消费者之间也会互相竞争
+ * 而LinkedBlockingQueue采用了 "双锁队列" 的设计:
+ *     入队只操作链表尾部 last, 由 putLock 保护, 队列满时在 notFull 上等待
+ *     出队只操作链表头部 head, 由 takeLock 保护, 队列空时在 notEmpty 上等待
+ * 这样生产者与消费者就可以同时进行, 只有同类线程之间才会竞争锁
+ *
+ * 由于两把锁互不相干, 元素数量count不能再像ArrayBlockingQueue那样由锁保护, 因此使用AtomicInteger实现
+ *
+ * 另外一个值得注意的设计是 "级联唤醒" (cascading notification):
+ *     入队之后如果队列依然没满, 由入队线程顺手唤醒下一个等待notFull的生产者, 而不是每次出队都去获取putLock唤醒生产者
+ *     出队之后如果队列依然不为空, 由出队线程顺手唤醒下一个等待notEmpty的消费者
+ *     只有当队列从 "空" 变为 "非空" (或者从 "满" 变为 "不满") 时, 才需要去获取另一把锁执行signal
+ * 这样就尽可能地减少了两把锁之间的交叉获取
+ *
+ * 链表的头结点head是一个哑结点(item永远为null), 真正的第一个元素是head.next; 这样入队与出队就不会同时修改同一个结点
  */
 public class MyLinkedBlockingQueue<E> implements MyBlokingQueue<E> {
+    /**
+     * 链表结点
+     */
+    static class Node<E> {
+        E item;
+
+        /**
+         * 有三种情况:
+         * - 真正的后继结点
+         * - 结点自身, 表示这个结点已经出队, 后继结点是head.next (迭代器会用到, 这里同样保留这个约定)
+         * - null, 表示没有后继结点, 这个结点就是last
+         */
+        Node<E> next;
+
+        Node(E x) { item = x; }
+    }
+
+    private final int capacity;//队列容量, 没有指定时为Integer.MAX_VALUE
+
+    private final AtomicInteger count = new AtomicInteger();//当前元素数量, 入队与出队由不同的锁保护, 因此需要原子变量
+
+    transient Node<E> head;//头结点, 不变式: head.item == null
+
+    private transient Node<E> last;//尾结点, 不变式: last.next == null
+
+    private final ReentrantLock takeLock = new ReentrantLock();//take、poll等出队方法持有的锁
+
+    private final Condition notEmpty = takeLock.newCondition();//出队线程等待 "队列不为空" 的条件
+
+    private final ReentrantLock putLock = new ReentrantLock();//put、offer等入队方法持有的锁
+
+    private final Condition notFull = putLock.newCondition();//入队线程等待 "队列不满" 的条件
+
+    /**
+     * 创建容量为Integer.MAX_VALUE的队列, 也就是 "无界" 队列
+     */
+    public MyLinkedBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 创建指定容量的队列
+     * @param capacity
+     * @throws IllegalArgumentException if capacity < 1
+     */
+    public MyLinkedBlockingQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.capacity = capacity;
+        last = head = new Node<E>(null);
+    }
+
+    /**
+     * 唤醒一个等待出队的线程, 只会在队列从空变为非空时由入队线程调用
+     *
+     * Condition的signal必须在持有对应的锁时调用, 因此需要先获取takeLock
+     */
+    private void signalNotEmpty() {
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒一个等待入队的线程, 只会在队列从满变为不满时由出队线程调用
+     */
+    private void signalNotFull() {
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+
+    /**
+     * 将结点追加到链表末尾, 调用时必须持有putLock
+     * @param node
+     */
+    private void enqueue(Node<E> node) {
+        last = last.next = node;
+    }
+
+    /**
+     * 从链表头部移除一个结点, 调用时必须持有takeLock
+     *
+     * 原来的头结点出队, 并让它的next指向自己, 帮助GC; 第一个元素所在的结点成为新的哑结点
+     * @return
+     */
+    private E dequeue() {
+        Node<E> h = head;
+        Node<E> first = h.next;
+        h.next = h; // help GC
+        head = first;
+        E x = first.item;
+        first.item = null;
+        return x;
+    }
+
+    /**
+     * 同时获取两把锁, 用于remove、contains这类需要遍历整个链表的操作
+     */
+    void fullyLock() {
+        putLock.lock();
+        takeLock.lock();
+    }
+
+    /**
+     * 释放两把锁, 顺序与fullyLock相反
+     */
+    void fullyUnlock() {
+        takeLock.unlock();
+        putLock.unlock();
+    }
+
+    /**
+     * 队列满时抛出异常, 与ArrayBlockingQueue相同
+     * @param e
+     * @return
+     */
     @Override
     public boolean add(E e) {
-        return false;
+        if (offer(e))
+            return true;
+        else
+            throw new IllegalStateException("Queue full");
     }
 
+    /**
+     * 非阻塞入队
+     *
+     * 1. 获取锁之前先检查一次count, 队列已满时直接返回false, 不需要竞争锁
+     * 2. 获取putLock之后再次检查, 未满则入队, 并通过getAndIncrement拿到入队之前的元素数量c
+     * 3. 入队之后依然没满 (c + 1 < capacity), 级联唤醒下一个生产者
+     * 4. c == 0 说明队列从空变为非空, 此时可能有消费者在等待, 需要获取takeLock唤醒它
+     * @param e
+     * @return
+     */
     @Override
     public boolean offer(E e) {
-        return false;
+        if (e == null) throw new NullPointerException();
+        final AtomicInteger count = this.count;
+        if (count.get() == capacity)
+            return false;
+        int c = -1;
+        Node<E> node = new Node<E>(e);
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            if (count.get() < capacity) {
+                enqueue(node);
+                c = count.getAndIncrement();
+                if (c + 1 < capacity)
+                    notFull.signal();
+            }
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
+        return c >= 0;
     }
 
+    /**
+     * 阻塞入队, 队列满时在notFull上等待
+     *
+     * 注意这里的count虽然没有被putLock保护, 但在等待期间count只可能减少 (其他入队线程拿不到putLock),
+     * 因此 while 循环中读取到的count是可靠的
+     * @param e
+     * @throws InterruptedException
+     */
     @Override
     public void put(E e) throws InterruptedException {
-
+        if (e == null) throw new NullPointerException();
+        int c;
+        Node<E> node = new Node<E>(e);
+        final ReentrantLock putLock = this.putLock;
+        final AtomicInteger count = this.count;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity) {
+                notFull.await();
+            }
+            enqueue(node);
+            c = count.getAndIncrement();
+            if (c + 1 < capacity)
+                notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
     }
 
+    /**
+     * 阻塞入队, 最多等待指定时间, 超时返回false
+     * @param e
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
     @Override
     public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
-        return false;
+        if (e == null) throw new NullPointerException();
+        long nanos = unit.toNanos(timeout);
+        int c;
+        final ReentrantLock putLock = this.putLock;
+        final AtomicInteger count = this.count;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(new Node<E>(e));
+            c = count.getAndIncrement();
+            if (c + 1 < capacity)
+                notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
+        return true;
     }
 
+    /**
+     * 阻塞出队, 与put对称
+     *
+     * 1. 队列为空时在notEmpty上等待
+     * 2. 出队之后如果还有元素 (c > 1), 级联唤醒下一个消费者
+     * 3. c == capacity 说明队列从满变为不满, 此时可能有生产者在等待, 需要获取putLock唤醒它
+     * @return
+     * @throws InterruptedException
+     */
     @Override
     public E take() throws InterruptedException {
-        return null;
+        E x;
+        int c;
+        final AtomicInteger count = this.count;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                notEmpty.await();
+            }
+            x = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity)
+            signalNotFull();
+        return x;
     }
 
+    /**
+     * 阻塞出队, 最多等待指定时间, 超时返回null
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
     @Override
     public E poll(long timeout, TimeUnit unit) throws InterruptedException {
-        return null;
+        E x;
+        int c;
+        long nanos = unit.toNanos(timeout);
+        final AtomicInteger count = this.count;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            x = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity)
+            signalNotFull();
+        return x;
+    }
+
+    /**
+     * 非阻塞出队, 队列为空时返回null
+     * @return
+     */
+    public E poll() {
+        final AtomicInteger count = this.count;
+        if (count.get() == 0)
+            return null;
+        E x = null;
+        int c = -1;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            if (count.get() > 0) {
+                x = dequeue();
+                c = count.getAndDecrement();
+                if (c > 1)
+                    notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity)
+            signalNotFull();
+        return x;
     }
 
+    /**
+     * 返回队首元素但不出队, 只需要持有takeLock
+     * @return
+     */
+    public E peek() {
+        if (count.get() == 0)
+            return null;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            Node<E> first = head.next;
+            return first == null ? null : first.item;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * 当前元素数量, 直接读取原子变量, 不需要加锁
+     * @return
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * 返回当前队列中还剩余多少可放置元素的位置
+     * @return
+     */
     @Override
     public int remainingCapacity() {
-        return 0;
+        return capacity - count.get();
+    }
+
+    /**
+     * 将结点p从链表中摘除, trail是p的前序结点, 调用时必须持有两把锁
+     *
+     * 如果队列从满变为不满, 唤醒一个生产者 (此时已经持有putLock, 可以直接signal)
+     * @param p
+     * @param trail
+     */
+    void unlink(Node<E> p, Node<E> trail) {
+        p.item = null;
+        trail.next = p.next;
+        if (last == p)
+            last = trail;
+        if (count.getAndDecrement() == capacity)
+            notFull.signal();
     }
 
+    /**
+     * 删除队列中的指定元素
+     *
+     * 由于被删除的元素可能位于链表的任意位置, 既可能影响head也可能影响last, 因此需要同时获取两把锁
+     * @param o
+     * @return
+     */
     @Override
     public boolean remove(Object o) {
-        return false;
+        if (o == null) return false;
+        fullyLock();
+        try {
+            for (Node<E> trail = head, p = trail.next;
+                 p != null;
+                 trail = p, p = p.next) {
+                if (o.equals(p.item)) {
+                    unlink(p, trail);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            fullyUnlock();
+        }
     }
 
+    /**
+     * 观察该队列是否包含元素 o, 同样需要获取两把锁
+     * @param o
+     * @return
+     */
     @Override
     public boolean contains(Object o) {
-        return false;
+        if (o == null) return false;
+        fullyLock();
+        try {
+            for (Node<E> p = head.next; p != null; p = p.next)
+                if (o.equals(p.item))
+                    return true;
+            return false;
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    /**
+     * 清空队列, 同样需要获取两把锁
+     *
+     * 清空之前如果队列是满的, 需要唤醒等待的生产者
+     */
+    public void clear() {
+        fullyLock();
+        try {
+            for (Node<E> p, h = head; (p = h.next) != null; h = p) {
+                h.next = h;
+                p.item = null;
+            }
+            head = last;
+            if (count.getAndSet(0) == capacity)
+                notFull.signal();
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    /**
+     * 将队列中所有元素移动到集合c中
+     * @param c
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 批量出队, 最多将maxElements个元素移动到集合c中
+     *
+     * 1. 只获取一次takeLock, 沿着链表依次取出n个元素, 每次都将原来的头结点出队
+     * 2. 在finally中一次性将count减去实际取出的数量 (c.add抛出异常时, 已经取出的元素依然算作出队)
+     * 3. 如果取出之前队列是满的, 获取一次putLock唤醒生产者; 如果取出之后队列依然不为空, 级联唤醒下一个消费者
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        boolean signalNotFull = false;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            int n = Math.min(maxElements, count.get());
+            Node<E> h = head;
+            int i = 0;
+            try {
+                while (i < n) {
+                    Node<E> p = h.next;
+                    c.add(p.item);
+                    p.item = null;
+                    h.next = h;
+                    h = p;
+                    ++i;
+                }
+                return n;
+            } finally {
+                if (i > 0) {
+                    head = h;
+                    int before = count.getAndAdd(-i);
+                    signalNotFull = (before == capacity);
+                    if (before - i > 0)
+                        notEmpty.signal();
+                }
+            }
+        } finally {
+            takeLock.unlock();
+            if (signalNotFull)
+                signalNotFull();
+        }
+    }
+
+    /**
+     * 非阻塞的批量入队
+     *
+     * 只获取一次putLock: 先把尽可能多的结点连接到链表尾部, 再通过一次getAndAdd更新count
+     * 在更新count之前消费者看不到这批结点, 因此可以先链接再发布; 入队之前队列为空时, 获取一次takeLock唤醒消费者, 之后由消费者级联唤醒
+     * 元素为null时抛出空指针异常, 此前已经入队的元素依然保留在队列中
+     * @param c
+     * @return
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final AtomicInteger count = this.count;
+        int n = 0, before = -1;
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            // count只会被其他线程减少, 因此这里计算出的空位数只会偏少, 不会偏多
+            int room = capacity - count.get();
+            try {
+                for (E e : c) {
+                    if (e == null)
+                        throw new NullPointerException();
+                    if (n == room)
+                        break;
+                    enqueue(new Node<E>(e));
+                    ++n;
+                }
+            } finally {
+                if (n > 0) {
+                    before = count.getAndAdd(n);
+                    if (before + n < capacity)
+                        notFull.signal();
+                }
+            }
+            return n;
+        } finally {
+            putLock.unlock();
+            if (before == 0)
+                signalNotEmpty();
+        }
+    }
+
+    /**
+     * 阻塞的批量入队
+     *
+     * 在一次putLock持有期间连续入队, 队列满时在notFull上等待; 与put不同的是, 每个元素入队之后立即更新count,
+     * 这样等待之前放入的元素对消费者已经可见, 不会因为生产者持有putLock等待而导致消费者也无法取出
+     * 从空变为非空时需要在持有putLock的情况下获取takeLock唤醒消费者, 加锁顺序与fullyLock相同, 不会死锁
+     * @param c
+     * @throws InterruptedException
+     */
+    @Override
+    public void putAll(Collection<? extends E> c) throws InterruptedException {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final AtomicInteger count = this.count;
+        final ReentrantLock putLock = this.putLock;
+        putLock.lockInterruptibly();
+        try {
+            for (E e : c) {
+                if (e == null)
+                    throw new NullPointerException();
+                while (count.get() == capacity)
+                    notFull.await();
+                enqueue(new Node<E>(e));
+                if (count.getAndIncrement() == 0)
+                    signalNotEmpty();
+            }
+            if (count.get() < capacity)
+                notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+
+    public String toString() {
+        fullyLock();
+        try {
+            Node<E> p = head.next;
+            if (p == null)
+                return "[]";
+            StringBuilder sb = new StringBuilder();
+            sb.append('[');
+            for (;;) {
+                sb.append(p.item);
+                p = p.next;
+                if (p == null)
+                    return sb.append(']').toString();
+                sb.append(',').append(' ');
+            }
+        } finally {
+            fullyUnlock();
+        }
     }
 }
@@ -0,0 +1,148 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 多生产者多消费者的无锁环形队列
+ * @Description:
+ *
+ * 多个消费者同时出队时, 不能再像MyMpscRingQueue那样用 "位置是否为null" 判断元素是否可以取出:
+ * 消费者A取走元素并清空位置之前, 消费者B也可能读到同一个元素
+ * 因此这里采用Dmitry Vyukov的有界MPMC队列算法, 每个位置额外保存一个序号sequences[i], 表示这个位置当前处于哪个状态:
+ *     sequences[i] == t            : 位置空闲, 等待序号为t的元素入队
+ *     sequences[i] == t + 1        : 序号为t的元素已经写入, 等待出队
+ *     sequences[i] == t + capacity : 序号为t的元素已经出队, 位置留给下一圈序号为 t + capacity 的元素
+ * 入队: 读取tail -> sequences[t & mask] == t 时CAS(tail, t, t + 1) -> 写入元素 -> sequences有序写为 t + 1
+ * 出队: 读取head -> sequences[h & mask] == h + 1 时CAS(head, h, h + 1) -> 取出元素 -> sequences有序写为 h + capacity
+ * 元素本身保存在普通数组中, 它的可见性由之后对sequences的有序写、以及之前对sequences的volatile读保证
+ *
+ * 生产者之间、消费者之间各自通过CAS竞争, 生产者与消费者之间只通过sequences交互, 不会互相竞争同一个序号
+ * 适合作为线程池这类 "多个线程提交、多个线程消费" 场景的任务队列
+ *
+ * 注意take会按照等待策略无限空转: 默认的YIELD策略下, 每个阻塞在take中的消费者都会占满一个核心, 即使队列长时间为空
+ * 作为MyThreadPoolExecutor的任务队列时没有这个问题 (线程池空转一小段时间之后会park, 参见pollRingQueue);
+ * 自己创建消费者线程并且队列可能长时间为空时, 应当使用PARK或ADAPTIVE策略
+ */
+public class MyMpmcRingQueue<E> extends MyRingQueue<E> {
+    final Object[] buffer;//保存元素的数组, 长度为capacity
+
+    final AtomicLongArray sequences;//每个位置的状态序号
+
+    /**
+     * 创建容量不小于capacity的队列, 阻塞方法使用YIELD策略等待 (空闲时会持续占用CPU, 参见类注释)
+     * @param capacity
+     */
+    public MyMpmcRingQueue(int capacity) {
+        this(capacity, MyWaitStrategy.YIELD);
+    }
+
+    public MyMpmcRingQueue(int capacity, MyWaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.buffer = new Object[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++)
+            sequences.lazySet(i, i);
+    }
+
+    /**
+     * 非阻塞入队, 可以由任意线程调用
+     *
+     * sequences[i] < t 说明这个位置上一圈的元素还没有出队, 也就是队列已满
+     * sequences[i] > t 说明其他生产者已经抢到了序号t, 重新读取tail
+     * @param e
+     * @return
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        final AtomicLongArray sequences = this.sequences;
+        for (;;) {
+            long t = tail;
+            int i = (int) t & mask;
+            long dif = sequences.get(i) - t;
+            if (dif == 0) {
+                if (TAIL.compareAndSet(this, t, t + 1)) {
+                    buffer[i] = e;
+                    sequences.lazySet(i, t + 1);
+                    return true;
+                }
+            } else if (dif < 0)
+                return false;
+        }
+    }
+
+    /**
+     * 非阻塞出队, 可以由任意线程调用
+     *
+     * sequences[i] < h + 1 说明序号h的元素还没有写入, 也就是队列为空 (或者生产者抢到了序号但还没有写完)
+     * sequences[i] > h + 1 说明其他消费者已经取走了序号h, 重新读取head
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final AtomicLongArray sequences = this.sequences;
+        for (;;) {
+            long h = head;
+            int i = (int) h & mask;
+            long dif = sequences.get(i) - (h + 1);
+            if (dif == 0) {
+                if (HEAD.compareAndSet(this, h, h + 1)) {
+                    E e = (E) buffer[i];
+                    buffer[i] = null;
+                    sequences.lazySet(i, h + capacity);
+                    return e;
+                }
+            } else if (dif < 0)
+                return null;
+        }
+    }
+
+    /**
+     * 返回队首元素但不出队, 多个消费者时结果可能在返回时就已经被取走
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        for (;;) {
+            long h = head;
+            int i = (int) h & mask;
+            long dif = sequences.get(i) - (h + 1);
+            if (dif < 0)
+                return null;
+            E e = (E) buffer[i];
+            if (dif == 0 && e != null && head == h)
+                return e;
+        }
+    }
+
+    @Override
+    Object elementAt(long seq) {
+        return buffer[(int) seq & mask];
+    }
+
+    /**
+     * 批量出队, 逐个调用poll, 队列为空时停止
+     *
+     * 多个消费者之间必须逐个CAS(head), 无法像单消费者队列那样最后只写一次head
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        for (E e; n < maxElements && (e = poll()) != null; ++n)
+            c.add(e);
+        return n;
+    }
+}
@@ -0,0 +1,142 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 多生产者单消费者的无锁环形队列
+ * @Description:
+ *
+ * 多个生产者需要通过CAS竞争tail, 抢到序号t的生产者才能写入下标 t & mask 的位置
+ * 与单生产者队列不同, tail在元素写入之前就已经前进了, 消费者不能再根据tail判断元素是否已经写入, 而是以 "位置是否为null" 作为判断依据:
+ *     入队: CAS(tail, t, t + 1) -> buffer.lazySet(t & mask, e)
+ *     出队: buffer.get(h & mask) 不为null才能取出 -> buffer.lazySet(h & mask, null) -> head.lazySet(h + 1)
+ * 元素数组使用AtomicReferenceArray, 以获得逐个位置的有序写(lazySet)与volatile读
+ *
+ * 当位置为null但 head != tail 时, 说明某个生产者已经抢到了序号但还没有写入元素, 消费者只需要短暂自旋等待即可
+ *
+ * 生产者缓存的producerLimit可能被多个生产者交替写入, 即使某个生产者写入了较旧的值也只会导致多读一次head, 不影响正确性
+ * 只允许一个线程出队, 调用方需要自行保证
+ */
+public class MyMpscRingQueue<E> extends MyRingQueue<E> {
+    final AtomicReferenceArray<E> buffer;//保存元素的数组, 长度为capacity
+
+    /**
+     * 创建容量不小于capacity的队列, 阻塞方法使用YIELD策略等待
+     * @param capacity
+     */
+    public MyMpscRingQueue(int capacity) {
+        this(capacity, MyWaitStrategy.YIELD);
+    }
+
+    public MyMpscRingQueue(int capacity, MyWaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    /**
+     * 非阻塞入队, 可以由任意线程调用
+     *
+     * 1. tail不小于producerLimit时重新读取head, 依然不满足说明队列已满
+     * 2. CAS抢占序号t, 失败说明被其他生产者抢先, 重试
+     * 3. 有序写入元素, 消费者读到非null时就可以取走
+     * @param e
+     * @return
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long t;
+        for (;;) {
+            t = tail;
+            if (t >= producerLimit) {
+                long limit = head + capacity;
+                if (t >= limit)
+                    return false;
+                PRODUCER_LIMIT.lazySet(this, limit);
+            }
+            if (TAIL.compareAndSet(this, t, t + 1))
+                break;
+        }
+        buffer.lazySet((int) t & mask, e);
+        return true;
+    }
+
+    /**
+     * 非阻塞出队, 只能由消费者线程调用
+     * @return
+     */
+    @Override
+    public E poll() {
+        final AtomicReferenceArray<E> buffer = this.buffer;
+        long h = head;
+        int i = (int) h & mask;
+        E e = buffer.get(i);
+        if (e == null) {
+            if (h == tail)
+                return null;
+            // 生产者已经抢到了序号, 但还没有写入元素, 等待它写完
+            while ((e = buffer.get(i)) == null)
+                ;
+        }
+        buffer.lazySet(i, null);
+        HEAD.lazySet(this, h + 1);
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        final AtomicReferenceArray<E> buffer = this.buffer;
+        long h = head;
+        int i = (int) h & mask;
+        E e = buffer.get(i);
+        if (e == null) {
+            if (h == tail)
+                return null;
+            while ((e = buffer.get(i)) == null)
+                ;
+        }
+        return e;
+    }
+
+    @Override
+    Object elementAt(long seq) {
+        return buffer.get((int) seq & mask);
+    }
+
+    /**
+     * 批量出队, 只能由消费者线程调用
+     *
+     * 连续取出已经写入的元素, 遇到还没有写入的位置就停止 (不等待), 最后只写一次head
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final AtomicReferenceArray<E> buffer = this.buffer;
+        final int mask = this.mask;
+        long h = head;
+        int i = 0;
+        try {
+            E e;
+            int idx;
+            while (i < maxElements && (e = buffer.get(idx = (int) (h + i) & mask)) != null) {
+                c.add(e);
+                buffer.lazySet(idx, null);
+                ++i;
+            }
+            return i;
+        } finally {
+            if (i > 0)
+                HEAD.lazySet(this, h + i);
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 避免伪共享的数组阻塞队列
+ * @Description:
+ *
+ * 逻辑与MyArrayBlockingQueue完全相同 (单锁 + notEmpty/notFull两个条件), 区别在于字段的内存布局
+ *
+ * MyArrayBlockingQueue中takeIndex、putIndex、count以及lock、items这些引用紧挨在一起, 位于同一个缓存行中:
+ *     生产者写putIndex、count时, 会使消费者核心上缓存的整行失效, 反之亦然
+ *     即使是在临界区之外只读取items、lock这些final字段, 也会因为同一行被对方频繁写入而产生缓存未命中
+ * 这里与MyRingQueue相同, 通过继承关系进行填充, 将字段分为四组, 组与组之间至少间隔128字节:
+ *     生产者侧: putIndex, 只有入队时写入
+ *     消费者侧: takeIndex, 只有出队时写入
+ *     元素数量: count, 入队、出队都会写入
+ *     只读字段: items、lock、notEmpty、notFull, 构造之后不再修改
+ * 与MyRingQueue不同的是这里的字段都是int, 因此填充使用byte, 原因见PaddedQueuePad0
+ * (JDK17、开启压缩指针时实测的偏移: putIndex=140, takeIndex=272, count=404, items=536)
+ * 与MyArrayBlockingQueue的吞吐量对比以及当前JVM上的字段偏移, 可以运行src下的PaddedQueueBenchmark (需要多核机器)
+ *
+ * 另外, count被声明为volatile (写入使用lazySet), 这样offer(E e)在队列已满、poll()在队列为空时可以不加锁直接返回, 避免无意义的锁竞争
+ * 锁内部的状态(AQS的state)位于另一个对象中, 不受这里的布局影响
+ */
+public class MyPaddedArrayBlockingQueue<E> extends PaddedQueuePad3 implements MyBlokingQueue<E> {
+    final Object[] items;//队列保存元素的Object数组
+
+    final ReentrantLock lock;// 锁对象, 保证并发
+
+    private final Condition notEmpty;// Condition对象, 使队列实现阻塞出队的操作
+
+    private final Condition notFull;// Condition对象, 使队列实现阻塞入队的操作
+
+    public MyPaddedArrayBlockingQueue(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * 创建具有给容量和指定访问策略的队列
+     * @param capacity
+     * @param fair
+     * @throws IllegalArgumentException if capacity < 1
+     */
+    public MyPaddedArrayBlockingQueue(int capacity, boolean fair) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        this.items = new Object[capacity];
+        lock = new ReentrantLock(fair);
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+    }
+
+    /**
+     * 入队, 调用时必须持有锁
+     * @param e
+     */
+    private void enqueue(E e) {
+        final Object[] items = this.items;
+        int i = putIndex;
+        items[i] = e;
+        if (++i == items.length)
+            i = 0;
+        putIndex = i;
+        COUNT.lazySet(this, count + 1);
+        notEmpty.signal();
+    }
+
+    /**
+     * 出队, 调用时必须持有锁
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        final Object[] items = this.items;
+        int i = takeIndex;
+        E x = (E) items[i];
+        items[i] = null;
+        if (++i == items.length)
+            i = 0;
+        takeIndex = i;
+        COUNT.lazySet(this, count - 1);
+        notFull.signal();
+        return x;
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (offer(e))
+            return true;
+        else
+            throw new IllegalStateException("Queue full");
+    }
+
+    /**
+     * 非阻塞入队, 队列已满时不加锁直接返回false
+     * @param e
+     * @return
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        final Object[] items = this.items;
+        if (count == items.length)
+            return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (count == items.length)
+                return false;
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == items.length)
+                notFull.await();
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == items.length) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0)
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 非阻塞出队, 队列为空时不加锁直接返回null
+     * @return
+     */
+    public E poll() {
+        if (count == 0)
+            return null;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (count == 0) ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (E) items[takeIndex];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前元素数量, count是volatile的, 不需要加锁
+     * @return
+     */
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return items.length - count;
+    }
+
+    /**
+     * 移除队列中的指定元素, 逻辑与MyArrayBlockingQueue相同
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) return false;
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (count > 0) {
+                final int putIndex = this.putIndex;
+                int i = takeIndex;
+                do {
+                    if (o.equals(items[i])) {
+                        removeAt(i);
+                        return true;
+                    }
+                    if (++i == items.length)
+                        i = 0;
+                } while (i != putIndex);
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除指定位置上的元素, 调用时必须持有锁, 逻辑与MyArrayBlockingQueue相同
+     * @param removeIndex
+     */
+    private void removeAt(int removeIndex) {
+        final Object[] items = this.items;
+        if (removeIndex == takeIndex) {
+            items[takeIndex] = null;
+            if (++takeIndex == items.length)
+                takeIndex = 0;
+        } else {
+            final int putIndex = this.putIndex;
+            for (int i = removeIndex;;) {
+                int next = i + 1;
+                if (next == items.length)
+                    next = 0;
+                if (next != putIndex) {
+                    items[i] = items[next];
+                    i = next;
+                } else {
+                    items[i] = null;
+                    this.putIndex = i;
+                    break;
+                }
+            }
+        }
+        COUNT.lazySet(this, count - 1);
+        notFull.signal();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) return false;
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (count > 0) {
+                final int putIndex = this.putIndex;
+                int i = takeIndex;
+                do {
+                    if (o.equals(items[i]))
+                        return true;
+                    if (++i == items.length)
+                        i = 0;
+                } while (i != putIndex);
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 批量出队, 逻辑与MyArrayBlockingQueue相同: 一次加锁, 最后一次signalAll
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            int take = takeIndex;
+            int i = 0;
+            try {
+                while (i < n) {
+                    @SuppressWarnings("unchecked")
+                    E x = (E) items[take];
+                    c.add(x);
+                    items[take] = null;
+                    if (++take == items.length)
+                        take = 0;
+                    i++;
+                }
+                return n;
+            } finally {
+                if (i > 0) {
+                    COUNT.lazySet(this, count - i);
+                    takeIndex = take;
+                    notFull.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 非阻塞的批量入队, 逻辑与MyArrayBlockingQueue相同
+     * @param c
+     * @return
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        int n = 0;
+        try {
+            int put = putIndex, room = items.length - count;
+            try {
+                for (E e : c) {
+                    if (e == null)
+                        throw new NullPointerException();
+                    if (n == room)
+                        break;
+                    items[put] = e;
+                    if (++put == items.length)
+                        put = 0;
+                    n++;
+                }
+            } finally {
+                putIndex = put;
+                COUNT.lazySet(this, count + n);
+            }
+            return n;
+        } finally {
+            if (n > 0)
+                notEmpty.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞的批量入队, 逻辑与MyArrayBlockingQueue相同
+     * @param c
+     * @throws InterruptedException
+     */
+    @Override
+    public void putAll(Collection<? extends E> c) throws InterruptedException {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        int n = 0;// 上一次signal之后放入的元素数量
+        try {
+            for (E e : c) {
+                if (e == null)
+                    throw new NullPointerException();
+                while (count == items.length) {
+                    if (n > 0) {
+                        notEmpty.signalAll();
+                        n = 0;
+                    }
+                    notFull.await();
+                }
+                int put = putIndex;
+                items[put] = e;
+                if (++put == items.length)
+                    put = 0;
+                putIndex = put;
+                COUNT.lazySet(this, count + 1);
+                n++;
+            }
+        } finally {
+            if (n > 0)
+                notEmpty.signalAll();
+            lock.unlock();
+        }
+    }
+}
+
+/**
+ * 填充: 将生产者字段与前面的对象(或对象头)隔开
+ *
+ * 这里的填充使用byte而不是long: JDK15之后的字段布局会用子类的字段填补父类布局中的空洞
+ * 例如开启压缩类指针时对象头只有12字节, 全是long的填充类会在偏移12处留下4字节的空洞, 子类的int字段就会被放进这个空洞, 与对象头挤在同一行
+ * byte按1字节对齐, 会把所有空洞都填满, 每个填充类又恰好是128字节 (两个缓存行, 同时覆盖相邻行预取), 因此int字段只能排在填充之后
+ */
+abstract class PaddedQueuePad0 {
+    byte p000, p001, p002, p003, p004, p005, p006, p007, p008, p009, p00a, p00b, p00c, p00d, p00e, p00f;
+    byte p010, p011, p012, p013, p014, p015, p016, p017, p018, p019, p01a, p01b, p01c, p01d, p01e, p01f;
+    byte p020, p021, p022, p023, p024, p025, p026, p027, p028, p029, p02a, p02b, p02c, p02d, p02e, p02f;
+    byte p030, p031, p032, p033, p034, p035, p036, p037, p038, p039, p03a, p03b, p03c, p03d, p03e, p03f;
+    byte p040, p041, p042, p043, p044, p045, p046, p047, p048, p049, p04a, p04b, p04c, p04d, p04e, p04f;
+    byte p050, p051, p052, p053, p054, p055, p056, p057, p058, p059, p05a, p05b, p05c, p05d, p05e, p05f;
+    byte p060, p061, p062, p063, p064, p065, p066, p067, p068, p069, p06a, p06b, p06c, p06d, p06e, p06f;
+    byte p070, p071, p072, p073, p074, p075, p076, p077, p078, p079, p07a, p07b, p07c, p07d, p07e, p07f;
+}
+
+/**
+ * 生产者侧字段
+ */
+abstract class PaddedQueueProducerFields extends PaddedQueuePad0 {
+    int putIndex;//当我们调用入队这类方法时, 操作的就是这个指针指向的元素
+}
+
+/**
+ * 填充: 将生产者字段与消费者字段隔开
+ */
+abstract class PaddedQueuePad1 extends PaddedQueueProducerFields {
+    byte p100, p101, p102, p103, p104, p105, p106, p107, p108, p109, p10a, p10b, p10c, p10d, p10e, p10f;
+    byte p110, p111, p112, p113, p114, p115, p116, p117, p118, p119, p11a, p11b, p11c, p11d, p11e, p11f;
+    byte p120, p121, p122, p123, p124, p125, p126, p127, p128, p129, p12a, p12b, p12c, p12d, p12e, p12f;
+    byte p130, p131, p132, p133, p134, p135, p136, p137, p138, p139, p13a, p13b, p13c, p13d, p13e, p13f;
+    byte p140, p141, p142, p143, p144, p145, p146, p147, p148, p149, p14a, p14b, p14c, p14d, p14e, p14f;
+    byte p150, p151, p152, p153, p154, p155, p156, p157, p158, p159, p15a, p15b, p15c, p15d, p15e, p15f;
+    byte p160, p161, p162, p163, p164, p165, p166, p167, p168, p169, p16a, p16b, p16c, p16d, p16e, p16f;
+    byte p170, p171, p172, p173, p174, p175, p176, p177, p178, p179, p17a, p17b, p17c, p17d, p17e, p17f;
+}
+
+/**
+ * 消费者侧字段
+ */
+abstract class PaddedQueueConsumerFields extends PaddedQueuePad1 {
+    int takeIndex;//当我们调用出队、或peek 这类方法时, 操作的就是这个指针指向的元素
+}
+
+/**
+ * 填充: 将消费者字段与count隔开
+ */
+abstract class PaddedQueuePad2 extends PaddedQueueConsumerFields {
+    byte p200, p201, p202, p203, p204, p205, p206, p207, p208, p209, p20a, p20b, p20c, p20d, p20e, p20f;
+    byte p210, p211, p212, p213, p214, p215, p216, p217, p218, p219, p21a, p21b, p21c, p21d, p21e, p21f;
+    byte p220, p221, p222, p223, p224, p225, p226, p227, p228, p229, p22a, p22b, p22c, p22d, p22e, p22f;
+    byte p230, p231, p232, p233, p234, p235, p236, p237, p238, p239, p23a, p23b, p23c, p23d, p23e, p23f;
+    byte p240, p241, p242, p243, p244, p245, p246, p247, p248, p249, p24a, p24b, p24c, p24d, p24e, p24f;
+    byte p250, p251, p252, p253, p254, p255, p256, p257, p258, p259, p25a, p25b, p25c, p25d, p25e, p25f;
+    byte p260, p261, p262, p263, p264, p265, p266, p267, p268, p269, p26a, p26b, p26c, p26d, p26e, p26f;
+    byte p270, p271, p272, p273, p274, p275, p276, p277, p278, p279, p27a, p27b, p27c, p27d, p27e, p27f;
+}
+
+/**
+ * 元素数量, 入队、出队都会写入, 单独占用一个缓存行
+ */
+abstract class PaddedQueueCountField extends PaddedQueuePad2 {
+    // count只在持有锁时写入, 解锁本身就保证了可见性, 因此使用有序写即可, 不需要volatile写的StoreLoad屏障
+    static final AtomicIntegerFieldUpdater<PaddedQueueCountField> COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(PaddedQueueCountField.class, "count");
+
+    volatile int count;//队列中的元素数量, 只在持有锁时写入, 不加锁的快速路径会读取它
+}
+
+/**
+ * 填充: 将count与后面的只读字段隔开
+ */
+abstract class PaddedQueuePad3 extends PaddedQueueCountField {
+    byte p300, p301, p302, p303, p304, p305, p306, p307, p308, p309, p30a, p30b, p30c, p30d, p30e, p30f;
+    byte p310, p311, p312, p313, p314, p315, p316, p317, p318, p319, p31a, p31b, p31c, p31d, p31e, p31f;
+    byte p320, p321, p322, p323, p324, p325, p326, p327, p328, p329, p32a, p32b, p32c, p32d, p32e, p32f;
+    byte p330, p331, p332, p333, p334, p335, p336, p337, p338, p339, p33a, p33b, p33c, p33d, p33e, p33f;
+    byte p340, p341, p342, p343, p344, p345, p346, p347, p348, p349, p34a, p34b, p34c, p34d, p34e, p34f;
+    byte p350, p351, p352, p353, p354, p355, p356, p357, p358, p359, p35a, p35b, p35c, p35d, p35e, p35f;
+    byte p360, p361, p362, p363, p364, p365, p366, p367, p368, p369, p36a, p36b, p36c, p36d, p36e, p36f;
+    byte p370, p371, p372, p373, p374, p375, p376, p377, p378, p379, p37a, p37b, p37c, p37d, p37e, p37f;
+}
@@ -0,0 +1,459 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 优先级阻塞队列 (内部基于数组四叉堆)
+ * @Description:
+ *
+ * 与ArrayBlockingQueue的先进先出不同, 每次出队的都是优先级最高(比较结果最小)的元素, 入队与出队的时间复杂度都是O(log n)
+ *
+ * 原生JDK使用的是二叉堆, 这里使用的是四叉堆 (d-ary heap, d = 4):
+ *     下标为k的结点, 父结点为 (k - 1) >>> 2, 子结点为 4k + 1 ~ 4k + 4
+ *     树高从 log2(n) 降为 log4(n), 入队(上浮)的比较次数减半
+ *     出队(下沉)时每一层要在4个子结点中找最小值, 比较次数略多, 但4个子结点在数组中是连续的, 通常位于同一个缓存行, 访存次数反而更少
+ *
+ * 队列是无界的, 因此put、offer永远不会阻塞; 只有take、poll(timeout)会在队列为空时在notEmpty上等待
+ * 数组满时在持有锁的情况下扩容 (原生JDK会先释放锁再通过CAS分配新数组, 这里为了简单没有这样做)
+ *
+ * 元素要么实现Comparable, 要么在构造时传入Comparator; 优先级相同的元素之间不保证顺序
+ */
+public class MyPriorityBlockingQueue<E> implements MyBlokingQueue<E> {
+    //默认初始容量
+    private static final int DEFAULT_INITIAL_CAPACITY = 11;
+
+    //数组的最大长度
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private Object[] queue;//保存堆的数组, queue[0]是优先级最高的元素
+
+    private int size;//元素数量
+
+    private final Comparator<? super E> comparator;//为null时使用元素的自然顺序
+
+    private final ReentrantLock lock = new ReentrantLock();//所有操作共用的锁
+
+    private final Condition notEmpty = lock.newCondition();//队列为空时出队线程在这里等待
+
+    public MyPriorityBlockingQueue() {
+        this(DEFAULT_INITIAL_CAPACITY, null);
+    }
+
+    public MyPriorityBlockingQueue(int initialCapacity) {
+        this(initialCapacity, null);
+    }
+
+    /**
+     * 指定初始容量与比较器创建队列
+     * @param initialCapacity
+     * @param comparator 为null时使用元素的自然顺序
+     */
+    public MyPriorityBlockingQueue(int initialCapacity, Comparator<? super E> comparator) {
+        if (initialCapacity < 1)
+            throw new IllegalArgumentException();
+        this.comparator = comparator;
+        this.queue = new Object[initialCapacity];
+    }
+
+    /* ------------------------------------------------------------ */
+    // 四叉堆的基本操作, MyDelayQueue也会用到
+
+    /**
+     * 将元素x放在下标k处, 然后不断与父结点比较, 比父结点小就交换 (实际上是把父结点往下挪, 最后再写入x)
+     * @param k
+     * @param x
+     * @param es
+     * @param cmp 为null时使用自然顺序
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void siftUp(int k, T x, Object[] es, Comparator<? super T> cmp) {
+        if (cmp == null) {
+            Comparable<? super T> key = (Comparable<? super T>) x;
+            while (k > 0) {
+                int parent = (k - 1) >>> 2;
+                Object e = es[parent];
+                if (key.compareTo((T) e) >= 0)
+                    break;
+                es[k] = e;
+                k = parent;
+            }
+        } else {
+            while (k > 0) {
+                int parent = (k - 1) >>> 2;
+                Object e = es[parent];
+                if (cmp.compare(x, (T) e) >= 0)
+                    break;
+                es[k] = e;
+                k = parent;
+            }
+        }
+        es[k] = x;
+    }
+
+    /**
+     * 将元素x放在下标k处, 然后不断与最小的子结点比较, 比它大就交换, n为堆的大小
+     * @param k
+     * @param x
+     * @param es
+     * @param n
+     * @param cmp 为null时使用自然顺序
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void siftDown(int k, T x, Object[] es, int n, Comparator<? super T> cmp) {
+        int child;
+        while ((child = (k << 2) + 1) < n) {
+            // 在 [child, min(child + 4, n)) 中找到最小的子结点
+            int end = Math.min(child + 4, n);
+            Object c = es[child];
+            for (int i = child + 1; i < end; i++) {
+                Object o = es[i];
+                if (cmp == null ? ((Comparable<? super T>) o).compareTo((T) c) < 0 : cmp.compare((T) o, (T) c) < 0) {
+                    c = o;
+                    child = i;
+                }
+            }
+            if (cmp == null ? ((Comparable<? super T>) x).compareTo((T) c) <= 0 : cmp.compare(x, (T) c) <= 0)
+                break;
+            es[k] = c;
+            k = child;
+        }
+        es[k] = x;
+    }
+
+    /**
+     * 删除堆中下标为i的元素: 用最后一个元素填补位置i, 先尝试下沉, 没有移动再尝试上浮
+     * @param i
+     * @param es
+     * @param n 删除之前堆的大小
+     * @param cmp
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void removeAt(int i, Object[] es, int n, Comparator<? super T> cmp) {
+        int s = n - 1;
+        if (s == i)
+            es[i] = null;
+        else {
+            T moved = (T) es[s];
+            es[s] = null;
+            siftDown(i, moved, es, s, cmp);
+            if (es[i] == moved)
+                siftUp(i, moved, es, cmp);
+        }
+    }
+
+    /**
+     * 取出堆顶元素, 调用时必须持有锁, 并且size > 0
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        final Object[] es = queue;
+        E result = (E) es[0];
+        int n = --size;
+        E x = (E) es[n];
+        es[n] = null;
+        if (n > 0)
+            siftDown(0, x, es, n, comparator);
+        return result;
+    }
+
+    /**
+     * 插入元素, 调用时必须持有锁
+     * @param e
+     */
+    private void enqueue(E e) {
+        int n = size;
+        if (n >= queue.length)
+            grow(n + 1);
+        siftUp(n, e, queue, comparator);
+        size = n + 1;
+    }
+
+    /**
+     * 扩容: 容量较小时翻倍, 较大时增加50%
+     * @param minCapacity
+     */
+    private void grow(int minCapacity) {
+        int oldCapacity = queue.length;
+        int newCapacity = oldCapacity + ((oldCapacity < 64) ? (oldCapacity + 2) : (oldCapacity >> 1));
+        if (newCapacity - MAX_ARRAY_SIZE > 0 || newCapacity < 0) {
+            if (minCapacity < 0 || minCapacity > MAX_ARRAY_SIZE)
+                throw new OutOfMemoryError();
+            newCapacity = MAX_ARRAY_SIZE;
+        }
+        if (newCapacity < minCapacity)
+            newCapacity = minCapacity;
+        queue = Arrays.copyOf(queue, newCapacity);
+    }
+
+    /* ------------------------------------------------------------ */
+
+    @Override
+    public boolean add(E e) {
+        return offer(e);
+    }
+
+    /**
+     * 入队, 队列无界, 因此总是返回true
+     *
+     * 元素既没有实现Comparable也没有指定Comparator时, 会在比较时抛出ClassCastException
+     * @param e
+     * @return
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            enqueue(e);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * 队列无界, 不会阻塞
+     * @param e
+     */
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    /**
+     * 队列无界, 不会阻塞, 忽略超时时间
+     * @param e
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (size == 0)
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E poll() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return size == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回优先级最高的元素但不出队
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (E) queue[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    /**
+     * 队列无界, 总是返回Integer.MAX_VALUE
+     * @return
+     */
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    private int indexOf(Object o) {
+        if (o != null) {
+            final Object[] es = queue;
+            for (int i = 0, n = size; i < n; i++)
+                if (o.equals(es[i]))
+                    return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 删除指定元素, 需要先线性查找它在堆中的位置, 因此是O(n)的
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean remove(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int i = indexOf(o);
+            if (i == -1)
+                return false;
+            removeAt(i, queue, size, comparator);
+            size--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return indexOf(o) != -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Arrays.fill(queue, 0, size, null);
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 按照优先级顺序批量出队, 只获取一次锁
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = Math.min(size, maxElements);
+            for (int i = 0; i < n; i++) {
+                @SuppressWarnings("unchecked")
+                E x = (E) queue[0];
+                c.add(x);
+                dequeue();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量入队, 只获取一次锁, 最后只调用一次 notEmpty.signalAll(); 队列无界, 因此总是全部入队
+     * @param c
+     * @return
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (E e : c) {
+                if (e == null)
+                    throw new NullPointerException();
+                enqueue(e);
+                n++;
+            }
+            return n;
+        } finally {
+            if (n > 0)
+                notEmpty.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列无界, 与offerAll相同
+     * @param c
+     */
+    @Override
+    public void putAll(Collection<? extends E> c) {
+        offerAll(c);
+    }
+
+    public String toString() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return Arrays.toString(Arrays.copyOf(queue, size));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 无锁环形队列的公共部分
+ * @Description:
+ *
+ * 环形队列使用两个单调递增的long序号:
+ *     tail: 下一个入队元素的序号, 只由生产者修改
+ *     head: 下一个出队元素的序号, 只由消费者修改
+ * 元素保存在长度为2的n次方的数组中, 序号为seq的元素位于下标 seq & mask 处, tail - head 就是队列中的元素数量
+ * 序号是long类型, 即使每秒入队十亿次也要几百年才会溢出, 因此不需要考虑回绕
+ *
+ * 生产者与消费者分别在不同的核心上频繁写tail、head, 如果这两个字段位于同一个缓存行(通常为64字节)中, 每次写入都会使对方核心的缓存行失效, 也就是伪共享 (false sharing)
+ * Java 8中@Contended需要额外的JVM参数才能生效, 因此这里与JCTools相同, 通过继承关系进行填充:
+ *     RingQueuePad0 -> RingQueueProducerFields -> RingQueuePad1 -> RingQueueConsumerFields -> RingQueuePad2 -> MyRingQueue
+ * JVM会把父类的字段排在子类字段之前, 因此生产者字段与消费者字段之间、以及它们与其他对象之间都至少间隔了一个缓存行
+ *
+ * 序号的写入使用AtomicLongFieldUpdater.lazySet, 也就是 "有序写" (release store): 保证之前的写入(比如写入元素)对读到新序号的线程可见,
+ * 但不需要像volatile写那样插入StoreLoad屏障, 在x86上几乎与普通写一样便宜
+ *
+ * 阻塞方法没有Condition可以等待, 而是在失败之后按照MyWaitStrategy空转并重试; 相应地, 非阻塞方法成功之后也不需要唤醒任何线程
+ *
+ * 由于只能从队首出队, remove(Object)不被支持; contains只是一个尽力而为的扫描, 结果可能在返回时就已经过期
+ */
+public abstract class MyRingQueue<E> extends RingQueuePad2 implements MyBlokingQueue<E> {
+    //最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    final int capacity;//实际容量, 为2的n次方
+
+    final int mask;//capacity - 1, 用于将序号转换为下标
+
+    final MyWaitStrategy waitStrategy;//阻塞方法的等待策略
+
+    /**
+     * 创建容量不小于capacity的环形队列, 实际容量会向上取2的n次方
+     * @param capacity
+     * @param waitStrategy
+     */
+    MyRingQueue(int capacity, MyWaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > MAXIMUM_CAPACITY)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        if (waitStrategy == null)
+            throw new NullPointerException();
+        int n = -1 >>> Integer.numberOfLeadingZeros(capacity - 1);
+        this.capacity = n + 1;
+        this.mask = n;
+        this.waitStrategy = waitStrategy;
+        this.producerLimit = this.capacity;
+    }
+
+    /**
+     * 非阻塞出队, 队列为空时返回null
+     * @return
+     */
+    public abstract E poll();
+
+    /**
+     * 返回队首元素但不出队, 只能由消费者线程调用
+     * @return
+     */
+    public abstract E peek();
+
+    @Override
+    public boolean add(E e) {
+        if (offer(e))
+            return true;
+        else
+            throw new IllegalStateException("Queue full");
+    }
+
+    /**
+     * 阻塞入队: 反复尝试offer, 失败之后按照等待策略空转
+     * @param e
+     * @throws InterruptedException
+     */
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        final MyWaitStrategy ws = this.waitStrategy;
+        for (int idle = 0; !offer(e); ) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            idle = ws.idle(idle);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        final MyWaitStrategy ws = this.waitStrategy;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int idle = 0; !offer(e); ) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (deadline - System.nanoTime() <= 0)
+                return false;
+            idle = ws.idle(idle);
+        }
+        return true;
+    }
+
+    /**
+     * 阻塞出队: 反复尝试poll, 失败之后按照等待策略空转
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public E take() throws InterruptedException {
+        final MyWaitStrategy ws = this.waitStrategy;
+        E e;
+        for (int idle = 0; (e = poll()) == null; ) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            idle = ws.idle(idle);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final MyWaitStrategy ws = this.waitStrategy;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int idle = 0; (e = poll()) == null; ) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (deadline - System.nanoTime() <= 0)
+                return null;
+            idle = ws.idle(idle);
+        }
+        return e;
+    }
+
+    /**
+     * 当前元素数量的估计值
+     *
+     * 先读head再读tail, 并在两次读取head之间没有变化时才返回, 这样得到的结果一定落在 [0, capacity] 之间
+     * @return
+     */
+    public int size() {
+        long after = head, before, t;
+        do {
+            before = after;
+            t = tail;
+            after = head;
+        } while (before != after);
+        long size = t - after;
+        return size <= 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    public boolean isEmpty() {
+        return tail == head;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * 不支持从队列中间删除元素
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 从head到tail扫描一遍数组, 尽力而为: 扫描期间入队、出队的元素可能被看到, 也可能被漏掉
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null)
+            return false;
+        for (long seq = head, t = tail; seq < t; ++seq) {
+            if (o.equals(elementAt(seq)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读取序号seq所在位置的元素, 元素可能已经被消费(null)或者被新的元素覆盖, 只用于contains这类尽力而为的操作
+     * @param seq
+     * @return
+     */
+    abstract Object elementAt(long seq);
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 非阻塞的批量入队, 逐个调用offer, 直到队列满为止
+     * @param c
+     * @return
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        for (E e : c) {
+            if (e == null)
+                throw new NullPointerException();
+            if (!offer(e))
+                break;
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * 阻塞的批量入队, 逐个入队, 队列满时按照等待策略空转
+     * @param c
+     * @throws InterruptedException
+     */
+    @Override
+    public void putAll(Collection<? extends E> c) throws InterruptedException {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final MyWaitStrategy ws = this.waitStrategy;
+        for (E e : c) {
+            if (e == null)
+                throw new NullPointerException();
+            for (int idle = 0; !offer(e); ) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                idle = ws.idle(idle);
+            }
+        }
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "{size=" + size() + ", capacity=" + capacity
+                + ", waitStrategy=" + waitStrategy + "}";
+    }
+}
+
+/**
+ * 填充: 将生产者字段与前面的对象(或对象头)隔开
+ */
+abstract class RingQueuePad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+}
+
+/**
+ * 生产者字段, 只有生产者会写入
+ */
+abstract class RingQueueProducerFields extends RingQueuePad0 {
+    static final AtomicLongFieldUpdater<RingQueueProducerFields> TAIL =
+            AtomicLongFieldUpdater.newUpdater(RingQueueProducerFields.class, "tail");
+
+    static final AtomicLongFieldUpdater<RingQueueProducerFields> PRODUCER_LIMIT =
+            AtomicLongFieldUpdater.newUpdater(RingQueueProducerFields.class, "producerLimit");
+
+    volatile long tail;//下一个入队元素的序号
+
+    volatile long producerLimit;//生产者缓存的 head + capacity, tail小于它时一定有空位, 不需要读取消费者的head
+}
+
+/**
+ * 填充: 将生产者字段与消费者字段隔开
+ */
+abstract class RingQueuePad1 extends RingQueueProducerFields {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+    long p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+}
+
+/**
+ * 消费者字段, 只有消费者会写入
+ */
+abstract class RingQueueConsumerFields extends RingQueuePad1 {
+    static final AtomicLongFieldUpdater<RingQueueConsumerFields> HEAD =
+            AtomicLongFieldUpdater.newUpdater(RingQueueConsumerFields.class, "head");
+
+    volatile long head;//下一个出队元素的序号
+
+    long tailCache;//消费者缓存的tail, head小于它时一定有元素, 不需要读取生产者的tail (只用于单生产者队列)
+}
+
+/**
+ * 填充: 将消费者字段与后面的字段(或对象)隔开
+ */
+abstract class RingQueuePad2 extends RingQueueConsumerFields {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+    long p28, p29, p2a, p2b, p2c, p2d, p2e, p2f;
+}
@@ -0,0 +1,175 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.Collection;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 单生产者单消费者的无锁环形队列
+ * @Description:
+ *
+ * 只允许一个线程入队、一个线程出队, 此时tail只有生产者写、head只有消费者写, 不需要任何CAS:
+ *     入队: 写入元素 -> tail.lazySet(tail + 1), 有序写保证消费者读到新的tail时一定能看到元素
+ *     出队: 读取元素并将位置置为null -> head.lazySet(head + 1), 有序写保证生产者读到新的head时这个位置已经被清空
+ *
+ * 为了减少对另一方序号的读取 (每次读取都可能引起缓存行在核心之间迁移), 双方都会缓存对方的序号:
+ *     生产者缓存 producerLimit = head + capacity, 只有tail追上它时才重新读取head
+ *     消费者缓存 tailCache, 只有head追上它时才重新读取tail
+ * 在队列既不满也不空的稳定状态下, 生产者与消费者各自只访问自己的缓存行
+ *
+ * 多个线程同时入队(或同时出队)会破坏队列, 调用方需要自行保证
+ */
+public class MySpscRingQueue<E> extends MyRingQueue<E> {
+    final Object[] buffer;//保存元素的数组, 长度为capacity
+
+    /**
+     * 创建容量不小于capacity的队列, 阻塞方法使用YIELD策略等待
+     * @param capacity
+     */
+    public MySpscRingQueue(int capacity) {
+        this(capacity, MyWaitStrategy.YIELD);
+    }
+
+    public MySpscRingQueue(int capacity, MyWaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.buffer = new Object[this.capacity];
+    }
+
+    /**
+     * 非阻塞入队, 只能由生产者线程调用
+     *
+     * 1. tail小于producerLimit时一定有空位; 否则重新读取head计算新的limit, 依然不满足说明队列已满
+     * 2. 写入元素, 然后有序写tail发布这个元素
+     * @param e
+     * @return
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long t = tail;
+        if (t >= producerLimit) {
+            long limit = head + capacity;
+            if (t >= limit)
+                return false;
+            PRODUCER_LIMIT.lazySet(this, limit);
+        }
+        buffer[(int) t & mask] = e;
+        TAIL.lazySet(this, t + 1);
+        return true;
+    }
+
+    /**
+     * 非阻塞出队, 只能由消费者线程调用
+     *
+     * 1. head小于tailCache时一定有元素; 否则重新读取tail, 依然不满足说明队列为空
+     * 2. 读取元素并清空位置, 然后有序写head, 把这个位置交还给生产者
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head;
+        if (h >= tailCache) {
+            long t = tail;
+            if (h >= t)
+                return null;
+            tailCache = t;
+        }
+        final Object[] buffer = this.buffer;
+        int i = (int) h & mask;
+        E e = (E) buffer[i];
+        buffer[i] = null;
+        HEAD.lazySet(this, h + 1);
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long h = head;
+        if (h >= tailCache) {
+            long t = tail;
+            if (h >= t)
+                return null;
+            tailCache = t;
+        }
+        return (E) buffer[(int) h & mask];
+    }
+
+    @Override
+    Object elementAt(long seq) {
+        return buffer[(int) seq & mask];
+    }
+
+    /**
+     * 批量出队, 只能由消费者线程调用
+     *
+     * 只读取一次tail, 取出 min(maxElements, tail - head) 个元素之后只写一次head
+     * @param c
+     * @param maxElements
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final Object[] buffer = this.buffer;
+        final int mask = this.mask;
+        long h = head, t = tail;
+        tailCache = t;
+        int n = (int) Math.min(maxElements, t - h);
+        int i = 0;
+        try {
+            while (i < n) {
+                int idx = (int) (h + i) & mask;
+                c.add((E) buffer[idx]);
+                buffer[idx] = null;
+                ++i;
+            }
+            return n;
+        } finally {
+            if (i > 0)
+                HEAD.lazySet(this, h + i);
+        }
+    }
+
+    /**
+     * 批量入队, 只能由生产者线程调用
+     *
+     * 只读取一次head, 写入尽可能多的元素之后只写一次tail, 消费者要么看到整批元素, 要么一个都看不到
+     * @param c
+     * @return
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final Object[] buffer = this.buffer;
+        final int mask = this.mask;
+        long t = tail, limit = head + capacity;
+        PRODUCER_LIMIT.lazySet(this, limit);
+        int n = 0;
+        try {
+            for (E e : c) {
+                if (e == null)
+                    throw new NullPointerException();
+                if (t + n >= limit)
+                    break;
+                buffer[(int) (t + n) & mask] = e;
+                ++n;
+            }
+            return n;
+        } finally {
+            if (n > 0)
+                TAIL.lazySet(this, t + n);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.whl.thread.blockingQueue;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 无锁队列的等待策略
+ * @Description:
+ *
+ * 无锁队列没有Condition可以等待, 当队列满(或空)时, 阻塞方法只能循环重试, 每次重试失败之后调用一次idle, 由等待策略决定如何 "空转":
+ *     SPIN:  忙等, 不让出CPU, 延迟最低, 但会占满一个核心, 适合线程数不超过核心数、且对延迟极其敏感的场景
+ *     YIELD: 调用Thread.yield()让出时间片, 延迟与CPU占用都比较折中
+ *     PARK:  调用LockSupport.parkNanos短暂休眠, CPU占用最低, 但唤醒延迟取决于操作系统的定时器精度 (Linux上通常为几十微秒)
+ *     ADAPTIVE: 前SPIN_TRIES次忙等, 之后YIELD_TRIES次让出时间片, 再之后每次parkNanos; 短暂的空窗期只付出忙等的代价, 长时间等待时CPU占用又会降下来
+ *
+ * 由于等待的一方只是在轮询, 另一方在入队(出队)之后不需要执行任何唤醒操作, 这也是无锁队列快的原因之一
+ *
+ * MyArrayBlockingQueue也可以指定等待策略, 在进入Condition.await之前先空转有限的次数, 参见它的构造方法
+ */
+public enum MyWaitStrategy {
+    SPIN {
+        @Override
+        public int idle(int counter) {
+            return next(counter);
+        }
+    },
+    YIELD {
+        @Override
+        public int idle(int counter) {
+            Thread.yield();
+            return next(counter);
+        }
+    },
+    PARK {
+        @Override
+        public int idle(int counter) {
+            LockSupport.parkNanos(PARK_NANOS);
+            return next(counter);
+        }
+    },
+    ADAPTIVE {
+        @Override
+        public int idle(int counter) {
+            if (counter >= SPIN_TRIES + YIELD_TRIES)
+                LockSupport.parkNanos(PARK_NANOS);
+            else if (counter >= SPIN_TRIES)
+                Thread.yield();
+            return next(counter);
+        }
+    };
+
+    //PARK策略每次休眠的时间
+    static final long PARK_NANOS = 1000L;
+
+    //ADAPTIVE策略忙等的次数
+    static final int SPIN_TRIES = 64;
+
+    //ADAPTIVE策略忙等之后让出时间片的次数
+    static final int YIELD_TRIES = 16;
+
+    /**
+     * 重试失败之后调用, 执行一次空转
+     * @param counter 当前已经空转的次数, 第一次调用时为0
+     * @return 新的空转次数, 作为下一次调用的参数
+     */
+    public abstract int idle(int counter);
+
+    /**
+     * 空转次数加1, 到达Integer.MAX_VALUE之后不再增加
+     *
+     * 长时间等待时计数会超过2^31, 溢出为负数之后ADAPTIVE会重新开始忙等, 一个本应park的线程会空转占满一个核心
+     * @param counter
+     * @return
+     */
+    static int next(int counter) {
+        return counter == Integer.MAX_VALUE ? counter : counter + 1;
+    }
+}
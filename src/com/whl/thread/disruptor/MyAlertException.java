@@ -0,0 +1,24 @@
+package com.whl.thread.disruptor;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 序号屏障被警告
+ * @Description:
+ *
+ * 消费者在MySequenceBarrier上等待时, 如果屏障被alert (通常是因为要停止消费者), 就会抛出这个异常
+ * 这个异常只用于控制流程, 因此使用单例并且不填充堆栈
+ */
+public final class MyAlertException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public static final MyAlertException INSTANCE = new MyAlertException();
+
+    private MyAlertException() {
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
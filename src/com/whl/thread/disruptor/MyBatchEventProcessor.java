@@ -0,0 +1,124 @@
+package com.whl.thread.disruptor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 批量事件处理器
+ * @Description:
+ *
+ * 一个消费者就是一个MyBatchEventProcessor, 它在自己的线程中循环执行:
+ *     1. 通过屏障等待下一个序号, 拿到当前可以处理的最大序号available
+ *     2. 依次将 [next, available] 中的事件交给handler处理, 最后一个事件的endOfBatch为true
+ *     3. 只在整批处理完之后写一次自己的序号, 后续阶段的消费者以及生产者看到这个序号之后才能继续
+ * 消费者落后越多, 一批能处理的事件就越多, 序号的写入以及等待的开销被平摊到每个事件上就越少, 这就是 "批量" 的含义
+ *
+ * handler抛出的异常会交给当前线程的UncaughtExceptionHandler处理, 然后跳过这个事件继续处理,
+ * 否则消费者一旦停止, 生产者最终会因为缓冲区满而永远等待
+ *
+ * 运行状态与LMAX Disruptor相同, 分为IDLE、HALTED、RUNNING三种:
+ *     run()只有从IDLE才能进入RUNNING, 看到HALTED说明在启动之前就已经被halt了, 直接退出, 而不是清除警告之后永远等待
+ *     run()结束之后回到IDLE, 可以再次运行
+ */
+public final class MyBatchEventProcessor<T> implements Runnable {
+    private final MyRingBuffer<T> ringBuffer;//所属的环形缓冲区
+
+    private final MySequenceBarrier barrier;//等待可处理序号的屏障
+
+    private final MyEventHandler<? super T> handler;//事件处理器
+
+    private final MySequence sequence = new MySequence();//已经处理完的最大序号
+
+    private static final int IDLE = 0;
+
+    private static final int HALTED = IDLE + 1;
+
+    private static final int RUNNING = HALTED + 1;
+
+    private final AtomicInteger running = new AtomicInteger(IDLE);//运行状态
+
+    public MyBatchEventProcessor(MyRingBuffer<T> ringBuffer, MySequenceBarrier barrier, MyEventHandler<? super T> handler) {
+        if (ringBuffer == null || barrier == null || handler == null)
+            throw new NullPointerException();
+        this.ringBuffer = ringBuffer;
+        this.barrier = barrier;
+        this.handler = handler;
+    }
+
+    /**
+     * 这个消费者的处理进度, 可以作为后续阶段的依赖, 或者作为环形缓冲区的gating序号
+     * @return
+     */
+    public MySequence getSequence() {
+        return sequence;
+    }
+
+    /**
+     * 停止处理: 警告屏障, 让正在等待的run循环退出
+     *
+     * 先设置状态再警告: run()在清除警告之后会再检查一次状态, 因此halt无论发生在run之前还是之后都不会丢失
+     */
+    public void halt() {
+        running.set(HALTED);
+        barrier.alert();
+    }
+
+    /**
+     * 是否正在运行, 已经被halt但run循环还没有退出时也返回true
+     * @return
+     */
+    public boolean isRunning() {
+        return running.get() != IDLE;
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(IDLE, RUNNING)) {
+            if (running.get() == RUNNING)
+                throw new IllegalStateException("Processor is already running");
+            return; // 启动之前就已经被halt了, 保持HALTED直接退出
+        }
+        try {
+            barrier.clearAlert();
+            if (running.get() != RUNNING) // 在CAS与clearAlert之间被halt, 它的警告可能已经被清除了
+                return;
+            processEvents();
+        } finally {
+            running.set(IDLE);
+        }
+    }
+
+    /**
+     * 处理事件的主循环, 被警告并且状态不再是RUNNING时退出
+     */
+    private void processEvents() {
+        long nextSequence = sequence.get() + 1;
+        while (true) {
+            long available;
+            try {
+                available = barrier.waitFor(nextSequence);
+            } catch (MyAlertException ex) {
+                if (running.get() != RUNNING)
+                    break;
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (available < nextSequence) // MULTI模式下中间有序号还没有发布, 重新等待
+                continue;
+            while (nextSequence <= available) {
+                T event = ringBuffer.get(nextSequence);
+                try {
+                    handler.onEvent(event, nextSequence, nextSequence == available);
+                } catch (Throwable ex) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, ex);
+                }
+                nextSequence++;
+            }
+            sequence.set(available);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.whl.thread.disruptor;
+
+import com.whl.thread.blockingQueue.MyWaitStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 环形缓冲区的装配入口
+ * @Description:
+ *
+ * 手动组装环形缓冲区需要自己创建屏障、处理器, 并维护gating序号, 这个类把这些步骤封装成了链式调用:
+ *
+ *     MyDisruptor<Event> disruptor = new MyDisruptor<>(Event::new, 1024, threadFactory);
+ *     disruptor.handleEventsWith(journal, replicate).then(business);
+ *     disruptor.start();
+ *     disruptor.publishEvent((event, seq, arg) -> event.value = arg, value);
+ *
+ * 上面的例子中journal与replicate并行处理同一个事件, business等二者都处理完之后才会处理这个事件;
+ * 只有拓扑末端的business会成为gating序号, 生产者只需要等待它
+ *
+ * 每个处理器独占一个线程, 所有处理器必须在start之前注册
+ */
+public class MyDisruptor<T> {
+    private final MyRingBuffer<T> ringBuffer;//环形缓冲区
+
+    private final ThreadFactory threadFactory;//为每个处理器创建线程
+
+    private final List<MyBatchEventProcessor<T>> processors = new ArrayList<>();//所有已经注册的处理器
+
+    private final List<Thread> threads = new ArrayList<>();//start之后每个处理器所在的线程
+
+    private final AtomicBoolean started = new AtomicBoolean();//是否已经启动
+
+    /**
+     * 使用多生产者模式、YIELD等待策略创建
+     * @param factory
+     * @param bufferSize
+     * @param threadFactory
+     */
+    public MyDisruptor(MyEventFactory<T> factory, int bufferSize, ThreadFactory threadFactory) {
+        this(factory, bufferSize, threadFactory, MyRingBuffer.ProducerType.MULTI, MyWaitStrategy.YIELD);
+    }
+
+    public MyDisruptor(MyEventFactory<T> factory, int bufferSize, ThreadFactory threadFactory,
+                       MyRingBuffer.ProducerType producerType, MyWaitStrategy waitStrategy) {
+        if (threadFactory == null)
+            throw new NullPointerException();
+        this.ringBuffer = new MyRingBuffer<>(producerType, factory, bufferSize, waitStrategy);
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * 注册第一阶段的处理器, 它们直接依赖生产者, 彼此之间并行处理每个事件
+     * @param handlers
+     * @return
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs") // handlers只被读取, 不会写入其他类型的元素, 传给createProcessors是安全的
+    public final HandlerGroup handleEventsWith(MyEventHandler<? super T>... handlers) {
+        return createProcessors(new MySequence[0], handlers);
+    }
+
+    /**
+     * 为handlers创建处理器, 它们的屏障依赖barrierSequences
+     *
+     * 新的处理器成为拓扑的末端: 它们的序号加入gating序号, 被依赖的barrierSequences则不再需要作为gating序号
+     * (后续阶段的序号永远不会超过它们依赖的序号, 等待后者就足够了)
+     *
+     * 每个处理器使用自己的屏障: 处理器启动时会清除屏障的警告, 共用屏障时可能把同组其他处理器的halt警告清除掉
+     * @param barrierSequences
+     * @param handlers
+     * @return
+     */
+    HandlerGroup createProcessors(MySequence[] barrierSequences, MyEventHandler<? super T>[] handlers) {
+        if (started.get())
+            throw new IllegalStateException("All event handlers must be added before calling start");
+        MySequence[] sequences = new MySequence[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            MySequenceBarrier barrier = ringBuffer.newBarrier(barrierSequences);
+            MyBatchEventProcessor<T> processor = new MyBatchEventProcessor<>(ringBuffer, barrier, handlers[i]);
+            processors.add(processor);
+            sequences[i] = processor.getSequence();
+        }
+        ringBuffer.addGatingSequences(sequences);
+        for (MySequence s : barrierSequences)
+            ringBuffer.removeGatingSequence(s);
+        return new HandlerGroup(sequences);
+    }
+
+    /**
+     * 一组并行的处理器, 可以通过then注册依赖它们的下一阶段
+     */
+    public final class HandlerGroup {
+        private final MySequence[] sequences;//这一组处理器的序号
+
+        HandlerGroup(MySequence[] sequences) {
+            this.sequences = sequences;
+        }
+
+        /**
+         * 注册下一阶段的处理器, 它们只会处理这一组处理器都已经处理完的事件
+         * @param handlers
+         * @return
+         */
+        @SafeVarargs
+        @SuppressWarnings("varargs") // 同handleEventsWith
+        public final HandlerGroup then(MyEventHandler<? super T>... handlers) {
+            return createProcessors(sequences, handlers);
+        }
+    }
+
+    /**
+     * 为每个处理器启动一个线程
+     * @return
+     */
+    public MyRingBuffer<T> start() {
+        if (!started.compareAndSet(false, true))
+            throw new IllegalStateException("Disruptor already started");
+        for (MyBatchEventProcessor<T> processor : processors) {
+            Thread t = threadFactory.newThread(processor);
+            threads.add(t);
+            t.start();
+        }
+        return ringBuffer;
+    }
+
+    public MyRingBuffer<T> getRingBuffer() {
+        return ringBuffer;
+    }
+
+    /**
+     * 发布一个事件, 参见MyRingBuffer.publishEvent
+     * @param translator
+     * @param arg
+     * @param <A>
+     */
+    public <A> void publishEvent(MyRingBuffer.EventTranslator<T, A> translator, A arg) {
+        ringBuffer.publishEvent(translator, arg);
+    }
+
+    /**
+     * 等待所有已经发布的事件都被处理完, 然后停止所有处理器
+     *
+     * 调用之前应当停止发布新的事件
+     * @param timeout
+     * @param unit
+     * @return 超时之前是否处理完, 并且所有处理器线程都已经退出
+     * @throws InterruptedException
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (ringBuffer.getMinimumGatingSequence() < ringBuffer.getCursor()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (deadline - System.nanoTime() <= 0)
+                return false;
+            LockSupport.parkNanos(1000L);
+        }
+        halt();
+        boolean terminated = true;
+        for (Thread t : threads) {
+            t.join(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (t.isAlive())
+                terminated = false;
+        }
+        return terminated;
+    }
+
+    /**
+     * 立即停止所有处理器, 不等待未处理的事件
+     */
+    public void halt() {
+        for (MyBatchEventProcessor<T> processor : processors)
+            processor.halt();
+    }
+}
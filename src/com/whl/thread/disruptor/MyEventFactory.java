@@ -0,0 +1,14 @@
+package com.whl.thread.disruptor;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 事件工厂
+ * @Description:
+ *
+ * 环形缓冲区在创建时通过它为每个槽位预先创建好事件对象, 之后发布事件只是修改这些对象的字段, 不会再分配新的对象
+ */
+@FunctionalInterface
+public interface MyEventFactory<T> {
+    T newInstance();
+}
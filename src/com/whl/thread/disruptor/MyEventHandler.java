@@ -0,0 +1,24 @@
+package com.whl.thread.disruptor;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 事件处理器
+ * @Description:
+ *
+ * 由MyBatchEventProcessor在消费者线程中回调, 同一个处理器中的事件总是按照序号顺序处理
+ *
+ * 处理器每次会拿到一批连续的可用事件, endOfBatch表示这是这一批中的最后一个事件,
+ * 需要批量刷盘、批量发送网络请求的处理器可以先把事件攒在本地, 等到endOfBatch为true时再一次性提交
+ */
+@FunctionalInterface
+public interface MyEventHandler<T> {
+    /**
+     * 处理一个事件
+     * @param event 环形缓冲区中预先分配的事件对象, 方法返回之后可能被生产者覆盖, 不应该在方法之外持有它
+     * @param sequence 事件的序号
+     * @param endOfBatch 是否是这一批中的最后一个事件
+     * @throws Exception
+     */
+    void onEvent(T event, long sequence, boolean endOfBatch) throws Exception;
+}
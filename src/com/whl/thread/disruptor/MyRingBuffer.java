@@ -0,0 +1,336 @@
+package com.whl.thread.disruptor;
+
+import com.whl.thread.blockingQueue.MyWaitStrategy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 预分配事件的多播环形缓冲区 (Disruptor)
+ * @Description:
+ *
+ * 用阻塞队列串联多个处理阶段时, 每个阶段都要为每条消息加锁、入队、出队一次; 同一条消息需要被多个消费者处理时, 还要分别放入多个队列
+ * 环形缓冲区的思路完全不同: 所有事件都保存在同一个预先分配好的数组中, 生产者与消费者之间只通过序号(MySequence)协调
+ *     1. 生产者通过next()申请序号, 修改该序号对应的事件对象的字段, 然后publish(序号)发布
+ *     2. 每个消费者都有自己的处理进度序号, 通过MySequenceBarrier等待 "生产者已经发布、并且依赖的前一阶段消费者都已经处理完" 的序号
+ *     3. 同一个事件可以被任意多个消费者读取 (多播), 事件本身从不复制, 也从不出队
+ *     4. 生产者申请序号时, 必须等待最慢的末端消费者 (gating sequences) 处理完一圈之前的事件, 否则就会覆盖还没有被处理的事件
+ *
+ * 生产者分为两种:
+ *     SINGLE: 只有一个线程发布事件, 申请序号不需要CAS, 游标cursor就是已经发布的最大序号
+ *     MULTI:  多个线程发布事件, 通过CAS竞争cursor申请序号, 此时cursor只表示已经申请的最大序号,
+ *             每个槽位是否已经发布由availableBuffer记录 (保存的是序号的 "圈数"), 消费者需要逐个检查
+ *
+ * 消费者等待时使用MyWaitStrategy空转; 生产者在缓冲区满时则固定使用parkNanos(1)等待, 与Disruptor相同
+ */
+public class MyRingBuffer<T> {
+    /**
+     * 生产者类型
+     */
+    public enum ProducerType {
+        SINGLE, MULTI
+    }
+
+    /**
+     * 将数据写入预分配事件的回调, 配合publishEvent使用, 这样调用方就不需要自己处理next/publish
+     */
+    @FunctionalInterface
+    public interface EventTranslator<T, A> {
+        void translateTo(T event, long sequence, A arg);
+    }
+
+    private final Object[] entries;//预先分配的事件对象
+
+    final int bufferSize;//缓冲区大小, 为2的n次方
+
+    private final int indexMask;//bufferSize - 1
+
+    private final int indexShift;//log2(bufferSize), 用于计算序号的圈数
+
+    final ProducerType producerType;//生产者类型
+
+    final MyWaitStrategy waitStrategy;//消费者的等待策略
+
+    final MySequence cursor = new MySequence();//SINGLE: 已经发布的最大序号; MULTI: 已经申请的最大序号
+
+    private volatile MySequence[] gatingSequences = new MySequence[0];//末端消费者的序号, 生产者不能超过它们一圈
+
+    private final MySequence gatingSequenceCache = new MySequence();//缓存的最小gating序号, 减少遍历gatingSequences的次数
+
+    private final AtomicIntegerArray availableBuffer;//MULTI模式下每个槽位已经发布的圈数, SINGLE模式下为null
+
+    private long nextValue = MySequence.INITIAL_VALUE;//SINGLE模式下已经申请的最大序号, 只有生产者线程访问
+
+    private long cachedValue = MySequence.INITIAL_VALUE;//SINGLE模式下缓存的最小gating序号, 只有生产者线程访问
+
+    /**
+     * 创建环形缓冲区, 并通过factory为每个槽位预先创建事件对象
+     * @param producerType
+     * @param factory
+     * @param bufferSize 必须为2的n次方
+     * @param waitStrategy 消费者的等待策略
+     */
+    public MyRingBuffer(ProducerType producerType, MyEventFactory<T> factory, int bufferSize, MyWaitStrategy waitStrategy) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2: " + bufferSize);
+        if (producerType == null || factory == null || waitStrategy == null)
+            throw new NullPointerException();
+        this.producerType = producerType;
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.waitStrategy = waitStrategy;
+        this.entries = new Object[bufferSize];
+        for (int i = 0; i < bufferSize; i++)
+            entries[i] = factory.newInstance();
+        if (producerType == ProducerType.MULTI) {
+            availableBuffer = new AtomicIntegerArray(bufferSize);
+            for (int i = 0; i < bufferSize; i++)
+                availableBuffer.lazySet(i, -1);
+        } else
+            availableBuffer = null;
+    }
+
+    public static <T> MyRingBuffer<T> createSingleProducer(MyEventFactory<T> factory, int bufferSize) {
+        return new MyRingBuffer<>(ProducerType.SINGLE, factory, bufferSize, MyWaitStrategy.YIELD);
+    }
+
+    public static <T> MyRingBuffer<T> createMultiProducer(MyEventFactory<T> factory, int bufferSize) {
+        return new MyRingBuffer<>(ProducerType.MULTI, factory, bufferSize, MyWaitStrategy.YIELD);
+    }
+
+    /**
+     * 获取序号对应的事件对象
+     * @param sequence
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long sequence) {
+        return (T) entries[(int) sequence & indexMask];
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 生产者游标的当前值
+     * @return
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * 添加末端消费者的序号, 生产者会等待它们处理完才会覆盖对应的槽位
+     *
+     * 应当在发布第一个事件之前调用
+     * @param sequences
+     */
+    public synchronized void addGatingSequences(MySequence... sequences) {
+        long cursorValue = cursor.get();
+        MySequence[] current = gatingSequences;
+        MySequence[] updated = Arrays.copyOf(current, current.length + sequences.length);
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i].set(cursorValue);
+            updated[current.length + i] = sequences[i];
+        }
+        gatingSequences = updated;
+    }
+
+    /**
+     * 移除末端消费者的序号
+     * @param sequence
+     * @return
+     */
+    public synchronized boolean removeGatingSequence(MySequence sequence) {
+        MySequence[] current = gatingSequences;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == sequence) {
+                MySequence[] updated = new MySequence[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                gatingSequences = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 创建一个序号屏障, 消费者通过它等待 "已经发布, 并且dependents都已经处理完" 的序号
+     * @param dependents 依赖的前一阶段消费者的序号, 为空表示直接依赖生产者
+     * @return
+     */
+    public MySequenceBarrier newBarrier(MySequence... dependents) {
+        return new MySequenceBarrier(this, dependents);
+    }
+
+    /**
+     * 所有末端消费者中最小的序号, 没有消费者时返回生产者游标
+     * @return
+     */
+    public long getMinimumGatingSequence() {
+        return MySequence.getMinimumSequence(gatingSequences, cursor.get());
+    }
+
+    /**
+     * 申请下一个序号
+     * @return
+     */
+    public long next() {
+        return next(1);
+    }
+
+    /**
+     * 申请连续的n个序号, 返回其中最大的序号, 调用方需要依次填充 [返回值 - n + 1, 返回值] 的事件, 然后发布
+     *
+     * 缓冲区没有足够空位时会一直等待, 直到末端消费者处理完
+     * @param n
+     * @return
+     */
+    public long next(int n) {
+        if (n < 1 || n > bufferSize)
+            throw new IllegalArgumentException("n must be > 0 and <= bufferSize");
+        return producerType == ProducerType.SINGLE ? nextSingle(n) : nextMulti(n);
+    }
+
+    /**
+     * 单生产者申请序号: nextValue只有生产者线程访问, 不需要CAS
+     *
+     * wrapPoint = 申请之后的序号 - bufferSize, 即新序号在上一圈对应的序号, 只有所有末端消费者都处理过它才能覆盖
+     * 缓存的最小gating序号足够时不需要读取任何其他线程的序号
+     * @param n
+     * @return
+     */
+    private long nextSingle(int n) {
+        long current = nextValue;
+        long next = current + n;
+        long wrapPoint = next - bufferSize;
+        long cachedGating = cachedValue;
+        if (wrapPoint > cachedGating || cachedGating > current) {
+            // 确保之前发布的序号对消费者可见, 否则消费者可能一直看不到新事件而无法前进
+            cursor.setVolatile(current);
+            long minSequence;
+            while (wrapPoint > (minSequence = MySequence.getMinimumSequence(gatingSequences, current)))
+                LockSupport.parkNanos(1L);
+            cachedValue = minSequence;
+        }
+        nextValue = next;
+        return next;
+    }
+
+    /**
+     * 多生产者申请序号: 通过CAS推进cursor, 失败说明其他生产者抢先, 重试
+     * @param n
+     * @return
+     */
+    private long nextMulti(int n) {
+        long current, next;
+        do {
+            current = cursor.get();
+            next = current + n;
+            long wrapPoint = next - bufferSize;
+            long cachedGating = gatingSequenceCache.get();
+            if (wrapPoint > cachedGating || cachedGating > current) {
+                long gating = MySequence.getMinimumSequence(gatingSequences, current);
+                if (wrapPoint > gating) {
+                    LockSupport.parkNanos(1L);
+                    continue;
+                }
+                gatingSequenceCache.set(gating);
+            } else if (cursor.compareAndSet(current, next))
+                break;
+        } while (true);
+        return next;
+    }
+
+    /**
+     * 发布序号, 之后消费者就可以看到这个事件
+     * @param sequence
+     */
+    public void publish(long sequence) {
+        if (producerType == ProducerType.SINGLE)
+            cursor.set(sequence);
+        else
+            setAvailable(sequence);
+    }
+
+    /**
+     * 发布 [lo, hi] 之间的所有序号
+     * @param lo
+     * @param hi
+     */
+    public void publish(long lo, long hi) {
+        if (producerType == ProducerType.SINGLE)
+            cursor.set(hi);
+        else {
+            for (long l = lo; l <= hi; l++)
+                setAvailable(l);
+        }
+    }
+
+    /**
+     * 申请序号、通过translator写入事件并发布; 即使translator抛出异常, 序号也会被发布, 否则消费者会永远卡在这个序号上
+     * @param translator
+     * @param arg
+     * @param <A>
+     */
+    public <A> void publishEvent(EventTranslator<T, A> translator, A arg) {
+        long sequence = next();
+        try {
+            translator.translateTo(get(sequence), sequence, arg);
+        } finally {
+            publish(sequence);
+        }
+    }
+
+    /**
+     * MULTI模式下标记序号已经发布: 槽位中记录的是序号的圈数 (sequence >>> indexShift)
+     * @param sequence
+     */
+    private void setAvailable(long sequence) {
+        availableBuffer.lazySet((int) sequence & indexMask, (int) (sequence >>> indexShift));
+    }
+
+    /**
+     * 序号是否已经发布
+     * @param sequence
+     * @return
+     */
+    public boolean isAvailable(long sequence) {
+        if (producerType == ProducerType.SINGLE)
+            return sequence <= cursor.get();
+        return availableBuffer.get((int) sequence & indexMask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * 返回 [lowerBound, availableSequence] 中连续发布的最大序号
+     *
+     * SINGLE模式下cursor之前的序号一定已经发布; MULTI模式下需要从lowerBound开始逐个检查, 遇到第一个没有发布的序号就停止
+     * @param lowerBound
+     * @param availableSequence
+     * @return
+     */
+    long getHighestPublishedSequence(long lowerBound, long availableSequence) {
+        if (producerType == ProducerType.SINGLE)
+            return availableSequence;
+        for (long sequence = lowerBound; sequence <= availableSequence; sequence++) {
+            if (!isAvailable(sequence))
+                return sequence - 1;
+        }
+        return availableSequence;
+    }
+
+    /**
+     * 剩余可以申请的槽位数量
+     * @return
+     */
+    public long remainingCapacity() {
+        long produced = producerType == ProducerType.SINGLE ? nextValue : cursor.get();
+        return bufferSize - (produced - getMinimumGatingSequence());
+    }
+}
@@ -0,0 +1,92 @@
+package com.whl.thread.disruptor;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 带缓存行填充的序号
+ * @Description:
+ *
+ * 环形缓冲区中的每个参与者 (生产者的游标、每个消费者的处理进度) 都是一个单调递增的long序号
+ * 这些序号会被不同的线程频繁地写入与读取, 如果两个序号位于同一个缓存行中就会产生伪共享,
+ * 因此与MyRingQueue相同, 通过继承关系在value前后各填充128字节
+ *
+ * set使用有序写(lazySet): 写入序号之前对事件的修改, 对读到这个序号的线程一定可见
+ */
+public class MySequence extends SequenceRhsPadding {
+    //初始值, 表示还没有处理(发布)任何事件
+    static final long INITIAL_VALUE = -1L;
+
+    public MySequence() {
+        this(INITIAL_VALUE);
+    }
+
+    public MySequence(long initialValue) {
+        VALUE.lazySet(this, initialValue);
+    }
+
+    public long get() {
+        return value;
+    }
+
+    /**
+     * 有序写, 不需要StoreLoad屏障
+     * @param value
+     */
+    public void set(long value) {
+        VALUE.lazySet(this, value);
+    }
+
+    /**
+     * volatile写
+     * @param value
+     */
+    public void setVolatile(long value) {
+        this.value = value;
+    }
+
+    public boolean compareAndSet(long expect, long update) {
+        return VALUE.compareAndSet(this, expect, update);
+    }
+
+    public long addAndGet(long increment) {
+        return VALUE.addAndGet(this, increment);
+    }
+
+    /**
+     * 返回一组序号中的最小值, 数组为空时返回minimum
+     * @param sequences
+     * @param minimum
+     * @return
+     */
+    static long getMinimumSequence(MySequence[] sequences, long minimum) {
+        for (MySequence s : sequences) {
+            long v = s.get();
+            if (v < minimum)
+                minimum = v;
+        }
+        return minimum;
+    }
+
+    public String toString() {
+        return Long.toString(get());
+    }
+}
+
+abstract class SequenceLhsPadding {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+}
+
+abstract class SequenceValue extends SequenceLhsPadding {
+    static final AtomicLongFieldUpdater<SequenceValue> VALUE =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    volatile long value;//序号的值
+}
+
+abstract class SequenceRhsPadding extends SequenceValue {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+    long p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+}
@@ -0,0 +1,91 @@
+package com.whl.thread.disruptor;
+
+import com.whl.thread.blockingQueue.MyWaitStrategy;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 序号屏障
+ * @Description:
+ *
+ * 消费者通过屏障等待可以处理的序号, 一个序号可以被处理需要同时满足两个条件:
+ *     1. 生产者已经发布了这个序号
+ *     2. 这个消费者依赖的所有前一阶段消费者都已经处理完这个序号 (没有依赖时只需要满足条件1)
+ * 正是依赖关系让多个消费者可以组成流水线 (A -> B -> C) 或者菱形 (A、B并行 -> C) 的拓扑, 而事件本身始终只有一份
+ *
+ * waitFor返回的是当前所有可以处理的序号中最大的一个, 它可能比请求的序号大很多, 消费者可以一次性处理这一整批事件
+ */
+public final class MySequenceBarrier {
+    private final MyRingBuffer<?> ringBuffer;//所属的环形缓冲区
+
+    private final MySequence[] dependents;//依赖的前一阶段消费者的序号, 为空表示直接依赖生产者
+
+    private final MyWaitStrategy waitStrategy;//等待策略
+
+    private volatile boolean alerted;//是否被警告, 被警告之后waitFor会立即抛出MyAlertException
+
+    MySequenceBarrier(MyRingBuffer<?> ringBuffer, MySequence[] dependents) {
+        this.ringBuffer = ringBuffer;
+        this.dependents = dependents.clone();
+        this.waitStrategy = ringBuffer.waitStrategy;
+    }
+
+    /**
+     * 等待序号sequence可以被处理
+     *
+     * 1. 计算当前可用的最大序号: 没有依赖时为生产者游标, 否则为所有依赖的最小序号 (同时不能超过生产者游标)
+     * 2. 小于sequence时按照等待策略空转, 期间检查是否被警告、是否被中断
+     * 3. MULTI模式下游标只表示已经申请的序号, 因此还需要找到其中连续发布的最大序号
+     * @param sequence
+     * @return 可以处理的最大序号, 可能小于sequence (MULTI模式下中间有序号还没有发布), 此时调用方应该重新等待
+     * @throws MyAlertException
+     * @throws InterruptedException
+     */
+    public long waitFor(long sequence) throws MyAlertException, InterruptedException {
+        checkAlert();
+        final MySequence cursor = ringBuffer.cursor;
+        final MySequence[] dependents = this.dependents;
+        long available;
+        for (int idle = 0; ; ) {
+            available = cursor.get();
+            if (dependents.length > 0)
+                available = MySequence.getMinimumSequence(dependents, available);
+            if (available >= sequence)
+                break;
+            checkAlert();
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            idle = waitStrategy.idle(idle);
+        }
+        return ringBuffer.getHighestPublishedSequence(sequence, available);
+    }
+
+    /**
+     * 当前可以处理的最大序号, 不等待
+     * @return
+     */
+    public long getCursor() {
+        long available = ringBuffer.cursor.get();
+        return dependents.length > 0 ? MySequence.getMinimumSequence(dependents, available) : available;
+    }
+
+    /**
+     * 警告屏障, 正在等待以及之后调用waitFor的线程会抛出MyAlertException
+     */
+    public void alert() {
+        alerted = true;
+    }
+
+    public void clearAlert() {
+        alerted = false;
+    }
+
+    public boolean isAlerted() {
+        return alerted;
+    }
+
+    public void checkAlert() throws MyAlertException {
+        if (alerted)
+            throw MyAlertException.INSTANCE;
+    }
+}
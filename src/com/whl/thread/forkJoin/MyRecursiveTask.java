@@ -0,0 +1,161 @@
+package com.whl.thread.forkJoin;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 可以在MyWorkStealingPool中拆分执行的递归任务
+ * @Description:
+ *
+ * 子类实现compute, 在其中把问题拆分为子任务, 典型写法:
+ *
+ *     protected Long compute() {
+ *         if (hi - lo <= THRESHOLD)
+ *             return sequentialSum(lo, hi);
+ *         int mid = (lo + hi) >>> 1;
+ *         SumTask left = new SumTask(lo, mid);
+ *         left.fork();                                  // 放入当前工作线程的双端队列底部, 空闲的线程可以从顶部偷走
+ *         long right = new SumTask(mid, hi).compute();  // 当前线程直接处理另一半
+ *         return right + left.join();                   // 等待left, 等待期间当前线程会帮忙执行其他任务
+ *     }
+ *
+ * join不会让工作线程空等: 在任务完成之前, 它会不断从自己的队列弹出任务、或者从其他线程窃取任务来执行
+ * 如果left没有被偷走, 那么它就在自己队列的底部, 会被立刻弹出并在当前线程执行
+ *
+ * 每个任务只会被执行一次: 它只会存在于一个双端队列 (或外部提交队列) 中, 只有一个线程能取出它
+ */
+public abstract class MyRecursiveTask<V> {
+    static final int NEW = 0;//还没有完成
+
+    static final int NORMAL = 1;//正常完成
+
+    static final int EXCEPTIONAL = 2;//compute抛出了异常
+
+    private volatile int status;//任务状态
+
+    private volatile boolean signalNeeded;//是否有非工作线程正在wait, 只有此时完成时才需要notifyAll
+
+    private V result;//compute的返回值, 在status写入之前赋值, 通过status的volatile语义发布
+
+    private Throwable exception;//compute抛出的异常
+
+    /**
+     * 任务的计算逻辑
+     * @return
+     */
+    protected abstract V compute();
+
+    /**
+     * 异步执行这个任务
+     *
+     * 在工作线程中调用时放入当前线程的双端队列, 否则提交到公共池
+     * @return
+     */
+    public final MyRecursiveTask<V> fork() {
+        Thread t = Thread.currentThread();
+        if (t instanceof MyWorkStealingPool.Worker)
+            ((MyWorkStealingPool.Worker) t).push(this);
+        else
+            MyWorkStealingPool.commonPool().submit(this);
+        return this;
+    }
+
+    /**
+     * 等待任务完成并返回结果, compute抛出的异常会被重新抛出
+     *
+     * 工作线程在等待期间会帮忙执行其他任务, 其他线程则阻塞等待
+     * @return
+     */
+    public final V join() {
+        if (status == NEW) {
+            Thread t = Thread.currentThread();
+            if (t instanceof MyWorkStealingPool.Worker)
+                ((MyWorkStealingPool.Worker) t).helpJoin(this);
+            else
+                externalAwaitDone();
+        }
+        return reportResult();
+    }
+
+    /**
+     * 在当前线程直接执行这个任务并返回结果
+     * @return
+     */
+    public final V invoke() {
+        doExec();
+        return reportResult();
+    }
+
+    public final boolean isDone() {
+        return status != NEW;
+    }
+
+    public final boolean isCompletedAbnormally() {
+        return status == EXCEPTIONAL;
+    }
+
+    /**
+     * 执行compute并记录结果, 只会被取出任务的那一个线程调用
+     */
+    final void doExec() {
+        if (status != NEW)
+            return;
+        try {
+            result = compute();
+            setCompletion(NORMAL);
+        } catch (Throwable ex) {
+            exception = ex;
+            setCompletion(EXCEPTIONAL);
+        }
+    }
+
+    /**
+     * 写入完成状态, 如果有线程正在wait则唤醒
+     *
+     * 与externalAwaitDone构成Dekker式的握手: 等待方先写signalNeeded再读status, 完成方先写status再读signalNeeded,
+     * 两者都是volatile, 因此至少有一方能看到对方的写入, 不会出现双方都错过的情况
+     * @param s
+     */
+    private void setCompletion(int s) {
+        status = s;
+        if (signalNeeded) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 非工作线程阻塞等待任务完成
+     */
+    private void externalAwaitDone() {
+        boolean interrupted = false;
+        signalNeeded = true;
+        synchronized (this) {
+            while (status == NEW) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * 返回结果或者重新抛出异常, RuntimeException与Error原样抛出, 受检异常包装为RuntimeException
+     * @return
+     */
+    private V reportResult() {
+        if (status == EXCEPTIONAL) {
+            Throwable ex = exception;
+            if (ex instanceof RuntimeException)
+                throw (RuntimeException) ex;
+            if (ex instanceof Error)
+                throw (Error) ex;
+            throw new RuntimeException(ex);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package com.whl.thread.forkJoin;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: Chase-Lev 工作窃取双端队列
+ * @Description:
+ *
+ * 每个工作线程拥有一个自己的双端队列:
+ *     所有者(owner)在底部(bottom)执行push、pop, 也就是按照后进先出的顺序处理自己产生的任务, 刚拆分出来的子任务数据通常还在缓存中
+ *     其他线程(thief)在顶部(top)执行steal, 偷走最早放入的任务, 在分治算法中这往往是最大的一块工作, 一次窃取就能分担很多
+ * 所有者与窃取者操作的是队列的两端, 只有队列中只剩最后一个元素时才会竞争, 此时通过CAS(top)决定归属
+ *
+ * 具体实现参考了 Chase & Lev, "Dynamic Circular Work-Stealing Deque" (2005) 以及 Lê 等人针对弱内存模型的修正:
+ *     1. push: 写入元素 -> bottom + 1 (有序写即可)
+ *     2. pop:  bottom - 1 (volatile写, 之后必须有StoreLoad屏障) -> 读取top
+ *              top < bottom 说明至少还有两个元素, 直接取走; top == bottom 说明只剩一个元素, 与窃取者CAS(top)竞争
+ *     3. steal: 读取top -> 读取bottom -> 读取元素 -> CAS(top, top + 1), 失败说明被所有者或者其他窃取者抢先
+ *
+ * 数组是一个可以扩容的环形数组, 扩容时只由所有者复制 [top, bottom) 之间的元素, 窃取者读到的旧数组中依然保留着原来的元素, 因此不影响正确性
+ * 窃取成功之后不会清空数组中的位置 (否则可能清掉所有者刚写入的新元素), 这些引用会在位置被复用时覆盖, 最多滞留数组长度个对象
+ */
+public class MyWorkStealingDeque<T> {
+    //初始容量, 必须为2的n次方
+    static final int INITIAL_CAPACITY = 1 << 6;
+
+    //最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 26;
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicLongFieldUpdater<MyWorkStealingDeque<?>> TOP =
+            (AtomicLongFieldUpdater<MyWorkStealingDeque<?>>) (AtomicLongFieldUpdater<?>)
+                    AtomicLongFieldUpdater.newUpdater(MyWorkStealingDeque.class, "top");
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicLongFieldUpdater<MyWorkStealingDeque<?>> BOTTOM =
+            (AtomicLongFieldUpdater<MyWorkStealingDeque<?>>) (AtomicLongFieldUpdater<?>)
+                    AtomicLongFieldUpdater.newUpdater(MyWorkStealingDeque.class, "bottom");
+
+    private volatile long top;//窃取者操作的一端, 只会通过CAS增加
+
+    private volatile long bottom;//所有者操作的一端, 只有所有者会修改
+
+    private volatile AtomicReferenceArray<T> array = new AtomicReferenceArray<>(INITIAL_CAPACITY);//环形数组
+
+    /**
+     * 所有者在底部放入元素
+     * @param x
+     */
+    public void push(T x) {
+        if (x == null)
+            throw new NullPointerException();
+        long b = bottom, t = top;
+        AtomicReferenceArray<T> a = array;
+        if (b - t >= a.length() - 1)
+            a = grow(a, b, t);
+        a.lazySet((int) b & (a.length() - 1), x);
+        BOTTOM.lazySet(this, b + 1);
+    }
+
+    /**
+     * 扩容为原来的两倍, 只会由所有者调用
+     * @param a
+     * @param b
+     * @param t
+     * @return
+     */
+    private AtomicReferenceArray<T> grow(AtomicReferenceArray<T> a, long b, long t) {
+        int oldCapacity = a.length();
+        if (oldCapacity >= MAXIMUM_CAPACITY)
+            throw new IllegalStateException("Deque capacity exceeded");
+        int newCapacity = oldCapacity << 1, oldMask = oldCapacity - 1, newMask = newCapacity - 1;
+        AtomicReferenceArray<T> na = new AtomicReferenceArray<>(newCapacity);
+        for (long i = t; i < b; i++)
+            na.lazySet((int) i & newMask, a.get((int) i & oldMask));
+        array = na;
+        return na;
+    }
+
+    /**
+     * 所有者从底部取出元素, 队列为空 (或者最后一个元素被窃取者抢走) 时返回null
+     * @return
+     */
+    public T pop() {
+        long b = bottom - 1;
+        AtomicReferenceArray<T> a = array;
+        bottom = b; // volatile写, 保证接下来读取top之前, 窃取者一定能看到新的bottom
+        long t = top;
+        if (t > b) { // 队列为空, 恢复bottom
+            bottom = t;
+            return null;
+        }
+        int i = (int) b & (a.length() - 1);
+        T x = a.get(i);
+        if (t < b) { // 至少还有两个元素, 窃取者不可能拿到位置b
+            a.lazySet(i, null);
+            return x;
+        }
+        // 只剩最后一个元素, 与窃取者竞争
+        if (!TOP.compareAndSet(this, t, t + 1))
+            x = null;
+        else
+            a.lazySet(i, null);
+        BOTTOM.lazySet(this, t + 1);
+        return x;
+    }
+
+    /**
+     * 其他线程从顶部窃取元素, 队列为空或者竞争失败时返回null
+     * @return
+     */
+    public T steal() {
+        long t = top;
+        long b = bottom;
+        if (t >= b)
+            return null;
+        AtomicReferenceArray<T> a = array;
+        T x = a.get((int) t & (a.length() - 1));
+        if (x == null || !TOP.compareAndSet(this, t, t + 1))
+            return null;
+        return x;
+    }
+
+    /**
+     * 元素数量的估计值
+     * @return
+     */
+    public int size() {
+        long n = bottom - top;
+        return n <= 0 ? 0 : (int) n;
+    }
+
+    public boolean isEmpty() {
+        return bottom - top <= 0;
+    }
+}
@@ -0,0 +1,320 @@
+package com.whl.thread.forkJoin;
+
+import com.whl.thread.blockingQueue.MyLinkedBlockingQueue;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 基于工作窃取的线程池
+ * @Description:
+ *
+ * 普通线程池所有线程共享一个任务队列, 递归拆分的任务越细, 对这个队列的锁竞争就越激烈
+ * 这里每个工作线程都有一个自己的MyWorkStealingDeque:
+ *     1. 工作线程中fork出来的子任务放入自己队列的底部, 之后也从底部取出 (后进先出, 不需要任何锁)
+ *     2. 自己的队列空了之后, 从一个随机的其他工作线程的队列顶部窃取任务, 随机选择可以把窃取的竞争分散开
+ *     3. 外部线程提交的任务放入共享的submissions队列, 只有刚开始时才会被取出, 之后的子任务都在各自的双端队列中流转
+ *     4. 都没有任务时登记为空闲并parkNanos, 有新任务时唤醒一个空闲线程;
+ *        push使用有序写, 与空闲登记之间可能错过一次唤醒, 因此park是定时的, 最多延迟IDLE_PARK_NANOS
+ *
+ * 工作线程都是守护线程, 不调用shutdown也不会阻止JVM退出
+ */
+public class MyWorkStealingPool {
+    //空闲线程单次park的最长时间
+    static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    //join时连续找不到可以帮忙的任务多少次之后改为parkNanos
+    static final int HELP_SPINS = 64;
+
+    private static final AtomicInteger poolNumber = new AtomicInteger(1);//线程池编号, 用于线程名
+
+    private static volatile MyWorkStealingPool common;//公共池, 非工作线程fork时使用
+
+    private final Worker[] workers;//所有工作线程
+
+    private final MyLinkedBlockingQueue<MyRecursiveTask<?>> submissions = new MyLinkedBlockingQueue<>();//外部线程提交的任务
+
+    private final AtomicInteger idleCount = new AtomicInteger();//正在park的工作线程数量
+
+    private volatile boolean shutdown;//是否已经关闭
+
+    /**
+     * 工作线程数量与CPU核数相同
+     */
+    public MyWorkStealingPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MyWorkStealingPool(int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException();
+        String prefix = "MyWorkStealingPool-" + poolNumber.getAndIncrement() + "-worker-";
+        workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            workers[i] = new Worker(this, i, prefix + i);
+        for (Worker w : workers)
+            w.start();
+    }
+
+    /**
+     * 公共池, 第一次使用时创建
+     * @return
+     */
+    public static MyWorkStealingPool commonPool() {
+        MyWorkStealingPool p = common;
+        if (p == null) {
+            synchronized (MyWorkStealingPool.class) {
+                if ((p = common) == null)
+                    common = p = new MyWorkStealingPool();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * 提交任务, 异步执行
+     * @param task
+     * @param <V>
+     * @return
+     */
+    public <V> MyRecursiveTask<V> submit(MyRecursiveTask<V> task) {
+        if (task == null)
+            throw new NullPointerException();
+        if (shutdown)
+            throw new RejectedExecutionException("pool is shutdown");
+        submissions.offer(task);
+        signalWork();
+        return task;
+    }
+
+    /**
+     * 提交任务并等待结果
+     *
+     * 在本池的工作线程中调用时直接执行, 避免工作线程阻塞等待自己所在的池
+     * @param task
+     * @param <V>
+     * @return
+     */
+    public <V> V invoke(MyRecursiveTask<V> task) {
+        Thread t = Thread.currentThread();
+        if (t instanceof Worker && ((Worker) t).pool == this)
+            return task.invoke();
+        return submit(task).join();
+    }
+
+    /**
+     * 有空闲线程时唤醒其中一个
+     */
+    void signalWork() {
+        if (idleCount.get() > 0) {
+            for (Worker w : workers) {
+                if (w.parked) {
+                    LockSupport.unpark(w);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否还有任何排队的任务 (外部提交队列或者任意一个工作线程的双端队列)
+     * @return
+     */
+    boolean hasQueuedTasks() {
+        if (submissions.size() > 0)
+            return true;
+        for (Worker w : workers)
+            if (!w.deque.isEmpty())
+                return true;
+        return false;
+    }
+
+    /**
+     * 不再接收新的外部任务, 已经提交的任务以及它们fork出的子任务会继续执行完
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Worker w : workers)
+            LockSupport.unpark(w);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * 等待所有工作线程退出
+     * @param timeout
+     * @param unit
+     * @return 超时之前是否全部退出
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker w : workers) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (millis <= 0)
+                return !w.isAlive() && isTerminated();
+            w.join(millis);
+            if (w.isAlive())
+                return false;
+        }
+        return true;
+    }
+
+    public boolean isTerminated() {
+        for (Worker w : workers)
+            if (w.isAlive())
+                return false;
+        return shutdown;
+    }
+
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * 所有工作线程成功窃取的次数之和, 数值远小于任务数说明大部分任务都在本地完成
+     * @return
+     */
+    public long getStealCount() {
+        long n = 0;
+        for (Worker w : workers)
+            n += w.stealCount;
+        return n;
+    }
+
+    /**
+     * 排队任务数量的估计值
+     * @return
+     */
+    public long getQueuedTaskCount() {
+        long n = submissions.size();
+        for (Worker w : workers)
+            n += w.deque.size();
+        return n;
+    }
+
+    /**
+     * 工作线程, 拥有一个自己的双端队列
+     */
+    static final class Worker extends Thread {
+        final MyWorkStealingPool pool;//所属的线程池
+
+        final MyWorkStealingDeque<MyRecursiveTask<?>> deque = new MyWorkStealingDeque<>();//自己的任务队列
+
+        final int index;//在workers中的下标
+
+        private int seed;//选择窃取对象的随机数种子 (xorshift)
+
+        volatile boolean parked;//是否正在空闲park
+
+        volatile long stealCount;//成功窃取的次数, 只有自己写入
+
+        Worker(MyWorkStealingPool pool, int index, String name) {
+            super(name);
+            this.pool = pool;
+            this.index = index;
+            this.seed = (index + 1) * 0x9E3779B9;
+            setDaemon(true);
+        }
+
+        /**
+         * fork时放入自己队列的底部, 并唤醒可能存在的空闲线程来窃取
+         * @param task
+         */
+        void push(MyRecursiveTask<?> task) {
+            deque.push(task);
+            pool.signalWork();
+        }
+
+        private int nextRandom() {
+            int r = seed;
+            r ^= r << 13;
+            r ^= r >>> 17;
+            r ^= r << 5;
+            return seed = r;
+        }
+
+        /**
+         * 从一个随机位置开始, 依次尝试窃取其他工作线程的任务
+         * @return
+         */
+        MyRecursiveTask<?> scan() {
+            Worker[] ws = pool.workers;
+            int n = ws.length;
+            if (n > 1) {
+                int origin = (nextRandom() & Integer.MAX_VALUE) % n;
+                for (int k = 0; k < n; k++) {
+                    Worker victim = ws[(origin + k) % n];
+                    if (victim != this) {
+                        MyRecursiveTask<?> task = victim.deque.steal();
+                        if (task != null) {
+                            stealCount++;
+                            return task;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 依次从自己的队列、其他线程的队列、外部提交队列中获取任务
+         * @return
+         */
+        private MyRecursiveTask<?> findTask() {
+            MyRecursiveTask<?> task = deque.pop();
+            if (task == null && (task = scan()) == null)
+                task = pool.submissions.poll();
+            return task;
+        }
+
+        /**
+         * 等待task完成, 期间执行自己队列中的任务或者窃取其他线程的任务
+         *
+         * 只帮忙执行双端队列中的任务, 不从外部提交队列取任务, 否则一个join可能在栈上嵌套执行任意多个无关的大任务
+         * @param task
+         */
+        void helpJoin(MyRecursiveTask<?> task) {
+            int spins = 0;
+            while (!task.isDone()) {
+                MyRecursiveTask<?> t = deque.pop();
+                if (t == null)
+                    t = scan();
+                if (t != null) {
+                    t.doExec();
+                    spins = 0;
+                } else if (++spins < HELP_SPINS)
+                    Thread.yield();
+                else
+                    LockSupport.parkNanos(this, 1000L);
+            }
+        }
+
+        @Override
+        public void run() {
+            final MyWorkStealingPool pool = this.pool;
+            for (;;) {
+                MyRecursiveTask<?> task = findTask();
+                if (task != null) {
+                    task.doExec();
+                    continue;
+                }
+                if (pool.shutdown && !pool.hasQueuedTasks())
+                    break;
+                // 先登记为空闲, 再检查一次是否有任务, 与signalWork配合避免大部分丢失唤醒的情况
+                parked = true;
+                pool.idleCount.incrementAndGet();
+                if (!pool.hasQueuedTasks() && !pool.shutdown)
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                pool.idleCount.decrementAndGet();
+                parked = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.whl.thread.threadPool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 固定内存的并发延迟直方图
+ * @Description:
+ *
+ * 平均值会掩盖长尾, 调整线程池大小时真正需要的是p99、p999这类分位数; 但保存所有样本再排序的开销太大
+ * 这里与HdrHistogram的思路相同, 按照数值的量级划分桶, 每个桶只记录计数:
+ *     [0, 16) 之间每个整数一个桶
+ *     [2^k, 2^(k+1)) 之间 (k >= 4) 等分为8个桶, 每个桶的宽度为 2^(k-3)
+ * 因此任意数值落入的桶, 其上下界之差不超过数值的1/8, 分位数的相对误差不超过12.5%
+ * 覆盖整个long范围只需要 16 + 59 * 8 = 488 个桶, 记录一次只需要几次位运算加一次原子加
+ *
+ * 读取分位数时各个桶的计数是逐个读取的, 与并发的record之间不是一个原子快照, 但误差最多是读取期间新记录的样本
+ */
+public class MyLatencyHistogram {
+    //每个2的幂次区间划分的桶数为 2^SUB_BUCKET_BITS
+    static final int SUB_BUCKET_BITS = 3;
+
+    //小于这个值的数值各占一个桶
+    static final int LINEAR_LIMIT = 1 << (SUB_BUCKET_BITS + 1);
+
+    //桶的总数
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - (SUB_BUCKET_BITS + 1)) * (1 << SUB_BUCKET_BITS);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);//每个桶的计数
+
+    private final LongAdder count = new LongAdder();//样本数量
+
+    private final LongAdder sum = new LongAdder();//样本之和, 用于计算平均值
+
+    private final AtomicLong max = new AtomicLong();//最大值
+
+    /**
+     * 数值所在的桶
+     * @param value
+     * @return
+     */
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & ((1 << SUB_BUCKET_BITS) - 1);
+        return LINEAR_LIMIT + ((exp - (SUB_BUCKET_BITS + 1)) << SUB_BUCKET_BITS) + sub;
+    }
+
+    /**
+     * 桶内的最大数值, 分位数返回这个值, 也就是偏保守的估计
+     * @param index
+     * @return
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT)
+            return index;
+        int i = index - LINEAR_LIMIT;
+        int exp = (i >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS + 1;
+        int sub = i & ((1 << SUB_BUCKET_BITS) - 1);
+        int shift = exp - SUB_BUCKET_BITS;
+        long lower = ((long) ((1 << SUB_BUCKET_BITS) + sub)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * 记录一个样本, 负数按0处理 (nanoTime的差值在极端情况下可能为负)
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.getAndIncrement(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value))
+            ;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * 分位数, 例如 percentile(99.0) 返回p99
+     *
+     * 结果是样本所在桶的上界, 不会超过记录过的最大值
+     * @param percentile 0到100之间
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0)
+            throw new IllegalArgumentException("percentile: " + percentile);
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            total += (snapshot[i] = buckets.get(i));
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if ((seen += snapshot[i]) >= rank)
+                return Math.min(bucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * 清空所有样本, 与并发的record之间不是原子的
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * 以纳秒记录的样本, 按照指定的时间单位输出常用分位数
+     * @param unit
+     * @return
+     */
+    public String toString(TimeUnit unit) {
+        long n = unit.toNanos(1);
+        return "{count=" + getCount()
+                + ", mean=" + String.format("%.2f", getMean() / n)
+                + ", p50=" + getValueAtPercentile(50.0) / (double) n
+                + ", p90=" + getValueAtPercentile(90.0) / (double) n
+                + ", p99=" + getValueAtPercentile(99.0) / (double) n
+                + ", p999=" + getValueAtPercentile(99.9) / (double) n
+                + ", max=" + getMax() / (double) n
+                + ", unit=" + unit + "}";
+    }
+
+    @Override
+    public String toString() {
+        return toString(TimeUnit.MICROSECONDS);
+    }
+}
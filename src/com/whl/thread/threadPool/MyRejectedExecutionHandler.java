@@ -0,0 +1,19 @@
+package com.whl.thread.threadPool;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 线程池的拒绝策略
+ * @Description:
+ *
+ * 线程池已经关闭, 或者队列已满并且线程数已经达到maximumPoolSize时, execute会调用这个接口处理无法接收的任务
+ * 常用的实现参见MyThreadPoolExecutor中的AbortPolicy、CallerRunsPolicy、DiscardPolicy、DiscardOldestPolicy
+ */
+public interface MyRejectedExecutionHandler {
+    /**
+     * 处理被拒绝的任务, 可以抛出RejectedExecutionException
+     * @param r
+     * @param executor
+     */
+    void rejectedExecution(Runnable r, MyThreadPoolExecutor executor);
+}
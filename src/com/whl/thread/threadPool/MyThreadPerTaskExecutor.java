@@ -0,0 +1,146 @@
+package com.whl.thread.threadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 每个任务一个线程的执行器 (虚拟线程模式)
+ * @Description:
+ *
+ * 线程池存在的意义是复用昂贵的平台线程, 并通过线程数限制并发; 虚拟线程的创建成本只有几百字节加一次对象分配, 不需要也不应该池化
+ * 因此虚拟线程模式下不使用MyThreadPoolExecutor, 而是每提交一个任务就创建一个新的虚拟线程, 任务结束线程也就结束了
+ * 需要限制并发 (例如访问数据库连接) 时, 应当在任务内部使用信号量, 或者通过有界的MyArrayBlockingQueue传递数据, 而不是限制线程数
+ *
+ * 通过newVirtualThreadPerTaskExecutor创建虚拟线程模式; 也可以传入任意ThreadFactory, 此时每个任务使用一个新的平台线程, 便于对比
+ *
+ * 所有已经启动的线程保存在threads中:
+ *     shutdown之后不再接收新任务, threads为空时终止
+ *     shutdownNow会中断所有线程, 由于没有任务队列, 返回值总是空列表
+ */
+public class MyThreadPerTaskExecutor extends AbstractExecutorService {
+    private static final int RUNNING = 0;
+
+    private static final int SHUTDOWN = 1;
+
+    private static final int TERMINATED = 2;
+
+    private final ThreadFactory factory;//为每个任务创建线程
+
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();//已经启动并且还没有结束的线程
+
+    private final AtomicInteger state = new AtomicInteger(RUNNING);//执行器状态
+
+    private final CountDownLatch terminationSignal = new CountDownLatch(1);//终止时countDown
+
+    public MyThreadPerTaskExecutor(ThreadFactory factory) {
+        if (factory == null)
+            throw new NullPointerException();
+        this.factory = factory;
+    }
+
+    /**
+     * 虚拟线程模式, 每个任务一个新的虚拟线程
+     * @return
+     * @throws UnsupportedOperationException 当前JDK不支持虚拟线程
+     */
+    public static MyThreadPerTaskExecutor newVirtualThreadPerTaskExecutor() {
+        return new MyThreadPerTaskExecutor(MyVirtualThreads.newThreadFactory("virtual-"));
+    }
+
+    /**
+     * 满足条件时进入TERMINATED状态
+     */
+    private void tryTerminate() {
+        if (state.get() == SHUTDOWN && threads.isEmpty() && state.compareAndSet(SHUTDOWN, TERMINATED))
+            terminationSignal.countDown();
+    }
+
+    /**
+     * 为任务创建并启动一个新线程
+     *
+     * 先将线程加入threads再检查状态, 与shutdown之后的tryTerminate配合:
+     * 要么shutdown能在threads中看到这个线程 (等待它结束), 要么这里能看到SHUTDOWN (拒绝并移除)
+     * @param command
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+        if (state.get() >= SHUTDOWN)
+            throw new RejectedExecutionException("Executor is shutdown");
+        Thread thread = factory.newThread(() -> {
+            try {
+                command.run();
+            } finally {
+                threads.remove(Thread.currentThread());
+                tryTerminate();
+            }
+        });
+        if (thread == null)
+            throw new RejectedExecutionException("ThreadFactory returned null");
+        threads.add(thread);
+        boolean started = false;
+        try {
+            if (state.get() >= SHUTDOWN)
+                throw new RejectedExecutionException("Executor is shutdown");
+            thread.start();
+            started = true;
+        } finally {
+            if (!started) {
+                threads.remove(thread);
+                tryTerminate();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        state.compareAndSet(RUNNING, SHUTDOWN);
+        tryTerminate();
+    }
+
+    /**
+     * 关闭并中断所有正在执行的线程
+     * @return 总是空列表
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        for (Thread t : threads)
+            t.interrupt();
+        return new ArrayList<>();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return state.get() >= SHUTDOWN;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return state.get() == TERMINATED;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminationSignal.await(timeout, unit);
+    }
+
+    /**
+     * 正在执行的线程数
+     * @return
+     */
+    public int getThreadCount() {
+        return threads.size();
+    }
+}
@@ -0,0 +1,1134 @@
+package com.whl.thread.threadPool;
+
+import com.whl.thread.blockingQueue.MyBlokingQueue;
+import com.whl.thread.blockingQueue.MyRingQueue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: JDK1.8 线程池 (任务队列基于MyBlokingQueue)
+ * @Description:
+ *
+ * 整体结构与JDK1.8的ThreadPoolExecutor相同, 只是任务队列换成了MyBlokingQueue, 因此可以直接使用:
+ *     MyArrayBlockingQueue / MyPaddedArrayBlockingQueue: 有界, 单锁
+ *     MyLinkedBlockingQueue: 可以有界也可以无界, 入队与出队两把锁
+ *     MyMpmcRingQueue: 有界, 无锁, 适合任务非常密集、不希望线程频繁park的场景
+ *         环形队列没有Condition, 它的take会按照MyWaitStrategy无限空转 (默认的YIELD策略下, 每个空闲线程都会占满一个核心)
+ *         因此线程池不会调用它的take, 而是先按照等待策略空转一小段时间, 仍然没有任务时park, 由execute入队之后唤醒, 参见pollRingQueue
+ * 注意MySpscRingQueue、MyMpscRingQueue只允许一个消费者, 不能作为多个工作线程共享的任务队列
+ *
+ * execute的处理流程:
+ *     1. 线程数 < corePoolSize: 创建新线程执行这个任务
+ *     2. 否则尝试入队, 入队成功之后再检查一次线程池状态 (入队期间可能被shutdown, 或者所有线程都已经退出)
+ *     3. 入队失败 (队列已满): 线程数 < maximumPoolSize 时创建新线程, 否则交给拒绝策略
+ *
+ * ctl是一个AtomicInteger, 高3位保存线程池状态, 低29位保存线程数, 这样二者可以在一次CAS中同时检查、修改:
+ *     RUNNING:    接收新任务, 处理队列中的任务
+ *     SHUTDOWN:   不接收新任务, 但处理队列中的任务
+ *     STOP:       不接收新任务, 不处理队列中的任务, 中断正在执行的任务
+ *     TIDYING:    所有任务都已经终止, 线程数为0, 即将调用terminated()
+ *     TERMINATED: terminated()已经执行完毕
+ *
+ * 除了JDK提供的统计之外, 每个线程池还记录了:
+ *     排队耗时直方图: 任务从execute到开始执行之间的时间, 持续升高说明线程数不足
+ *     执行耗时直方图: 任务run方法的耗时
+ *     拒绝次数
+ * 为了记录排队耗时, 任务入队之前会被包装为QueuedTask, 因此通过getQueue直接访问队列时看到的是包装之后的对象
+ */
+public class MyThreadPoolExecutor extends AbstractExecutorService {
+    private final AtomicInteger ctl = new AtomicInteger(ctlOf(RUNNING, 0));//线程池状态与线程数
+
+    private static final int COUNT_BITS = Integer.SIZE - 3;//线程数占用的位数
+
+    private static final int CAPACITY = (1 << COUNT_BITS) - 1;//线程数的上限
+
+    private static final int RUNNING = -1 << COUNT_BITS;
+
+    private static final int SHUTDOWN = 0 << COUNT_BITS;
+
+    private static final int STOP = 1 << COUNT_BITS;
+
+    private static final int TIDYING = 2 << COUNT_BITS;
+
+    private static final int TERMINATED = 3 << COUNT_BITS;
+
+    private static int runStateOf(int c) {
+        return c & ~CAPACITY;
+    }
+
+    private static int workerCountOf(int c) {
+        return c & CAPACITY;
+    }
+
+    private static int ctlOf(int rs, int wc) {
+        return rs | wc;
+    }
+
+    private static boolean runStateLessThan(int c, int s) {
+        return c < s;
+    }
+
+    private static boolean runStateAtLeast(int c, int s) {
+        return c >= s;
+    }
+
+    private static boolean isRunning(int c) {
+        return c < SHUTDOWN;
+    }
+
+    private boolean compareAndIncrementWorkerCount(int expect) {
+        return ctl.compareAndSet(expect, expect + 1);
+    }
+
+    private boolean compareAndDecrementWorkerCount(int expect) {
+        return ctl.compareAndSet(expect, expect - 1);
+    }
+
+    /**
+     * 线程意外退出时减少线程数, 正常退出时在getTask中已经减少过了
+     */
+    private void decrementWorkerCount() {
+        do {
+        } while (!compareAndDecrementWorkerCount(ctl.get()));
+    }
+
+    private final MyBlokingQueue<Runnable> workQueue;//任务队列, 保存的是QueuedTask
+
+    private final ReentrantLock mainLock = new ReentrantLock();//访问workers以及统计数据时使用的锁
+
+    private final HashSet<Worker> workers = new HashSet<>();//所有工作线程, 只有持有mainLock时才能访问
+
+    private final Condition termination = mainLock.newCondition();//awaitTermination等待的条件
+
+    private int largestPoolSize;//线程数的历史最大值, 只有持有mainLock时才能访问
+
+    private long completedTaskCount;//已经退出的线程完成的任务数, 只有持有mainLock时才能访问
+
+    private volatile ThreadFactory threadFactory;//创建工作线程的工厂
+
+    private volatile MyRejectedExecutionHandler handler;//拒绝策略
+
+    private volatile long keepAliveTime;//超过corePoolSize的空闲线程 (或者allowCoreThreadTimeOut时的所有线程) 的最长空闲时间, 单位纳秒
+
+    private volatile boolean allowCoreThreadTimeOut;//核心线程空闲超时之后是否也退出
+
+    private volatile int corePoolSize;//核心线程数
+
+    private volatile int maximumPoolSize;//最大线程数
+
+    private final MyLatencyHistogram queueLatency = new MyLatencyHistogram();//排队耗时, 单位纳秒
+
+    private final MyLatencyHistogram executionLatency = new MyLatencyHistogram();//执行耗时, 单位纳秒
+
+    private final LongAdder rejectedCount = new LongAdder();//被拒绝的任务数
+
+    private final MyRingQueue<Runnable> ringQueue;//workQueue为无锁环形队列时指向它, 否则为null
+
+    private final ReentrantLock idleLock = new ReentrantLock();//环形队列为空时, 空闲线程park使用的锁
+
+    private final Condition taskAvailable = idleLock.newCondition();//环形队列为空时, 空闲线程等待新任务的条件
+
+    private final AtomicInteger idleWaiters = new AtomicInteger();//正在(或即将)在taskAvailable上等待的线程数
+
+    //环形队列为空时, 进入park之前按照队列的等待策略空转的最长时间
+    static final long IDLE_SPIN_NANOS = 50_000L;
+
+    //环形队列为空时每次park的最长时间, 即使出现意外的丢失唤醒, 任务最多也只会延迟这么久
+    static final long IDLE_PARK_NANOS = 10_000_000L;
+
+    //默认的拒绝策略
+    private static final MyRejectedExecutionHandler defaultHandler = new AbortPolicy();
+
+    public MyThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                MyBlokingQueue<Runnable> workQueue) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+                Executors.defaultThreadFactory(), defaultHandler);
+    }
+
+    public MyThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                MyBlokingQueue<Runnable> workQueue, MyRejectedExecutionHandler handler) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+                Executors.defaultThreadFactory(), handler);
+    }
+
+    /**
+     * @param corePoolSize 核心线程数, 即使空闲也会保留 (除非allowCoreThreadTimeOut)
+     * @param maximumPoolSize 最大线程数, 只有队列已满时才会创建超过corePoolSize的线程
+     * @param keepAliveTime 超过corePoolSize的线程的最长空闲时间
+     * @param unit
+     * @param workQueue 任务队列, 必须允许多个线程同时出队
+     * @param threadFactory
+     * @param handler 拒绝策略
+     */
+    public MyThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                MyBlokingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                MyRejectedExecutionHandler handler) {
+        if (corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize || keepAliveTime < 0)
+            throw new IllegalArgumentException();
+        if (workQueue == null || threadFactory == null || handler == null)
+            throw new NullPointerException();
+        this.corePoolSize = corePoolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.workQueue = workQueue;
+        this.ringQueue = workQueue instanceof MyRingQueue ? (MyRingQueue<Runnable>) workQueue : null;
+        this.keepAliveTime = unit.toNanos(keepAliveTime);
+        this.threadFactory = threadFactory;
+        this.handler = handler;
+    }
+
+    /**
+     * 入队之前的任务包装, 记录提交时间, 用于统计排队耗时
+     */
+    static final class QueuedTask implements Runnable {
+        final Runnable command;//原始任务
+
+        final long submitNanos;//提交时的System.nanoTime()
+
+        QueuedTask(Runnable command, long submitNanos) {
+            this.command = command;
+            this.submitNanos = submitNanos;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+    }
+
+    /**
+     * 工作线程
+     *
+     * 继承AQS实现了一个不可重入的独占锁: 执行任务期间持有锁, 从队列获取任务期间不持有锁
+     * 因此interruptIdleWorkers可以通过tryLock判断线程是否空闲, 只中断空闲的线程, 不会中断正在执行的任务
+     * 不使用ReentrantLock是因为任务中调用setCorePoolSize之类的方法时, 不能让它重新获取锁并中断自己
+     *
+     * state初始为-1, runWorker开始之前不允许中断
+     */
+    private final class Worker extends AbstractQueuedSynchronizer implements Runnable {
+        private static final long serialVersionUID = 6138294804551838833L;
+
+        final Thread thread;//工作线程, 线程工厂失败时为null
+
+        Runnable firstTask;//创建时指定的第一个任务, 可能为null
+
+        volatile long completedTasks;//这个线程完成的任务数
+
+        Worker(Runnable firstTask) {
+            setState(-1);
+            this.firstTask = firstTask;
+            this.thread = getThreadFactory().newThread(this);
+        }
+
+        @Override
+        public void run() {
+            runWorker(this);
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getState() != 0;
+        }
+
+        @Override
+        protected boolean tryAcquire(int unused) {
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int unused) {
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+
+        void lock() {
+            acquire(1);
+        }
+
+        boolean tryLock() {
+            return tryAcquire(1);
+        }
+
+        void unlock() {
+            release(1);
+        }
+
+        boolean isLocked() {
+            return isHeldExclusively();
+        }
+
+        void interruptIfStarted() {
+            Thread t;
+            if (getState() >= 0 && (t = thread) != null && !t.isInterrupted()) {
+                try {
+                    t.interrupt();
+                } catch (SecurityException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 将线程池状态推进到至少targetState
+     * @param targetState SHUTDOWN或者STOP
+     */
+    private void advanceRunState(int targetState) {
+        for (;;) {
+            int c = ctl.get();
+            if (runStateAtLeast(c, targetState) ||
+                    ctl.compareAndSet(c, ctlOf(targetState, workerCountOf(c))))
+                break;
+        }
+    }
+
+    /**
+     * 满足条件时将线程池状态推进到TERMINATED
+     *
+     * 只有 (SHUTDOWN并且队列为空) 或者STOP, 并且线程数为0时才能终止
+     * 线程数不为0时中断一个空闲线程, 让它退出并再次调用tryTerminate, 这样关闭信号可以在线程之间传递下去
+     * 每个可能导致终止的操作 (线程退出、shutdown期间从队列删除任务) 之后都要调用这个方法
+     */
+    final void tryTerminate() {
+        for (;;) {
+            int c = ctl.get();
+            if (isRunning(c) ||
+                    runStateAtLeast(c, TIDYING) ||
+                    (runStateOf(c) == SHUTDOWN && !workQueue.isEmpty()))
+                return;
+            if (workerCountOf(c) != 0) {
+                interruptIdleWorkers(true);
+                return;
+            }
+
+            final ReentrantLock mainLock = this.mainLock;
+            mainLock.lock();
+            try {
+                if (ctl.compareAndSet(c, ctlOf(TIDYING, 0))) {
+                    try {
+                        terminated();
+                    } finally {
+                        ctl.set(ctlOf(TERMINATED, 0));
+                        termination.signalAll();
+                    }
+                    return;
+                }
+            } finally {
+                mainLock.unlock();
+            }
+            // CAS失败, 重试
+        }
+    }
+
+    /**
+     * 中断所有已经启动的线程, 包括正在执行任务的线程
+     */
+    private void interruptWorkers() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            for (Worker w : workers)
+                w.interruptIfStarted();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 中断空闲 (正在等待任务) 的线程, 让它们重新检查线程池状态或者配置
+     * @param onlyOne 只中断一个
+     */
+    private void interruptIdleWorkers(boolean onlyOne) {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            for (Worker w : workers) {
+                Thread t = w.thread;
+                if (!t.isInterrupted() && w.tryLock()) {
+                    try {
+                        t.interrupt();
+                    } catch (SecurityException ignore) {
+                    } finally {
+                        w.unlock();
+                    }
+                }
+                if (onlyOne)
+                    break;
+            }
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    private void interruptIdleWorkers() {
+        interruptIdleWorkers(false);
+    }
+
+    /**
+     * 调用拒绝策略
+     * @param command
+     */
+    final void reject(Runnable command) {
+        rejectedCount.increment();
+        handler.rejectedExecution(command, this);
+    }
+
+    /**
+     * 取出队列中所有剩余的任务, 并还原为提交时的原始任务
+     * @return
+     */
+    private List<Runnable> drainQueue() {
+        List<Runnable> drained = new ArrayList<>();
+        workQueue.drainTo(drained);
+        for (int i = 0; i < drained.size(); i++)
+            drained.set(i, unwrap(drained.get(i)));
+        return drained;
+    }
+
+    private static Runnable unwrap(Runnable r) {
+        return (r instanceof QueuedTask) ? ((QueuedTask) r).command : r;
+    }
+
+    /**
+     * 尝试创建一个新线程, 并以firstTask作为它的第一个任务
+     *
+     * 1. 检查线程池状态: 只有RUNNING, 或者 (SHUTDOWN并且firstTask为null并且队列不为空, 即为了处理剩余任务补充线程) 时才能创建
+     * 2. CAS增加线程数, 线程数超过corePoolSize或者maximumPoolSize (由core决定) 时失败
+     * 3. 持有mainLock将线程加入workers并启动
+     * 4. 启动失败时回滚
+     * @param firstTask
+     * @param core
+     * @return
+     */
+    private boolean addWorker(Runnable firstTask, boolean core) {
+        retry:
+        for (;;) {
+            int c = ctl.get();
+            int rs = runStateOf(c);
+
+            if (rs >= SHUTDOWN &&
+                    !(rs == SHUTDOWN && firstTask == null && !workQueue.isEmpty()))
+                return false;
+
+            for (;;) {
+                int wc = workerCountOf(c);
+                if (wc >= CAPACITY || wc >= (core ? corePoolSize : maximumPoolSize))
+                    return false;
+                if (compareAndIncrementWorkerCount(c))
+                    break retry;
+                c = ctl.get();
+                if (runStateOf(c) != rs)
+                    continue retry;
+                // 线程数变化导致CAS失败, 重试内层循环
+            }
+        }
+
+        boolean workerStarted = false;
+        boolean workerAdded = false;
+        Worker w = null;
+        try {
+            w = new Worker(firstTask);
+            final Thread t = w.thread;
+            if (t != null) {
+                final ReentrantLock mainLock = this.mainLock;
+                mainLock.lock();
+                try {
+                    int rs = runStateOf(ctl.get());
+                    if (rs < SHUTDOWN || (rs == SHUTDOWN && firstTask == null)) {
+                        if (t.isAlive())
+                            throw new IllegalThreadStateException();
+                        workers.add(w);
+                        int s = workers.size();
+                        if (s > largestPoolSize)
+                            largestPoolSize = s;
+                        workerAdded = true;
+                    }
+                } finally {
+                    mainLock.unlock();
+                }
+                if (workerAdded) {
+                    t.start();
+                    workerStarted = true;
+                }
+            }
+        } finally {
+            if (!workerStarted)
+                addWorkerFailed(w);
+        }
+        return workerStarted;
+    }
+
+    /**
+     * 回滚addWorker: 从workers中删除, 减少线程数, 然后检查是否需要终止
+     * @param w
+     */
+    private void addWorkerFailed(Worker w) {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            if (w != null)
+                workers.remove(w);
+            decrementWorkerCount();
+            tryTerminate();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 工作线程退出时的清理
+     *
+     * 如果是因为任务抛出异常而退出 (completedAbruptly), 或者剩余线程数低于最小值, 需要补充一个新线程
+     * 最小值为corePoolSize (allowCoreThreadTimeOut时为0), 但只要队列中还有任务, 至少保留一个线程
+     * @param w
+     * @param completedAbruptly
+     */
+    private void processWorkerExit(Worker w, boolean completedAbruptly) {
+        if (completedAbruptly)
+            decrementWorkerCount();
+
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            completedTaskCount += w.completedTasks;
+            workers.remove(w);
+        } finally {
+            mainLock.unlock();
+        }
+
+        tryTerminate();
+
+        int c = ctl.get();
+        if (runStateLessThan(c, STOP)) {
+            if (!completedAbruptly) {
+                int min = allowCoreThreadTimeOut ? 0 : corePoolSize;
+                if (min == 0 && !workQueue.isEmpty())
+                    min = 1;
+                if (workerCountOf(c) >= min)
+                    return;
+            }
+            addWorker(null, false);
+        }
+    }
+
+    /**
+     * 从队列中获取任务, 返回null表示这个线程应该退出 (此时已经减少了线程数):
+     *     1. 线程池STOP, 或者SHUTDOWN并且队列为空
+     *     2. 线程数超过了maximumPoolSize (运行期间调用了setMaximumPoolSize)
+     *     3. 这个线程允许超时 (线程数 > corePoolSize或者allowCoreThreadTimeOut), 并且上一次等待已经超时
+     * 满足2、3时, 只要不是最后一个线程, 或者队列为空, 就可以退出
+     * @return
+     */
+    private Runnable getTask() {
+        boolean timedOut = false;
+
+        for (;;) {
+            int c = ctl.get();
+            int rs = runStateOf(c);
+
+            if (rs >= SHUTDOWN && (rs >= STOP || workQueue.isEmpty())) {
+                decrementWorkerCount();
+                return null;
+            }
+
+            int wc = workerCountOf(c);
+            boolean timed = allowCoreThreadTimeOut || wc > corePoolSize;
+
+            if ((wc > maximumPoolSize || (timed && timedOut))
+                    && (wc > 1 || workQueue.isEmpty())) {
+                if (compareAndDecrementWorkerCount(c))
+                    return null;
+                continue;
+            }
+
+            try {
+                Runnable r = ringQueue != null ? pollRingQueue(timed, keepAliveTime) :
+                        timed ? workQueue.poll(keepAliveTime, TimeUnit.NANOSECONDS) :
+                        workQueue.take();
+                if (r != null)
+                    return r;
+                timedOut = true;
+            } catch (InterruptedException retry) {
+                timedOut = false;
+            }
+        }
+    }
+
+    /**
+     * 从无锁环形队列中获取任务
+     *
+     * 先按照队列的等待策略空转最多IDLE_SPIN_NANOS (任务密集时不需要park), 仍然没有任务时在taskAvailable上park, 由execute入队之后唤醒
+     * 防止丢失唤醒: 这里先增加idleWaiters再检查队列是否为空, execute先入队 (通过CAS推进tail) 再读取idleWaiters
+     * 两边都是volatile读写, 因此要么execute看到idleWaiters > 0并唤醒, 要么这里看到队列非空而不去park
+     * @param timed 是否有超时
+     * @param nanos 超时时间
+     * @return 超时之后返回null
+     * @throws InterruptedException
+     */
+    private Runnable pollRingQueue(boolean timed, long nanos) throws InterruptedException {
+        final MyRingQueue<Runnable> q = ringQueue;
+        final long deadline = System.nanoTime() + nanos;
+        for (;;) {
+            long spin = IDLE_SPIN_NANOS, park = IDLE_PARK_NANOS;
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return q.poll();
+                spin = Math.min(spin, remaining);
+            }
+            Runnable r = q.poll(spin, TimeUnit.NANOSECONDS);
+            if (r != null)
+                return r;
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return null;
+                park = Math.min(park, remaining);
+            }
+            final ReentrantLock idleLock = this.idleLock;
+            idleLock.lockInterruptibly();
+            try {
+                idleWaiters.incrementAndGet();
+                try {
+                    if (q.isEmpty())
+                        taskAvailable.awaitNanos(park);
+                } finally {
+                    idleWaiters.decrementAndGet();
+                }
+            } finally {
+                idleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 任务进入环形队列之后, 唤醒一个在pollRingQueue中park的线程
+     */
+    private void signalIdleWorker() {
+        if (ringQueue != null && idleWaiters.get() > 0) {
+            final ReentrantLock idleLock = this.idleLock;
+            idleLock.lock();
+            try {
+                taskAvailable.signal();
+            } finally {
+                idleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 工作线程的主循环
+     *
+     * 不断从getTask获取任务并执行, 执行期间持有Worker的锁, 这样interruptIdleWorkers不会中断正在执行的任务
+     * 执行之前确保: 线程池STOP时线程处于中断状态, 否则清除中断状态 (中断可能是shutdown期间的interruptIdleWorkers留下的)
+     * 任务抛出的异常会在afterExecute之后重新抛出, 导致这个线程退出, 由processWorkerExit补充新线程
+     * @param w
+     */
+    final void runWorker(Worker w) {
+        Thread wt = Thread.currentThread();
+        Runnable task = w.firstTask;
+        w.firstTask = null;
+        w.unlock(); // state从-1变为0, 允许中断
+        boolean completedAbruptly = true;
+        try {
+            while (task != null || (task = getTask()) != null) {
+                w.lock();
+                if ((runStateAtLeast(ctl.get(), STOP) ||
+                        (Thread.interrupted() &&
+                                runStateAtLeast(ctl.get(), STOP))) &&
+                        !wt.isInterrupted())
+                    wt.interrupt();
+                try {
+                    Runnable command = unwrap(task);
+                    long start = System.nanoTime();
+                    if (task instanceof QueuedTask)
+                        queueLatency.record(start - ((QueuedTask) task).submitNanos);
+                    beforeExecute(wt, command);
+                    Throwable thrown = null;
+                    try {
+                        command.run();
+                    } catch (RuntimeException x) {
+                        thrown = x;
+                        throw x;
+                    } catch (Error x) {
+                        thrown = x;
+                        throw x;
+                    } catch (Throwable x) {
+                        thrown = x;
+                        throw new Error(x);
+                    } finally {
+                        executionLatency.record(System.nanoTime() - start);
+                        afterExecute(command, thrown);
+                    }
+                } finally {
+                    task = null;
+                    w.completedTasks++;
+                    w.unlock();
+                }
+            }
+            completedAbruptly = false;
+        } finally {
+            processWorkerExit(w, completedAbruptly);
+        }
+    }
+
+    /**
+     * 提交任务, 按照类注释中的三个步骤处理
+     * @param command
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+        QueuedTask task = new QueuedTask(command, System.nanoTime());
+        int c = ctl.get();
+        if (workerCountOf(c) < corePoolSize) {
+            if (addWorker(task, true))
+                return;
+            c = ctl.get();
+        }
+        if (isRunning(c) && workQueue.offer(task)) {
+            signalIdleWorker();
+            int recheck = ctl.get();
+            // 入队之后线程池被关闭, 尝试撤回任务; 队列不支持remove (无锁环形队列) 时任务会留在队列中被处理掉
+            if (!isRunning(recheck) && removeQueued(task))
+                reject(command);
+            else if (workerCountOf(recheck) == 0)
+                addWorker(null, false);
+        } else if (!addWorker(task, false))
+            reject(command);
+    }
+
+    /**
+     * 从队列中删除一个已经入队的任务
+     * @param task
+     * @return
+     */
+    private boolean removeQueued(Runnable task) {
+        boolean removed;
+        try {
+            removed = workQueue.remove(task);
+        } catch (UnsupportedOperationException e) {
+            removed = false;
+        }
+        tryTerminate();
+        return removed;
+    }
+
+    /**
+     * 有序关闭: 不再接收新任务, 已经提交的任务会继续执行, 不等待它们执行完
+     */
+    @Override
+    public void shutdown() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            advanceRunState(SHUTDOWN);
+            interruptIdleWorkers();
+            onShutdown();
+        } finally {
+            mainLock.unlock();
+        }
+        tryTerminate();
+    }
+
+    /**
+     * 立即关闭: 中断所有线程, 返回队列中还没有执行的任务
+     * @return
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks;
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            advanceRunState(STOP);
+            interruptWorkers();
+            tasks = drainQueue();
+        } finally {
+            mainLock.unlock();
+        }
+        tryTerminate();
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return !isRunning(ctl.get());
+    }
+
+    /**
+     * 是否正在关闭, 也就是已经shutdown但还没有终止
+     * @return
+     */
+    public boolean isTerminating() {
+        int c = ctl.get();
+        return !isRunning(c) && runStateLessThan(c, TERMINATED);
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return runStateAtLeast(ctl.get(), TERMINATED);
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            for (;;) {
+                if (runStateAtLeast(ctl.get(), TERMINATED))
+                    return true;
+                if (nanos <= 0)
+                    return false;
+                nanos = termination.awaitNanos(nanos);
+            }
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * shutdown时调用的钩子
+     */
+    void onShutdown() {
+    }
+
+    /**
+     * 任务执行之前在工作线程中调用的钩子
+     * @param t
+     * @param r
+     */
+    protected void beforeExecute(Thread t, Runnable r) {
+    }
+
+    /**
+     * 任务执行之后在工作线程中调用的钩子, t为任务抛出的异常 (没有时为null)
+     * @param r
+     * @param t
+     */
+    protected void afterExecute(Runnable r, Throwable t) {
+    }
+
+    /**
+     * 线程池终止时调用的钩子
+     */
+    protected void terminated() {
+    }
+
+    /**
+     * 预先启动一个核心线程
+     * @return
+     */
+    public boolean prestartCoreThread() {
+        return workerCountOf(ctl.get()) < corePoolSize && addWorker(null, true);
+    }
+
+    /**
+     * 预先启动所有核心线程
+     * @return 启动的线程数
+     */
+    public int prestartAllCoreThreads() {
+        int n = 0;
+        while (addWorker(null, true))
+            ++n;
+        return n;
+    }
+
+    /**
+     * 修改核心线程数: 减小时中断空闲线程让多余的线程退出, 增大时按照队列中的任务数补充线程
+     * @param corePoolSize
+     */
+    public void setCorePoolSize(int corePoolSize) {
+        if (corePoolSize < 0 || maximumPoolSize < corePoolSize)
+            throw new IllegalArgumentException();
+        int delta = corePoolSize - this.corePoolSize;
+        this.corePoolSize = corePoolSize;
+        if (workerCountOf(ctl.get()) > corePoolSize)
+            interruptIdleWorkers();
+        else if (delta > 0) {
+            int k = Math.min(delta, workQueue.size());
+            while (k-- > 0 && addWorker(null, true)) {
+                if (workQueue.isEmpty())
+                    break;
+            }
+        }
+    }
+
+    public int getCorePoolSize() {
+        return corePoolSize;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        if (maximumPoolSize <= 0 || maximumPoolSize < corePoolSize)
+            throw new IllegalArgumentException();
+        this.maximumPoolSize = maximumPoolSize;
+        if (workerCountOf(ctl.get()) > maximumPoolSize)
+            interruptIdleWorkers();
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public void setKeepAliveTime(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException();
+        if (time == 0 && allowsCoreThreadTimeOut())
+            throw new IllegalArgumentException("Core threads must have nonzero keep alive times");
+        long keepAliveTime = unit.toNanos(time);
+        long delta = keepAliveTime - this.keepAliveTime;
+        this.keepAliveTime = keepAliveTime;
+        if (delta < 0)
+            interruptIdleWorkers();
+    }
+
+    public long getKeepAliveTime(TimeUnit unit) {
+        return unit.convert(keepAliveTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 核心线程空闲超过keepAliveTime之后是否也退出
+     * @param value
+     */
+    public void allowCoreThreadTimeOut(boolean value) {
+        if (value && keepAliveTime <= 0)
+            throw new IllegalArgumentException("Core threads must have nonzero keep alive times");
+        if (value != allowCoreThreadTimeOut) {
+            allowCoreThreadTimeOut = value;
+            if (value)
+                interruptIdleWorkers();
+        }
+    }
+
+    public boolean allowsCoreThreadTimeOut() {
+        return allowCoreThreadTimeOut;
+    }
+
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null)
+            throw new NullPointerException();
+        this.threadFactory = threadFactory;
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    public void setRejectedExecutionHandler(MyRejectedExecutionHandler handler) {
+        if (handler == null)
+            throw new NullPointerException();
+        this.handler = handler;
+    }
+
+    public MyRejectedExecutionHandler getRejectedExecutionHandler() {
+        return handler;
+    }
+
+    /**
+     * 任务队列, 其中的元素是包装之后的QueuedTask
+     * @return
+     */
+    public MyBlokingQueue<Runnable> getQueue() {
+        return workQueue;
+    }
+
+    /* ---------------- 统计 -------------- */
+
+    /**
+     * 队列深度, 即排队等待执行的任务数
+     * @return
+     */
+    public int getQueueSize() {
+        return workQueue.size();
+    }
+
+    /**
+     * 当前线程数
+     * @return
+     */
+    public int getPoolSize() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            return runStateAtLeast(ctl.get(), TIDYING) ? 0 : workers.size();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 正在执行任务的线程数, 与getPoolSize比较可以看出线程的利用率
+     * @return
+     */
+    public int getActiveCount() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            int n = 0;
+            for (Worker w : workers)
+                if (w.isLocked())
+                    ++n;
+            return n;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 线程数的历史最大值
+     * @return
+     */
+    public int getLargestPoolSize() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            return largestPoolSize;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 已经提交的任务数的估计值 (已完成 + 正在执行 + 排队中)
+     * @return
+     */
+    public long getTaskCount() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            long n = completedTaskCount;
+            for (Worker w : workers) {
+                n += w.completedTasks;
+                if (w.isLocked())
+                    ++n;
+            }
+            return n + workQueue.size();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 已经完成的任务数的估计值
+     * @return
+     */
+    public long getCompletedTaskCount() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            long n = completedTaskCount;
+            for (Worker w : workers)
+                n += w.completedTasks;
+            return n;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 交给拒绝策略处理的任务数
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 任务从提交到开始执行之间的耗时分布, 单位纳秒
+     * @return
+     */
+    public MyLatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * 任务执行耗时的分布, 单位纳秒
+     * @return
+     */
+    public MyLatencyHistogram getExecutionLatency() {
+        return executionLatency;
+    }
+
+    @Override
+    public String toString() {
+        int c = ctl.get();
+        String rs = runStateLessThan(c, SHUTDOWN) ? "Running" :
+                (runStateAtLeast(c, TERMINATED) ? "Terminated" : "Shutting down");
+        return super.toString() + "[" + rs
+                + ", pool size = " + getPoolSize()
+                + ", active threads = " + getActiveCount()
+                + ", queued tasks = " + getQueueSize()
+                + ", completed tasks = " + getCompletedTaskCount()
+                + ", rejected tasks = " + getRejectedCount()
+                + ", queue latency = " + queueLatency
+                + ", execution latency = " + executionLatency + "]";
+    }
+
+    /* ---------------- 拒绝策略 -------------- */
+
+    /**
+     * 直接抛出RejectedExecutionException, 默认的拒绝策略
+     */
+    public static class AbortPolicy implements MyRejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, MyThreadPoolExecutor e) {
+            throw new RejectedExecutionException("Task " + r.toString() + " rejected from " + e.toString());
+        }
+    }
+
+    /**
+     * 在提交任务的线程中直接执行, 线程池已经关闭时丢弃
+     *
+     * 提交方被迫自己执行任务, 提交速度自然就降下来了, 是一种简单的反压
+     */
+    public static class CallerRunsPolicy implements MyRejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, MyThreadPoolExecutor e) {
+            if (!e.isShutdown())
+                r.run();
+        }
+    }
+
+    /**
+     * 静默丢弃
+     */
+    public static class DiscardPolicy implements MyRejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, MyThreadPoolExecutor e) {
+        }
+    }
+
+    /**
+     * 丢弃队列中最早的任务, 然后重新提交, 线程池已经关闭时丢弃
+     *
+     * MyBlokingQueue没有无参的poll, 这里通过drainTo(c, 1)取出队首
+     */
+    public static class DiscardOldestPolicy implements MyRejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, MyThreadPoolExecutor e) {
+            if (!e.isShutdown()) {
+                e.getQueue().drainTo(new ArrayList<>(1), 1);
+                e.execute(r);
+            }
+        }
+    }
+}
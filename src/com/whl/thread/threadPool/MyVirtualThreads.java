@@ -0,0 +1,102 @@
+package com.whl.thread.threadPool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 虚拟线程的反射入口
+ * @Description:
+ *
+ * 虚拟线程 (JDK21正式提供) 由JVM调度到少量的载体线程 (carrier thread) 上执行, 阻塞时会从载体线程上卸载, 因此可以创建数百万个
+ * 本项目按照Java 8编译, 无法直接引用Thread.ofVirtual()等API, 这里通过反射调用, 在低版本JDK上isSupported()返回false
+ *
+ * 虚拟线程在以下情况下阻塞时会 "钉住" (pin) 载体线程, 载体线程无法去执行其他虚拟线程:
+ *     1. 在synchronized块或方法中阻塞 (JDK24之前)
+ *     2. 调用Object.wait()
+ *     3. 在native方法或外部函数中阻塞
+ * 而ReentrantLock、Condition以及LockSupport.park都是基于AQS实现的, 阻塞时会正常卸载虚拟线程
+ * MyArrayBlockingQueue、MyLinkedBlockingQueue等阻塞队列全部使用ReentrantLock + Condition, 因此可以直接在虚拟线程中使用
+ * 可以通过 -Djdk.tracePinnedThreads=full 检查是否发生了pin
+ */
+public final class MyVirtualThreads {
+    private static final Method OF_VIRTUAL;//Thread.ofVirtual()
+
+    private static final Method BUILDER_NAME;//Thread.Builder.name(String, long)
+
+    private static final Method BUILDER_FACTORY;//Thread.Builder.factory()
+
+    private static final Method IS_VIRTUAL;//Thread.isVirtual()
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, isVirtual = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            isVirtual = Thread.class.getMethod("isVirtual");
+            // JDK19、20中虚拟线程是预览特性, 没有开启--enable-preview时调用会抛出UnsupportedOperationException
+            ofVirtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        IS_VIRTUAL = isVirtual;
+    }
+
+    private MyVirtualThreads() {
+    }
+
+    /**
+     * 当前JDK是否可以创建虚拟线程
+     * @return
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 创建虚拟线程的线程工厂, 线程名为 namePrefix + 序号 (从0开始)
+     * @param namePrefix
+     * @return
+     * @throws UnsupportedOperationException 当前JDK不支持虚拟线程
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        if (namePrefix == null)
+            throw new NullPointerException();
+        if (!isSupported())
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+");
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new UnsupportedOperationException(cause);
+        }
+    }
+
+    /**
+     * 线程是否为虚拟线程, 不支持虚拟线程的JDK上总是返回false
+     * @param t
+     * @return
+     */
+    public static boolean isVirtual(Thread t) {
+        if (IS_VIRTUAL == null)
+            return false;
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(t);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
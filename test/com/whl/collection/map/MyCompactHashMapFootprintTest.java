@@ -0,0 +1,116 @@
+package com.whl.collection.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: MyCompactHashMap的内存占用报告
+ * @Description:
+ *
+ * 1. 正确性: 随机的put、remove与java.util.HashMap对比, 覆盖键值对数组以及桶数组的多次扩容
+ * 2. 估算报告: 在一系列元素数量上 (包括刚好超过2的n次方的数量以及一千万) 输出footprint与hashMapFootprint, 要求比值不超过0.6
+ * 3. 实测: 通过GC前后的堆使用量实测MyCompactHashMap与MyHashMap各自占用的内存, 同样要求比值不超过0.6
+ *    key是预先创建并共享的Integer, value为null, 因此实测的只是两个Map自身的结构, 与估算的口径相同
+ *
+ * 项目没有引入测试框架以及JOL, 直接运行main, 失败时抛出AssertionError
+ * 运行: java -Xmx2g com.whl.collection.map.MyCompactHashMapFootprintTest [实测的元素数量, 默认2200000]
+ */
+public class MyCompactHashMapFootprintTest {
+    private static final double MAX_RATIO = 0.6;//至少比HashMap少40%
+
+    private static final int[] REPORT_SIZES = {
+            10_000, 100_000, 1 << 20, (1 << 20) + 1, 1_500_000, 2_000_000, 2_200_000,
+            3_000_000, (1 << 22) + 1, 6_000_000, 10_000_000
+    };
+
+    public static void main(String[] args) {
+        int measured = args.length > 0 ? Integer.parseInt(args[0]) : 2_200_000;
+        matchesHashMap(1.5f);
+        matchesHashMap(0.25f);
+        estimateReport();
+        measuredHeap(measured);
+        System.out.println("MyCompactHashMapFootprintTest passed");
+    }
+
+    private static void matchesHashMap(float loadFactor) {
+        MyCompactHashMap<Integer, Integer> map = new MyCompactHashMap<>(0, loadFactor);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            int k = random.nextInt(50_000);
+            if (random.nextInt(4) == 0)
+                check(equal(map.remove(k), expected.remove(k)), "remove(" + k + ") differs");
+            else
+                check(equal(map.put(k, i), expected.put(k, i)), "put(" + k + ") differs");
+        }
+        check(map.size() == expected.size(), "size " + map.size() + " != " + expected.size());
+        for (Map.Entry<Integer, Integer> e : expected.entrySet())
+            check(e.getValue().equals(map.get(e.getKey())), "get(" + e.getKey() + ") differs");
+        map.trimToSize();
+        check(map.size() == expected.size(), "size changed by trimToSize");
+        for (Map.Entry<Integer, Integer> e : expected.entrySet())
+            check(e.getValue().equals(map.get(e.getKey())), "get(" + e.getKey() + ") differs after trimToSize");
+    }
+
+    private static void estimateReport() {
+        System.out.printf("%12s %14s %14s %7s%n", "entries", "compact(B)", "hashMap(B)", "ratio");
+        for (int n : REPORT_SIZES) {
+            MyCompactHashMap<Integer, Object> map = new MyCompactHashMap<>();
+            for (int i = 0; i < n; i++)
+                map.put(i, null);
+            long compact = map.footprint(), hashMap = map.hashMapFootprint();
+            double ratio = compact / (double) hashMap;
+            System.out.printf("%,12d %,14d %,14d %7.3f%n", n, compact, hashMap, ratio);
+            check(ratio <= MAX_RATIO, "estimated ratio " + ratio + " at " + n + " entries");
+        }
+    }
+
+    private static void measuredHeap(int n) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i;
+
+        long before = usedHeap();
+        MyHashMap<Integer, Object> hashMap = new MyHashMap<>();
+        for (Integer k : keys)
+            hashMap.put(k, null);
+        long hashMapBytes = usedHeap() - before;
+        check(hashMap.size() == n, "MyHashMap size");
+        hashMap = null;
+
+        before = usedHeap();
+        MyCompactHashMap<Integer, Object> compact = new MyCompactHashMap<>();
+        for (Integer k : keys)
+            compact.put(k, null);
+        long compactBytes = usedHeap() - before;
+        check(compact.size() == n, "MyCompactHashMap size");
+
+        double ratio = compactBytes / (double) hashMapBytes;
+        System.out.printf("measured at %,d entries: compact %,d B (estimate %,d), MyHashMap %,d B, ratio %.3f%n",
+                n, compactBytes, compact.footprint(), hashMapBytes, ratio);
+        check(ratio <= MAX_RATIO, "measured ratio " + ratio + " at " + n + " entries");
+        check(keys[n - 1] != null, "keys must stay reachable until the end of the measurement");
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,86 @@
+package com.whl.collection.map;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 渐进式扩容过程中的遍历测试
+ * @Description:
+ *
+ * 开启渐进式扩容之后, 扩容期间一部分结点还留在oldTable中; 遍历 (迭代器、Spliterator) 必须先完成迁移再读取table, 否则会漏掉这些结点
+ * 项目没有引入测试框架, 直接运行main, 失败时抛出AssertionError
+ */
+public class MyHashMapResizeIterationTest {
+    private static final int SIZE = 13;//16 * 0.75 = 12, 第13次put触发扩容
+
+    public static void main(String[] args) {
+        forEachRemainingDuringResize();
+        tryAdvanceDuringResize();
+        iteratorDuringResize();
+        System.out.println("MyHashMapResizeIterationTest passed");
+    }
+
+    /**
+     * 创建一个正处于扩容过程中的map
+     * @return
+     */
+    private static MyHashMap<Integer, Integer> resizingMap() {
+        MyHashMap<Integer, Integer> map = new MyHashMap<>(16, 0.75f, true);
+        for (int i = 0; i < SIZE; i++)
+            map.put(i, i);
+        check(map.oldTable != null, "map should be in the middle of a resize");
+        return map;
+    }
+
+    private static void forEachRemainingDuringResize() {
+        Set<Integer> keys = new HashSet<>();
+        resizingMap().keySet().spliterator().forEachRemaining(keys::add);
+        checkAll(keys, "keySet.forEachRemaining");
+
+        Set<Integer> values = new HashSet<>();
+        resizingMap().values().spliterator().forEachRemaining(values::add);
+        checkAll(values, "values.forEachRemaining");
+
+        Set<Integer> entries = new HashSet<>();
+        resizingMap().entrySet().spliterator().forEachRemaining(e -> entries.add(e.getKey()));
+        checkAll(entries, "entrySet.forEachRemaining");
+    }
+
+    private static void tryAdvanceDuringResize() {
+        Set<Integer> keys = new HashSet<>();
+        Spliterator<Integer> s = resizingMap().keySet().spliterator();
+        while (s.tryAdvance(keys::add))
+            ;
+        checkAll(keys, "keySet.tryAdvance");
+
+        // 先拆分再遍历, trySplit同样要在完成迁移之后的table上划分区间
+        Set<Integer> split = new HashSet<>();
+        Spliterator<Integer> right = resizingMap().keySet().spliterator();
+        Spliterator<Integer> left = right.trySplit();
+        if (left != null)
+            left.forEachRemaining(split::add);
+        right.forEachRemaining(split::add);
+        checkAll(split, "keySet.trySplit");
+    }
+
+    private static void iteratorDuringResize() {
+        Set<Integer> keys = new HashSet<>();
+        for (Integer k : resizingMap().keySet())
+            keys.add(k);
+        checkAll(keys, "keySet.iterator");
+    }
+
+    private static void checkAll(Set<Integer> seen, String what) {
+        check(seen.size() == SIZE, what + " visited " + seen.size() + " of " + SIZE + " keys");
+        for (int i = 0; i < SIZE; i++)
+            check(seen.contains(i), what + " missed key " + i);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
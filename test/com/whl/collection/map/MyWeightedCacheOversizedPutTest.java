@@ -0,0 +1,64 @@
+package com.whl.collection.map;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 放入超过权重上限的单个元素
+ * @Description:
+ *
+ * 权重超过maxWeight的元素不能被缓存, 但它也不应该把缓存中其他元素全部淘汰掉
+ * 项目没有引入测试框架, 直接运行main, 失败时抛出AssertionError
+ */
+public class MyWeightedCacheOversizedPutTest {
+    public static void main(String[] args) {
+        oversizedPutKeepsOtherEntries();
+        oversizedPutReplacesExistingKey();
+        fittingPutStillEvictsEldest();
+        System.out.println("MyWeightedCacheOversizedPutTest passed");
+    }
+
+    /**
+     * 10个权重为10的元素恰好占满预算100
+     * @return
+     */
+    private static MyWeightedCache<String, Integer> fullCache() {
+        MyWeightedCache<String, Integer> cache = new MyWeightedCache<>(100, (k, v) -> v);
+        for (int i = 0; i < 10; i++)
+            cache.put("k" + i, 10);
+        check(cache.size() == 10 && cache.weightedSize() == 100, "cache should be full");
+        return cache;
+    }
+
+    private static void oversizedPutKeepsOtherEntries() {
+        MyWeightedCache<String, Integer> cache = fullCache();
+        check(cache.put("big", 150) == null, "put of a new key should return null");
+        check(cache.size() == 10, "size should stay 10 but was " + cache.size());
+        check(cache.weightedSize() == 100, "weightedSize should stay 100 but was " + cache.weightedSize());
+        check(cache.evictionCount() == 1, "only the oversized item should be evicted, evictions=" + cache.evictionCount());
+        check(cache.get("big") == null, "oversized item should not be cached");
+        for (int i = 0; i < 10; i++)
+            check(cache.get("k" + i) != null, "k" + i + " should still be cached");
+    }
+
+    private static void oversizedPutReplacesExistingKey() {
+        MyWeightedCache<String, Integer> cache = fullCache();
+        check(Integer.valueOf(10).equals(cache.put("k3", 150)), "put should return the replaced value");
+        check(cache.get("k3") == null, "the old value must not survive an oversized replacement");
+        check(cache.size() == 9 && cache.weightedSize() == 90, "only k3 should be removed");
+    }
+
+    private static void fittingPutStillEvictsEldest() {
+        MyWeightedCache<String, Integer> cache = fullCache();
+        cache.put("mid", 30);
+        check(cache.weightedSize() == 100, "weightedSize should be 100 but was " + cache.weightedSize());
+        check(cache.evictionCount() == 3, "three eldest entries should be evicted, evictions=" + cache.evictionCount());
+        for (int i = 0; i < 3; i++)
+            check(cache.peek("k" + i) == null, "k" + i + " should be evicted");
+        check(cache.peek("mid") != null && cache.peek("k3") != null, "newer entries should survive");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,110 @@
+package com.whl.thread.threadPool;
+
+import com.whl.thread.blockingQueue.MyMpmcRingQueue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author whl
+ * @version V1.0
+ * @Title: 以无锁环形队列作为任务队列时空闲线程的行为
+ * @Description:
+ *
+ * MyMpmcRingQueue的take会按照等待策略无限空转, 线程池不能让空闲的核心线程阻塞在其中, 否则一个空闲的线程池也会占满CPU
+ * 这里检查: 空闲时工作线程几乎不占用CPU; park之后新提交的任务能够及时执行; keepAlive超时依然生效; shutdown能够唤醒park的线程
+ * 项目没有引入测试框架, 直接运行main, 失败时抛出AssertionError
+ */
+public class MyThreadPoolExecutorRingQueueIdleTest {
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        idleWorkersDoNotSpin();
+        parkedWorkersWakeUp();
+        keepAliveStillTimesOut();
+        System.out.println("MyThreadPoolExecutorRingQueueIdleTest passed");
+    }
+
+    private static void idleWorkersDoNotSpin() throws Exception {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!mx.isCurrentThreadCpuTimeSupported()) {
+            System.out.println("thread cpu time not supported, skip idle cpu check");
+            return;
+        }
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r);
+            threads.add(t);
+            return t;
+        };
+        MyThreadPoolExecutor pool = new MyThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                new MyMpmcRingQueue<>(1024), factory, new MyThreadPoolExecutor.AbortPolicy());
+        CountDownLatch started = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++)
+            pool.execute(started::countDown);
+        check(started.await(5, TimeUnit.SECONDS), "workers did not start");
+        Thread.sleep(200); // 等待工作线程进入park
+
+        long cpuBefore = cpuTime(mx, threads);
+        long wallBefore = System.nanoTime();
+        Thread.sleep(1000);
+        long cpu = cpuTime(mx, threads) - cpuBefore;
+        long wall = System.nanoTime() - wallBefore;
+        double share = cpu / (double) wall;
+        System.out.printf("idle workers used %.1f%% of one core%n", share * 100);
+        check(share < 0.1, "idle workers used " + share * 100 + "% of one core");
+
+        pool.shutdown();
+        check(pool.awaitTermination(5, TimeUnit.SECONDS), "shutdown did not wake parked workers");
+    }
+
+    private static long cpuTime(ThreadMXBean mx, List<Thread> threads) {
+        long total = 0;
+        for (Thread t : threads)
+            total += Math.max(0, mx.getThreadCpuTime(t.getId()));
+        return total;
+    }
+
+    private static void parkedWorkersWakeUp() throws Exception {
+        MyThreadPoolExecutor pool = new MyThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                new MyMpmcRingQueue<>(1 << 16));
+        pool.prestartAllCoreThreads();
+        for (int burst = 0; burst < 20; burst++) {
+            Thread.sleep(20); // 每一批之前让工作线程全部park
+            int tasks = burst % 2 == 0 ? 1 : 2000;
+            CountDownLatch done = new CountDownLatch(tasks);
+            long start = System.nanoTime();
+            for (int i = 0; i < tasks; i++)
+                pool.execute(done::countDown);
+            check(done.await(5, TimeUnit.SECONDS), "burst " + burst + " did not complete");
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (tasks == 1)
+                check(millis < 200, "single task after idle took " + millis + " ms");
+        }
+        pool.shutdown();
+        check(pool.awaitTermination(5, TimeUnit.SECONDS), "pool did not terminate");
+    }
+
+    private static void keepAliveStillTimesOut() throws Exception {
+        MyThreadPoolExecutor pool = new MyThreadPoolExecutor(THREADS, THREADS, 50, TimeUnit.MILLISECONDS,
+                new MyMpmcRingQueue<>(1024));
+        pool.allowCoreThreadTimeOut(true);
+        pool.prestartAllCoreThreads();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getPoolSize() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        check(pool.getPoolSize() == 0, "idle workers did not time out, pool size " + pool.getPoolSize());
+        pool.shutdown();
+        check(pool.awaitTermination(5, TimeUnit.SECONDS), "pool did not terminate");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}